@@ -0,0 +1,95 @@
+package com.collarmc.benchmarks.io;
+
+import com.collarmc.sdht.Content;
+import com.collarmc.security.TokenGenerator;
+import com.collarmc.security.messages.GroupMessage;
+import com.collarmc.security.messages.GroupMessageEnvelope;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures serializing and reading back {@link Content} and {@link GroupMessageEnvelope}.
+ * Content sizes cover a waypoint up to the largest content allowed, envelopes cover small and large groups
+ * with ciphertexts the size of a sealed waypoint.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class SerializationBenchmark {
+
+    @State(Scope.Benchmark)
+    public static class ContentState {
+        @Param({"128", "2000"})
+        public int contentSize;
+
+        Content content;
+        byte[] serialized;
+
+        @Setup
+        public void setup() {
+            content = Content.from(TokenGenerator.byteToken(contentSize), String.class);
+            serialized = content.serialize();
+        }
+    }
+
+    @State(Scope.Benchmark)
+    public static class EnvelopeState {
+        @Param({"10", "100"})
+        public int members;
+
+        @Param({"256"})
+        public int messageSize;
+
+        @Param({"false", "true"})
+        public boolean compact;
+
+        GroupMessageEnvelope envelope;
+        byte[] serialized;
+
+        @Setup
+        public void setup() {
+            List<GroupMessage> messages = new ArrayList<>();
+            for (int i = 0; i < members; i++) {
+                messages.add(new GroupMessage(UUID.randomUUID(), TokenGenerator.byteToken(messageSize)));
+            }
+            envelope = new GroupMessageEnvelope(messages);
+            serialized = envelope.serialize(compact);
+        }
+    }
+
+    @Benchmark
+    public byte[] contentSerialize(ContentState state) {
+        return state.content.serialize();
+    }
+
+    @Benchmark
+    public Content contentDeserialize(ContentState state) {
+        return new Content(state.serialized);
+    }
+
+    @Benchmark
+    public Content contentRoundTrip(ContentState state) {
+        return new Content(state.content.serialize());
+    }
+
+    @Benchmark
+    public byte[] envelopeSerialize(EnvelopeState state) {
+        return state.envelope.serialize(state.compact);
+    }
+
+    @Benchmark
+    public GroupMessageEnvelope envelopeDeserialize(EnvelopeState state) {
+        return new GroupMessageEnvelope(state.serialized);
+    }
+
+    @Benchmark
+    public GroupMessageEnvelope envelopeRoundTrip(EnvelopeState state) {
+        return new GroupMessageEnvelope(state.envelope.serialize(state.compact));
+    }
+}
@@ -0,0 +1,74 @@
+package com.collarmc.benchmarks.location;
+
+import com.collarmc.api.location.Dimension;
+import com.collarmc.api.location.Location;
+import com.collarmc.api.location.LocationCodec;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.Optional;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares sending {@link Location#serialize()} on every publish with {@link LocationCodec}.
+ * Each invocation is one publish of a player that is standing still or walking. The {@link Wire} counters report the
+ * bytes and the number of sends, each of which is encrypted once per group member; divide by {@link Wire#publishes}
+ * for the cost per publish.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Thread)
+public class LocationCodecBenchmark {
+
+    @Param({"STATIONARY", "WALKING"})
+    public String movement;
+
+    private final LocationCodec.Encoder encoder = new LocationCodec.Encoder();
+    private int publish;
+
+    @State(Scope.Thread)
+    @AuxCounters(AuxCounters.Type.EVENTS)
+    public static class Wire {
+        public long bytes;
+        public long sends;
+        public long publishes;
+
+        @Setup(Level.Iteration)
+        public void reset() {
+            bytes = 0;
+            sends = 0;
+            publishes = 0;
+        }
+    }
+
+    private Location next() {
+        publish++;
+        if ("STATIONARY".equals(movement)) {
+            return new Location(1024.3, 64.0, -2048.7, Dimension.OVERWORLD);
+        }
+        // Walking speed over the half second between publishes
+        return new Location(1024.3 + publish * 2.16, 64.0, -2048.7 + (publish % 40) * 0.5, Dimension.OVERWORLD);
+    }
+
+    @Benchmark
+    public byte[] serializeEveryPublish(Wire wire) {
+        byte[] bytes = next().serialize();
+        wire.publishes++;
+        wire.sends++;
+        wire.bytes += bytes.length;
+        return bytes;
+    }
+
+    @Benchmark
+    public Optional<byte[]> codec(Wire wire) {
+        Optional<byte[]> bytes = encoder.encode(next());
+        wire.publishes++;
+        bytes.ifPresent(encoded -> {
+            wire.sends++;
+            wire.bytes += encoded.length;
+        });
+        return bytes;
+    }
+}
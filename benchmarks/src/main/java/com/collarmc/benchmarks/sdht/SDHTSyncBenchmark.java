@@ -0,0 +1,146 @@
+package com.collarmc.benchmarks.sdht;
+
+import com.collarmc.api.identity.ClientIdentity;
+import com.collarmc.protocol.sdht.SDHTEventRequest;
+import com.collarmc.sdht.Content;
+import com.collarmc.sdht.DistributedHashTable;
+import com.collarmc.sdht.DistributedHashTableListener;
+import com.collarmc.sdht.Key;
+import com.collarmc.sdht.cipher.ContentCipher;
+import com.collarmc.sdht.events.*;
+import com.collarmc.sdht.impl.DHTNamespaceState;
+import com.collarmc.sdht.impl.DefaultDistributedHashTable;
+import com.collarmc.security.TokenGenerator;
+import com.collarmc.utils.Utils;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.google.common.io.Files;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares syncing a namespace by publishing every record against comparing {@link com.collarmc.sdht.RecordTree}s.
+ * Two nodes share a namespace and differ by {@link #missing} records. Bytes on the wire are the size of every
+ * {@link SDHTEventRequest} sent, reported by the {@link Wire} counters; divide by {@link Wire#syncs} for bytes per sync.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class SDHTSyncBenchmark {
+
+    @Param({"100", "2000"})
+    public int records;
+
+    @Param({"0", "10"})
+    public int missing;
+
+    private final ObjectMapper mapper = Utils.messagePackMapper();
+    private final List<AbstractSDHTEvent> sentByA = new ArrayList<>();
+    private final List<AbstractSDHTEvent> sentByB = new ArrayList<>();
+    private final ClientIdentity identityA = new ClientIdentity(UUID.randomUUID(), null);
+    private final ClientIdentity identityB = new ClientIdentity(UUID.randomUUID(), null);
+    private final UUID namespace = UUID.randomUUID();
+    private DistributedHashTable tableA;
+    private DistributedHashTable tableB;
+
+    @State(Scope.Thread)
+    @AuxCounters(AuxCounters.Type.EVENTS)
+    public static class Wire {
+        public long bytes;
+        public long syncs;
+
+        @Setup(Level.Iteration)
+        public void reset() {
+            bytes = 0;
+            syncs = 0;
+        }
+    }
+
+    @Setup
+    public void setup() {
+        tableA = new DefaultDistributedHashTable(sentByA::add, () -> identityA, new PlainCipher(), new DHTNamespaceState(Files.createTempDir()), new NoopListener());
+        tableB = new DefaultDistributedHashTable(sentByB::add, () -> identityB, new PlainCipher(), new DHTNamespaceState(Files.createTempDir()), new NoopListener());
+        for (int i = 0; i < records; i++) {
+            Key key = new Key(namespace, UUID.randomUUID());
+            Content content = Content.from(TokenGenerator.byteToken(64), String.class);
+            tableA.put(key, content);
+            if (i >= missing) {
+                tableB.put(key, content);
+            }
+        }
+        sentByA.clear();
+        sentByB.clear();
+    }
+
+    @Benchmark
+    public void fullRecordPublish(Wire wire) throws JsonProcessingException {
+        SyncRecordsEvent request = new SyncRecordsEvent(identityB, namespace);
+        wire.bytes += size(request);
+        tableA.process(request);
+        wire.bytes += send(sentByA, null);
+        wire.syncs++;
+    }
+
+    @Benchmark
+    public void recordTreeSync(Wire wire) throws JsonProcessingException {
+        tableB.sync(namespace);
+        while (!sentByA.isEmpty() || !sentByB.isEmpty()) {
+            wire.bytes += send(sentByB, tableA);
+            wire.bytes += send(sentByA, tableB);
+        }
+        wire.syncs++;
+    }
+
+    /**
+     * Count the bytes of the events and deliver the tree events to the other node.
+     * Published records are only counted, as fetching their content costs the same either way.
+     */
+    private long send(List<AbstractSDHTEvent> events, DistributedHashTable to) throws JsonProcessingException {
+        long bytes = 0;
+        List<AbstractSDHTEvent> sending = new ArrayList<>(events);
+        events.clear();
+        for (AbstractSDHTEvent event : sending) {
+            bytes += size(event);
+            if (to != null && event instanceof SyncTreeEvent) {
+                to.process(event);
+            }
+        }
+        return bytes;
+    }
+
+    private long size(AbstractSDHTEvent event) throws JsonProcessingException {
+        return mapper.writeValueAsBytes(new SDHTEventRequest(event)).length;
+    }
+
+    private static final class PlainCipher implements ContentCipher {
+        @Override
+        public byte[] crypt(ClientIdentity identity, UUID namespace, Content content) {
+            return content.serialize();
+        }
+
+        @Override
+        public Content decrypt(ClientIdentity identity, UUID namespace, byte[] bytes) {
+            return new Content(bytes);
+        }
+
+        @Override
+        public boolean accepts(UUID namespace) {
+            return true;
+        }
+    }
+
+    private static final class NoopListener implements DistributedHashTableListener {
+        @Override
+        public void onAdd(Key key, Content content) {}
+
+        @Override
+        public void onRemove(Key key, Content content) {}
+    }
+}
@@ -0,0 +1,63 @@
+package com.collarmc.benchmarks.security;
+
+import com.collarmc.security.CollarIdentity;
+import com.collarmc.security.TokenGenerator;
+import com.collarmc.security.messages.*;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures messages per second per core between two clients for each {@link CipherMode}.
+ * Runs on one thread, so the scores are per core. Messages are the size of a location update.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Threads(1)
+@Fork(1)
+@State(Scope.Thread)
+public class CipherBenchmark {
+
+    @Param({"SEALED", "SHARED_KEY"})
+    public CipherMode mode;
+
+    @Param({"64"})
+    public int messageSize;
+
+    private CollarIdentity alice;
+    private CollarIdentity bob;
+    private Cipher aliceCipher;
+    private Cipher bobCipher;
+    private byte[] message;
+    private byte[] cipherText;
+
+    @Setup
+    public void setup() throws CipherException {
+        SodiumCipher.loadLibrary(false);
+        CollarIdentity server = CollarIdentity.createServerIdentity();
+        alice = CollarIdentity.createClientIdentity(UUID.randomUUID(), server.serverIdentity);
+        bob = CollarIdentity.createClientIdentity(UUID.randomUUID(), server.serverIdentity);
+        aliceCipher = new SodiumCipher(alice.keyPair, false, mode, new SharedKeyCache());
+        bobCipher = new SodiumCipher(bob.keyPair, false, mode, new SharedKeyCache());
+        message = TokenGenerator.byteToken(messageSize);
+        cipherText = aliceCipher.encrypt(message, bob.publicKey());
+    }
+
+    @Benchmark
+    public byte[] encrypt() throws CipherException {
+        return aliceCipher.encrypt(message, bob.publicKey());
+    }
+
+    @Benchmark
+    public byte[] decrypt() throws CipherException {
+        return bobCipher.decrypt(cipherText, alice.publicKey());
+    }
+
+    @Benchmark
+    public byte[] roundTrip() throws CipherException {
+        return bobCipher.decrypt(aliceCipher.encrypt(message, bob.publicKey()), alice.publicKey());
+    }
+}
@@ -0,0 +1,80 @@
+package com.collarmc.benchmarks.security;
+
+import com.collarmc.api.identity.ClientIdentity;
+import com.collarmc.security.CollarIdentity;
+import com.collarmc.security.TokenGenerator;
+import com.collarmc.security.messages.*;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares signing a group message for every recipient against {@link GroupSession#encrypt(byte[])}, which signs once
+ * and seals for each recipient. Messages are the size of a location update.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class GroupEncryptionBenchmark {
+
+    @Param({"2", "10", "30", "100", "200"})
+    public int groupSize;
+
+    @Param({"SEALED", "SHARED_KEY"})
+    public CipherMode mode;
+
+    @Param({"64"})
+    public int messageSize;
+
+    private Cipher cipher;
+    private Set<ClientIdentity> recipients;
+    private GroupSession session;
+    private byte[] message;
+
+    @Setup
+    public void setup() throws CipherException {
+        SodiumCipher.loadLibrary(false);
+        CollarIdentity server = CollarIdentity.createServerIdentity();
+        CollarIdentity self = CollarIdentity.createClientIdentity(UUID.randomUUID(), server.serverIdentity);
+        ClientIdentity selfIdentity = new ClientIdentity(self.id, self.publicKey());
+        SharedKeyCache sharedKeys = new SharedKeyCache();
+        recipients = new HashSet<>();
+        recipients.add(selfIdentity);
+        for (int i = 1; i < groupSize; i++) {
+            CollarIdentity member = CollarIdentity.createClientIdentity(UUID.randomUUID(), server.serverIdentity);
+            recipients.add(new ClientIdentity(member.id, member.publicKey()));
+        }
+        IdentityStore<ClientIdentity> store = new IdentityStore<ClientIdentity>() {
+            @Override
+            public ClientIdentity identity() {
+                return selfIdentity;
+            }
+
+            @Override
+            public Cipher cipher() {
+                return new SodiumCipher(self.keyPair, false, mode, sharedKeys);
+            }
+        };
+        cipher = store.cipher();
+        session = new GroupSession(UUID.randomUUID(), store, self, recipients);
+        message = TokenGenerator.byteToken(messageSize);
+    }
+
+    @Benchmark
+    public byte[] signPerRecipient() throws CipherException {
+        List<GroupMessage> messages = new ArrayList<>();
+        for (ClientIdentity recipient : recipients) {
+            messages.add(new GroupMessage(recipient.id(), cipher.encrypt(message, recipient)));
+        }
+        return new GroupMessageEnvelope(messages).serialize();
+    }
+
+    @Benchmark
+    public byte[] groupSession() throws CipherException {
+        return session.encrypt(message);
+    }
+}
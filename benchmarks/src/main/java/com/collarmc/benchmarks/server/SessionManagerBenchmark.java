@@ -0,0 +1,98 @@
+package com.collarmc.benchmarks.server;
+
+import com.collarmc.api.identity.ClientIdentity;
+import com.collarmc.api.session.Player;
+import com.collarmc.security.PublicKey;
+import com.collarmc.security.mojang.MinecraftPlayer;
+import com.collarmc.server.session.SessionManager;
+import com.collarmc.utils.Utils;
+import org.eclipse.jetty.websocket.api.Session;
+import org.openjdk.jmh.annotations.*;
+
+import java.lang.reflect.Proxy;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+import java.util.UUID;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures {@link SessionManager} lookups as the number of online sessions grows.
+ * Lookup cost should stay flat between 10k and 50k sessions.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class SessionManagerBenchmark {
+
+    private static final int SERVERS = 100;
+
+    @Param({"10000", "50000"})
+    public int sessionCount;
+
+    private SessionManager sessions;
+    private final List<ClientIdentity> identities = new ArrayList<>();
+    private final List<MinecraftPlayer> players = new ArrayList<>();
+
+    @Setup
+    public void setup() {
+        sessions = new SessionManager(Utils.messagePackMapper(), null);
+        for (int i = 0; i < sessionCount; i++) {
+            ClientIdentity identity = new ClientIdentity(UUID.randomUUID(), new PublicKey(ByteBuffer.allocate(4).putInt(i).array()));
+            MinecraftPlayer player = new MinecraftPlayer(UUID.randomUUID(), "server" + (i % SERVERS) + ".example.com", i);
+            sessions.identify(session(), identity, player, (theIdentity, thePlayer) -> {});
+            identities.add(identity);
+            players.add(player);
+        }
+    }
+
+    @Benchmark
+    public Optional<Session> getSession() {
+        return sessions.getSession(identities.get(next()));
+    }
+
+    @Benchmark
+    public Optional<Player> findPlayer() {
+        return sessions.findPlayer(identities.get(next()));
+    }
+
+    @Benchmark
+    public Optional<Player> findPlayerByProfile() {
+        return sessions.findPlayerByProfile(identities.get(next()).id());
+    }
+
+    @Benchmark
+    public Optional<ClientIdentity> getIdentityByMinecraftPlayerId() {
+        return sessions.getIdentityByMinecraftPlayerId(players.get(next()).id);
+    }
+
+    @Benchmark
+    public List<Player> findPlayers() {
+        int index = next();
+        return sessions.findPlayers(identities.get(index), List.of(players.get(index).id, players.get(next()).id));
+    }
+
+    private int next() {
+        return ThreadLocalRandom.current().nextInt(sessionCount);
+    }
+
+    private static Session session() {
+        return (Session) Proxy.newProxyInstance(Session.class.getClassLoader(), new Class[] { Session.class }, (proxy, method, args) -> {
+            switch (method.getName()) {
+                case "hashCode":
+                    return System.identityHashCode(proxy);
+                case "equals":
+                    return proxy == args[0];
+                case "isOpen":
+                    return true;
+                default:
+                    return null;
+            }
+        });
+    }
+}
@@ -6,6 +6,7 @@ import com.collarmc.api.http.DiscoverResponse;
 import com.collarmc.api.http.HttpException;
 import com.collarmc.api.identity.ClientIdentity;
 import com.collarmc.api.identity.ServerIdentity;
+import com.collarmc.api.location.LocationCodec;
 import com.collarmc.api.session.Player;
 import com.collarmc.client.CollarException.ConnectionException;
 import com.collarmc.client.api.AbstractApi;
@@ -28,6 +29,7 @@ import com.collarmc.http.Response;
 import com.collarmc.http.WebSocket;
 import com.collarmc.http.WebSocketListener;
 import com.collarmc.protocol.PacketIO;
+import com.collarmc.protocol.PacketTypes;
 import com.collarmc.protocol.ProtocolRequest;
 import com.collarmc.protocol.ProtocolResponse;
 import com.collarmc.protocol.SessionStopReason;
@@ -35,6 +37,8 @@ import com.collarmc.protocol.devices.ClientRegisteredResponse;
 import com.collarmc.protocol.devices.RegisterClientResponse;
 import com.collarmc.protocol.identity.IdentifyResponse;
 import com.collarmc.protocol.keepalive.KeepAliveResponse;
+import com.collarmc.protocol.session.BackpressureResponse;
+import com.collarmc.protocol.session.BatchRequest;
 import com.collarmc.protocol.session.SessionFailedResponse;
 import com.collarmc.protocol.session.SessionFailedResponse.MojangVerificationFailedResponse;
 import com.collarmc.protocol.session.SessionFailedResponse.PrivateIdentityMismatchResponse;
@@ -43,6 +47,8 @@ import com.collarmc.protocol.session.StartSessionRequest;
 import com.collarmc.protocol.session.StartSessionResponse;
 import com.collarmc.security.messages.CipherException;
 import com.collarmc.security.messages.CipherException.InvalidCipherSessionException;
+import com.collarmc.security.messages.CipherMode;
+import com.collarmc.security.messages.GroupMessageEnvelope;
 import com.collarmc.security.mojang.MinecraftSession;
 import com.collarmc.security.mojang.Mojang;
 import com.collarmc.utils.Utils;
@@ -53,8 +59,10 @@ import org.apache.logging.log4j.Logger;
 
 import java.io.IOException;
 import java.nio.ByteBuffer;
+import java.time.Duration;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.Map;
 import java.util.Optional;
 import java.util.StringJoiner;
 import java.util.function.Consumer;
@@ -82,6 +90,8 @@ public final class Collar {
     private final Supplier<ClientIdentityStore> identityStoreSupplier;
     private final Ticks ticks;
     private final ContentCiphers recordCiphers;
+    /** Server advertised {@link LocationCodec#FEATURE} **/
+    private volatile boolean encodeLocations;
 
     private Collar(CollarConfiguration configuration) throws IOException {
         this.configuration = configuration;
@@ -101,7 +111,10 @@ public final class Collar {
                 groupsApi,
                 sdhtApi,
                 configuration.playerLocation,
-                configuration.entitiesSupplier);
+                configuration.entitiesSupplier,
+                configuration.locationPublishSettings,
+                this::pendingSends,
+                () -> this.encodeLocations);
         this.texturesApi = new TexturesApi(this, identityStoreSupplier, sender);
         this.identityApi = new IdentityApi(this, identityStoreSupplier, sender);
         this.messagingApi = new MessagingApi(this, identityStoreSupplier, sender);
@@ -133,10 +146,14 @@ public final class Collar {
      */
     public void connect() {
         try {
-            checkServerCompatibility(configuration);
+            DiscoverResponse discovered = checkServerCompatibility(configuration);
+            PacketTypes packetTypes = packetTypes(discovered);
+            CipherMode cipherMode = findFeature(discovered, CipherMode.FEATURE).isPresent() ? configuration.cipherMode : CipherMode.SEALED;
+            boolean compactEnvelopes = findFeature(discovered, GroupMessageEnvelope.FEATURE).isPresent();
+            encodeLocations = findFeature(discovered, LocationCodec.FEATURE).isPresent();
             String url = UrlBuilder.fromUrl(configuration.collarServerURL).withPath("/api/1/listen").toString();
             LOGGER.info("Connecting to server " + url);
-            webSocket = Http.client().webSocket(Request.url(url).ws(), new CollarWebSocket(this));
+            webSocket = Http.client().webSocket(Request.url(url).ws(), new CollarWebSocket(this, packetTypes, cipherMode, compactEnvelopes));
             changeState(State.CONNECTING);
         } catch (CollarException e) {
             changeState(State.DISCONNECTED);
@@ -227,6 +244,14 @@ public final class Collar {
         return identityStore != null ? identityStore.identity() : null;
     }
 
+    /**
+     * @return number of requests waiting to be written to the socket
+     */
+    private int pendingSends() {
+        WebSocket webSocket = this.webSocket;
+        return webSocket == null ? 0 : webSocket.pending();
+    }
+
     /**
      * Change the client state and fire the listener
      * @param state to change to
@@ -281,8 +306,9 @@ public final class Collar {
     /**
      * Test that the client version is supported by the server and that the client is configured correctly for its features
      * @param configuration of the client
+     * @return features of the server
      */
-    private static void checkServerCompatibility(CollarConfiguration configuration) {
+    private static DiscoverResponse checkServerCompatibility(CollarConfiguration configuration) {
         DiscoverResponse response;
         try {
             response = Http.client().execute(url(UrlBuilder.fromUrl(configuration.collarServerURL).withPath("/api/discover")).get(), Response.json(DiscoverResponse.class));
@@ -311,6 +337,19 @@ public final class Collar {
         findFeature(response, "groups:locations").orElseThrow(() -> new IllegalStateException("Server does not support groups:locations"));
         findFeature(response, "groups:waypoints").orElseThrow(() -> new IllegalStateException("Server does not support groups:waypoints"));
         findFeature(response, "profile:friends").orElseThrow(() -> new IllegalStateException("Server does not support profile:friends"));
+        return response;
+    }
+
+    /**
+     * @param response from discovering the server's features
+     * @return packet ids advertised by the server or null if the server only understands class names
+     */
+    @SuppressWarnings("unchecked")
+    private static PacketTypes packetTypes(DiscoverResponse response) {
+        return findFeature(response, PacketTypes.FEATURE)
+                .filter(collarFeature -> collarFeature.value instanceof Map)
+                .map(collarFeature -> PacketTypes.fromMap((Map<String, ? extends Number>) collarFeature.value))
+                .orElse(null);
     }
 
     private static Optional<CollarFeature> findFeature(DiscoverResponse response, String feature) {
@@ -320,27 +359,41 @@ public final class Collar {
     }
 
     class CollarWebSocket implements WebSocketListener {
+        /** Bodies packed into one batch, leaving room below the packet size limit for signing and sealing **/
+        private static final int MAX_BATCH_SIZE = PacketIO.MAX_PACKET_SIZE / 2;
         private final ObjectMapper mapper = Utils.messagePackMapper();
+        private final PacketTypes packetTypes;
+        private final CipherMode cipherMode;
+        private final boolean compactEnvelopes;
+        private final PacketIO plainPackets;
+        private volatile PacketIO encryptedPackets;
         private final Collar collar;
         private KeepAlive keepAlive;
+        private RequestBatcher batcher;
         private volatile ServerIdentity serverIdentity;
 
-        public CollarWebSocket(Collar collar) {
+        public CollarWebSocket(Collar collar, PacketTypes packetTypes, CipherMode cipherMode, boolean compactEnvelopes) {
             this.collar = collar;
+            this.packetTypes = packetTypes;
+            this.cipherMode = cipherMode;
+            this.compactEnvelopes = compactEnvelopes;
+            this.plainPackets = packetTypes == null ? new PacketIO(mapper, null) : new PacketIO(mapper, null, packetTypes);
         }
 
         @Override
         public void onOpen(WebSocket webSocket) {
-            // Create the sender delegate
+            // Create the sender delegate, which gathers requests made during a tick into one batch
+            this.batcher = new RequestBatcher(this, webSocket, ticks);
+            this.batcher.start();
             sender = request -> {
                 if (state == State.DISCONNECTED) {
                     throw new IllegalStateException("Client is not in CONNECTED or CONNECTING state");
                 }
-                sendRequest(webSocket, request);
+                batcher.send(request);
             };
             LOGGER.info("Connection established");
             try {
-                identityStore = new ClientIdentityStoreImpl(configuration.homeDirectory);
+                identityStore = new ClientIdentityStoreImpl(configuration.homeDirectory, cipherMode, compactEnvelopes);
             } catch (IOException | CipherException e) {
                 throw new IllegalStateException("could not load identity store");
             }
@@ -357,6 +410,9 @@ public final class Collar {
             if (this.keepAlive != null) {
                 this.keepAlive.stop();
             }
+            if (this.batcher != null) {
+                this.batcher.stop();
+            }
             if (code != SessionStopReason.NORMAL_CLOSE.code) {
                 collar.configuration.eventBus.dispatch(new CollarErrorEvent(collar, message, null));
             }
@@ -408,6 +464,9 @@ public final class Collar {
                     keepAlive.start();
                 } else if (resp instanceof KeepAliveResponse) {
                     LOGGER.trace("KeepAliveResponse received");
+                } else if (resp instanceof BackpressureResponse) {
+                    LOGGER.debug("BackpressureResponse received");
+                    locationApi.backoff(Duration.ofMillis(((BackpressureResponse) resp).duration));
                 } else if (resp instanceof RegisterClientResponse) {
                     RegisterClientResponse registerClientResponse = (RegisterClientResponse) resp;
                     LOGGER.info("RegisterDeviceResponse received with registration url " + ((RegisterClientResponse) resp).approvalUrl);
@@ -462,8 +521,47 @@ public final class Collar {
             }
         }
 
-        public void sendRequest(WebSocket webSocket, ProtocolRequest req) {
+        /**
+         * Send requests in order, packed into as few {@link BatchRequest} packets as fit when the server accepts them
+         */
+        void sendRequests(WebSocket webSocket, List<ProtocolRequest> requests) {
+            if (requests.size() == 1 || state != State.CONNECTED || packetTypes == null || packetTypes.id(BatchRequest.class) == PacketTypes.UNREGISTERED) {
+                requests.forEach(request -> sendRequest(webSocket, request));
+                return;
+            }
             PacketIO packetIO = packets();
+            List<ProtocolRequest> batched = new ArrayList<>();
+            List<byte[]> bodies = new ArrayList<>();
+            int size = 0;
+            for (ProtocolRequest request : requests) {
+                byte[] body;
+                try {
+                    body = packetIO.writeBody(request);
+                } catch (IOException e) {
+                    throw new IllegalStateException(e);
+                }
+                if (!bodies.isEmpty() && (bodies.size() == BatchRequest.MAX_REQUESTS || size + body.length > MAX_BATCH_SIZE)) {
+                    sendBatch(webSocket, batched, bodies);
+                    batched.clear();
+                    bodies.clear();
+                    size = 0;
+                }
+                batched.add(request);
+                bodies.add(body);
+                size += body.length;
+            }
+            sendBatch(webSocket, batched, bodies);
+        }
+
+        private void sendBatch(WebSocket webSocket, List<ProtocolRequest> requests, List<byte[]> bodies) {
+            if (requests.size() == 1) {
+                sendRequest(webSocket, requests.get(0));
+            } else {
+                sendRequest(webSocket, new BatchRequest(new ArrayList<>(bodies)));
+            }
+        }
+
+        public void sendRequest(WebSocket webSocket, ProtocolRequest req) {
             byte[] bytes;
             if (state == State.CONNECTED) {
                 try {
@@ -479,7 +577,7 @@ public final class Collar {
                 }
             } else {
                 try {
-                    bytes = packetIO.encodePlain(req);
+                    bytes = plainPackets.encodePlain(req);
                 } catch (IOException e) {
                     throw new IllegalStateException(e);
                 }
@@ -488,7 +586,18 @@ public final class Collar {
         }
 
         private PacketIO packets() {
-            return identityStore.isValid() ? new PacketIO(mapper, identityStore.cipher()) : new PacketIO(mapper, null);
+            if (encryptedPackets != null) {
+                return encryptedPackets;
+            }
+            if (!identityStore.isValid()) {
+                return plainPackets;
+            }
+            PacketIO packetIO = packetTypes == null ? new PacketIO(mapper, identityStore.cipher()) : new PacketIO(mapper, identityStore.cipher(), packetTypes);
+            // The identity cannot change for the rest of this connection once it is established
+            if (state == State.CONNECTED) {
+                encryptedPackets = packetIO;
+            }
+            return packetIO;
         }
     }
 
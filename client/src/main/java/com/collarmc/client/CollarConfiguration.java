@@ -2,9 +2,12 @@ package com.collarmc.client;
 
 import com.collarmc.api.entities.Entity;
 import com.collarmc.api.location.Location;
+import com.collarmc.api.location.LocationPublishSettings;
 import com.collarmc.client.debug.DebugConfiguration;
 import com.collarmc.client.minecraft.Ticks;
 import com.collarmc.pounce.EventBus;
+import com.collarmc.sdht.FetchSettings;
+import com.collarmc.security.messages.CipherMode;
 import com.collarmc.security.mojang.MinecraftSession;
 import com.google.common.base.MoreObjects;
 import org.apache.logging.log4j.Level;
@@ -31,6 +34,9 @@ public final class CollarConfiguration {
     public final DebugConfiguration debugConfiguration;
     public final URL collarServerURL;
     public final Ticks ticks;
+    public final FetchSettings sdhtFetchSettings;
+    public final CipherMode cipherMode;
+    public final LocationPublishSettings locationPublishSettings;
     public final boolean debugMode;
 
     private CollarConfiguration(Supplier<Location> playerLocation,
@@ -40,7 +46,10 @@ public final class CollarConfiguration {
                                 EventBus eventBus,
                                 DebugConfiguration debugConfiguration,
                                 URL collarServerURL,
-                                Ticks ticks) {
+                                Ticks ticks,
+                                FetchSettings sdhtFetchSettings,
+                                CipherMode cipherMode,
+                                LocationPublishSettings locationPublishSettings) {
         this.playerLocation = playerLocation;
         this.sessionSupplier = sessionSupplier;
         this.entitiesSupplier = entitiesSupplier;
@@ -49,6 +58,9 @@ public final class CollarConfiguration {
         this.debugConfiguration = debugConfiguration;
         this.collarServerURL = collarServerURL;
         this.ticks = ticks;
+        this.sdhtFetchSettings = sdhtFetchSettings;
+        this.cipherMode = cipherMode;
+        this.locationPublishSettings = locationPublishSettings;
         this.debugMode = homeDirectory.debugFile().exists();
     }
 
@@ -60,6 +72,9 @@ public final class CollarConfiguration {
         private URL collarServerURL;
         private Ticks ticks;
         private EventBus eventBus;
+        private FetchSettings sdhtFetchSettings = FetchSettings.defaults();
+        private CipherMode cipherMode = CipherMode.SEALED;
+        private LocationPublishSettings locationPublishSettings = LocationPublishSettings.defaults();
 
         public Builder() {}
 
@@ -166,6 +181,37 @@ public final class CollarConfiguration {
             return this;
         }
 
+        /**
+         * Tune how shared data is downloaded from other group members
+         * @param sdhtFetchSettings settings
+         * @return builder
+         */
+        public Builder withSDHTFetchSettings(FetchSettings sdhtFetchSettings) {
+            this.sdhtFetchSettings = sdhtFetchSettings;
+            return this;
+        }
+
+        /**
+         * Encrypt messages with keys shared with each peer instead of sealing every message.
+         * Only used when the server supports it. Group members running older clients cannot read these messages.
+         * @param cipherMode mode
+         * @return builder
+         */
+        public Builder withCipherMode(CipherMode cipherMode) {
+            this.cipherMode = cipherMode;
+            return this;
+        }
+
+        /**
+         * Tune how often the player's location is published to the groups it is shared with
+         * @param locationPublishSettings settings
+         * @return builder
+         */
+        public Builder withLocationPublishSettings(LocationPublishSettings locationPublishSettings) {
+            this.locationPublishSettings = locationPublishSettings;
+            return this;
+        }
+
         /**
          * Builds the new configuration
          * @return configuration of the collar client
@@ -206,7 +252,10 @@ public final class CollarConfiguration {
                     eventBus,
                     debugging,
                     collarServerURL,
-                    ticks
+                    ticks,
+                    sdhtFetchSettings,
+                    cipherMode,
+                    locationPublishSettings
             );
         }
     }
@@ -0,0 +1,75 @@
+package com.collarmc.client;
+
+import com.collarmc.client.minecraft.Ticks;
+import com.collarmc.http.WebSocket;
+import com.collarmc.protocol.ProtocolRequest;
+import com.collarmc.protocol.session.BatchRequest;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Gathers the requests sent between Minecraft ticks and sends them together as {@link BatchRequest} on the next tick,
+ * so small frequent requests such as location updates share one frame, signature and seal.
+ * Requests are sent straight away while ticks are not arriving, such as when the player is not in a world.
+ */
+final class RequestBatcher implements Ticks.TickListener {
+    /** Ticks are treated as stopped when none has arrived for this long **/
+    private static final long TICK_TIMEOUT_NANOS = TimeUnit.SECONDS.toNanos(1);
+
+    private final Collar.CollarWebSocket collarWebSocket;
+    private final WebSocket webSocket;
+    private final Ticks ticks;
+    private final List<ProtocolRequest> pending = new ArrayList<>();
+    private volatile long lastTick = System.nanoTime() - TICK_TIMEOUT_NANOS;
+
+    public RequestBatcher(Collar.CollarWebSocket collarWebSocket, WebSocket webSocket, Ticks ticks) {
+        this.collarWebSocket = collarWebSocket;
+        this.webSocket = webSocket;
+        this.ticks = ticks;
+    }
+
+    public void start() {
+        ticks.subscribe(this);
+    }
+
+    public void stop() {
+        ticks.unsubscribe(this);
+        synchronized (pending) {
+            pending.clear();
+        }
+    }
+
+    /**
+     * @param request to send on the next tick
+     */
+    public void send(ProtocolRequest request) {
+        if (System.nanoTime() - lastTick >= TICK_TIMEOUT_NANOS) {
+            flush();
+            collarWebSocket.sendRequest(webSocket, request);
+            return;
+        }
+        synchronized (pending) {
+            pending.add(request);
+        }
+    }
+
+    @Override
+    public void onTick() {
+        lastTick = System.nanoTime();
+        flush();
+    }
+
+    private void flush() {
+        List<ProtocolRequest> requests;
+        synchronized (pending) {
+            if (pending.isEmpty()) {
+                return;
+            }
+            requests = new ArrayList<>(pending);
+            pending.clear();
+        }
+        collarWebSocket.sendRequests(webSocket, requests);
+    }
+}
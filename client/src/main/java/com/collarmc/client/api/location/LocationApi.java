@@ -4,6 +4,10 @@ import com.collarmc.api.entities.Entity;
 import com.collarmc.api.entities.EntityType;
 import com.collarmc.api.groups.Group;
 import com.collarmc.api.location.Location;
+import com.collarmc.api.location.LocationCodec;
+import com.collarmc.api.location.LocationPublishScheduler;
+import com.collarmc.api.location.LocationPublishSettings;
+import com.collarmc.api.location.LocationPublishStats;
 import com.collarmc.api.session.Player;
 import com.collarmc.api.waypoints.Waypoint;
 import com.collarmc.client.Collar;
@@ -38,7 +42,10 @@ import java.util.*;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentMap;
 import java.util.concurrent.atomic.AtomicReference;
+import java.time.Duration;
+import java.util.function.BooleanSupplier;
 import java.util.function.Consumer;
+import java.util.function.IntSupplier;
 import java.util.function.Supplier;
 import java.util.stream.Collectors;
 
@@ -48,6 +55,7 @@ public class LocationApi extends AbstractApi {
 
     private final HashSet<UUID> groupsSharingWith = new HashSet<>();
     private final ConcurrentHashMap<Player, Location> playerLocations = new ConcurrentHashMap<>();
+    private final ConcurrentMap<Player, LocationCodec.Decoder> locationDecoders = new ConcurrentHashMap<>();
     private final ConcurrentMap<UUID, Waypoint> privateWaypoints = new ConcurrentHashMap<>();
     private final ConcurrentMap<UUID, Map<UUID, Waypoint>> groupWaypoints = new ConcurrentHashMap<>();
     private final Supplier<Location> locationSupplier;
@@ -62,10 +70,13 @@ public class LocationApi extends AbstractApi {
                        GroupsApi groupsApi,
                        SDHTApi sdhtApi,
                        Supplier<Location> locationSupplier,
-                       Supplier<Set<Entity>> entityListSupplier) {
+                       Supplier<Set<Entity>> entityListSupplier,
+                       LocationPublishSettings publishSettings,
+                       IntSupplier pendingSends,
+                       BooleanSupplier encodeLocations) {
         super(collar, identityStoreSupplier, sender);
         this.locationSupplier = locationSupplier;
-        this.updater = new LocationUpdater(this, ticks);
+        this.updater = new LocationUpdater(this, ticks, new LocationPublishScheduler(publishSettings), pendingSends, encodeLocations);
         this.nearbyUpdater = new NearbyUpdater(entityListSupplier, this, ticks);
         this.sdhtApi = sdhtApi;
     }
@@ -106,6 +117,7 @@ public class LocationApi extends AbstractApi {
         synchronized (this) {
             groupsSharingWith.add(group.id);
             sender.accept(new StartSharingLocationRequest(group.id));
+            updater.keyframe();
             if (!updater.isRunning()) {
                 updater.start();
             }
@@ -223,10 +235,34 @@ public class LocationApi extends AbstractApi {
         }
     }
 
-    void publishLocation() {
+    /**
+     * @return rate at which the player's location is being published to the groups it is shared with
+     */
+    public LocationPublishStats publishStats() {
+        return updater.stats();
+    }
+
+    /**
+     * Publish the player's location less often, as the server is falling behind
+     * @param duration to back off for
+     */
+    public void backoff(Duration duration) {
+        updater.backoff(duration);
+    }
+
+    /**
+     * @return location of the player
+     */
+    Location currentLocation() {
+        return locationSupplier.get();
+    }
+
+    /**
+     * Send the player's location to every group it is shared with
+     * @param bytes of the location, encoded by {@link LocationCodec.Encoder}
+     */
+    void publishLocation(byte[] bytes) {
         if (!groupsSharingWith.isEmpty()) {
-            Location location = locationSupplier.get();
-            byte[] bytes = location.serialize();
             groupsSharingWith.forEach(groupId -> {
                 collar.groups().findGroupById(groupId)
                         .flatMap(group -> identityStore().groupSessions().session(group))
@@ -259,24 +295,49 @@ public class LocationApi extends AbstractApi {
             LocationUpdatedResponse response = (LocationUpdatedResponse) resp;
             synchronized (this) {
                 collar.groups().findGroupById(response.group).ifPresent(group -> {
-                    Optional<Location> location = identityStore().groupSessions().session(group).map(groupSession -> {
-                        if (response.location == null) {
-                            return null;
-                        }
-                        try {
-                            byte[] contents = groupSession.decrypt(response.location, response.sender.identity);
-                            return new Location(contents);
-                        } catch (IOException | CipherException e) {
-                            LOGGER.error("could not decrypt location sent by " + response.sender.identity);
-                            return null;
+                    Optional<Location> location;
+                    if (response.location() == null) {
+                        location = Optional.empty();
+                    } else {
+                        Optional<byte[]> contents = identityStore().groupSessions().session(group).map(groupSession -> {
+                            try {
+                                return groupSession.decrypt(response.location(), response.sender.identity);
+                            } catch (CipherException e) {
+                                LOGGER.error("could not decrypt location sent by " + response.sender.identity);
+                                return null;
+                            }
+                        });
+                        if (contents.isPresent() && LocationCodec.isEncoded(contents.get())) {
+                            Optional<Location> decoded;
+                            try {
+                                decoded = locationDecoders.computeIfAbsent(response.sender, player -> new LocationCodec.Decoder()).decode(contents.get());
+                            } catch (IllegalStateException e) {
+                                LOGGER.error("could not decode location sent by " + response.sender.identity, e);
+                                decoded = Optional.empty();
+                            }
+                            if (!decoded.isPresent()) {
+                                // Wait for the next keyframe
+                                return;
+                            }
+                            location = decoded;
+                        } else {
+                            location = contents.flatMap(bytes -> {
+                                try {
+                                    return Optional.of(new Location(bytes));
+                                } catch (IOException | IllegalStateException e) {
+                                    LOGGER.error("could not read location sent by " + response.sender.identity);
+                                    return Optional.empty();
+                                }
+                            });
                         }
-                    });
+                    }
                     if (location.isPresent()) {
                         // Update the location
                         playerLocations.put(response.sender, location.get());
                     } else {
                         // Remove if stooped sharing
                         playerLocations.remove(response.sender);
+                        locationDecoders.remove(response.sender);
                     }
                     collar.configuration.eventBus.dispatch(new LocationUpdatedEvent(collar, response.sender, location.orElse(Location.UNKNOWN)));
                 });
@@ -354,6 +415,7 @@ public class LocationApi extends AbstractApi {
             synchronized (this) {
                 updater.stop();
                 playerLocations.clear();
+                locationDecoders.clear();
                 groupsSharingWith.clear();
             }
             nearbyUpdater.stop();
@@ -1,10 +1,17 @@
 package com.collarmc.client.api.location;
 
+import com.collarmc.api.location.Location;
+import com.collarmc.api.location.LocationCodec;
+import com.collarmc.api.location.LocationPublishScheduler;
+import com.collarmc.api.location.LocationPublishStats;
 import com.collarmc.client.minecraft.Ticks;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 
-import java.util.concurrent.atomic.AtomicInteger;
+import java.time.Duration;
+import java.util.Optional;
+import java.util.function.BooleanSupplier;
+import java.util.function.IntSupplier;
 
 class LocationUpdater implements Ticks.TickListener {
 
@@ -12,11 +19,17 @@ class LocationUpdater implements Ticks.TickListener {
 
     private final LocationApi locationApi;
     private final Ticks ticks;
-    private final AtomicInteger tickCounter = new AtomicInteger();
+    private final LocationPublishScheduler scheduler;
+    private final IntSupplier pendingSends;
+    private final BooleanSupplier encodeLocations;
+    private final LocationCodec.Encoder encoder = new LocationCodec.Encoder();
 
-    public LocationUpdater(LocationApi locationApi, Ticks ticks) {
+    public LocationUpdater(LocationApi locationApi, Ticks ticks, LocationPublishScheduler scheduler, IntSupplier pendingSends, BooleanSupplier encodeLocations) {
         this.locationApi = locationApi;
         this.ticks = ticks;
+        this.scheduler = scheduler;
+        this.pendingSends = pendingSends;
+        this.encodeLocations = encodeLocations;
     }
 
     public boolean isRunning() {
@@ -37,11 +50,50 @@ class LocationUpdater implements Ticks.TickListener {
         }
     }
 
+    /**
+     * Send a keyframe as soon as possible, so that a group that was just shared with does not wait for one
+     */
+    public synchronized void keyframe() {
+        encoder.reset();
+        scheduler.reset();
+    }
+
+    /**
+     * @param duration to publish less often for
+     */
+    public void backoff(Duration duration) {
+        scheduler.backoff(duration);
+    }
+
+    /**
+     * @return rate at which the location is being published
+     */
+    public LocationPublishStats stats() {
+        return scheduler.stats();
+    }
+
     @Override
     public void onTick() {
-        if (tickCounter.incrementAndGet() % 10 == 0) {
-            LOGGER.debug("Location published");
-            locationApi.publishLocation();
+        if (!locationApi.isSharing()) {
+            return;
+        }
+        Location current = locationApi.currentLocation();
+        if (!scheduler.tick(current, pendingSends.getAsInt())) {
+            return;
         }
+        Optional<byte[]> location;
+        if (!encodeLocations.getAsBoolean()) {
+            // The server has clients that only read the original format
+            location = Optional.of(current.serialize());
+        } else {
+            // Nothing is sent while the player is stationary, apart from the periodic keyframe
+            synchronized (this) {
+                location = encoder.encode(current);
+            }
+        }
+        location.ifPresent(bytes -> {
+            LOGGER.debug("Location published");
+            locationApi.publishLocation(bytes);
+        });
     }
 }
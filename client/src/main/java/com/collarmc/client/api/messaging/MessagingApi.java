@@ -93,7 +93,7 @@ public class MessagingApi extends AbstractApi {
                     identityStore().groupSessions().session(group).ifPresent(groupSession -> {
                         Message message;
                         try {
-                            byte[] contents = groupSession.decrypt(response.message, response.sender);
+                            byte[] contents = groupSession.decrypt(response.message(), response.sender);
                             message = Utils.messagePackMapper().readValue(contents, Message.class);
                     } catch (IOException | CipherException e) {
                         // We don't throw an exception here in case someone is doing something naughty to disrupt the group and cause the client to exit
@@ -107,7 +107,7 @@ public class MessagingApi extends AbstractApi {
             } else if (response.sender != null) {
                 Message message;
                 try {
-                    byte[] decryptedBytes = identityStore().cipher().decrypt(response.message, response.sender);
+                    byte[] decryptedBytes = identityStore().cipher().decrypt(response.message(), response.sender);
                     message = Utils.messagePackMapper().readValue(decryptedBytes, Message.class);
                 } catch (IOException | CipherException e) {
                     throw new IllegalStateException(collar.identity() + "Could not read private message from " + response.sender, e);
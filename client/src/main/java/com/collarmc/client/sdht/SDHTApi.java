@@ -11,6 +11,7 @@ import com.collarmc.protocol.ProtocolResponse;
 import com.collarmc.protocol.sdht.SDHTEventRequest;
 import com.collarmc.protocol.sdht.SDHTEventResponse;
 import com.collarmc.sdht.Content;
+import com.collarmc.sdht.FetchProgress;
 import com.collarmc.sdht.DistributedHashTable;
 import com.collarmc.sdht.DistributedHashTableListener;
 import com.collarmc.sdht.Key;
@@ -42,15 +43,24 @@ public class SDHTApi extends AbstractApi implements Ticks.TickListener {
                 () -> identityStoreSupplier.get().identity(),
                 cipher,
                 new DHTNamespaceState(dhtDir),
-                new DistributedHashTableListenerImpl(this)
+                new DistributedHashTableListenerImpl(this),
+                collar.configuration.sdhtFetchSettings
         );
         ticks.subscribe(this);
     }
 
+    /**
+     * @return progress of downloading shared data from other group members
+     */
+    public FetchProgress syncProgress() {
+        return table.fetchProgress();
+    }
+
     @Override
     public void onStateChanged(Collar.State state) {
         if (state == Collar.State.DISCONNECTED) {
             table.removeAll();
+            table.close();
         }
     }
 
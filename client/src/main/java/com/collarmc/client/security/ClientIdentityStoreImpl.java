@@ -15,7 +15,9 @@ import com.collarmc.security.CollarIdentity;
 import com.collarmc.security.TokenGenerator;
 import com.collarmc.security.messages.Cipher;
 import com.collarmc.security.messages.CipherException;
+import com.collarmc.security.messages.CipherMode;
 import com.collarmc.security.messages.GroupSession;
+import com.collarmc.security.messages.SharedKeyCache;
 import com.collarmc.security.messages.SodiumCipher;
 import org.apache.logging.log4j.Level;
 import org.apache.logging.log4j.LogManager;
@@ -33,12 +35,19 @@ public class ClientIdentityStoreImpl implements ClientIdentityStore {
     private static final Logger LOGGER = LogManager.getLogger(ClientIdentityStoreImpl.class);
     private final GroupSessionManager groupSessionManager = new GroupSessionManager(this);
     private final HomeDirectory homeDirectory;
+    private final CipherMode cipherMode;
+    /** Server reads compact group message envelopes **/
+    private final boolean compactEnvelopes;
+    /** Keys shared with peers, cleared whenever the identity is loaded or replaced **/
+    private final SharedKeyCache sharedKeys = new SharedKeyCache();
     private CollarIdentity collarIdentity;
 
     private byte[] token = TokenGenerator.byteToken(256);
 
-    public ClientIdentityStoreImpl(HomeDirectory homeDirectory) throws IOException, CipherException {
+    public ClientIdentityStoreImpl(HomeDirectory homeDirectory, CipherMode cipherMode, boolean compactEnvelopes) throws IOException, CipherException {
         this.homeDirectory = homeDirectory;
+        this.cipherMode = cipherMode;
+        this.compactEnvelopes = compactEnvelopes;
     }
 
     @Override
@@ -56,6 +65,7 @@ public class ClientIdentityStoreImpl implements ClientIdentityStore {
         if (isValid()) {
             try {
                 collarIdentity = CollarIdentity.from(IO.readBytesFromFile(getIdentityFile(homeDirectory)));
+                sharedKeys.clear();
                 return new IdentifyRequest(identity(), cipher().encrypt(token, collarIdentity.serverIdentity));
             } catch (CipherException e) {
                 LOGGER.log(Level.ERROR, "could not encrypt token", e);
@@ -85,7 +95,7 @@ public class ClientIdentityStoreImpl implements ClientIdentityStore {
 
     @Override
     public GroupSession createSession(Group group) {
-        return new GroupSession(group.id, this, collarIdentity, group.members.stream().map(member -> member.player.identity).collect(Collectors.toSet()));
+        return new GroupSession(group.id, this, collarIdentity, group.members.stream().map(member -> member.player.identity).collect(Collectors.toSet()), compactEnvelopes);
     }
 
     @Override
@@ -95,12 +105,13 @@ public class ClientIdentityStoreImpl implements ClientIdentityStore {
 
     @Override
     public Cipher cipher() {
-        return new SodiumCipher(collarIdentity.keyPair, false);
+        return new SodiumCipher(collarIdentity.keyPair, false, cipherMode, sharedKeys);
     }
 
     @Override
     public IdentifyRequest processClientRegisteredResponse(ClientRegisteredResponse response) throws CipherException {
         collarIdentity = CollarIdentity.createClientIdentity(response.profile.id, response.serverIdentity);
+        sharedKeys.clear();
         try {
             AtomicFile.write(getIdentityFile(homeDirectory), theFile -> IO.writeBytesToFile(theFile, collarIdentity.serialize()));
         } catch (IOException e) {
@@ -141,6 +152,7 @@ public class ClientIdentityStoreImpl implements ClientIdentityStore {
         File identityFile = getIdentityFile(homeDirectory);
         if (!identityFile.exists() || identityFile.delete()) {
             collarIdentity = null;
+            sharedKeys.clear();
             token = TokenGenerator.byteToken(256);
             LOGGER.debug("Identity deleted");
         }
@@ -17,6 +17,8 @@ import com.collarmc.protocol.identity.IdentifyRequest;
 import com.collarmc.protocol.identity.IdentifyResponse;
 import com.collarmc.protocol.keepalive.KeepAliveRequest;
 import com.collarmc.protocol.keepalive.KeepAliveResponse;
+import com.collarmc.protocol.session.BackpressureResponse;
+import com.collarmc.protocol.session.BatchRequest;
 import com.collarmc.protocol.session.SessionFailedResponse.MojangVerificationFailedResponse;
 import com.collarmc.protocol.session.SessionFailedResponse.PrivateIdentityMismatchResponse;
 import com.collarmc.protocol.session.StartSessionRequest;
@@ -25,9 +27,7 @@ import com.collarmc.security.messages.CipherException;
 import com.collarmc.security.mojang.MinecraftPlayer;
 import com.collarmc.security.mojang.Mojang;
 import com.collarmc.server.protocol.*;
-import io.github.bucket4j.Bandwidth;
-import io.github.bucket4j.Bucket;
-import io.github.bucket4j.Bucket4j;
+import com.collarmc.server.session.ProtocolExecutor;
 import org.apache.logging.log4j.Level;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
@@ -36,31 +36,40 @@ import org.eclipse.jetty.websocket.api.annotations.*;
 
 import javax.annotation.Nonnull;
 import java.io.IOException;
-import java.io.InputStream;
-import java.nio.ByteBuffer;
 import java.time.Duration;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Optional;
-import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.ConcurrentMap;
+import java.util.Set;
 import java.util.function.BiConsumer;
+import java.util.function.Supplier;
 
 @WebSocket
 public class CollarServer {
     private static final Logger LOGGER = LogManager.getLogger(CollarServer.class.getName());
 
+    /** Requests that establish the session, handled by the server itself **/
+    private static final Set<Class<? extends ProtocolRequest>> SESSION_REQUESTS = Set.of(IdentifyRequest.class, StartSessionRequest.class);
+    /** How long a client that is sending faster than its packets are handled is asked to send less often **/
+    private static final Duration BACKPRESSURE_DURATION = Duration.ofSeconds(10);
+
     private final List<ProtocolHandler> protocolHandlers;
+    private final ProtocolDispatcher dispatcher;
     private final BiConsumer<ClientIdentity, Player> sessionStarted;
     private final BiConsumer<ClientIdentity, Player> sessionStopped;
-    private final ConcurrentMap<Session, Bucket> buckets = new ConcurrentHashMap<>();
     private final Services services;
 
     public CollarServer(Services services) {
         this.services = services;
         this.protocolHandlers = new ArrayList<>();
-        this.sessionStarted = (identity, player) -> protocolHandlers.forEach(protocolHandler -> protocolHandler.onSessionStarted(identity, player, this::send));
-        this.sessionStopped = (identity, player) -> protocolHandlers.forEach(protocolHandler -> protocolHandler.onSessionStopping(identity, player, this::send));
+        this.sessionStarted = (identity, player) -> {
+            services.cluster.sessionStarted(player);
+            protocolHandlers.forEach(protocolHandler -> protocolHandler.onSessionStarted(identity, player, this::send));
+        };
+        this.sessionStopped = (identity, player) -> {
+            services.cluster.sessionStopped(identity);
+            protocolHandlers.forEach(protocolHandler -> protocolHandler.onSessionStopping(identity, player, this::send));
+        };
 
         protocolHandlers.add(new GroupsProtocolHandler(services));
         protocolHandlers.add(new LocationProtocolHandler(services));
@@ -69,100 +78,267 @@ public class CollarServer {
         protocolHandlers.add(new MessagingProtocolHandler(services));
         protocolHandlers.add(new SDHTProtocolHandler(services));
         protocolHandlers.add(new FriendsProtocolHandler(services));
+        this.dispatcher = new ProtocolDispatcher(protocolHandlers, services.protocolMetrics);
+        // Responses other nodes forward for sessions connected here
+        services.cluster.start((profile, response) -> services.sessions.getSessionStateByOwner(profile)
+                .ifPresent(state -> send(state.session, response)));
     }
 
     @OnWebSocketConnect
     public void connected(Session session) {
         LOGGER.info("New socket connected");
-        buckets.computeIfAbsent(session, theSession -> Bucket4j.builder()
-                .addLimit(Bandwidth.simple(18000, Duration.ofSeconds(3600)))
-                .addLimit(Bandwidth.simple(50, Duration.ofSeconds(1)))
-                .build());
+        services.rateLimiter.connected(session);
     }
 
     @OnWebSocketClose
     public void closed(Session session, int statusCode, String reason) {
         LOGGER.info("Session closed " + statusCode + " " + reason);
-        services.sessions.stopSession(session, SessionStopReason.NORMAL_CLOSE, null, null, sessionStopped);
-        services.deviceRegistration.onSessionClosed(session);
-        buckets.remove(session);
+        services.rateLimiter.closed(session);
+        // Runs after any packets from the session that are still being handled
+        services.protocolExecutor.close(session, () -> {
+            services.sessions.stopSession(session, SessionStopReason.NORMAL_CLOSE, null, null, sessionStopped);
+            services.deviceRegistration.onSessionClosed(session);
+            services.outbound.remove(session);
+        });
     }
 
     @OnWebSocketError
     public void onError(Session session, Throwable e) {
-        LOGGER.error("Unrecoverable error " + e.getMessage(), e);
-        services.sessions.stopSession(session, SessionStopReason.SERVER_ERROR, null, e, sessionStopped);
+        // Runs after any packets from the session that are still being handled, as stopping the session does
+        services.protocolExecutor.close(session, () -> failed(session, e));
     }
 
     @OnWebSocketMessage
-    public void message(Session session, InputStream is) {
-        Bucket bucket = buckets.get(session);
-        if (bucket.tryConsume(1)) {
-            processMessage(session, is);
+    public void message(Session session, byte[] bytes, int offset, int length) {
+        if (services.rateLimiter.tryAcceptPackets(session, 1)) {
+            // Jetty hands each complete message over in its own array, so it can be handled after this returns
+            switch (services.protocolExecutor.execute(session, () -> handleMessage(session, bytes, offset, length))) {
+                case FALLING_BEHIND:
+                    // Signalled once each time the backlog reaches the threshold rather than on every packet above it
+                    sendPlain(session, new BackpressureResponse(BACKPRESSURE_DURATION.toMillis()));
+                    break;
+                case FULL:
+                    services.protocolMetrics.rateLimited();
+                    services.protocolExecutor.close(session, () -> services.sessions.stopSession(session, SessionStopReason.TOO_MANY_REQUESTS, null, null, sessionStopped));
+                    break;
+                default:
+                    // Packets arriving once the session is closing are dropped
+                    break;
+            }
         } else {
+            services.protocolMetrics.rateLimited();
+            services.protocolExecutor.close(session, () -> services.sessions.stopSession(session, SessionStopReason.TOO_MANY_REQUESTS, null, null, sessionStopped));
+        }
+    }
+
+    /**
+     * Failures stop the session, as they did when packets were handled on the WebSocket thread
+     */
+    private Runnable handleMessage(Session session, byte[] bytes, int offset, int length) {
+        return guarded(session, () -> processMessage(session, bytes, offset, length)).get();
+    }
+
+    /**
+     * Stops the session when the work or the continuation it returns fails
+     */
+    private Supplier<Runnable> guarded(Session session, Supplier<Runnable> work) {
+        return () -> {
+            try {
+                return work.get();
+            } catch (RuntimeException e) {
+                failed(session, e);
+                return null;
+            }
+        };
+    }
+
+    /**
+     * Stops the session after an error, called from the session's protocol queue
+     */
+    private void failed(Session session, Throwable e) {
+        LOGGER.error("Unrecoverable error " + e.getMessage(), e);
+        services.sessions.stopSession(session, SessionStopReason.SERVER_ERROR, null, e, sessionStopped);
+    }
+
+    /**
+     * Decodes and handles a packet on a protocol worker
+     * @return continuation that blocks on Mojang or the database or waits for budget, or null when the packet was handled
+     */
+    private Runnable processMessage(Session session, byte[] bytes, int offset, int length) {
+        ProtocolRequest req = read(session, bytes, offset, length).orElse(null);
+        if (req == null) {
+            return null;
+        }
+        if (req instanceof BatchRequest) {
+            return processBatch(session, (BatchRequest) req);
+        }
+        return processRequest(session, req);
+    }
+
+    /**
+     * Handles each request in a batch in order. The packet took one packet from the socket's limit when it arrived,
+     * so the rest of its requests are taken here, once the number of requests it carries is known.
+     * The batch is charged to the identity's budget as a whole.
+     */
+    private Runnable processBatch(Session session, BatchRequest batch) {
+        List<ProtocolRequest> requests;
+        try {
+            requests = batch.unpack(services.sessions.packetIO(session));
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+        if (requests.size() > 1 && !services.rateLimiter.tryAcceptPackets(session, requests.size() - 1)) {
+            services.protocolMetrics.rateLimited();
             services.sessions.stopSession(session, SessionStopReason.TOO_MANY_REQUESTS, null, null, sessionStopped);
+            return null;
+        }
+        services.protocolMetrics.batched(requests.size());
+        for (ProtocolRequest request : requests) {
+            if (SESSION_REQUESTS.contains(request.getClass())) {
+                throw new IllegalStateException(request.getClass().getSimpleName() + " cannot be sent in a batch");
+            }
         }
+        return throttle(session, requests);
     }
 
-    private void processMessage(Session session, InputStream is) {
-        read(session, is).ifPresent(req -> {
-            ServerIdentity serverIdentity = services.identityStore.identity();
-            if (req instanceof KeepAliveRequest) {
-                sendPlain(session, new KeepAliveResponse());
-            } else if (req instanceof IdentifyRequest) {
-                IdentifyRequest request = (IdentifyRequest)req;
-                if (request.identity == null) {
-                    LOGGER.debug("Signaling client to register");
-                    String token = services.deviceRegistration.createClientRegistrationToken(session);
-                    String url = services.urlProvider.deviceVerificationUrl(token);
-                    sendPlain(session, new RegisterClientResponse(url, token));
-                } else {
-                    try {
-                        Profile profile = services.profiles.getProfile(RequestContext.SERVER, ProfileService.GetProfileRequest.byId(request.identity.id())).profile;
-                        LOGGER.debug("Profile found for " + request.identity.id());
-                        byte[] token = processIdentityRequestToken(profile, request);
-                        if (token != null) {
-                            services.sessions.identify(session, request.identity, null, sessionStarted);
-                            byte[] cipherToken = services.identityStore.cipher().encrypt(token, request.identity);
-                            sendPlain(session, new IdentifyResponse(serverIdentity, profile.toPublic(), Mojang.serverPublicKey(), Mojang.generateSharedSecret(), cipherToken));
-                        } else {
-                            sendPlain(session, new PrivateIdentityMismatchResponse(services.urlProvider.resetPrivateIdentity()));
-                        }
-                    } catch (CipherException e) {
-                        LOGGER.error("Problem preparing token for identity response", e);
-                        services.sessions.stopSession(session, SessionStopReason.SERVER_ERROR, "Problem preparing Identity response", null, null);
-                    } catch (NotFoundException e) {
-                        LOGGER.error("Profile " + request.identity.id() + " does not exist but the client thinks it should.");
-                        services.sessions.stopSession(session, SessionStopReason.UNAUTHORISED, "Identity " + request.identity.id() + " was not found", null, null);
-                    }
+    /**
+     * @return continuation that blocks on Mojang or the database or waits for budget, or null when the request was handled
+     */
+    private Runnable processRequest(Session session, ProtocolRequest req) {
+        if (SESSION_REQUESTS.contains(req.getClass())) {
+            return ProtocolExecutor.blocking(guarded(session, () -> {
+                long start = System.nanoTime();
+                boolean failed = true;
+                try {
+                    processSessionRequest(session, req);
+                    failed = false;
+                } finally {
+                    services.protocolMetrics.record(req.getClass(), System.nanoTime() - start, failed);
                 }
-            } else if (req instanceof StartSessionRequest) {
-                ClientIdentity identity = services.sessions.getIdentity(session).orElseThrow(() -> new IllegalStateException("session must have an identity"));
-                LOGGER.info("Starting session with " + identity);
-                StartSessionRequest request = (StartSessionRequest)req;
-                if (services.minecraftSessionVerifier.verify(request)) {
-                    MinecraftPlayer minecraftPlayer = request.session.toPlayer();
-                    services.sessions.identify(session, identity, minecraftPlayer, sessionStarted);
-                    services.profiles.updateProfile(RequestContext.SERVER, UpdateProfileRequest.addMinecraftAccount(identity.id(), request.session.id));
-                    sendPlain(session, new StartSessionResponse());
-                } else {
-                    sendPlain(session, new MojangVerificationFailedResponse(request.session));
-                    services.sessions.stopSession(session, SessionStopReason.UNAUTHORISED, "Minecraft session invalid", null, sessionStopped);
+                return null;
+            }));
+        }
+        return throttle(session, List.of(req));
+    }
+
+    /**
+     * Charges each request to the sender's and the server's budgets before handling it, so a batch costing more than
+     * the budget holds is still handled as the budget refills.
+     * Requests the budget can afford soon are held back on a deferred continuation, which keeps the session's
+     * packets in order without holding a thread. Requests it cannot are dropped and the client is asked to send less
+     * often, rather than being disconnected.
+     * Requests whose handlers block are handled on a blocking continuation, which then goes on with the rest.
+     * @return continuation when the requests were held back or block, otherwise null
+     */
+    private Runnable throttle(Session session, List<ProtocolRequest> requests) {
+        ClientIdentity identity = services.sessions.getIdentity(session).orElse(null);
+        return throttle(session, identity, requests, 0, services.rateLimiter.deferralDeadline());
+    }
+
+    private Runnable throttle(Session session, ClientIdentity identity, List<ProtocolRequest> requests, int from, long deadline) {
+        for (int i = from; i < requests.size(); i++) {
+            ProtocolRequest request = requests.get(i);
+            // Sessions without an identity can only keep alive, anything else fails when handled
+            long wait = identity == null ? 0 : services.rateLimiter.tryAcquire(identity.id(), services.rateLimiter.cost(request.getClass()));
+            if (wait == 0) {
+                if (dispatcher.blocks(request.getClass())) {
+                    int next = i + 1;
+                    return ProtocolExecutor.blocking(guarded(session, () -> {
+                        handleRequest(session, request);
+                        return throttle(session, identity, requests, next, deadline);
+                    }));
                 }
+                handleRequest(session, request);
+                continue;
+            }
+            if (!services.rateLimiter.canDefer(wait, deadline)) {
+                drop(session, identity, requests.subList(i, requests.size()));
+                return null;
+            }
+            services.rateLimiter.metrics.deferred();
+            int next = i;
+            return ProtocolExecutor.defer(wait, guarded(session, () -> throttle(session, identity, requests, next, deadline)));
+        }
+        return null;
+    }
+
+    private void drop(Session session, ClientIdentity identity, List<ProtocolRequest> requests) {
+        requests.forEach(request -> services.rateLimiter.metrics.dropped(request.getClass()));
+        LOGGER.debug("Dropped " + requests.size() + " requests from " + identity.id() + " that were over budget");
+        if (services.rateLimiter.signal(identity.id(), BACKPRESSURE_DURATION)) {
+            sendPlain(session, new BackpressureResponse(BACKPRESSURE_DURATION.toMillis()));
+        }
+    }
+
+    /**
+     * Handles a request that does not establish the session, once it has been charged for
+     */
+    private void handleRequest(Session session, ProtocolRequest req) {
+        if (req instanceof KeepAliveRequest) {
+            long start = System.nanoTime();
+            sendPlain(session, new KeepAliveResponse());
+            services.protocolMetrics.record(KeepAliveRequest.class, System.nanoTime() - start, false);
+        } else {
+            ClientIdentity identity = services.sessions.getIdentity(session).orElseThrow(() -> new IllegalStateException("session must have an identity"));
+            if (!dispatcher.dispatch(identity, req, createSender())) {
+                LOGGER.warn("No handler for " + req.getClass().getSimpleName());
+            }
+        }
+    }
+
+    /**
+     * Handles packets that establish the session, which wait on Mojang or the database
+     */
+    private void processSessionRequest(Session session, ProtocolRequest req) {
+        ServerIdentity serverIdentity = services.identityStore.identity();
+        if (req instanceof IdentifyRequest) {
+            IdentifyRequest request = (IdentifyRequest)req;
+            if (request.identity == null) {
+                LOGGER.debug("Signaling client to register");
+                String token = services.deviceRegistration.createClientRegistrationToken(session);
+                String url = services.urlProvider.deviceVerificationUrl(token);
+                sendPlain(session, new RegisterClientResponse(url, token));
             } else {
-                ClientIdentity identity = services.sessions.getIdentity(session).orElseThrow(() -> new IllegalStateException("session must have an identity"));
-                for (ProtocolHandler handler : protocolHandlers) {
-                    if (handler.handleRequest(this, identity, req, createSender())) {
-                        break;
+                try {
+                    Profile profile = services.profiles.getProfile(RequestContext.SERVER, ProfileService.GetProfileRequest.byId(request.identity.id())).profile;
+                    LOGGER.debug("Profile found for " + request.identity.id());
+                    byte[] token = processIdentityRequestToken(profile, request);
+                    if (token != null) {
+                        services.sessions.identify(session, request.identity, null, sessionStarted);
+                        byte[] cipherToken = services.identityStore.cipher().encrypt(token, request.identity);
+                        sendPlain(session, new IdentifyResponse(serverIdentity, profile.toPublic(), Mojang.serverPublicKey(), Mojang.generateSharedSecret(), cipherToken));
+                    } else {
+                        sendPlain(session, new PrivateIdentityMismatchResponse(services.urlProvider.resetPrivateIdentity()));
                     }
+                } catch (CipherException e) {
+                    LOGGER.error("Problem preparing token for identity response", e);
+                    services.sessions.stopSession(session, SessionStopReason.SERVER_ERROR, "Problem preparing Identity response", null, null);
+                } catch (NotFoundException e) {
+                    LOGGER.error("Profile " + request.identity.id() + " does not exist but the client thinks it should.");
+                    services.sessions.stopSession(session, SessionStopReason.UNAUTHORISED, "Identity " + request.identity.id() + " was not found", null, null);
                 }
             }
-        });
+        } else if (req instanceof StartSessionRequest) {
+            ClientIdentity identity = services.sessions.getIdentity(session).orElseThrow(() -> new IllegalStateException("session must have an identity"));
+            LOGGER.info("Starting session with " + identity);
+            StartSessionRequest request = (StartSessionRequest)req;
+            if (services.minecraftSessionVerifier.verify(request)) {
+                MinecraftPlayer minecraftPlayer = request.session.toPlayer();
+                services.sessions.identify(session, identity, minecraftPlayer, sessionStarted);
+                services.profiles.updateProfile(RequestContext.SERVER, UpdateProfileRequest.addMinecraftAccount(identity.id(), request.session.id));
+                services.profileCache.invalidate(identity.id());
+                sendPlain(session, new StartSessionResponse());
+            } else {
+                sendPlain(session, new MojangVerificationFailedResponse(request.session));
+                services.sessions.stopSession(session, SessionStopReason.UNAUTHORISED, "Minecraft session invalid", null, sessionStopped);
+            }
+        }
     }
 
     private byte[] processIdentityRequestToken(Profile profile, IdentifyRequest req) {
         if (profile.publicKey == null) {
             profile = services.profiles.updateProfile(RequestContext.SERVER, UpdateProfileRequest.keys(profile.id, req.identity.publicKey())).profile;
+            services.profileCache.invalidate(profile.id);
             LOGGER.log(Level.ERROR, "Identity for " + profile.id + " was set");
         }
         ClientIdentity storedIdentity = new ClientIdentity(profile.id, profile.publicKey);
@@ -185,21 +361,27 @@ public class CollarServer {
             if (identity == null) {
                 send(null, response);
             } else {
-                services.sessions.getSession(identity).ifPresent(recipientSession -> {
-                    send(recipientSession, response);
-                });
+                Optional<Session> recipientSession = services.sessions.getSession(identity);
+                if (recipientSession.isPresent()) {
+                    send(recipientSession.get(), response);
+                } else {
+                    services.cluster.forward(identity, response);
+                }
             }
         };
     }
 
     @Nonnull
-    public Optional<ProtocolRequest> read(@Nonnull Session session, @Nonnull InputStream message) {
-        PacketIO packetIO = new PacketIO(services.packetMapper, services.identityStore.cipher());
+    public Optional<ProtocolRequest> read(@Nonnull Session session, @Nonnull byte[] bytes, int offset, int length) {
         ClientIdentity identity = services.sessions.getIdentity(session).orElse(null);
+        services.sessions.packetReceived(session, PacketIO.version(bytes, offset, length));
+        long start = System.nanoTime();
         try {
-            return packetIO.decode(identity, message, ProtocolRequest.class);
+            return services.packetIO.decode(identity, bytes, offset, length, ProtocolRequest.class);
         } catch (IOException | CipherException e) {
             throw new IllegalStateException(e);
+        } finally {
+            services.protocolMetrics.decoded(System.nanoTime() - start);
         }
     }
 
@@ -208,33 +390,29 @@ public class CollarServer {
             return;
         }
         if (resp instanceof BatchProtocolResponse) {
-            BatchProtocolResponse batchResponse = (BatchProtocolResponse)resp;
-            batchResponse.responses.forEach((response, identity) -> {
-                services.sessions.getSession(identity).ifPresent(anotherSession -> {
-                    send(anotherSession, response);
-                });
-            });
+            services.fanOut.send((BatchProtocolResponse)resp);
         } else {
             LOGGER.info("Sending " + resp.getClass().getSimpleName());
             if (session == null) {
                 throw new IllegalStateException("Session cannot be null");
             }
-            PacketIO packetIO = new PacketIO(services.packetMapper, services.identityStore.cipher());
             byte[] bytes;
+            long start = System.nanoTime();
             if (services.sessions.isIdentified(session)) {
                 try {
                     ClientIdentity identity = services.sessions.getIdentity(session).orElseThrow(() -> new IllegalStateException("Could not find identity"));
-                    bytes = packetIO.encodeEncrypted(identity, resp);
+                    bytes = services.sessions.packetIO(session).encodeEncrypted(identity, resp);
                 } catch (IOException | CipherException e) {
                     throw new IllegalStateException(e);
                 }
             } else {
                 try {
-                    bytes = packetIO.encodePlain(resp);
+                    bytes = services.sessions.packetIO(session).encodePlain(resp);
                 } catch (IOException e) {
                     throw new IllegalStateException(e);
                 }
             }
+            services.protocolMetrics.encoded(System.nanoTime() - start);
             sendBytes(session, bytes);
         }
     }
@@ -243,17 +421,18 @@ public class CollarServer {
         if (!session.isOpen()) {
             return;
         }
-        PacketIO packetIO = new PacketIO(services.packetMapper, null);
         byte[] bytes;
+        long start = System.nanoTime();
         try {
-            bytes = packetIO.encodePlain(resp);
+            bytes = services.sessions.packetIO(session).encodePlain(resp);
         } catch (IOException e) {
             throw new IllegalStateException(e);
         }
+        services.protocolMetrics.encoded(System.nanoTime() - start);
         sendBytes(session, bytes);
     }
 
     private void sendBytes(@Nonnull Session session, @Nonnull byte[] bytes) {
-        session.getRemote().sendBytesByFuture(ByteBuffer.wrap(bytes));
+        services.outbound.send(session, bytes);
     }
 }
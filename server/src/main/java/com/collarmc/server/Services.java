@@ -2,8 +2,13 @@ package com.collarmc.server;
 
 import com.collarmc.api.authentication.AuthenticationService;
 import com.collarmc.api.profiles.ProfileService;
+import com.collarmc.protocol.PacketIO;
+import com.collarmc.protocol.PacketTypes;
+import com.collarmc.server.cluster.ClusterNode;
 import com.collarmc.server.configuration.Configuration;
 import com.collarmc.server.http.AppUrlProvider;
+import com.collarmc.server.protocol.ProtocolMetrics;
+import com.collarmc.server.protocol.RateLimiter;
 import com.collarmc.server.security.ServerIdentityStore;
 import com.collarmc.server.security.ServerIdentityStoreImpl;
 import com.collarmc.server.security.hashing.PasswordHashing;
@@ -20,6 +25,9 @@ import com.collarmc.server.services.profiles.ProfileServiceServer;
 import com.collarmc.server.services.profiles.storage.ProfileStorage;
 import com.collarmc.server.services.textures.TextureService;
 import com.collarmc.server.session.ClientRegistrationService;
+import com.collarmc.server.session.OutboundQueues;
+import com.collarmc.server.session.ProtocolExecutor;
+import com.collarmc.server.session.ResponseFanOut;
 import com.collarmc.server.session.SessionManager;
 import com.collarmc.utils.Utils;
 import com.fasterxml.jackson.databind.ObjectMapper;
@@ -27,9 +35,16 @@ import com.fasterxml.jackson.databind.ObjectMapper;
 public final class Services {
     public final ObjectMapper jsonMapper;
     public final ObjectMapper packetMapper;
+    public final PacketIO packetIO;
     public final AppUrlProvider urlProvider;
     public final ServerIdentityStore identityStore;
+    public final OutboundQueues outbound;
     public final SessionManager sessions;
+    public final ResponseFanOut fanOut;
+    public final ClusterNode cluster;
+    public final ProtocolExecutor protocolExecutor;
+    public final ProtocolMetrics protocolMetrics;
+    public final RateLimiter rateLimiter;
     public final PasswordHashing passwordHashing;
     public final ProfileService profiles;
     public final ProfileStorage profileStorage;
@@ -50,20 +65,35 @@ public final class Services {
         this.packetMapper = Utils.messagePackMapper();
         this.urlProvider = configuration.appUrlProvider;
         this.identityStore = new ServerIdentityStoreImpl(configuration.database);
-        this.sessions = new SessionManager(packetMapper, identityStore);
+        this.packetIO = new PacketIO(packetMapper, identityStore.cipher(), PacketTypes.defaults());
+        this.outbound = new OutboundQueues(configuration.outbound);
+        this.cluster = new ClusterNode(configuration.cluster, packetMapper);
+        this.sessions = new SessionManager(packetMapper, identityStore, outbound, cluster);
+        this.fanOut = new ResponseFanOut(sessions, cluster, outbound);
+        this.protocolExecutor = ProtocolExecutor.create(configuration.protocolExecutor);
+        this.protocolMetrics = new ProtocolMetrics();
+        this.rateLimiter = new RateLimiter(configuration.rateLimits);
         this.deviceRegistration = new ClientRegistrationService(sessions, identityStore);
         this.passwordHashing = configuration.passwordHashing;
         this.profiles = new ProfileServiceServer(configuration.database, passwordHashing);
-        this.profileCache = new ProfileCache(profiles);
+        this.profileCache = new ProfileCache(profiles, configuration.profileCache);
         this.profileStorage = new ProfileStorage(configuration.database);
         this.tokenCrypter = configuration.tokenCrypter;
         this.auth = new ServerAuthenticationService(profiles, passwordHashing, tokenCrypter, configuration.email, urlProvider);
         this.minecraftSessionVerifier = configuration.minecraftSessionVerifier;
         this.groupStore = new GroupStore(profileCache, sessions, configuration.database);
         this.groups = new GroupService(groupStore, profileCache, sessions);
-        this.playerLocations = new PlayerLocationService(this);
+        this.playerLocations = new PlayerLocationService(this, configuration.nearbyGroups.shards);
         this.textures = new TextureService(configuration.database);
         this.friends = new FriendsService(configuration.database, profileCache, sessions);
         this.waypoints = new WaypointService(profileStorage);
     }
+
+    /**
+     * Write out queued profile storage and leave the cluster, before the JVM exits
+     */
+    public void shutdown() {
+        profileStorage.flush();
+        cluster.stop();
+    }
 }
@@ -8,18 +8,26 @@ import com.collarmc.api.http.*;
 import com.collarmc.api.http.HttpException.BadRequestException;
 import com.collarmc.api.http.HttpException.NotFoundException;
 import com.collarmc.api.http.HttpException.UnauthorisedException;
+import com.collarmc.api.location.LocationCodec;
 import com.collarmc.api.profiles.ProfileService;
 import com.collarmc.api.profiles.ProfileService.GetProfileRequest;
 import com.collarmc.api.profiles.ProfileService.UpdateProfileRequest;
+import com.collarmc.api.profiles.ProfileService.UpdateProfileResponse;
 import com.collarmc.api.profiles.PublicProfile;
 import com.collarmc.api.profiles.Role;
 import com.collarmc.api.textures.TextureType;
+import com.collarmc.protocol.PacketTypes;
+import com.collarmc.security.messages.CipherMode;
+import com.collarmc.security.messages.GroupMessageEnvelope;
 import com.collarmc.security.messages.SodiumCipher;
+import com.collarmc.server.common.CacheStatistics;
 import com.collarmc.server.common.ServerStatus;
 import com.collarmc.server.common.ServerVersion;
 import com.collarmc.server.configuration.Configuration;
 import com.collarmc.server.http.ApiToken;
 import com.collarmc.server.http.HandlebarsTemplateEngine;
+import com.collarmc.server.http.PrometheusMetrics;
+import com.collarmc.server.protocol.ProtocolMetrics;
 import com.collarmc.server.services.authentication.TokenCrypter;
 import com.collarmc.server.services.textures.TextureService;
 import com.collarmc.server.session.ClientRegistrationService;
@@ -33,8 +41,12 @@ import spark.Request;
 
 import javax.servlet.ServletOutputStream;
 import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
 import java.util.ArrayList;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.UUID;
 import java.util.concurrent.TimeUnit;
 import java.util.function.Consumer;
@@ -60,6 +72,7 @@ public class WebServer {
         port(configuration.httpPort);
         // Services
         Services services = new Services(configuration);
+        Runtime.getRuntime().addShutdownHook(new Thread(services::shutdown, "collar-shutdown"));
 
         // Setup WebSockets
         webSocketIdleTimeoutMillis((int) TimeUnit.SECONDS.toMillis(60));
@@ -154,6 +167,7 @@ public class WebServer {
                         }
                         services.profileStorage.delete(context.owner);
                         services.profiles.updateProfile(context, UpdateProfileRequest.resetKeys(loginResp.profile.id));
+                        services.profileCache.invalidate(loginResp.profile.id);
                         return new Object();
                     }, services.jsonMapper::writeValueAsString);
                     post("/devices/trust", (request, response) -> {
@@ -202,12 +216,15 @@ public class WebServer {
                         if (req.cape != null) {
                             throw new HttpException.BadRequestException("missing capeTexture");
                         }
-                        return services.profiles.updateProfile(context, req);
+                        UpdateProfileResponse updated = services.profiles.updateProfile(context, req);
+                        services.profileCache.invalidate(req.profile);
+                        return updated;
                     }, services.jsonMapper::writeValueAsString);
                     post("/reset", (request, response) -> {
                         RequestContext context = from(request);
                         services.profileStorage.delete(context.owner);
                         services.profiles.updateProfile(context, UpdateProfileRequest.resetKeys(context.owner));
+                        services.profileCache.invalidate(context.owner);
                         response.status(204);
                         return null;
                     }, services.jsonMapper::writeValueAsString);
@@ -241,6 +258,39 @@ public class WebServer {
                     });
                 });
 
+                path("/admin", () -> {
+                    before("/*", (request, response) -> {
+                        assertAdministrator(request);
+                    });
+                    // Hit rates and sizes of the server caches
+                    get("/caches", (request, response) -> {
+                        Map<String, CacheStatistics> caches = new LinkedHashMap<>();
+                        caches.put("profiles", services.profileCache.statistics());
+                        caches.put("groups", services.groupStore.statistics());
+                        return caches;
+                    }, services.jsonMapper::writeValueAsString);
+                    // Volume and latency of each type of protocol request
+                    get("/protocol", (request, response) -> {
+                        Map<String, Object> requests = new LinkedHashMap<>();
+                        services.protocolMetrics.requests().forEach((type, metrics) -> {
+                            Map<String, Long> latency = new LinkedHashMap<>();
+                            long[] bounds = ProtocolMetrics.latencyBucketBounds();
+                            long[] buckets = metrics.latencyBuckets();
+                            for (int i = 0; i < bounds.length; i++) {
+                                latency.put("le" + bounds[i] + "us", buckets[i]);
+                            }
+                            latency.put("inf", buckets[buckets.length - 1]);
+                            Map<String, Object> stats = new LinkedHashMap<>();
+                            stats.put("count", metrics.count());
+                            stats.put("errors", metrics.errors());
+                            stats.put("totalMillis", metrics.totalTime(TimeUnit.MILLISECONDS));
+                            stats.put("latency", latency);
+                            requests.put(type, stats);
+                        });
+                        return requests;
+                    }, services.jsonMapper::writeValueAsString);
+                });
+
                 get("/textures/:id/png", (request, response) -> {
                     String idAsString = request.params("id");
                     UUID uuid = UUID.fromString(idAsString);
@@ -261,6 +311,13 @@ public class WebServer {
         // This contract is forever, please change with care!
         get("/api/version", (request, response) -> ServerVersion.version(), services.jsonMapper::writeValueAsString);
         get("/api/status", (request, response) -> new ServerStatus(services.profiles.playerCount(RequestContext.SERVER, new ProfileService.PlayerCountRequest()).total, services.sessions.count()), services.jsonMapper::writeValueAsString);
+        // Scraped by Prometheus, which authenticates with the configured metrics token rather than an api token
+        PrometheusMetrics metrics = new PrometheusMetrics(services);
+        get("/api/metrics", (request, response) -> {
+            assertMetricsToken(request);
+            response.type(PrometheusMetrics.CONTENT_TYPE);
+            return metrics.scrape();
+        });
         // Query this route to discover what version of the APIs are supported and how the server is configured
         get("/api/discover", (request, response) -> {
             List<CollarVersion> versions = new ArrayList<>();
@@ -270,6 +327,15 @@ public class WebServer {
             features.add(new CollarFeature("groups:locations", true));
             features.add(new CollarFeature("groups:waypoints", true));
             features.add(new CollarFeature("profile:friends", true));
+            // Clients that understand this may send packets with these ids instead of class names
+            features.add(new CollarFeature(PacketTypes.FEATURE, PacketTypes.defaults().toMap()));
+            // Clients that understand this may encrypt with shared keys, and are answered the same way
+            features.add(new CollarFeature(CipherMode.FEATURE, true));
+            // Clients that understand this may send group messages in compact envelopes
+            features.add(new CollarFeature(GroupMessageEnvelope.FEATURE, true));
+            if (configuration.locationCodec) {
+                features.add(new CollarFeature(LocationCodec.FEATURE, true));
+            }
             return new DiscoverResponse(versions, features);
         }, services.jsonMapper::writeValueAsString);
 
@@ -289,6 +355,24 @@ public class WebServer {
         }
     }
 
+    private void assertAdministrator(Request request) {
+        // Must let in OPTIONS because CORS is horrible
+        if (!request.requestMethod().equals("OPTIONS")) {
+            from(request).assertHasRole(Role.ADMINISTRATOR);
+        }
+    }
+
+    private void assertMetricsToken(Request request) {
+        if (configuration.metricsToken == null) {
+            throw new NotFoundException("metrics are not enabled");
+        }
+        String authorization = request.headers("Authorization");
+        byte[] expected = ("Bearer " + configuration.metricsToken).getBytes(StandardCharsets.UTF_8);
+        if (authorization == null || !MessageDigest.isEqual(expected, authorization.getBytes(StandardCharsets.UTF_8))) {
+            throw new UnauthorisedException("bad metrics token");
+        }
+    }
+
     /**
      * @param request http request
      * @throws IOException on token decoding
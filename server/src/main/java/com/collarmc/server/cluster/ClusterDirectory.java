@@ -0,0 +1,43 @@
+package com.collarmc.server.cluster;
+
+import com.collarmc.api.session.Player;
+
+import java.util.Optional;
+import java.util.UUID;
+
+/**
+ * Directory shared by every node of the cluster, recording which node each connected player's session is on
+ */
+public interface ClusterDirectory {
+    /**
+     * Record that the player's session is on the node, replacing any node it was on before
+     * @param player connected
+     * @param node the session is on
+     */
+    void publish(Player player, String node);
+
+    /**
+     * Remove the profile, unless it has since connected to another node
+     * @param profile disconnected
+     * @param node the session was on
+     */
+    void withdraw(UUID profile, String node);
+
+    /**
+     * @param profile to find
+     * @return node the profile's session is on or empty if it is not connected
+     */
+    Optional<String> find(UUID profile);
+
+    /**
+     * @param profile to find
+     * @return player connected with the profile, on any node
+     */
+    Optional<Player> findPlayer(UUID profile);
+
+    /**
+     * @param minecraftPlayer id of the minecraft player
+     * @return player connected as the minecraft player, on any node
+     */
+    Optional<Player> findByMinecraftPlayer(UUID minecraftPlayer);
+}
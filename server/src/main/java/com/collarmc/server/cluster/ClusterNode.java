@@ -0,0 +1,165 @@
+package com.collarmc.server.cluster;
+
+import com.collarmc.api.identity.ClientIdentity;
+import com.collarmc.api.session.Player;
+import com.collarmc.io.IO;
+import com.collarmc.protocol.PacketIO;
+import com.collarmc.protocol.PacketTypes;
+import com.collarmc.protocol.ProtocolResponse;
+import com.collarmc.security.messages.CipherException;
+import com.collarmc.server.configuration.ClusterConfiguration;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Optional;
+import java.util.UUID;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.BiConsumer;
+
+/**
+ * This server's membership of the cluster.
+ * Each node owns the sessions connected to it and publishes which players those are to the {@link ClusterDirectory},
+ * so that services looking for a recipient can find players connected to other nodes.
+ * A response for a profile connected to another node is forwarded to that node over the {@link ClusterTransport},
+ * which encrypts it and sends it to the session. Responses travel between nodes as plain packets, as every node
+ * shares the server identity and only the node holding the session knows which packet version it speaks.
+ */
+public final class ClusterNode {
+
+    private static final Logger LOGGER = LogManager.getLogger(ClusterNode.class.getName());
+
+    public final String id;
+    private final ClusterDirectory directory;
+    private final ClusterTransport transport;
+    private final PacketIO frames;
+    private final LongAdder forwarded = new LongAdder();
+    private final LongAdder received = new LongAdder();
+    private final LongAdder unreachable = new LongAdder();
+    private volatile BiConsumer<UUID, ProtocolResponse> localDelivery;
+
+    public ClusterNode(ClusterConfiguration configuration, ObjectMapper packetMapper) {
+        this.id = configuration.nodeId;
+        this.directory = configuration.directory;
+        this.transport = configuration.transport;
+        this.frames = new PacketIO(packetMapper, null, PacketTypes.defaults());
+    }
+
+    /**
+     * Start receiving responses forwarded by other nodes
+     * @param localDelivery sends a forwarded response to the profile's session on this node
+     */
+    public void start(BiConsumer<UUID, ProtocolResponse> localDelivery) {
+        this.localDelivery = localDelivery;
+        transport.register(id, this::receive);
+        LOGGER.info("Node " + id + " joined the cluster");
+    }
+
+    public void stop() {
+        transport.unregister(id);
+    }
+
+    /**
+     * Publish that the player's session is on this node
+     * @param player of the session
+     */
+    public void sessionStarted(Player player) {
+        directory.publish(player, id);
+    }
+
+    /**
+     * Withdraw the identity's session from the directory
+     * @param identity of the session
+     */
+    public void sessionStopped(ClientIdentity identity) {
+        directory.withdraw(identity.id(), id);
+    }
+
+    /**
+     * @param profile to find
+     * @return player with the profile connected to another node
+     */
+    public Optional<Player> findRemotePlayer(UUID profile) {
+        return directory.findPlayer(profile).filter(this::isRemote);
+    }
+
+    /**
+     * @param minecraftPlayer id of the minecraft player
+     * @return player connected to another node as the minecraft player
+     */
+    public Optional<Player> findRemotePlayerByMinecraftPlayer(UUID minecraftPlayer) {
+        return directory.findByMinecraftPlayer(minecraftPlayer).filter(this::isRemote);
+    }
+
+    private boolean isRemote(Player player) {
+        return directory.find(player.identity.id()).filter(node -> !node.equals(id)).isPresent();
+    }
+
+    /**
+     * Forward a response to the node the recipient is connected to
+     * @param recipient of the response
+     * @param response to send
+     * @return if the recipient is on another node and the response was handed to it
+     */
+    public boolean forward(ClientIdentity recipient, ProtocolResponse response) {
+        Optional<String> node = directory.find(recipient.id());
+        if (node.isEmpty() || node.get().equals(id)) {
+            return false;
+        }
+        byte[] packet;
+        try {
+            packet = frames.encodePlain(response);
+        } catch (IOException e) {
+            throw new IllegalStateException("could not write " + response.getClass().getSimpleName() + " for node " + node.get(), e);
+        }
+        ByteBuffer frame = ByteBuffer.allocate(16 + packet.length);
+        IO.writeUUID(frame, recipient.id());
+        frame.put(packet);
+        if (transport.send(node.get(), frame.array())) {
+            forwarded.increment();
+            return true;
+        }
+        unreachable.increment();
+        LOGGER.warn("Node " + node.get() + " holding the session of " + recipient.id() + " is unreachable");
+        return false;
+    }
+
+    /**
+     * @return responses forwarded to other nodes
+     */
+    public long forwarded() {
+        return forwarded.sum();
+    }
+
+    /**
+     * @return responses forwarded by other nodes to sessions on this node
+     */
+    public long received() {
+        return received.sum();
+    }
+
+    /**
+     * @return responses that could not be forwarded as the recipient's node was unreachable
+     */
+    public long unreachable() {
+        return unreachable.sum();
+    }
+
+    private void receive(byte[] frame) {
+        ByteBuffer buffer = ByteBuffer.wrap(frame);
+        UUID profile = IO.readUUID(buffer);
+        ProtocolResponse response;
+        try {
+            response = frames.decode(null, frame, buffer.position(), buffer.remaining(), ProtocolResponse.class).orElse(null);
+        } catch (IOException | CipherException e) {
+            LOGGER.error("Could not read response forwarded for " + profile, e);
+            return;
+        }
+        if (response != null) {
+            received.increment();
+            localDelivery.accept(profile, response);
+        }
+    }
+}
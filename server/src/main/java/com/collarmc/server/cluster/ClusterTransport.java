@@ -0,0 +1,29 @@
+package com.collarmc.server.cluster;
+
+import java.util.function.Consumer;
+
+/**
+ * Carries frames between the nodes of a cluster
+ */
+public interface ClusterTransport {
+    /**
+     * Start receiving frames sent to the node
+     * @param node id
+     * @param listener of frames sent to the node
+     */
+    void register(String node, Consumer<byte[]> listener);
+
+    /**
+     * Stop receiving frames sent to the node
+     * @param node id
+     */
+    void unregister(String node);
+
+    /**
+     * Send a frame to a node. Frames sent to the same node arrive in the order they were sent.
+     * @param node to send to
+     * @param frame to send
+     * @return if the node was reachable
+     */
+    boolean send(String node, byte[] frame);
+}
@@ -0,0 +1,70 @@
+package com.collarmc.server.cluster;
+
+import com.collarmc.api.session.Player;
+
+import java.util.Optional;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Directory held in memory, shared by nodes running in the same JVM
+ */
+public final class InMemoryClusterDirectory implements ClusterDirectory {
+
+    private final ConcurrentMap<UUID, Entry> entries = new ConcurrentHashMap<>();
+    private final ConcurrentMap<UUID, UUID> minecraftPlayers = new ConcurrentHashMap<>();
+
+    @Override
+    public void publish(Player player, String node) {
+        UUID profile = player.identity.id();
+        entries.compute(profile, (key, previous) -> {
+            // The profile may have moved to another minecraft player, or have none now
+            if (previous != null && previous.player.minecraftPlayer != null) {
+                minecraftPlayers.remove(previous.player.minecraftPlayer.id, profile);
+            }
+            if (player.minecraftPlayer != null) {
+                minecraftPlayers.put(player.minecraftPlayer.id, profile);
+            }
+            return new Entry(player, node);
+        });
+    }
+
+    @Override
+    public void withdraw(UUID profile, String node) {
+        entries.computeIfPresent(profile, (key, entry) -> {
+            if (!entry.node.equals(node)) {
+                return entry;
+            }
+            if (entry.player.minecraftPlayer != null) {
+                minecraftPlayers.remove(entry.player.minecraftPlayer.id, profile);
+            }
+            return null;
+        });
+    }
+
+    @Override
+    public Optional<String> find(UUID profile) {
+        return Optional.ofNullable(entries.get(profile)).map(entry -> entry.node);
+    }
+
+    @Override
+    public Optional<Player> findPlayer(UUID profile) {
+        return Optional.ofNullable(entries.get(profile)).map(entry -> entry.player);
+    }
+
+    @Override
+    public Optional<Player> findByMinecraftPlayer(UUID minecraftPlayer) {
+        return Optional.ofNullable(minecraftPlayers.get(minecraftPlayer)).flatMap(this::findPlayer);
+    }
+
+    private static final class Entry {
+        final Player player;
+        final String node;
+
+        Entry(Player player, String node) {
+            this.player = player;
+            this.node = node;
+        }
+    }
+}
@@ -0,0 +1,35 @@
+package com.collarmc.server.cluster;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.function.Consumer;
+
+/**
+ * Delivers frames to nodes running in the same JVM on the sending thread, so that a cluster can be run in one process
+ */
+public final class LoopbackClusterTransport implements ClusterTransport {
+
+    private final ConcurrentMap<String, Consumer<byte[]>> listeners = new ConcurrentHashMap<>();
+
+    @Override
+    public void register(String node, Consumer<byte[]> listener) {
+        if (listeners.putIfAbsent(node, listener) != null) {
+            throw new IllegalStateException("node " + node + " is already registered");
+        }
+    }
+
+    @Override
+    public void unregister(String node) {
+        listeners.remove(node);
+    }
+
+    @Override
+    public boolean send(String node, byte[] frame) {
+        Consumer<byte[]> listener = listeners.get(node);
+        if (listener == null) {
+            return false;
+        }
+        listener.accept(frame);
+        return true;
+    }
+}
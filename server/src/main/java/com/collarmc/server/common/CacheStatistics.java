@@ -0,0 +1,33 @@
+package com.collarmc.server.common;
+
+import com.fasterxml.jackson.annotation.JsonProperty;
+
+/**
+ * Point in time statistics of a server side cache
+ */
+public final class CacheStatistics {
+    @JsonProperty("size")
+    public final long size;
+    @JsonProperty("hits")
+    public final long hits;
+    @JsonProperty("misses")
+    public final long misses;
+    @JsonProperty("hitRate")
+    public final double hitRate;
+    @JsonProperty("evictions")
+    public final long evictions;
+    @JsonProperty("loads")
+    public final long loads;
+    @JsonProperty("averageLoadMillis")
+    public final double averageLoadMillis;
+
+    public CacheStatistics(long size, long hits, long misses, long evictions, long loads, double averageLoadMillis) {
+        this.size = size;
+        this.hits = hits;
+        this.misses = misses;
+        this.hitRate = hits + misses == 0 ? 1.0 : (double) hits / (hits + misses);
+        this.evictions = evictions;
+        this.loads = loads;
+        this.averageLoadMillis = averageLoadMillis;
+    }
+}
@@ -0,0 +1,67 @@
+package com.collarmc.server.common;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Counts how long something took, in fixed buckets from 100 microseconds up to one second
+ */
+public final class LatencyHistogram {
+    private static final long[] BUCKETS_MICROS = { 100, 250, 500, 1_000, 2_500, 5_000, 10_000, 25_000, 50_000, 100_000, 250_000, 1_000_000 };
+
+    private final LongAdder count = new LongAdder();
+    private final LongAdder totalNanos = new LongAdder();
+    private final LongAdder[] buckets = new LongAdder[BUCKETS_MICROS.length + 1];
+
+    public LatencyHistogram() {
+        for (int i = 0; i < buckets.length; i++) {
+            buckets[i] = new LongAdder();
+        }
+    }
+
+    /**
+     * @return upper bounds of the buckets in microseconds
+     */
+    public static long[] bucketBounds() {
+        return BUCKETS_MICROS.clone();
+    }
+
+    /**
+     * @param nanos taken
+     */
+    public void record(long nanos) {
+        count.increment();
+        totalNanos.add(nanos);
+        long micros = TimeUnit.NANOSECONDS.toMicros(nanos);
+        int bucket = 0;
+        while (bucket < BUCKETS_MICROS.length && micros > BUCKETS_MICROS[bucket]) {
+            bucket++;
+        }
+        buckets[bucket].increment();
+    }
+
+    /**
+     * @return number recorded
+     */
+    public long count() {
+        return count.sum();
+    }
+
+    /**
+     * @return total of the times recorded
+     */
+    public long totalTime(TimeUnit unit) {
+        return unit.convert(totalNanos.sum(), TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * @return number in each bucket of {@link #bucketBounds()}, with one extra bucket for anything slower
+     */
+    public long[] buckets() {
+        long[] counts = new long[buckets.length];
+        for (int i = 0; i < buckets.length; i++) {
+            counts[i] = buckets[i].sum();
+        }
+        return counts;
+    }
+}
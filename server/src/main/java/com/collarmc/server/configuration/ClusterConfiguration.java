@@ -0,0 +1,41 @@
+package com.collarmc.server.configuration;
+
+import com.collarmc.server.cluster.ClusterDirectory;
+import com.collarmc.server.cluster.ClusterTransport;
+import com.collarmc.server.cluster.InMemoryClusterDirectory;
+import com.collarmc.server.cluster.LoopbackClusterTransport;
+
+import java.util.UUID;
+
+/**
+ * Membership of a {@link com.collarmc.server.cluster.ClusterNode} in a cluster of servers
+ */
+public final class ClusterConfiguration {
+    /** Id of this node, unique within the cluster **/
+    public final String nodeId;
+    /** Directory of the node each profile is connected to, shared by every node **/
+    public final ClusterDirectory directory;
+    /** Carries responses between nodes **/
+    public final ClusterTransport transport;
+
+    public ClusterConfiguration(String nodeId, ClusterDirectory directory, ClusterTransport transport) {
+        this.nodeId = nodeId;
+        this.directory = directory;
+        this.transport = transport;
+    }
+
+    /**
+     * @return cluster of one node, where every session is local
+     */
+    public static ClusterConfiguration standalone() {
+        return new ClusterConfiguration(UUID.randomUUID().toString(), new InMemoryClusterDirectory(), new LoopbackClusterTransport());
+    }
+
+    /**
+     * @param nodeId of the new node
+     * @return configuration of another node joining the same directory and transport
+     */
+    public ClusterConfiguration withNode(String nodeId) {
+        return new ClusterConfiguration(nodeId, directory, transport);
+    }
+}
@@ -1,5 +1,6 @@
 package com.collarmc.server.configuration;
 
+import com.collarmc.api.location.LocationCodec;
 import com.collarmc.http.HttpClient;
 import com.collarmc.server.http.AppUrlProvider;
 import com.collarmc.server.http.CollarWebAppUrlProvider;
@@ -30,6 +31,16 @@ public class Configuration {
     public final int httpPort;
     public final Email email;
     public final HttpClient http;
+    public final ProfileCacheConfiguration profileCache;
+    public final ProtocolExecutorConfiguration protocolExecutor;
+    /** Bearer token Prometheus scrapes {@code /api/metrics} with, or null to not serve metrics **/
+    public final String metricsToken;
+    public final ClusterConfiguration cluster;
+    public final OutboundQueueConfiguration outbound;
+    public final RateLimitConfiguration rateLimits;
+    /** Advertise {@link LocationCodec#FEATURE}. Only enable once every client of the server decodes locations written by the codec **/
+    public final boolean locationCodec;
+    public final NearbyGroupsConfiguration nearbyGroups;
 
     public Configuration(MongoDatabase database,
                          AppUrlProvider appUrlProvider,
@@ -40,7 +51,15 @@ public class Configuration {
                          boolean enableWeb,
                          int httpPort,
                          Email email,
-                         HttpClient http
+                         HttpClient http,
+                         ProfileCacheConfiguration profileCache,
+                         ProtocolExecutorConfiguration protocolExecutor,
+                         String metricsToken,
+                         ClusterConfiguration cluster,
+                         OutboundQueueConfiguration outbound,
+                         RateLimitConfiguration rateLimits,
+                         boolean locationCodec,
+                         NearbyGroupsConfiguration nearbyGroups
     ) {
         this.database = database;
         this.appUrlProvider = appUrlProvider;
@@ -52,6 +71,14 @@ public class Configuration {
         this.httpPort = httpPort;
         this.email = email;
         this.http = http;
+        this.profileCache = profileCache;
+        this.protocolExecutor = protocolExecutor;
+        this.metricsToken = metricsToken;
+        this.cluster = cluster;
+        this.outbound = outbound;
+        this.rateLimits = rateLimits;
+        this.locationCodec = locationCodec;
+        this.nearbyGroups = nearbyGroups;
         LOGGER.info("Using Email type " + email.getClass().getSimpleName());
     }
 
@@ -94,7 +121,15 @@ public class Configuration {
                 enableWeb,
                 httpPort(),
                 new MailGunEmail(http, appUrlProvider, mailgunDomain, mailgunApiKey),
-                http
+                http,
+                ProfileCacheConfiguration.fromEnvironment(),
+                ProtocolExecutorConfiguration.fromEnvironment(),
+                System.getenv("COLLAR_METRICS_TOKEN"),
+                ClusterConfiguration.standalone(),
+                OutboundQueueConfiguration.fromEnvironment(),
+                RateLimitConfiguration.fromEnvironment(),
+                Boolean.parseBoolean(System.getenv("COLLAR_LOCATION_CODEC")),
+                NearbyGroupsConfiguration.fromEnvironment()
         );
     }
 
@@ -111,7 +146,15 @@ public class Configuration {
                 true,
                 httpPort(),
                 new LocalEmail(appUrlProvider),
-                new HttpClient(null));
+                new HttpClient(null),
+                ProfileCacheConfiguration.defaults(),
+                ProtocolExecutorConfiguration.defaults(),
+                null,
+                ClusterConfiguration.standalone(),
+                OutboundQueueConfiguration.defaults(),
+                RateLimitConfiguration.defaults(),
+                true,
+                NearbyGroupsConfiguration.defaults());
     }
 
     public static Configuration testConfiguration(MongoDatabase db, MinecraftSessionVerifier sessionVerifier) {
@@ -127,7 +170,15 @@ public class Configuration {
                 false,
                 3001,
                 new LocalEmail(appUrlProvider),
-                new HttpClient(null));
+                new HttpClient(null),
+                ProfileCacheConfiguration.defaults(),
+                ProtocolExecutorConfiguration.defaults(),
+                null,
+                ClusterConfiguration.standalone(),
+                OutboundQueueConfiguration.defaults(),
+                RateLimitConfiguration.defaults(),
+                true,
+                NearbyGroupsConfiguration.defaults());
     }
 
     private static int httpPort() {
@@ -0,0 +1,22 @@
+package com.collarmc.server.configuration;
+
+/**
+ * Tuning for {@link com.collarmc.server.services.location.ShardedNearbyGroups}
+ */
+public final class NearbyGroupsConfiguration {
+    /** Shards that nearby groups are calculated on, split by minecraft server **/
+    public final int shards;
+
+    public NearbyGroupsConfiguration(int shards) {
+        this.shards = shards;
+    }
+
+    public static NearbyGroupsConfiguration defaults() {
+        return new NearbyGroupsConfiguration(Runtime.getRuntime().availableProcessors());
+    }
+
+    public static NearbyGroupsConfiguration fromEnvironment() {
+        String shards = System.getenv("COLLAR_NEARBY_SHARDS");
+        return shards == null ? defaults() : new NearbyGroupsConfiguration(Integer.parseInt(shards));
+    }
+}
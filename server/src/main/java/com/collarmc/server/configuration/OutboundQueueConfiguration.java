@@ -0,0 +1,50 @@
+package com.collarmc.server.configuration;
+
+/**
+ * Limits of the queue of packets waiting to be written to each session by {@link com.collarmc.server.session.OutboundQueues}
+ */
+public final class OutboundQueueConfiguration {
+    /** Packets queued or being written to a session before it is treated as too slow **/
+    public final int maxFrames;
+    /** Bytes queued or being written to a session before it is treated as too slow **/
+    public final long maxBytes;
+    /** Most packets handed to Jetty as one coalesced write **/
+    public final int batchFrames;
+    /** What happens to a session that is too slow **/
+    public final Overflow overflow;
+
+    public OutboundQueueConfiguration(int maxFrames, long maxBytes, int batchFrames, Overflow overflow) {
+        this.maxFrames = maxFrames;
+        this.maxBytes = maxBytes;
+        this.batchFrames = batchFrames;
+        this.overflow = overflow;
+    }
+
+    public static OutboundQueueConfiguration defaults() {
+        return new OutboundQueueConfiguration(512, 4 * 1024 * 1024, 32, Overflow.DISCONNECT);
+    }
+
+    public static OutboundQueueConfiguration fromEnvironment() {
+        OutboundQueueConfiguration defaults = defaults();
+        String maxBytes = System.getenv("COLLAR_OUTBOUND_MAX_BYTES");
+        String overflow = System.getenv("COLLAR_OUTBOUND_OVERFLOW");
+        return new OutboundQueueConfiguration(
+                intFromEnvironment("COLLAR_OUTBOUND_MAX_FRAMES", defaults.maxFrames),
+                maxBytes == null ? defaults.maxBytes : Long.parseLong(maxBytes),
+                intFromEnvironment("COLLAR_OUTBOUND_BATCH_FRAMES", defaults.batchFrames),
+                overflow == null ? defaults.overflow : Overflow.valueOf(overflow.toUpperCase())
+        );
+    }
+
+    private static int intFromEnvironment(String name, int defaultValue) {
+        String value = System.getenv(name);
+        return value == null ? defaultValue : Integer.parseInt(value);
+    }
+
+    public enum Overflow {
+        /** Drop packets sent to the session until it catches up **/
+        DROP,
+        /** Disconnect the session so the client reconnects with fresh state **/
+        DISCONNECT
+    }
+}
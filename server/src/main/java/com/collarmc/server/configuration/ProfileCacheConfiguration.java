@@ -0,0 +1,43 @@
+package com.collarmc.server.configuration;
+
+import java.time.Duration;
+
+/**
+ * Tuning for {@link com.collarmc.server.services.profiles.ProfileCache}
+ */
+public final class ProfileCacheConfiguration {
+    /** Maximum number of profiles held **/
+    public final long maximumSize;
+    /** How long a profile is kept after it was last read **/
+    public final Duration expireAfterAccess;
+    /** Profiles read after this long are reloaded in the background, keeping profiles of active players fresh **/
+    public final Duration refreshAfterWrite;
+    /** How long an id that has no profile is remembered for **/
+    public final Duration negativeExpiry;
+
+    public ProfileCacheConfiguration(long maximumSize, Duration expireAfterAccess, Duration refreshAfterWrite, Duration negativeExpiry) {
+        this.maximumSize = maximumSize;
+        this.expireAfterAccess = expireAfterAccess;
+        this.refreshAfterWrite = refreshAfterWrite;
+        this.negativeExpiry = negativeExpiry;
+    }
+
+    public static ProfileCacheConfiguration defaults() {
+        return new ProfileCacheConfiguration(10_000, Duration.ofSeconds(30), Duration.ofSeconds(15), Duration.ofSeconds(5));
+    }
+
+    public static ProfileCacheConfiguration fromEnvironment() {
+        ProfileCacheConfiguration defaults = defaults();
+        return new ProfileCacheConfiguration(
+                longFromEnvironment("COLLAR_PROFILE_CACHE_SIZE", defaults.maximumSize),
+                Duration.ofSeconds(longFromEnvironment("COLLAR_PROFILE_CACHE_EXPIRE_SECONDS", defaults.expireAfterAccess.getSeconds())),
+                Duration.ofSeconds(longFromEnvironment("COLLAR_PROFILE_CACHE_REFRESH_SECONDS", defaults.refreshAfterWrite.getSeconds())),
+                Duration.ofSeconds(longFromEnvironment("COLLAR_PROFILE_CACHE_NEGATIVE_SECONDS", defaults.negativeExpiry.getSeconds()))
+        );
+    }
+
+    private static long longFromEnvironment(String name, long defaultValue) {
+        String value = System.getenv(name);
+        return value == null ? defaultValue : Long.parseLong(value);
+    }
+}
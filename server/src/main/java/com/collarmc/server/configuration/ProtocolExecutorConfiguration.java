@@ -0,0 +1,46 @@
+package com.collarmc.server.configuration;
+
+/**
+ * Tuning for {@link com.collarmc.server.session.ProtocolExecutor} and the other threads protocol work runs on
+ */
+public final class ProtocolExecutorConfiguration {
+    /** Run protocol work on virtual threads when the JVM supports them **/
+    public final boolean virtualThreads;
+    /** Threads decoding and handling packets when virtual threads are not used **/
+    public final int workerThreads;
+    /** Threads for requests that wait on Mojang or the database when virtual threads are not used **/
+    public final int blockingThreads;
+    /** Packets from a session waiting to be handled at which the client is asked to send less often **/
+    public final int backpressureThreshold;
+    /** Packets from a session waiting to be handled at which the session is disconnected **/
+    public final int maxQueuedPackets;
+
+    public ProtocolExecutorConfiguration(boolean virtualThreads, int workerThreads, int blockingThreads, int backpressureThreshold, int maxQueuedPackets) {
+        this.virtualThreads = virtualThreads;
+        this.workerThreads = workerThreads;
+        this.blockingThreads = blockingThreads;
+        this.backpressureThreshold = backpressureThreshold;
+        this.maxQueuedPackets = maxQueuedPackets;
+    }
+
+    public static ProtocolExecutorConfiguration defaults() {
+        return new ProtocolExecutorConfiguration(true, Runtime.getRuntime().availableProcessors() * 2, 64, 32, 256);
+    }
+
+    public static ProtocolExecutorConfiguration fromEnvironment() {
+        ProtocolExecutorConfiguration defaults = defaults();
+        String virtualThreads = System.getenv("COLLAR_PROTOCOL_VIRTUAL_THREADS");
+        return new ProtocolExecutorConfiguration(
+                virtualThreads == null ? defaults.virtualThreads : Boolean.parseBoolean(virtualThreads),
+                intFromEnvironment("COLLAR_PROTOCOL_THREADS", defaults.workerThreads),
+                intFromEnvironment("COLLAR_PROTOCOL_BLOCKING_THREADS", defaults.blockingThreads),
+                intFromEnvironment("COLLAR_PROTOCOL_BACKPRESSURE_THRESHOLD", defaults.backpressureThreshold),
+                intFromEnvironment("COLLAR_PROTOCOL_MAX_QUEUED_PACKETS", defaults.maxQueuedPackets)
+        );
+    }
+
+    private static int intFromEnvironment(String name, int defaultValue) {
+        String value = System.getenv(name);
+        return value == null ? defaultValue : Integer.parseInt(value);
+    }
+}
@@ -0,0 +1,145 @@
+package com.collarmc.server.configuration;
+
+import com.collarmc.protocol.PacketTypes;
+import com.collarmc.protocol.ProtocolRequest;
+import com.collarmc.protocol.friends.AddFriendRequest;
+import com.collarmc.protocol.friends.GetFriendListRequest;
+import com.collarmc.protocol.friends.RemoveFriendRequest;
+import com.collarmc.protocol.groups.*;
+import com.collarmc.protocol.identity.GetIdentityRequest;
+import com.collarmc.protocol.identity.GetProfileRequest;
+import com.collarmc.protocol.keepalive.KeepAliveRequest;
+import com.collarmc.protocol.location.StartSharingLocationRequest;
+import com.collarmc.protocol.location.StopSharingLocationRequest;
+import com.collarmc.protocol.messaging.SendMessageRequest;
+import com.collarmc.protocol.textures.GetTextureRequest;
+import com.collarmc.protocol.waypoints.CreateWaypointRequest;
+import com.collarmc.protocol.waypoints.GetWaypointsRequest;
+import com.collarmc.protocol.waypoints.RemoveWaypointRequest;
+
+import java.time.Duration;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Limits enforced by {@link com.collarmc.server.protocol.RateLimiter}
+ */
+public final class RateLimitConfiguration {
+    /** Cost of request types without their own cost **/
+    public static final int DEFAULT_COST = 1;
+
+    /** Packets a socket may send per second before it is disconnected for flooding **/
+    public final long packetsPerSecond;
+    /** Packets a socket may send per hour before it is disconnected for flooding **/
+    public final long packetsPerHour;
+    /** Cost an identity may spend per second, kept across reconnects **/
+    public final long identityPerSecond;
+    /** Cost an identity may spend per hour, kept across reconnects **/
+    public final long identityPerHour;
+    /** Cost every identity together may spend per second **/
+    public final long serverPerSecond;
+    /** Longest a request over budget is held back waiting for it, before it is dropped instead **/
+    public final Duration maxDeferral;
+    /** Cost of each type of request, types not listed cost {@link #DEFAULT_COST} **/
+    public final Map<Class<? extends ProtocolRequest>, Integer> costs;
+
+    public RateLimitConfiguration(long packetsPerSecond,
+                                  long packetsPerHour,
+                                  long identityPerSecond,
+                                  long identityPerHour,
+                                  long serverPerSecond,
+                                  Duration maxDeferral,
+                                  Map<Class<? extends ProtocolRequest>, Integer> costs) {
+        this.packetsPerSecond = packetsPerSecond;
+        this.packetsPerHour = packetsPerHour;
+        this.identityPerSecond = identityPerSecond;
+        this.identityPerHour = identityPerHour;
+        this.serverPerSecond = serverPerSecond;
+        this.maxDeferral = maxDeferral;
+        this.costs = Map.copyOf(costs);
+    }
+
+    /**
+     * @param type of request
+     * @return cost of the request
+     */
+    public int cost(Class<? extends ProtocolRequest> type) {
+        return costs.getOrDefault(type, DEFAULT_COST);
+    }
+
+    public static RateLimitConfiguration defaults() {
+        Map<Class<? extends ProtocolRequest>, Integer> costs = new HashMap<>();
+        // Answered without touching any state
+        costs.put(KeepAliveRequest.class, 0);
+        // Reads
+        costs.put(GetIdentityRequest.class, 2);
+        costs.put(GetProfileRequest.class, 2);
+        costs.put(GetTextureRequest.class, 2);
+        costs.put(GetWaypointsRequest.class, 2);
+        costs.put(GetFriendListRequest.class, 2);
+        costs.put(SendMessageRequest.class, 2);
+        costs.put(StartSharingLocationRequest.class, 2);
+        costs.put(StopSharingLocationRequest.class, 2);
+        // Writes to the database that are sent to other members
+        costs.put(JoinGroupRequest.class, 5);
+        costs.put(LeaveGroupRequest.class, 5);
+        costs.put(GroupInviteRequest.class, 5);
+        costs.put(EjectGroupMemberRequest.class, 5);
+        costs.put(AddFriendRequest.class, 5);
+        costs.put(RemoveFriendRequest.class, 5);
+        costs.put(CreateWaypointRequest.class, 5);
+        costs.put(RemoveWaypointRequest.class, 5);
+        costs.put(CreateGroupRequest.class, 10);
+        costs.put(DeleteGroupRequest.class, 10);
+        costs.put(TransferGroupOwnershipRequest.class, 10);
+        return new RateLimitConfiguration(50, 18_000, 40, 36_000, 10_000, Duration.ofSeconds(1), costs);
+    }
+
+    public static RateLimitConfiguration fromEnvironment() {
+        RateLimitConfiguration defaults = defaults();
+        String costs = System.getenv("COLLAR_RATE_LIMIT_COSTS");
+        return new RateLimitConfiguration(
+                longFromEnvironment("COLLAR_RATE_LIMIT_PACKETS_PER_SECOND", defaults.packetsPerSecond),
+                longFromEnvironment("COLLAR_RATE_LIMIT_PACKETS_PER_HOUR", defaults.packetsPerHour),
+                longFromEnvironment("COLLAR_RATE_LIMIT_IDENTITY_PER_SECOND", defaults.identityPerSecond),
+                longFromEnvironment("COLLAR_RATE_LIMIT_IDENTITY_PER_HOUR", defaults.identityPerHour),
+                longFromEnvironment("COLLAR_RATE_LIMIT_SERVER_PER_SECOND", defaults.serverPerSecond),
+                Duration.ofMillis(longFromEnvironment("COLLAR_RATE_LIMIT_MAX_DEFERRAL_MILLIS", defaults.maxDeferral.toMillis())),
+                costs == null ? defaults.costs : parseCosts(costs, defaults.costs)
+        );
+    }
+
+    /**
+     * @param value of comma separated costs by request name, such as {@code CreateGroupRequest=20,GetTextureRequest=1}
+     * @param defaults costs the value overrides
+     * @return costs
+     */
+    static Map<Class<? extends ProtocolRequest>, Integer> parseCosts(String value, Map<Class<? extends ProtocolRequest>, Integer> defaults) {
+        Map<String, Class<? extends ProtocolRequest>> requests = new HashMap<>();
+        PacketTypes types = PacketTypes.defaults();
+        types.toMap().values().forEach(id -> {
+            Class<?> type = types.type(id);
+            if (ProtocolRequest.class.isAssignableFrom(type)) {
+                requests.put(type.getSimpleName(), type.asSubclass(ProtocolRequest.class));
+            }
+        });
+        Map<Class<? extends ProtocolRequest>, Integer> costs = new HashMap<>(defaults);
+        for (String entry : value.split(",")) {
+            if (entry.isBlank()) {
+                continue;
+            }
+            String[] parts = entry.split("=");
+            Class<? extends ProtocolRequest> type = parts.length == 2 ? requests.get(parts[0].trim()) : null;
+            if (type == null) {
+                throw new IllegalStateException("COLLAR_RATE_LIMIT_COSTS entry '" + entry + "' is not a known request and cost");
+            }
+            costs.put(type, Integer.parseInt(parts[1].trim()));
+        }
+        return costs;
+    }
+
+    private static long longFromEnvironment(String name, long defaultValue) {
+        String value = System.getenv(name);
+        return value == null ? defaultValue : Long.parseLong(value);
+    }
+}
@@ -0,0 +1,270 @@
+package com.collarmc.server.http;
+
+import com.collarmc.server.Services;
+import com.collarmc.server.common.CacheStatistics;
+import com.collarmc.server.common.LatencyHistogram;
+import com.collarmc.server.mongo.Mongo;
+import com.collarmc.server.mongo.MongoMetrics;
+import com.collarmc.server.protocol.ProtocolMetrics;
+import com.collarmc.server.protocol.RateLimitMetrics;
+import com.collarmc.server.services.location.ShardedNearbyGroups;
+import com.collarmc.server.session.FanOutMetrics;
+import com.collarmc.server.session.OutboundMetrics;
+
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryUsage;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Writes the server's metrics in the Prometheus text exposition format
+ */
+public final class PrometheusMetrics {
+
+    public static final String CONTENT_TYPE = "text/plain; version=0.0.4; charset=utf-8";
+
+    private final Services services;
+
+    public PrometheusMetrics(Services services) {
+        this.services = services;
+    }
+
+    /**
+     * @return current value of every metric
+     */
+    public String scrape() {
+        Writer writer = new Writer();
+        sessions(writer);
+        protocol(writer);
+        rateLimits(writer);
+        fanOut(writer);
+        outbound(writer);
+        cluster(writer);
+        nearby(writer);
+        caches(writer);
+        mongo(writer);
+        jvm(writer);
+        return writer.toString();
+    }
+
+    private void sessions(Writer writer) {
+        writer.family("collar_sessions", "gauge", "Sessions connected to the server")
+                .sample("collar_sessions", Map.of(), services.sessions.count());
+        writer.family("collar_protocol_queues", "gauge", "Sessions with packets being handled or waiting to be")
+                .sample("collar_protocol_queues", Map.of(), services.protocolExecutor.sessions());
+    }
+
+    private void protocol(Writer writer) {
+        Map<String, ProtocolMetrics.RequestMetrics> requests = services.protocolMetrics.requests();
+        writer.family("collar_protocol_requests_total", "counter", "Requests handled by type");
+        requests.forEach((type, metrics) -> writer.sample("collar_protocol_requests_total", Map.of("type", type), metrics.count()));
+        writer.family("collar_protocol_request_errors_total", "counter", "Requests that failed by type");
+        requests.forEach((type, metrics) -> writer.sample("collar_protocol_request_errors_total", Map.of("type", type), metrics.errors()));
+        writer.family("collar_protocol_request_seconds", "histogram", "Time taken to handle requests by type");
+        requests.forEach((type, metrics) -> writer.histogram("collar_protocol_request_seconds", Map.of("type", type), metrics.latency()));
+        writer.family("collar_protocol_decode_seconds", "histogram", "Time taken to decode and decrypt packets")
+                .histogram("collar_protocol_decode_seconds", Map.of(), services.protocolMetrics.decodeLatency());
+        writer.family("collar_protocol_encode_seconds", "histogram", "Time taken to encode and encrypt packets sent to one session")
+                .histogram("collar_protocol_encode_seconds", Map.of(), services.protocolMetrics.encodeLatency());
+        writer.family("collar_rate_limit_rejections_total", "counter", "Packets refused because the session sent too many")
+                .sample("collar_rate_limit_rejections_total", Map.of(), services.protocolMetrics.rateLimitRejections());
+        writer.family("collar_protocol_batches_total", "counter", "Packets carrying a batch of requests")
+                .sample("collar_protocol_batches_total", Map.of(), services.protocolMetrics.batches());
+        writer.family("collar_protocol_batched_requests_total", "counter", "Requests carried in batches")
+                .sample("collar_protocol_batched_requests_total", Map.of(), services.protocolMetrics.batchedRequests());
+    }
+
+    private void rateLimits(Writer writer) {
+        RateLimitMetrics metrics = services.rateLimiter.metrics;
+        writer.family("collar_rate_limit_identities", "gauge", "Identities with a request budget")
+                .sample("collar_rate_limit_identities", Map.of(), services.rateLimiter.identities());
+        writer.family("collar_rate_limit_exhausted_total", "counter", "Requests over budget by the budget they were over")
+                .sample("collar_rate_limit_exhausted_total", Map.of("scope", "identity"), metrics.identityExhaustions())
+                .sample("collar_rate_limit_exhausted_total", Map.of("scope", "server"), metrics.serverExhaustions());
+        writer.family("collar_rate_limit_deferred_total", "counter", "Times requests were held back until the budget could afford them")
+                .sample("collar_rate_limit_deferred_total", Map.of(), metrics.deferrals());
+        writer.family("collar_rate_limit_dropped_total", "counter", "Requests dropped as the budget could not afford them soon enough by type");
+        metrics.drops().forEach((type, count) -> writer.sample("collar_rate_limit_dropped_total", Map.of("type", type), count));
+    }
+
+    private void fanOut(Writer writer) {
+        FanOutMetrics metrics = services.fanOut.metrics;
+        writer.family("collar_fanout_batches_total", "counter", "Batches of responses sent to many sessions")
+                .sample("collar_fanout_batches_total", Map.of(), metrics.fanOuts());
+        writer.family("collar_fanout_recipients_total", "counter", "Sessions sent to across all batches")
+                .sample("collar_fanout_recipients_total", Map.of(), metrics.recipients());
+        writer.family("collar_fanout_signatures_total", "counter", "Distinct payloads signed")
+                .sample("collar_fanout_signatures_total", Map.of(), metrics.signatures());
+        writer.family("collar_fanout_seals_total", "counter", "Packets sealed for a recipient")
+                .sample("collar_fanout_seals_total", Map.of(), metrics.seals());
+        writer.family("collar_fanout_seconds_total", "counter", "Time spent sending batches by stage")
+                .sample("collar_fanout_seconds_total", Map.of("stage", "sign"), seconds(metrics.signTime(TimeUnit.NANOSECONDS)))
+                .sample("collar_fanout_seconds_total", Map.of("stage", "seal"), seconds(metrics.sealTime(TimeUnit.NANOSECONDS)))
+                .sample("collar_fanout_seconds_total", Map.of("stage", "elapsed"), seconds(metrics.elapsedTime(TimeUnit.NANOSECONDS)));
+    }
+
+    private void outbound(Writer writer) {
+        OutboundMetrics metrics = services.outbound.metrics;
+        writer.family("collar_outbound_queued_packets", "gauge", "Packets queued or being written across all sessions")
+                .sample("collar_outbound_queued_packets", Map.of(), services.outbound.queuedFrames());
+        writer.family("collar_outbound_queued_bytes", "gauge", "Bytes queued or being written across all sessions")
+                .sample("collar_outbound_queued_bytes", Map.of(), services.outbound.queuedBytes());
+        writer.family("collar_outbound_max_queued_packets", "gauge", "Packets queued or being written to the session furthest behind")
+                .sample("collar_outbound_max_queued_packets", Map.of(), services.outbound.maxQueuedFrames());
+        writer.family("collar_outbound_packets_total", "counter", "Packets written to sessions")
+                .sample("collar_outbound_packets_total", Map.of(), metrics.frames());
+        writer.family("collar_outbound_bytes_total", "counter", "Bytes written to sessions")
+                .sample("collar_outbound_bytes_total", Map.of(), metrics.bytes());
+        writer.family("collar_outbound_writes_total", "counter", "Coalesced writes, each carrying one or more packets")
+                .sample("collar_outbound_writes_total", Map.of(), metrics.writes());
+        writer.family("collar_outbound_dropped_total", "counter", "Packets refused as the session was too slow or disconnected")
+                .sample("collar_outbound_dropped_total", Map.of(), metrics.dropped());
+        writer.family("collar_outbound_disconnects_total", "counter", "Sessions disconnected for being too slow")
+                .sample("collar_outbound_disconnects_total", Map.of(), metrics.disconnected());
+        writer.family("collar_outbound_write_failures_total", "counter", "Writes to sessions that failed")
+                .sample("collar_outbound_write_failures_total", Map.of(), metrics.failed());
+    }
+
+    private void cluster(Writer writer) {
+        writer.family("collar_cluster_forwarded_total", "counter", "Responses forwarded to the node holding the recipient's session")
+                .sample("collar_cluster_forwarded_total", Map.of("node", services.cluster.id), services.cluster.forwarded());
+        writer.family("collar_cluster_received_total", "counter", "Responses other nodes forwarded to sessions on this node")
+                .sample("collar_cluster_received_total", Map.of("node", services.cluster.id), services.cluster.received());
+        writer.family("collar_cluster_unreachable_total", "counter", "Responses dropped as the recipient's node was unreachable")
+                .sample("collar_cluster_unreachable_total", Map.of("node", services.cluster.id), services.cluster.unreachable());
+    }
+
+    private void nearby(Writer writer) {
+        List<ShardedNearbyGroups.ShardMetrics> shards = services.playerLocations.nearbyMetrics();
+        writer.family("collar_nearby_shard_pending", "gauge", "Nearby updates waiting for or being processed by each shard");
+        shards.forEach(shard -> writer.sample("collar_nearby_shard_pending", Map.of("shard", Integer.toString(shard.shard)), shard.pending));
+        writer.family("collar_nearby_shard_seconds", "histogram", "Time from submitting a nearby update to a shard to it finishing");
+        shards.forEach(shard -> writer.histogram("collar_nearby_shard_seconds", Map.of("shard", Integer.toString(shard.shard)), shard.latency));
+    }
+
+    private void caches(Writer writer) {
+        Map<String, CacheStatistics> caches = new LinkedHashMap<>();
+        caches.put("profiles", services.profileCache.statistics());
+        caches.put("groups", services.groupStore.statistics());
+        writer.family("collar_cache_size", "gauge", "Entries in the cache");
+        caches.forEach((cache, statistics) -> writer.sample("collar_cache_size", Map.of("cache", cache), statistics.size));
+        writer.family("collar_cache_hits_total", "counter", "Lookups answered from memory");
+        caches.forEach((cache, statistics) -> writer.sample("collar_cache_hits_total", Map.of("cache", cache), statistics.hits));
+        writer.family("collar_cache_misses_total", "counter", "Lookups that went to the database");
+        caches.forEach((cache, statistics) -> writer.sample("collar_cache_misses_total", Map.of("cache", cache), statistics.misses));
+        writer.family("collar_cache_evictions_total", "counter", "Entries evicted from the cache");
+        caches.forEach((cache, statistics) -> writer.sample("collar_cache_evictions_total", Map.of("cache", cache), statistics.evictions));
+        writer.family("collar_cache_hit_ratio", "gauge", "Share of lookups answered from memory");
+        caches.forEach((cache, statistics) -> writer.sample("collar_cache_hit_ratio", Map.of("cache", cache), statistics.hitRate));
+    }
+
+    private void mongo(Writer writer) {
+        Map<String, Map<String, MongoMetrics.CommandMetrics>> commands = Mongo.metrics().commands();
+        writer.family("collar_mongo_command_seconds", "histogram", "Time taken by mongo commands by collection and command");
+        commands.forEach((collection, byCommand) -> byCommand.forEach((command, metrics) ->
+                writer.histogram("collar_mongo_command_seconds", Map.of("collection", collection, "command", command), metrics.latency())));
+        writer.family("collar_mongo_command_errors_total", "counter", "Mongo commands that failed by collection and command");
+        commands.forEach((collection, byCommand) -> byCommand.forEach((command, metrics) ->
+                writer.sample("collar_mongo_command_errors_total", Map.of("collection", collection, "command", command), metrics.errors())));
+    }
+
+    private static void jvm(Writer writer) {
+        MemoryUsage heap = ManagementFactory.getMemoryMXBean().getHeapMemoryUsage();
+        MemoryUsage nonHeap = ManagementFactory.getMemoryMXBean().getNonHeapMemoryUsage();
+        writer.family("jvm_memory_bytes_used", "gauge", "Memory in use by area")
+                .sample("jvm_memory_bytes_used", Map.of("area", "heap"), heap.getUsed())
+                .sample("jvm_memory_bytes_used", Map.of("area", "nonheap"), nonHeap.getUsed());
+        writer.family("jvm_memory_bytes_committed", "gauge", "Memory committed by area")
+                .sample("jvm_memory_bytes_committed", Map.of("area", "heap"), heap.getCommitted())
+                .sample("jvm_memory_bytes_committed", Map.of("area", "nonheap"), nonHeap.getCommitted());
+        writer.family("jvm_memory_bytes_max", "gauge", "Most memory that can be used by area, or -1 when unbounded")
+                .sample("jvm_memory_bytes_max", Map.of("area", "heap"), heap.getMax())
+                .sample("jvm_memory_bytes_max", Map.of("area", "nonheap"), nonHeap.getMax());
+        writer.family("jvm_threads_current", "gauge", "Live threads")
+                .sample("jvm_threads_current", Map.of(), ManagementFactory.getThreadMXBean().getThreadCount());
+        writer.family("jvm_gc_collections_total", "counter", "Garbage collections by collector");
+        for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans()) {
+            writer.sample("jvm_gc_collections_total", Map.of("gc", gc.getName()), gc.getCollectionCount());
+        }
+        writer.family("jvm_gc_collection_seconds_total", "counter", "Time spent in garbage collection by collector");
+        for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans()) {
+            writer.sample("jvm_gc_collection_seconds_total", Map.of("gc", gc.getName()), gc.getCollectionTime() / 1000.0);
+        }
+        writer.family("process_uptime_seconds", "gauge", "Time since the server started")
+                .sample("process_uptime_seconds", Map.of(), ManagementFactory.getRuntimeMXBean().getUptime() / 1000.0);
+    }
+
+    private static double seconds(long nanos) {
+        return nanos / 1e9;
+    }
+
+    /**
+     * Builds the exposition text. Samples of a family must follow its HELP and TYPE lines.
+     */
+    static final class Writer {
+        private final StringBuilder out = new StringBuilder();
+
+        Writer family(String name, String type, String help) {
+            out.append("# HELP ").append(name).append(' ').append(help).append('\n');
+            out.append("# TYPE ").append(name).append(' ').append(type).append('\n');
+            return this;
+        }
+
+        Writer sample(String name, Map<String, String> labels, double value) {
+            out.append(name);
+            if (!labels.isEmpty()) {
+                out.append('{');
+                boolean first = true;
+                // Sorted so that the same series is always written the same way
+                for (Map.Entry<String, String> label : new TreeMap<>(labels).entrySet()) {
+                    if (!first) {
+                        out.append(',');
+                    }
+                    first = false;
+                    out.append(label.getKey()).append("=\"").append(escape(label.getValue())).append('"');
+                }
+                out.append('}');
+            }
+            out.append(' ').append(format(value)).append('\n');
+            return this;
+        }
+
+        /**
+         * Writes the cumulative buckets, sum and count of a histogram in seconds
+         */
+        Writer histogram(String name, Map<String, String> labels, LatencyHistogram histogram) {
+            long[] bounds = LatencyHistogram.bucketBounds();
+            long[] buckets = histogram.buckets();
+            long cumulative = 0;
+            for (int i = 0; i < buckets.length; i++) {
+                cumulative += buckets[i];
+                Map<String, String> bucketLabels = new LinkedHashMap<>(labels);
+                bucketLabels.put("le", i < bounds.length ? format(bounds[i] / 1e6) : "+Inf");
+                sample(name + "_bucket", bucketLabels, cumulative);
+            }
+            sample(name + "_sum", labels, seconds(histogram.totalTime(TimeUnit.NANOSECONDS)));
+            sample(name + "_count", labels, cumulative);
+            return this;
+        }
+
+        private static String format(double value) {
+            if (value == Math.rint(value) && !Double.isInfinite(value) && Math.abs(value) < 1e15) {
+                return Long.toString((long) value);
+            }
+            return Double.toString(value);
+        }
+
+        private static String escape(String value) {
+            return value.replace("\\", "\\\\").replace("\"", "\\\"").replace("\n", "\\n");
+        }
+
+        @Override
+        public String toString() {
+            return out.toString();
+        }
+    }
+}
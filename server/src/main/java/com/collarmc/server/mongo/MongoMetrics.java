@@ -0,0 +1,110 @@
+package com.collarmc.server.mongo;
+
+import com.collarmc.server.common.LatencyHistogram;
+import com.mongodb.event.CommandFailedEvent;
+import com.mongodb.event.CommandListener;
+import com.mongodb.event.CommandStartedEvent;
+import com.mongodb.event.CommandSucceededEvent;
+import org.bson.BsonValue;
+
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Latency of the commands sent to mongo, by collection and command.
+ * Registered with every client created by {@link Mongo}, so queries made by any service are counted.
+ */
+public final class MongoMetrics implements CommandListener {
+
+    /** Commands on connections in use, by request id. Removed when the command completes **/
+    private final ConcurrentMap<Integer, Operation> started = new ConcurrentHashMap<>();
+    private final ConcurrentMap<Operation, CommandMetrics> commands = new ConcurrentHashMap<>();
+
+    @Override
+    public void commandStarted(CommandStartedEvent event) {
+        // Commands such as find and update name their collection as the value of the command
+        BsonValue target = event.getCommand().get(event.getCommandName());
+        String collection = target != null && target.isString() ? target.asString().getValue() : "";
+        started.put(event.getRequestId(), new Operation(collection, event.getCommandName()));
+    }
+
+    @Override
+    public void commandSucceeded(CommandSucceededEvent event) {
+        record(event.getRequestId(), event.getCommandName(), event.getElapsedTime(TimeUnit.NANOSECONDS), false);
+    }
+
+    @Override
+    public void commandFailed(CommandFailedEvent event) {
+        record(event.getRequestId(), event.getCommandName(), event.getElapsedTime(TimeUnit.NANOSECONDS), true);
+    }
+
+    /**
+     * @return metrics by collection, then by command name
+     */
+    public Map<String, Map<String, CommandMetrics>> commands() {
+        Map<String, Map<String, CommandMetrics>> byCollection = new TreeMap<>();
+        commands.forEach((operation, metrics) -> byCollection.computeIfAbsent(operation.collection, collection -> new TreeMap<>()).put(operation.command, metrics));
+        return byCollection;
+    }
+
+    private void record(int requestId, String commandName, long nanos, boolean failed) {
+        Operation operation = started.remove(requestId);
+        if (operation == null) {
+            operation = new Operation("", commandName);
+        }
+        commands.computeIfAbsent(operation, theOperation -> new CommandMetrics()).record(nanos, failed);
+    }
+
+    public static final class CommandMetrics {
+        private final LongAdder errors = new LongAdder();
+        private final LatencyHistogram latency = new LatencyHistogram();
+
+        void record(long nanos, boolean failed) {
+            if (failed) {
+                errors.increment();
+            }
+            latency.record(nanos);
+        }
+
+        /**
+         * @return commands that failed
+         */
+        public long errors() {
+            return errors.sum();
+        }
+
+        /**
+         * @return time taken by commands
+         */
+        public LatencyHistogram latency() {
+            return latency;
+        }
+    }
+
+    private static final class Operation {
+        final String collection;
+        final String command;
+
+        Operation(String collection, String command) {
+            this.collection = collection;
+            this.command = command;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (o == null || getClass() != o.getClass()) return false;
+            Operation operation = (Operation) o;
+            return collection.equals(operation.collection) && command.equals(operation.command);
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * collection.hashCode() + command.hashCode();
+        }
+    }
+}
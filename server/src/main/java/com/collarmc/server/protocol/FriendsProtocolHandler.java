@@ -6,10 +6,8 @@ import com.collarmc.api.http.RequestContext;
 import com.collarmc.api.identity.ClientIdentity;
 import com.collarmc.api.profiles.PublicProfile;
 import com.collarmc.api.session.Player;
-import com.collarmc.protocol.ProtocolRequest;
 import com.collarmc.protocol.ProtocolResponse;
 import com.collarmc.protocol.friends.*;
-import com.collarmc.server.CollarServer;
 import com.collarmc.server.Services;
 import com.collarmc.server.services.friends.FriendsService;
 import com.google.common.collect.Lists;
@@ -26,22 +24,17 @@ public class FriendsProtocolHandler extends ProtocolHandler {
 
     public FriendsProtocolHandler(Services services) {
         super(services);
-    }
-
-    @Override
-    public boolean handleRequest(CollarServer collar, ClientIdentity identity, ProtocolRequest req, BiConsumer<ClientIdentity, ProtocolResponse> sender) {
-        RequestContext caller = RequestContext.from(identity);
-        if (req instanceof AddFriendRequest) {
-            AddFriendRequest request = (AddFriendRequest) req;
+        onBlocking(AddFriendRequest.class, (identity, request, sender) -> {
+            RequestContext caller = RequestContext.from(identity);
             findFriendProfileId(request.profile, request.player).ifPresentOrElse(friendProfileId -> {
                 Friend friend = services.friends.createFriend(caller, new FriendsService.CreateFriendRequest(identity.id(), friendProfileId)).friend;
                 sender.accept(identity, new AddFriendResponse(friend));
             }, () -> {
                 LOGGER.error("Could not add friend with profileId " + request.profile  + " or playerId " + request.player);
             });
-            return true;
-        } else if (req instanceof RemoveFriendRequest) {
-            RemoveFriendRequest request = (RemoveFriendRequest) req;
+        });
+        onBlocking(RemoveFriendRequest.class, (identity, request, sender) -> {
+            RequestContext caller = RequestContext.from(identity);
             findFriendProfileId(request.profile, request.player).ifPresentOrElse(friendProfileId -> {
                 UUID deletedFriend = services.friends.deleteFriend(caller, new FriendsService.DeleteFriendRequest(identity.id(), friendProfileId)).friend;
                 services.profileCache.getById(deletedFriend).ifPresent(profile -> {
@@ -50,13 +43,11 @@ public class FriendsProtocolHandler extends ProtocolHandler {
             }, () -> {
                 LOGGER.error("Could not add friend with profileId " + request.profile + " or playerId " + request.player);
             });
-            return true;
-        } else if (req instanceof GetFriendListRequest) {
-            Collection<Friend> friends = services.friends.getFriends(caller, new FriendsService.GetFriendsRequest(identity.id(), null)).friends.get(identity.id());
+        });
+        onBlocking(GetFriendListRequest.class, (identity, request, sender) -> {
+            Collection<Friend> friends = services.friends.getFriends(RequestContext.from(identity), new FriendsService.GetFriendsRequest(identity.id(), null)).friends.get(identity.id());
             sender.accept(identity, new GetFriendListResponse(friends == null ? List.of() : Lists.newArrayList(friends)));
-            return true;
-        }
-        return false;
+        });
     }
 
     private Optional<UUID> findFriendProfileId(UUID profile, UUID player) {
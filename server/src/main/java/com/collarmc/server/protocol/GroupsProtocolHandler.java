@@ -2,10 +2,8 @@ package com.collarmc.server.protocol;
 
 import com.collarmc.api.identity.ClientIdentity;
 import com.collarmc.api.session.Player;
-import com.collarmc.protocol.ProtocolRequest;
 import com.collarmc.protocol.ProtocolResponse;
 import com.collarmc.protocol.groups.*;
-import com.collarmc.server.CollarServer;
 import com.collarmc.server.Services;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
@@ -19,42 +17,20 @@ public final class GroupsProtocolHandler extends ProtocolHandler {
 
     public GroupsProtocolHandler(Services services) {
         super(services);
+        onBlocking(CreateGroupRequest.class, (identity, request, sender) -> reply(identity, services.groups.createGroup(identity, request), sender));
+        onBlocking(JoinGroupRequest.class, (identity, request, sender) -> reply(identity, services.groups.acceptMembership(identity, request), sender));
+        onBlocking(LeaveGroupRequest.class, (identity, request, sender) -> reply(identity, services.groups.leaveGroup(identity, request), sender));
+        onBlocking(GroupInviteRequest.class, (identity, request, sender) -> reply(identity, services.groups.invite(identity, request), sender));
+        onBlocking(EjectGroupMemberRequest.class, (identity, request, sender) -> reply(identity, services.groups.ejectMember(identity, request), sender));
+        onBlocking(AcknowledgedGroupJoinedRequest.class, (identity, request, sender) -> reply(identity, services.groups.acknowledgeJoin(identity, request), sender));
+        onBlocking(DeleteGroupRequest.class, (identity, request, sender) -> reply(identity, services.groups.delete(identity, request), sender));
+        onBlocking(TransferGroupOwnershipRequest.class, (identity, request, sender) -> reply(identity, services.groups.transferOwnership(identity, request), sender));
     }
 
-    @Override
-    public boolean handleRequest(CollarServer collar, ClientIdentity identity, ProtocolRequest req, BiConsumer<ClientIdentity, ProtocolResponse> sender) {
-        Optional<? extends ProtocolResponse> resp;
-        if (req instanceof CreateGroupRequest) {
-            CreateGroupRequest request = (CreateGroupRequest)req;
-            resp = services.groups.createGroup(identity, request);
-        } else if (req instanceof JoinGroupRequest) {
-            JoinGroupRequest request = (JoinGroupRequest) req;
-            resp = services.groups.acceptMembership(identity, request);
-        } else if (req instanceof LeaveGroupRequest) {
-            LeaveGroupRequest request = (LeaveGroupRequest)req;
-            resp = services.groups.leaveGroup(identity, request);
-        } else if (req instanceof GroupInviteRequest) {
-            GroupInviteRequest request = (GroupInviteRequest)req;
-            resp = services.groups.invite(identity, request);
-        } else if (req instanceof EjectGroupMemberRequest) {
-            EjectGroupMemberRequest request = (EjectGroupMemberRequest) req;
-            resp = services.groups.ejectMember(identity, request);
-        } else if (req instanceof AcknowledgedGroupJoinedRequest) {
-            AcknowledgedGroupJoinedRequest request = (AcknowledgedGroupJoinedRequest) req;
-            resp = services.groups.acknowledgeJoin(identity, request);
-        } else if (req instanceof DeleteGroupRequest) {
-            DeleteGroupRequest request = (DeleteGroupRequest) req;
-            resp = services.groups.delete(identity, request);
-        } else if (req instanceof TransferGroupOwnershipRequest) {
-            TransferGroupOwnershipRequest request = (TransferGroupOwnershipRequest) req;
-            resp = services.groups.transferOwnership(identity, request);
-        } else {
-            resp = Optional.empty();
-        }
+    private static void reply(ClientIdentity identity, Optional<? extends ProtocolResponse> resp, BiConsumer<ClientIdentity, ProtocolResponse> sender) {
         resp.ifPresent(protocolResponse -> {
             sender.accept(identity, protocolResponse);
         });
-        return resp.isPresent();
     }
 
     @Override
@@ -6,13 +6,11 @@ import com.collarmc.api.identity.ClientIdentity;
 import com.collarmc.api.profiles.ProfileService;
 import com.collarmc.api.profiles.PublicProfile;
 import com.collarmc.api.session.Player;
-import com.collarmc.protocol.ProtocolRequest;
 import com.collarmc.protocol.ProtocolResponse;
 import com.collarmc.protocol.identity.GetIdentityRequest;
 import com.collarmc.protocol.identity.GetIdentityResponse;
 import com.collarmc.protocol.identity.GetProfileRequest;
 import com.collarmc.protocol.identity.GetProfileResponse;
-import com.collarmc.server.CollarServer;
 import com.collarmc.server.Services;
 import org.eclipse.jetty.websocket.api.Session;
 
@@ -22,22 +20,14 @@ public class IdentityProtocolHandler extends ProtocolHandler {
 
     public IdentityProtocolHandler(Services services) {
         super(services);
-    }
-
-    @Override
-    public boolean handleRequest(CollarServer collar,
-                                 ClientIdentity identity, ProtocolRequest req,
-                                 BiConsumer<ClientIdentity, ProtocolResponse> sender) {
-        if (req instanceof GetIdentityRequest) {
-            GetIdentityRequest request = (GetIdentityRequest) req;
+        on(GetIdentityRequest.class, (identity, request, sender) -> {
             services.sessions.getIdentityByMinecraftPlayerId(request.player).ifPresentOrElse(found -> {
                 sender.accept(identity, new GetIdentityResponse(request.id, found, request.player));
             }, () -> {
                 sender.accept(identity, new GetIdentityResponse(request.id, null, request.player));
             });
-            return true;
-        } else if (req instanceof GetProfileRequest) {
-            GetProfileRequest request = (GetProfileRequest) req;
+        });
+        onBlocking(GetProfileRequest.class, (identity, request, sender) -> {
             PublicProfile profile;
             try {
                 profile = services.profiles.getProfile(RequestContext.SERVER, ProfileService.GetProfileRequest.byId(request.profile)).profile.toPublic();
@@ -45,8 +35,7 @@ public class IdentityProtocolHandler extends ProtocolHandler {
                 profile = null;
             }
             sender.accept(identity, new GetProfileResponse(request.profile, profile));
-        }
-        return false;
+        });
     }
 
     @Override
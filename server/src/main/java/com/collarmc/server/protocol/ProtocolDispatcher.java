@@ -0,0 +1,63 @@
+package com.collarmc.server.protocol;
+
+import com.collarmc.api.identity.ClientIdentity;
+import com.collarmc.protocol.ProtocolRequest;
+import com.collarmc.protocol.ProtocolResponse;
+import com.collarmc.server.protocol.ProtocolHandler.RequestHandler;
+
+import java.util.*;
+import java.util.function.BiConsumer;
+
+/**
+ * Routes requests to the {@link ProtocolHandler} that owns their type with a single lookup
+ */
+public final class ProtocolDispatcher {
+
+    private final Map<Class<? extends ProtocolRequest>, RequestHandler<?>> routes = new HashMap<>();
+    private final Set<Class<? extends ProtocolRequest>> blockingRequests = new HashSet<>();
+    private final ProtocolMetrics metrics;
+
+    public ProtocolDispatcher(List<ProtocolHandler> handlers, ProtocolMetrics metrics) {
+        this.metrics = metrics;
+        for (ProtocolHandler handler : handlers) {
+            handler.requestHandlers().forEach((type, requestHandler) -> {
+                if (routes.putIfAbsent(type, requestHandler) != null) {
+                    throw new IllegalStateException(type.getName() + " is handled by more than one protocol handler");
+                }
+            });
+            blockingRequests.addAll(handler.blockingRequests());
+        }
+    }
+
+    /**
+     * @param type of request
+     * @return if the request's handler blocks and has to be dispatched from the blocking pool
+     */
+    public boolean blocks(Class<? extends ProtocolRequest> type) {
+        return blockingRequests.contains(type);
+    }
+
+    /**
+     * Handle a request
+     * @param identity of the request
+     * @param req request received
+     * @param sender to send a response
+     * @return if a handler owns the request
+     */
+    @SuppressWarnings("unchecked")
+    public boolean dispatch(ClientIdentity identity, ProtocolRequest req, BiConsumer<ClientIdentity, ProtocolResponse> sender) {
+        RequestHandler<ProtocolRequest> handler = (RequestHandler<ProtocolRequest>) routes.get(req.getClass());
+        if (handler == null) {
+            return false;
+        }
+        long start = System.nanoTime();
+        boolean failed = true;
+        try {
+            handler.handle(identity, req, sender);
+            failed = false;
+        } finally {
+            metrics.record(req.getClass(), System.nanoTime() - start, failed);
+        }
+        return true;
+    }
+}
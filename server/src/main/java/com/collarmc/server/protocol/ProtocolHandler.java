@@ -9,19 +9,63 @@ import com.collarmc.server.Services;
 import com.collarmc.server.session.SessionManager;
 import org.eclipse.jetty.websocket.api.Session;
 
+import java.util.*;
 import java.util.function.BiConsumer;
 
 /**
- * Extensible protocol packet listener and sender
+ * Extensible protocol packet listener and sender.
+ * Handlers declare the requests they own with {@link #on(Class, RequestHandler)} so that {@link ProtocolDispatcher}
+ * can route each request with a single lookup by its class.
+ * Requests whose handlers call the database or other services that block are declared with
+ * {@link #onBlocking(Class, RequestHandler)}, so that they are handled on the blocking pool rather than a protocol worker.
  */
 public abstract class ProtocolHandler {
 
     protected final Services services;
+    private final Map<Class<? extends ProtocolRequest>, RequestHandler<?>> requestHandlers = new LinkedHashMap<>();
+    private final Set<Class<? extends ProtocolRequest>> blockingRequests = new HashSet<>();
 
     public ProtocolHandler(Services services) {
         this.services = services;
     }
 
+    /**
+     * Declare that this handler owns a request type
+     * @param type of request
+     * @param handler of the request
+     * @param <T> request type
+     */
+    protected <T extends ProtocolRequest> void on(Class<T> type, RequestHandler<T> handler) {
+        if (requestHandlers.putIfAbsent(type, handler) != null) {
+            throw new IllegalStateException(type.getName() + " is already handled by " + getClass().getSimpleName());
+        }
+    }
+
+    /**
+     * Declare that this handler owns a request type whose handler blocks, such as on the database
+     * @param type of request
+     * @param handler of the request
+     * @param <T> request type
+     */
+    protected <T extends ProtocolRequest> void onBlocking(Class<T> type, RequestHandler<T> handler) {
+        on(type, handler);
+        blockingRequests.add(type);
+    }
+
+    /**
+     * @return request types owned by this handler whose handlers block
+     */
+    public Set<Class<? extends ProtocolRequest>> blockingRequests() {
+        return Collections.unmodifiableSet(blockingRequests);
+    }
+
+    /**
+     * @return request types owned by this handler and their handlers
+     */
+    public Map<Class<? extends ProtocolRequest>, RequestHandler<?>> requestHandlers() {
+        return Collections.unmodifiableMap(requestHandlers);
+    }
+
     /**
      * Handles a request coming from a client and processes it
      * @param collar server
@@ -30,7 +74,15 @@ public abstract class ProtocolHandler {
      * @param sender to send a response
      * @return if packet handled
      */
-    public abstract boolean handleRequest(CollarServer collar, ClientIdentity identity, ProtocolRequest req, BiConsumer<ClientIdentity, ProtocolResponse> sender);
+    @SuppressWarnings("unchecked")
+    public boolean handleRequest(CollarServer collar, ClientIdentity identity, ProtocolRequest req, BiConsumer<ClientIdentity, ProtocolResponse> sender) {
+        RequestHandler<ProtocolRequest> handler = (RequestHandler<ProtocolRequest>) requestHandlers.get(req.getClass());
+        if (handler == null) {
+            return false;
+        }
+        handler.handle(identity, req, sender);
+        return true;
+    }
 
     /**
      * Fired when the session has started and all the session information is available
@@ -47,4 +99,18 @@ public abstract class ProtocolHandler {
      * @param sender to send responses to clients
      */
     public void onSessionStopping(ClientIdentity identity, Player player, BiConsumer<Session, ProtocolResponse> sender) {}
+
+    /**
+     * Handles one type of request
+     * @param <T> request type
+     */
+    @FunctionalInterface
+    public interface RequestHandler<T extends ProtocolRequest> {
+        /**
+         * @param identity of the request
+         * @param request received
+         * @param sender to send a response
+         */
+        void handle(ClientIdentity identity, T request, BiConsumer<ClientIdentity, ProtocolResponse> sender);
+    }
 }
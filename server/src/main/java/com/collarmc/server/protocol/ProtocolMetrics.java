@@ -0,0 +1,164 @@
+package com.collarmc.server.protocol;
+
+import com.collarmc.protocol.ProtocolRequest;
+import com.collarmc.server.common.LatencyHistogram;
+
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Counters and latency histograms for each type of request handled, and for decoding requests and encoding responses
+ */
+public final class ProtocolMetrics {
+
+    private final ConcurrentMap<Class<? extends ProtocolRequest>, RequestMetrics> requests = new ConcurrentHashMap<>();
+    private final LatencyHistogram decode = new LatencyHistogram();
+    private final LatencyHistogram encode = new LatencyHistogram();
+    private final LongAdder rateLimited = new LongAdder();
+    private final LongAdder batches = new LongAdder();
+    private final LongAdder batchedRequests = new LongAdder();
+
+    /**
+     * @return upper bounds of the latency histogram buckets in microseconds
+     */
+    public static long[] latencyBucketBounds() {
+        return LatencyHistogram.bucketBounds();
+    }
+
+    /**
+     * Record a handled request
+     * @param type of request
+     * @param nanos taken to handle it
+     * @param failed if handling threw
+     */
+    public void record(Class<? extends ProtocolRequest> type, long nanos, boolean failed) {
+        requests.computeIfAbsent(type, theType -> new RequestMetrics()).record(nanos, failed);
+    }
+
+    /**
+     * Record decoding and decrypting a packet sent by a client
+     * @param nanos taken
+     */
+    public void decoded(long nanos) {
+        decode.record(nanos);
+    }
+
+    /**
+     * Record encoding and encrypting a packet sent to a single client
+     * @param nanos taken
+     */
+    public void encoded(long nanos) {
+        encode.record(nanos);
+    }
+
+    /**
+     * Record a packet refused because the session sent too many
+     */
+    public void rateLimited() {
+        rateLimited.increment();
+    }
+
+    /**
+     * Record a batch of requests sent in one packet
+     * @param requests in the batch
+     */
+    public void batched(int requests) {
+        batches.increment();
+        batchedRequests.add(requests);
+    }
+
+    /**
+     * @return metrics by request type name
+     */
+    public Map<String, RequestMetrics> requests() {
+        Map<String, RequestMetrics> byName = new TreeMap<>();
+        requests.forEach((type, metrics) -> byName.put(type.getSimpleName(), metrics));
+        return byName;
+    }
+
+    /**
+     * @return time taken to decode and decrypt packets
+     */
+    public LatencyHistogram decodeLatency() {
+        return decode;
+    }
+
+    /**
+     * @return time taken to encode and encrypt packets
+     */
+    public LatencyHistogram encodeLatency() {
+        return encode;
+    }
+
+    /**
+     * @return packets refused by the per session rate limit
+     */
+    public long rateLimitRejections() {
+        return rateLimited.sum();
+    }
+
+    /**
+     * @return number of batch packets handled
+     */
+    public long batches() {
+        return batches.sum();
+    }
+
+    /**
+     * @return number of requests carried in batches
+     */
+    public long batchedRequests() {
+        return batchedRequests.sum();
+    }
+
+    public static final class RequestMetrics {
+        private final LongAdder errors = new LongAdder();
+        private final LatencyHistogram latency = new LatencyHistogram();
+
+        void record(long nanos, boolean failed) {
+            if (failed) {
+                errors.increment();
+            }
+            latency.record(nanos);
+        }
+
+        /**
+         * @return requests handled
+         */
+        public long count() {
+            return latency.count();
+        }
+
+        /**
+         * @return requests that failed
+         */
+        public long errors() {
+            return errors.sum();
+        }
+
+        /**
+         * @return total time spent handling requests
+         */
+        public long totalTime(TimeUnit unit) {
+            return latency.totalTime(unit);
+        }
+
+        /**
+         * @return requests in each bucket of {@link #latencyBucketBounds()}, with one extra bucket for slower requests
+         */
+        public long[] latencyBuckets() {
+            return latency.buckets();
+        }
+
+        /**
+         * @return time taken to handle requests
+         */
+        public LatencyHistogram latency() {
+            return latency;
+        }
+    }
+}
@@ -0,0 +1,72 @@
+package com.collarmc.server.protocol;
+
+import com.collarmc.protocol.ProtocolRequest;
+
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Counters for {@link RateLimiter}
+ */
+public final class RateLimitMetrics {
+    private final LongAdder identityExhausted = new LongAdder();
+    private final LongAdder serverExhausted = new LongAdder();
+    private final LongAdder deferred = new LongAdder();
+    private final ConcurrentMap<Class<? extends ProtocolRequest>, LongAdder> dropped = new ConcurrentHashMap<>();
+
+    void identityExhausted() {
+        identityExhausted.increment();
+    }
+
+    void serverExhausted() {
+        serverExhausted.increment();
+    }
+
+    /**
+     * Record requests held back until the budget could afford them
+     */
+    public void deferred() {
+        deferred.increment();
+    }
+
+    /**
+     * Record a request dropped as the budget could not afford it soon enough
+     * @param type of request
+     */
+    public void dropped(Class<? extends ProtocolRequest> type) {
+        dropped.computeIfAbsent(type, theType -> new LongAdder()).increment();
+    }
+
+    /**
+     * @return times a request was over its identity's budget
+     */
+    public long identityExhaustions() {
+        return identityExhausted.sum();
+    }
+
+    /**
+     * @return times a request was over the server's budget
+     */
+    public long serverExhaustions() {
+        return serverExhausted.sum();
+    }
+
+    /**
+     * @return number of times requests were held back
+     */
+    public long deferrals() {
+        return deferred.sum();
+    }
+
+    /**
+     * @return requests dropped by request type name
+     */
+    public Map<String, Long> drops() {
+        Map<String, Long> byName = new TreeMap<>();
+        dropped.forEach((type, count) -> byName.put(type.getSimpleName(), count.sum()));
+        return byName;
+    }
+}
@@ -0,0 +1,157 @@
+package com.collarmc.server.protocol;
+
+import com.collarmc.protocol.ProtocolRequest;
+import com.collarmc.server.configuration.RateLimitConfiguration;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import io.github.bucket4j.Bandwidth;
+import io.github.bucket4j.Bucket;
+import io.github.bucket4j.Bucket4j;
+import io.github.bucket4j.ConsumptionProbe;
+import org.eclipse.jetty.websocket.api.Session;
+
+import java.time.Duration;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Limits the requests clients send, at three levels.
+ * Each socket has a packet limit that protects the server from floods, a socket over it is disconnected.
+ * Each identity has a budget that requests are charged against by type, so a keep alive costs less than creating a group.
+ * The identity budget outlives the socket, so reconnecting does not reset it.
+ * The server has a budget shared by every identity, which bounds the total work clients can cause.
+ */
+public final class RateLimiter {
+
+    /** Identity budgets are kept this long after their last request, long enough to cover the hourly limit **/
+    private static final Duration IDENTITY_EXPIRY = Duration.ofHours(1);
+
+    private final RateLimitConfiguration configuration;
+    private final ConcurrentMap<Session, Bucket> sockets = new ConcurrentHashMap<>();
+    private final Cache<UUID, IdentityBudget> identities;
+    private final Bucket server;
+    public final RateLimitMetrics metrics = new RateLimitMetrics();
+
+    public RateLimiter(RateLimitConfiguration configuration) {
+        this.configuration = configuration;
+        this.identities = CacheBuilder.newBuilder()
+                .expireAfterAccess(IDENTITY_EXPIRY.toMillis(), TimeUnit.MILLISECONDS)
+                .build();
+        this.server = Bucket4j.builder()
+                .addLimit(Bandwidth.simple(configuration.serverPerSecond, Duration.ofSeconds(1)))
+                .build();
+    }
+
+    public void connected(Session session) {
+        sockets.computeIfAbsent(session, theSession -> Bucket4j.builder()
+                .addLimit(Bandwidth.simple(configuration.packetsPerHour, Duration.ofHours(1)))
+                .addLimit(Bandwidth.simple(configuration.packetsPerSecond, Duration.ofSeconds(1)))
+                .build());
+    }
+
+    public void closed(Session session) {
+        sockets.remove(session);
+    }
+
+    /**
+     * Take packets from the socket's flood limit
+     * @param session that sent the packets
+     * @param packets number of packets, counting each request in a batch
+     * @return false if the socket sent too many packets and should be disconnected
+     */
+    public boolean tryAcceptPackets(Session session, int packets) {
+        Bucket bucket = sockets.get(session);
+        // Packets still being handled after the socket closed were accepted when they arrived
+        return bucket == null || bucket.tryConsume(packets);
+    }
+
+    /**
+     * @param type of request
+     * @return cost charged for the request
+     */
+    public int cost(Class<? extends ProtocolRequest> type) {
+        return configuration.cost(type);
+    }
+
+    /**
+     * Charge requests to the identity's budget and the server's budget
+     * @param profile of the identity sending the requests
+     * @param cost of the requests
+     * @return nanoseconds until the cost can be afforded, or 0 if it was charged
+     */
+    public long tryAcquire(UUID profile, int cost) {
+        if (cost <= 0) {
+            return 0;
+        }
+        Bucket identity = identity(profile).bucket;
+        ConsumptionProbe probe = identity.tryConsumeAndReturnRemaining(cost);
+        if (!probe.isConsumed()) {
+            metrics.identityExhausted();
+            return probe.getNanosToWaitForRefill();
+        }
+        ConsumptionProbe serverProbe = server.tryConsumeAndReturnRemaining(cost);
+        if (!serverProbe.isConsumed()) {
+            // Give the identity its tokens back, as the requests will not be handled now
+            identity.addTokens(cost);
+            metrics.serverExhausted();
+            return serverProbe.getNanosToWaitForRefill();
+        }
+        return 0;
+    }
+
+    /**
+     * @return deadline, as {@link System#nanoTime()}, for requests that are over budget now to be afforded by
+     */
+    public long deferralDeadline() {
+        return System.nanoTime() + configuration.maxDeferral.toNanos();
+    }
+
+    /**
+     * @param waitNanos returned by {@link #tryAcquire(UUID, int)}
+     * @param deadline returned by {@link #deferralDeadline()} when the requests arrived
+     * @return true if requests can be held back for this long rather than dropped
+     */
+    public boolean canDefer(long waitNanos, long deadline) {
+        return waitNanos <= deadline - System.nanoTime();
+    }
+
+    /**
+     * Decide if an identity whose requests were dropped should be told to slow down again
+     * @param profile of the identity
+     * @param interval between signals
+     * @return true at most once per interval
+     */
+    public boolean signal(UUID profile, Duration interval) {
+        AtomicLong lastSignal = identity(profile).lastSignal;
+        long now = System.nanoTime();
+        long last = lastSignal.get();
+        return now - last >= interval.toNanos() && lastSignal.compareAndSet(last, now);
+    }
+
+    /**
+     * @return number of identities with a budget
+     */
+    public long identities() {
+        return identities.size();
+    }
+
+    private IdentityBudget identity(UUID profile) {
+        return identities.asMap().computeIfAbsent(profile, theProfile -> new IdentityBudget(Bucket4j.builder()
+                .addLimit(Bandwidth.simple(configuration.identityPerHour, Duration.ofHours(1)))
+                .addLimit(Bandwidth.simple(configuration.identityPerSecond, Duration.ofSeconds(1)))
+                .build()));
+    }
+
+    private static final class IdentityBudget {
+        private final Bucket bucket;
+        /** When the identity was last told to slow down **/
+        private final AtomicLong lastSignal = new AtomicLong(System.nanoTime() - TimeUnit.DAYS.toNanos(1));
+
+        IdentityBudget(Bucket bucket) {
+            this.bucket = bucket;
+        }
+    }
+}
@@ -5,14 +5,11 @@ import com.collarmc.api.groups.Member;
 import com.collarmc.api.groups.MembershipState;
 import com.collarmc.api.identity.ClientIdentity;
 import com.collarmc.api.session.Player;
-import com.collarmc.protocol.ProtocolRequest;
 import com.collarmc.protocol.ProtocolResponse;
 import com.collarmc.protocol.sdht.SDHTEventRequest;
 import com.collarmc.protocol.sdht.SDHTEventResponse;
 import com.collarmc.sdht.events.*;
-import com.collarmc.security.messages.GroupMessage;
 import com.collarmc.security.messages.GroupMessageEnvelope;
-import com.collarmc.server.CollarServer;
 import com.collarmc.server.Services;
 import org.eclipse.jetty.websocket.api.Session;
 
@@ -26,49 +23,56 @@ public class SDHTProtocolHandler extends ProtocolHandler {
 
     public SDHTProtocolHandler(Services services) {
         super(services);
+        onBlocking(SDHTEventRequest.class, this::handleEvent);
     }
 
-    @Override
-    public boolean handleRequest(CollarServer collar, ClientIdentity identity, ProtocolRequest req, BiConsumer<ClientIdentity, ProtocolResponse> sender) {
-        if (req instanceof SDHTEventRequest) {
-            SDHTEventRequest request = (SDHTEventRequest) req;
-            AbstractSDHTEvent e = request.event;
-            if (e instanceof CreateEntryEvent) {
-                CreateEntryEvent event = (CreateEntryEvent) e;
-                GroupMessageEnvelope envelope = new GroupMessageEnvelope(event.content);
-                findListeners(identity, event.record.key.namespace).forEach(found -> {
-                    GroupMessage message = envelope.messages.get(found.id());
-                    if (message != null) {
-                        CreateEntryEvent newEvent = new CreateEntryEvent(identity, null, event.record, message.contents);
-                        SDHTEventResponse response = new SDHTEventResponse(newEvent);
-                        sender.accept(found, response);
-                    }
-                });
-                return true;
-            } else if (e instanceof DeleteRecordEvent) {
-                DeleteRecordEvent event = (DeleteRecordEvent) e;
-                findListeners(identity, event.delete.key.namespace).forEach(found -> {
-                    SDHTEventResponse response = new SDHTEventResponse(event);
-                    sender.accept(found, response);
+    private void handleEvent(ClientIdentity identity, SDHTEventRequest request, BiConsumer<ClientIdentity, ProtocolResponse> sender) {
+        AbstractSDHTEvent e = request.event;
+        if (e instanceof CreateEntryEvent) {
+            CreateEntryEvent event = (CreateEntryEvent) e;
+            if (event.content() == null) {
+                // Answer to a content request the sender could not fulfil
+                if (event.recipient != null) {
+                    sender.accept(event.recipient, new SDHTEventResponse(new CreateEntryEvent(identity, event.recipient, event.record, null)));
+                }
+                return;
+            }
+            GroupMessageEnvelope.View envelope = GroupMessageEnvelope.view(event.content());
+            findListeners(identity, event.record.key.namespace).forEach(found -> {
+                envelope.contents(found.id()).ifPresent(message -> {
+                    CreateEntryEvent newEvent = CreateEntryEvent.relay(identity, null, event.record, message);
+                    sender.accept(found, new SDHTEventResponse(newEvent));
                 });
-            } else if (e instanceof PublishRecordsEvent) {
-                PublishRecordsEvent event = (PublishRecordsEvent) e;
+            });
+        } else if (e instanceof DeleteRecordEvent) {
+            DeleteRecordEvent event = (DeleteRecordEvent) e;
+            findListeners(identity, event.delete.key.namespace).forEach(found -> {
                 SDHTEventResponse response = new SDHTEventResponse(event);
-                sender.accept(event.recipient, response);
-            } else if (e instanceof SyncRecordsEvent) {
-                SyncRecordsEvent event = (SyncRecordsEvent) e;
-                SDHTEventResponse response = new SDHTEventResponse(new SyncRecordsEvent(identity, event.namespace));
-                findListeners(identity, event.namespace).forEach(found -> {
-                    sender.accept(found, response);
-                });
-            } else if (e instanceof SyncContentEvent) {
-                SyncContentEvent event = (SyncContentEvent) e;
-                SDHTEventResponse response = new SDHTEventResponse(new SyncContentEvent(identity, event.recipient, event.record));
+                sender.accept(found, response);
+            });
+        } else if (e instanceof PublishRecordsEvent) {
+            PublishRecordsEvent event = (PublishRecordsEvent) e;
+            SDHTEventResponse response = new SDHTEventResponse(event);
+            sender.accept(event.recipient, response);
+        } else if (e instanceof SyncRecordsEvent) {
+            SyncRecordsEvent event = (SyncRecordsEvent) e;
+            SDHTEventResponse response = new SDHTEventResponse(new SyncRecordsEvent(identity, event.namespace));
+            findListeners(identity, event.namespace).forEach(found -> {
+                sender.accept(found, response);
+            });
+        } else if (e instanceof SyncTreeEvent) {
+            SyncTreeEvent event = (SyncTreeEvent) e;
+            SDHTEventResponse response = new SDHTEventResponse(new SyncTreeEvent(identity, event.recipient, event.namespace, event.nodes));
+            if (event.recipient == null) {
+                findListeners(identity, event.namespace).forEach(found -> sender.accept(found, response));
+            } else {
                 sender.accept(event.recipient, response);
             }
-            return true;
+        } else if (e instanceof SyncContentEvent) {
+            SyncContentEvent event = (SyncContentEvent) e;
+            SDHTEventResponse response = new SDHTEventResponse(new SyncContentEvent(identity, event.recipient, event.record, event.records));
+            sender.accept(event.recipient, response);
         }
-        return false;
     }
 
     private Set<ClientIdentity> findListeners(ClientIdentity sender, UUID namespace) {
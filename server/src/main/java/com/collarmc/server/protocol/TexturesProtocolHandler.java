@@ -6,12 +6,10 @@ import com.collarmc.api.identity.ClientIdentity;
 import com.collarmc.api.profiles.PublicProfile;
 import com.collarmc.api.session.Player;
 import com.collarmc.api.textures.TextureType;
-import com.collarmc.protocol.ProtocolRequest;
 import com.collarmc.protocol.ProtocolResponse;
 import com.collarmc.protocol.textures.GetTextureRequest;
 import com.collarmc.protocol.textures.GetTextureResponse;
 import com.collarmc.security.mojang.MinecraftPlayer;
-import com.collarmc.server.CollarServer;
 import com.collarmc.server.Services;
 import com.collarmc.server.services.textures.TextureService;
 import com.collarmc.server.session.SessionManager;
@@ -27,53 +25,48 @@ public class TexturesProtocolHandler extends ProtocolHandler {
 
     public TexturesProtocolHandler(Services services) {
         super(services);
+        onBlocking(GetTextureRequest.class, this::getTexture);
     }
 
-    @Override
-    public boolean handleRequest(CollarServer collar, ClientIdentity identity, ProtocolRequest req, BiConsumer<ClientIdentity, ProtocolResponse> sender) {
-        if (req instanceof GetTextureRequest) {
-            GetTextureRequest request = (GetTextureRequest) req;
-            if (request.player != null) {
-                services.sessions.getSessionStateByPlayer(request.player).ifPresentOrElse(sessionState -> {
-                    GetTextureResponse response;
-                    try {
-                        TextureService.Texture texture = null;
-                        // If asking for a cape, lookup the default cape first
-                        if (request.type == TextureType.CAPE) {
-                            texture = findDefaultCape(request, sessionState);
-                        }
-                        // otherwise fall back to fetching any cape cape the player owns
-                        if (texture == null) {
-                            texture = services.textures.getTexture(RequestContext.ANON, new TextureService.GetTextureRequest(null, sessionState.identity.id(), request.group, request.type)).texture;
-                        }
-                        response = new GetTextureResponse(texture.id, null, sessionState.toPlayer(), texture.url, texture.type);
-                    } catch (NotFoundException ignored) {
-                        LOGGER.info("Could not find texture " + request.type + " for player " + request.player);
-                        response = new GetTextureResponse(null, null, sessionState.toPlayer(), null, request.type);
-                    }
-                    sender.accept(identity, response);
-                }, () -> {
-                    services.sessions.findPlayer(identity).ifPresent(player -> {
-                        Player requestedPlayer = new Player(player.identity, new MinecraftPlayer(request.player, player.minecraftPlayer.server, player.minecraftPlayer.networkId));
-                        // Send this back to complete any futures on the client
-                        sender.accept(identity, new GetTextureResponse(null, null, requestedPlayer, null, request.type));
-                        LOGGER.info("Could not find player " + request.player + " when fetching texture " + request.type);
-                    });
-                });
-            } else if (request.group != null) {
+    private void getTexture(ClientIdentity identity, GetTextureRequest request, BiConsumer<ClientIdentity, ProtocolResponse> sender) {
+        if (request.player != null) {
+            services.sessions.getSessionStateByPlayer(request.player).ifPresentOrElse(sessionState -> {
                 GetTextureResponse response;
                 try {
-                    TextureService.Texture texture = services.textures.getTexture(RequestContext.ANON, new TextureService.GetTextureRequest(null,null, request.group, request.type)).texture;
-                    response = new GetTextureResponse(texture.id, texture.group, null, texture.url, texture.type);
+                    TextureService.Texture texture = null;
+                    // If asking for a cape, lookup the default cape first
+                    if (request.type == TextureType.CAPE) {
+                        texture = findDefaultCape(request, sessionState);
+                    }
+                    // otherwise fall back to fetching any cape cape the player owns
+                    if (texture == null) {
+                        texture = services.textures.getTexture(RequestContext.ANON, new TextureService.GetTextureRequest(null, sessionState.identity.id(), request.group, request.type)).texture;
+                    }
+                    response = new GetTextureResponse(texture.id, null, sessionState.toPlayer(), texture.url, texture.type);
                 } catch (NotFoundException ignored) {
-                    LOGGER.info("Could not find texture " + request.type + " for group " + request.group);
-                    response = new GetTextureResponse(null, request.group, null, null, request.type);
+                    LOGGER.info("Could not find texture " + request.type + " for player " + request.player);
+                    response = new GetTextureResponse(null, null, sessionState.toPlayer(), null, request.type);
                 }
                 sender.accept(identity, response);
+            }, () -> {
+                services.sessions.findPlayer(identity).ifPresent(player -> {
+                    Player requestedPlayer = new Player(player.identity, new MinecraftPlayer(request.player, player.minecraftPlayer.server, player.minecraftPlayer.networkId));
+                    // Send this back to complete any futures on the client
+                    sender.accept(identity, new GetTextureResponse(null, null, requestedPlayer, null, request.type));
+                    LOGGER.info("Could not find player " + request.player + " when fetching texture " + request.type);
+                });
+            });
+        } else if (request.group != null) {
+            GetTextureResponse response;
+            try {
+                TextureService.Texture texture = services.textures.getTexture(RequestContext.ANON, new TextureService.GetTextureRequest(null,null, request.group, request.type)).texture;
+                response = new GetTextureResponse(texture.id, texture.group, null, texture.url, texture.type);
+            } catch (NotFoundException ignored) {
+                LOGGER.info("Could not find texture " + request.type + " for group " + request.group);
+                response = new GetTextureResponse(null, request.group, null, null, request.type);
             }
-            return true;
+            sender.accept(identity, response);
         }
-        return false;
     }
 
     private TextureService.Texture findDefaultCape(GetTextureRequest request, SessionManager.SessionState sessionState) {
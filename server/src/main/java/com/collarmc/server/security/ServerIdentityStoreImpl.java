@@ -4,6 +4,8 @@ import com.collarmc.api.identity.ServerIdentity;
 import com.collarmc.security.CollarIdentity;
 import com.collarmc.security.messages.Cipher;
 import com.collarmc.security.messages.CipherException;
+import com.collarmc.security.messages.CipherMode;
+import com.collarmc.security.messages.SharedKeyCache;
 import com.collarmc.security.messages.SodiumCipher;
 import com.mongodb.client.MongoCollection;
 import com.mongodb.client.MongoCursor;
@@ -20,7 +22,11 @@ public class ServerIdentityStoreImpl implements ServerIdentityStore {
 
     private static final Logger LOGGER = LogManager.getLogger(ServerIdentityStoreImpl.class);
 
+    /** Clients answered with shared key messages, those evicted are sent sealed messages until they use one again **/
+    private static final int MAX_SHARED_KEYS = 16384;
+
     private final CollarIdentity collarIdentity;
+    private final SharedKeyCache sharedKeys = new SharedKeyCache(MAX_SHARED_KEYS);
 
     public ServerIdentityStoreImpl(MongoDatabase database) throws CipherException {
         MongoCollection<Document> serverIdentityCollection = database.getCollection("server_identity");
@@ -51,6 +57,6 @@ public class ServerIdentityStoreImpl implements ServerIdentityStore {
 
     @Override
     public Cipher cipher() {
-        return new SodiumCipher(collarIdentity.keyPair, true);
+        return new SodiumCipher(collarIdentity.keyPair, true, CipherMode.SEALED, sharedKeys);
     }
 }
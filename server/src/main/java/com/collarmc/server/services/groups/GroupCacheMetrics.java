@@ -0,0 +1,55 @@
+package com.collarmc.server.services.groups;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Counters for the {@link GroupStore} cache
+ */
+public final class GroupCacheMetrics {
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder loads = new LongAdder();
+    private final LongAdder loadNanos = new LongAdder();
+
+    void hit() {
+        hits.increment();
+    }
+
+    void miss() {
+        misses.increment();
+    }
+
+    void load(long nanos) {
+        loads.increment();
+        loadNanos.add(nanos);
+    }
+
+    /**
+     * @return lookups answered from memory
+     */
+    public long hits() {
+        return hits.sum();
+    }
+
+    /**
+     * @return lookups that went to the database
+     */
+    public long misses() {
+        return misses.sum();
+    }
+
+    /**
+     * @return database queries made to fill the cache
+     */
+    public long loads() {
+        return loads.sum();
+    }
+
+    /**
+     * @return total time spent in database queries made to fill the cache
+     */
+    public long loadTime(TimeUnit unit) {
+        return unit.convert(loadNanos.sum(), TimeUnit.NANOSECONDS);
+    }
+}
@@ -0,0 +1,123 @@
+package com.collarmc.server.services.groups;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import org.bson.Document;
+
+import javax.annotation.Nullable;
+import java.util.*;
+import java.util.function.Function;
+
+/**
+ * Bounded cache of group documents used by {@link GroupStore}, with an index of the groups each member is in.
+ * Writes invalidate the documents they touch rather than caching their result, as concurrent writes to the same group
+ * can complete in any order. Every write bumps a version so that loads racing a write do not cache stale documents.
+ */
+final class GroupDocumentCache {
+
+    /** Maximum number of groups held, and of members whose groups are indexed **/
+    static final long MAXIMUM_SIZE = 10_000;
+
+    private final Function<Document, UUID> groupId;
+    private final Function<Document, Set<UUID>> memberIds;
+    // Group id to group document
+    private final Cache<UUID, Document> groups;
+    // Member profile id to the ids of every group they are in. Only present once all the groups of the member have been loaded
+    private final Cache<UUID, Set<UUID>> memberGroups;
+    private long version;
+
+    GroupDocumentCache(long maximumSize, Function<Document, UUID> groupId, Function<Document, Set<UUID>> memberIds) {
+        this.groupId = groupId;
+        this.memberIds = memberIds;
+        this.groups = CacheBuilder.newBuilder().maximumSize(maximumSize).recordStats().build();
+        this.memberGroups = CacheBuilder.newBuilder().maximumSize(maximumSize).build();
+    }
+
+    @Nullable
+    Document get(UUID group) {
+        return groups.getIfPresent(group);
+    }
+
+    /**
+     * @param member profile id
+     * @return every cached group of the member, or null if any of them is not cached
+     */
+    @Nullable
+    List<Document> getMemberGroups(UUID member) {
+        Set<UUID> groupIds = memberGroups.getIfPresent(member);
+        if (groupIds == null) {
+            return null;
+        }
+        List<Document> found = new ArrayList<>(groupIds.size());
+        for (UUID id : groupIds) {
+            Document cached = groups.getIfPresent(id);
+            if (cached == null) {
+                return null;
+            }
+            found.add(cached);
+        }
+        return found;
+    }
+
+    /**
+     * @return version to pass to {@link #install(long, List, UUID)} once loaded
+     */
+    synchronized long version() {
+        return version;
+    }
+
+    /**
+     * Caches loaded documents if nothing was written since the load started
+     * @param loadVersion returned by {@link #version()} before loading
+     * @param documents loaded
+     * @param member whose groups are all in the documents, or null
+     * @return installed
+     */
+    synchronized boolean install(long loadVersion, List<Document> documents, @Nullable UUID member) {
+        if (loadVersion != version) {
+            return false;
+        }
+        Set<UUID> groupIds = new HashSet<>();
+        documents.forEach(document -> {
+            UUID id = groupId.apply(document);
+            groups.put(id, document);
+            groupIds.add(id);
+        });
+        if (member != null) {
+            memberGroups.put(member, Collections.unmodifiableSet(groupIds));
+        }
+        return true;
+    }
+
+    /**
+     * Forget a group after it was written
+     * @param group that was written
+     * @param members whose membership the write may have changed, along with the members of the cached document
+     */
+    synchronized void invalidate(UUID group, Set<UUID> members) {
+        version++;
+        Document previous = groups.getIfPresent(group);
+        groups.invalidate(group);
+        if (previous != null) {
+            memberGroups.invalidateAll(memberIds.apply(previous));
+        }
+        memberGroups.invalidateAll(members);
+    }
+
+    /**
+     * Forget every group
+     */
+    synchronized void invalidateAll() {
+        version++;
+        groups.invalidateAll();
+        memberGroups.invalidateAll();
+    }
+
+    long size() {
+        return groups.size();
+    }
+
+    long evictions() {
+        return groups.stats().evictionCount();
+    }
+}
@@ -10,7 +10,6 @@ import com.collarmc.protocol.ProtocolResponse;
 import com.collarmc.protocol.groups.*;
 import com.collarmc.protocol.messaging.SendMessageRequest;
 import com.collarmc.protocol.messaging.SendMessageResponse;
-import com.collarmc.security.messages.GroupMessage;
 import com.collarmc.security.messages.GroupMessageEnvelope;
 import com.collarmc.server.protocol.BatchProtocolResponse;
 import com.collarmc.server.services.location.NearbyGroups;
@@ -265,14 +264,13 @@ public final class GroupService {
         if (player.isEmpty()) {
             return Optional.empty();
         }
-        GroupMessageEnvelope envelope = new GroupMessageEnvelope(req.message);
+        GroupMessageEnvelope.View envelope = GroupMessageEnvelope.view(req.message);
         return store.findGroup(req.group).map(group -> createMemberMessages(
                 group,
-                member -> member.membershipState.equals(MembershipState.ACCEPTED) && !member.player.equals(player.get()) && envelope.messages.containsKey(member.player.identity.id()),
-                (theIdentity, thePlayer, member) -> {
-                    GroupMessage message = envelope.messages.get(theIdentity.id());
-                    return new SendMessageResponse(identity, group.id, thePlayer, message.contents);
-                })
+                member -> member.membershipState.equals(MembershipState.ACCEPTED) && !member.player.equals(player.get()) && envelope.contains(member.player.identity.id()),
+                (theIdentity, thePlayer, member) -> envelope.contents(theIdentity.id())
+                        .map(message -> SendMessageResponse.relay(identity, group.id, thePlayer, message))
+                        .orElseThrow(() -> new IllegalStateException("no message for " + theIdentity)))
         );
     }
 
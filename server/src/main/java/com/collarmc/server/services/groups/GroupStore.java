@@ -2,28 +2,36 @@ package com.collarmc.server.services.groups;
 
 import com.collarmc.api.groups.*;
 import com.collarmc.api.identity.ClientIdentity;
+import com.collarmc.api.profiles.Profile;
 import com.collarmc.api.profiles.PublicProfile;
 import com.collarmc.api.session.Player;
+import com.collarmc.server.common.CacheStatistics;
 import com.collarmc.server.services.profiles.ProfileCache;
 import com.collarmc.server.session.SessionManager;
 import com.mongodb.client.MongoCollection;
-import com.mongodb.client.MongoCursor;
 import com.mongodb.client.MongoDatabase;
-import com.mongodb.client.model.ReplaceOptions;
-import com.mongodb.client.model.UpdateOptions;
+import com.mongodb.client.model.FindOneAndReplaceOptions;
+import com.mongodb.client.model.FindOneAndUpdateOptions;
+import com.mongodb.client.model.ReturnDocument;
 import com.mongodb.client.result.DeleteResult;
-import com.mongodb.client.result.UpdateResult;
 import org.bson.Document;
+import org.bson.conversions.Bson;
 
 import javax.annotation.Nonnull;
 import java.util.*;
+import java.util.concurrent.TimeUnit;
 import java.util.stream.Collectors;
 import java.util.stream.Stream;
-import java.util.stream.StreamSupport;
 
 import static com.mongodb.client.model.Filters.*;
 import static com.mongodb.client.model.Updates.*;
 
+/**
+ * Stores groups in mongo and keeps the group documents it has read in a bounded cache.
+ * Writes go to mongo first and then invalidate the cached document, so reads never see a group that was not persisted
+ * and a slow write cannot replace a newer document in the cache with an older one.
+ * Group documents are cached rather than {@link Group}'s as members are resolved against live sessions on every read.
+ */
 public final class GroupStore {
 
     private static final String FIELD_ID = "id";
@@ -38,6 +46,9 @@ public final class GroupStore {
     private final SessionManager sessions;
     private final MongoCollection<Document> docs;
 
+    private final GroupDocumentCache cache = new GroupDocumentCache(GroupDocumentCache.MAXIMUM_SIZE, document -> document.get(FIELD_ID, UUID.class), GroupStore::memberIds);
+    public final GroupCacheMetrics metrics = new GroupCacheMetrics();
+
     public GroupStore(ProfileCache profiles, SessionManager sessions, MongoDatabase database) {
         this.profiles = profiles;
         this.sessions = sessions;
@@ -50,10 +61,10 @@ public final class GroupStore {
      */
     public void upsert(Group group) {
         Document document = mapToDocument(group);
-        UpdateResult result = docs.replaceOne(eq(FIELD_ID, group.id), document, new ReplaceOptions().upsert(true));
-        if (!result.wasAcknowledged()) {
-            throw new IllegalStateException("group " + group.id + " could not be upserted");
-        }
+        Document previous = docs.findOneAndReplace(eq(FIELD_ID, group.id), document, new FindOneAndReplaceOptions().upsert(true).returnDocument(ReturnDocument.BEFORE));
+        Set<UUID> members = new HashSet<>(memberIds(document));
+        members.addAll(memberIds(previous));
+        cache.invalidate(group.id, members);
     }
 
     /**
@@ -62,54 +73,73 @@ public final class GroupStore {
      * @return group
      */
     public Optional<Group> findGroup(UUID groupId) {
+        Document cached = cache.get(groupId);
+        if (cached != null) {
+            metrics.hit();
+            return Optional.of(mapFromDocument(cached));
+        }
+        metrics.miss();
+        long loadVersion = cache.version();
+        long start = System.nanoTime();
         Document first = docs.find(eq(FIELD_ID, groupId)).first();
-        return first == null ? Optional.empty() : Optional.of(mapFromDocument(first));
+        metrics.load(System.nanoTime() - start);
+        if (first == null) {
+            return Optional.empty();
+        }
+        cache.install(loadVersion, List.of(first), null);
+        return Optional.of(mapFromDocument(first));
     }
 
     public Stream<Group> findGroups(Set<UUID> uuids) {
-        MongoCursor<Group> iterator = docs.find(in(FIELD_ID, uuids)).map(this::mapFromDocument).batchSize(100).iterator();
-        return StreamSupport.stream(Spliterators.spliteratorUnknownSize(iterator, Spliterator.ORDERED), false);
+        List<Document> found = new ArrayList<>(uuids.size());
+        Set<UUID> missing = new HashSet<>();
+        for (UUID uuid : uuids) {
+            Document cached = cache.get(uuid);
+            if (cached == null) {
+                missing.add(uuid);
+            } else {
+                metrics.hit();
+                found.add(cached);
+            }
+        }
+        if (!missing.isEmpty()) {
+            missing.forEach(uuid -> metrics.miss());
+            found.addAll(load(in(FIELD_ID, missing), null));
+        }
+        return found.stream().map(this::mapFromDocument);
     }
 
     public Stream<Group> findGroupsContaining(Player player) {
-        MongoCursor<Group> iterator = docs.find(eq(FIELD_MEMBERS + "." + FIELD_MEMBER_PROFILE_ID, player.identity.id())).map(this::mapFromDocument).batchSize(100).iterator();
-        return StreamSupport.stream(Spliterators.spliteratorUnknownSize(iterator, Spliterator.ORDERED), false);
+        return findGroupsContaining(player.identity.id());
     }
 
     public Stream<Group> findGroupsContaining(UUID profile) {
-        MongoCursor<Group> iterator = docs.find(eq(FIELD_MEMBERS + "." + FIELD_MEMBER_PROFILE_ID, profile)).map(this::mapFromDocument).batchSize(100).iterator();
-        return StreamSupport.stream(Spliterators.spliteratorUnknownSize(iterator, Spliterator.ORDERED), false);
+        List<Document> cached = cache.getMemberGroups(profile);
+        if (cached != null) {
+            metrics.hit();
+            return cached.stream().map(this::mapFromDocument);
+        }
+        metrics.miss();
+        return load(eq(FIELD_MEMBERS + "." + FIELD_MEMBER_PROFILE_ID, profile), profile).stream().map(this::mapFromDocument);
     }
 
     public Stream<Group> findGroupsContaining(PublicProfile profile) {
-        MongoCursor<Group> iterator = docs.find(eq(FIELD_MEMBERS + "." + FIELD_MEMBER_PROFILE_ID, profile.id)).map(this::mapFromDocument).batchSize(100).iterator();
-        return StreamSupport.stream(Spliterators.spliteratorUnknownSize(iterator, Spliterator.ORDERED), false);
+        return findGroupsContaining(profile.id);
     }
 
     public Optional<Group> addMembers(UUID id, List<MemberSource> memberSources, MembershipRole role, MembershipState state) {
         List<Document> members = mapToMembersList(memberSources.stream().map(source -> new Member(source.player, source.profile, role, state)).collect(Collectors.toList()));
-        UpdateResult result = docs.updateOne(eq(FIELD_ID, id), pushEach(FIELD_MEMBERS, members));
-        if (!result.wasAcknowledged() && result.getModifiedCount() != 1) {
-            throw new IllegalStateException("failed to add members to group " + id);
-        }
-        return findGroup(id);
+        Set<UUID> profiles = memberSources.stream().map(source -> source.player.identity.id()).collect(Collectors.toSet());
+        return update(id, pushEach(FIELD_MEMBERS, members), new FindOneAndUpdateOptions(), profiles);
     }
 
     public Optional<Group> updateMember(UUID id, UUID profile, MembershipRole role, MembershipState state) {
-        UpdateOptions updateOptions = new UpdateOptions().arrayFilters(List.of(new Document("item." + FIELD_MEMBER_PROFILE_ID, profile)));
-        UpdateResult result = docs.updateOne(eq(FIELD_ID, id), set(FIELD_MEMBERS + ".$[item]", mapMember(profile, role, state)), updateOptions);
-        if (!result.wasAcknowledged() && result.getModifiedCount() != 1) {
-            throw new IllegalStateException("could not remove member " + profile + " from group " + id);
-        }
-        return findGroup(id);
+        FindOneAndUpdateOptions options = new FindOneAndUpdateOptions().arrayFilters(List.of(new Document("item." + FIELD_MEMBER_PROFILE_ID, profile)));
+        return update(id, set(FIELD_MEMBERS + ".$[item]", mapMember(profile, role, state)), options, Set.of(profile));
     }
 
     public Optional<Group> removeMember(UUID id, UUID profile) {
-        UpdateResult result = docs.updateOne(eq(FIELD_ID, id), pull(FIELD_MEMBERS, new Document(Map.of(FIELD_MEMBER_PROFILE_ID, profile))));
-        if (!result.wasAcknowledged() && result.getModifiedCount() != 1) {
-            throw new IllegalStateException("could not remove member " + profile + " from group " + id);
-        }
-        return findGroup(id);
+        return update(id, pull(FIELD_MEMBERS, new Document(Map.of(FIELD_MEMBER_PROFILE_ID, profile))), new FindOneAndUpdateOptions(), Set.of(profile));
     }
 
     /**
@@ -122,6 +152,7 @@ public final class GroupStore {
         if (!result.wasAcknowledged()) {
             throw new IllegalStateException("group " + group + " could not be deleted");
         }
+        cache.invalidate(group, Set.of());
         return result.getDeletedCount() == 1;
     }
 
@@ -135,13 +166,61 @@ public final class GroupStore {
         if (!result.wasAcknowledged()) {
             throw new IllegalStateException("groups with type " + groupType + " could not be deleted");
         }
+        cache.invalidateAll();
         return result.getDeletedCount();
     }
 
+    /**
+     * @return statistics of the group cache
+     */
+    public CacheStatistics statistics() {
+        long loads = metrics.loads();
+        double averageLoadMillis = loads == 0 ? 0 : (double) metrics.loadTime(TimeUnit.MICROSECONDS) / loads / 1000;
+        return new CacheStatistics(cache.size(), metrics.hits(), metrics.misses(), cache.evictions(), loads, averageLoadMillis);
+    }
+
+    /**
+     * Applies the update to the group in mongo and invalidates the cached document
+     * @param members whose membership the update may change
+     * @return updated group or empty if the group does not exist
+     */
+    private Optional<Group> update(UUID id, Bson update, FindOneAndUpdateOptions options, Set<UUID> members) {
+        Document updated = docs.findOneAndUpdate(eq(FIELD_ID, id), update, options.returnDocument(ReturnDocument.AFTER));
+        cache.invalidate(id, members);
+        return updated == null ? Optional.empty() : Optional.of(mapFromDocument(updated));
+    }
+
+    /**
+     * Load documents from mongo and cache them
+     * @param filter to query with
+     * @param member whose groups are all matched by the filter, or null
+     * @return documents found
+     */
+    private List<Document> load(Bson filter, UUID member) {
+        long loadVersion = cache.version();
+        long start = System.nanoTime();
+        List<Document> found = docs.find(filter).batchSize(100).into(new ArrayList<>());
+        metrics.load(System.nanoTime() - start);
+        cache.install(loadVersion, found, member);
+        return found;
+    }
+
+    private static Set<UUID> memberIds(Document document) {
+        if (document == null) {
+            return Set.of();
+        }
+        return document.getList(FIELD_MEMBERS, Document.class, new ArrayList<>()).stream()
+                .map(member -> member.get(FIELD_MEMBER_PROFILE_ID, UUID.class))
+                .collect(Collectors.toSet());
+    }
+
     @Nonnull
     private Group mapFromDocument(Document doc) {
-        Set<Member> members = doc.getList(FIELD_MEMBERS, Document.class, new ArrayList<>()).stream()
-                .map(this::mapMemberFrom)
+        List<Document> memberDocuments = doc.getList(FIELD_MEMBERS, Document.class, new ArrayList<>());
+        // Resolve every members profile with one lookup rather than one per member
+        Map<UUID, Profile> memberProfiles = profiles.getAll(memberIds(doc));
+        Set<Member> members = memberDocuments.stream()
+                .map(member -> mapMemberFrom(member, memberProfiles))
                 .collect(Collectors.toSet());
         UUID groupId = doc.get(FIELD_ID, UUID.class);
         GroupType groupType = GroupType.valueOf(doc.getString(FIELD_TYPE));
@@ -164,17 +243,17 @@ public final class GroupStore {
                 .collect(Collectors.toList());
     }
 
-    private Member mapMemberFrom(Document document) {
+    private Member mapMemberFrom(Document document, Map<UUID, Profile> memberProfiles) {
         UUID profileId = document.get(FIELD_MEMBER_PROFILE_ID, UUID.class);
+        Profile memberProfile = memberProfiles.get(profileId);
+        if (memberProfile == null) {
+            throw new IllegalStateException("could not find profile " + profileId);
+        }
         Player player = sessions.findPlayerByProfile(profileId)
-                .or(() -> profiles.getById(profileId)
-                .map(profile -> Optional.of(new Player(new ClientIdentity(profile.id, profile.publicKey), null)))
-                .orElseThrow(() -> new IllegalStateException("could not find player with profile id " + profileId)))
-                .orElseThrow(() -> new IllegalStateException("could not find player with profile id " + profileId));
+                .orElseGet(() -> new Player(new ClientIdentity(memberProfile.id, memberProfile.publicKey), null));
         MembershipRole role = MembershipRole.valueOf(document.getString(FIELD_MEMBER_ROLE));
         MembershipState state = MembershipState.valueOf(document.getString(FIELD_MEMBER_STATE));
-        PublicProfile profile = profiles.getById(profileId).orElseThrow(() -> new IllegalStateException("could not find profile " + profileId)).toPublic();
-        return new Member(player, profile, role, state);
+        return new Member(player, memberProfile.toPublic(), role, state);
     }
 
     private static Map<String, Object> mapMember(Member member) {
@@ -0,0 +1,50 @@
+package com.collarmc.server.services.location;
+
+import com.google.common.hash.HashFunction;
+import com.google.common.hash.Hashing;
+
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Maps keys onto a fixed set of members, placing every member at many points of a hash ring.
+ * Adding or removing a member only moves the keys between it and its neighbours, so members can later be
+ * spread over nodes without reshuffling every key.
+ * @param <T> member type
+ */
+final class ConsistentHashRing<T> {
+
+    private static final HashFunction HASH = Hashing.murmur3_128();
+
+    private final TreeMap<Long, T> ring = new TreeMap<>();
+
+    /**
+     * @param members on the ring, named by their {@link Object#toString()}
+     * @param pointsPerMember number of points each member has on the ring
+     */
+    ConsistentHashRing(List<T> members, int pointsPerMember) {
+        if (members.isEmpty()) {
+            throw new IllegalArgumentException("ring must have at least one member");
+        }
+        for (T member : members) {
+            for (int i = 0; i < pointsPerMember; i++) {
+                ring.put(hash(member + "#" + i), member);
+            }
+        }
+    }
+
+    /**
+     * @param key to place
+     * @return member owning the first point at or after the key
+     */
+    T get(String key) {
+        Map.Entry<Long, T> entry = ring.ceilingEntry(hash(key));
+        return entry == null ? ring.firstEntry().getValue() : entry.getValue();
+    }
+
+    private static long hash(String value) {
+        return HASH.hashString(value, StandardCharsets.UTF_8).asLong();
+    }
+}
@@ -3,21 +3,24 @@ package com.collarmc.server.services.location;
 import com.collarmc.api.groups.Group;
 import com.collarmc.api.groups.MemberSource;
 import com.collarmc.api.session.Player;
-import com.google.common.collect.Sets;
+import com.collarmc.security.mojang.MinecraftPlayer;
 
 import java.util.*;
-import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.ConcurrentMap;
 
 /**
  * State machine for managing dynamically created {@link Group}'s based on hashing
  * every players player entity list and comparing them.
+ * Players are partitioned by the minecraft server they are on and each partition keeps an
+ * inverted index of entity hash to the players that reported it, so an update only compares
+ * the player against players who share at least one hash with them.
+ * Not thread safe. Each instance is only used while holding the lock of its {@link ShardedNearbyGroups} shard.
  */
 public final class NearbyGroups {
 
-    private final ConcurrentMap<MemberSource, Set<String>> playerHashes = new ConcurrentHashMap<>();
-    private final ConcurrentMap<NearbyGroup, UUID> nearbyGroups = new ConcurrentHashMap<>();
-    private final ConcurrentMap<MemberSource, Set<NearbyGroup>> playerToGroups = new ConcurrentHashMap<>();
+    private final Map<String, ServerState> servers = new HashMap<>();
+    private final Map<MemberSource, String> playerServers = new HashMap<>();
+    private final Map<NearbyGroup, UUID> nearbyGroups = new HashMap<>();
+    private final Map<MemberSource, Set<NearbyGroup>> playerToGroups = new HashMap<>();
 
     /**
      * Calculates any nearby groups for the minecraft player and anyone in the calculated group
@@ -27,43 +30,44 @@ public final class NearbyGroups {
      * @return result delta
      */
     public Result updateNearbyGroups(MemberSource source, Set<String> hashes) {
-        playerHashes.compute(source, (thePlayer, strings) -> hashes);
         Map<UUID, NearbyGroup> add = new HashMap<>();
         Map<UUID, NearbyGroup> remove = new HashMap<>();
-        playerHashes.keySet().stream()
-                .filter(anotherSource ->
-                        anotherSource.player.minecraftPlayer != null &&
-                        source.player.minecraftPlayer != null &&
-                        anotherSource.player.minecraftPlayer.inServerWith(source.player.minecraftPlayer)
-                        && !anotherSource.equals(source)
-                ).forEach(anotherPlayer -> {
-            Set<String> otherPlayersHashes = playerHashes.get(anotherPlayer);
+        MinecraftPlayer minecraftPlayer = source.player.minecraftPlayer;
+        if (minecraftPlayer == null) {
+            return new Result(add, remove);
+        }
+        String previousServer = playerServers.put(source, minecraftPlayer.server);
+        if (previousServer != null && !previousServer.equals(minecraftPlayer.server)) {
+            // Groups formed on the previous server no longer apply
+            ServerState previousState = servers.get(previousServer);
+            if (previousState != null) {
+                previousState.remove(source);
+            }
+            removeGroups(source, remove);
+        }
+        ServerState state = servers.computeIfAbsent(minecraftPlayer.server, server -> new ServerState());
+        state.update(source, hashes);
+        Set<MemberSource> candidates = state.playersSharing(hashes);
+        // Players already grouped with the source must be checked too, as the group may need removing
+        Set<NearbyGroup> currentGroups = playerToGroups.get(source);
+        if (currentGroups != null) {
+            currentGroups.forEach(group -> candidates.addAll(group.players));
+        }
+        candidates.remove(source);
+        for (MemberSource anotherPlayer : candidates) {
+            Set<String> otherPlayersHashes = state.hashes(anotherPlayer);
             NearbyGroup group = new NearbyGroup(Set.of(source, anotherPlayer));
-            if (Sets.difference(hashes, otherPlayersHashes).isEmpty()) {
-                nearbyGroups.compute(group, (nearbyGroup, uuid) -> {
-                    if (uuid == null) {
-                        uuid = UUID.randomUUID();
-                        add.put(uuid, group);
-                    }
-                    return uuid;
-                });
-                playerToGroups.compute(source, (thePlayer, playersGroups) -> {
-                    playersGroups = playersGroups == null ? new HashSet<>() : playersGroups;
-                    playersGroups.add(group);
-                    return playersGroups;
+            if (!hashes.isEmpty() && otherPlayersHashes != null && otherPlayersHashes.containsAll(hashes)) {
+                nearbyGroups.computeIfAbsent(group, nearbyGroup -> {
+                    UUID groupId = UUID.randomUUID();
+                    add.put(groupId, group);
+                    return groupId;
                 });
+                group.players.forEach(member -> playerToGroups.computeIfAbsent(member, key -> new HashSet<>()).add(group));
             } else {
-                UUID groupId = nearbyGroups.get(group);
-                if (groupId != null) {
-                    remove.put(groupId, group);
-                    playerToGroups.compute(source, (thePlayer, playersGroups) -> {
-                        playersGroups = playersGroups == null ? new HashSet<>() : playersGroups;
-                        playersGroups.remove(group);
-                        return nearbyGroups.isEmpty() ? null : playersGroups;
-                    });
-                }
+                removeGroup(group, remove);
             }
-        });
+        }
         return new Result(add, remove);
     }
 
@@ -72,10 +76,81 @@ public final class NearbyGroups {
      * @param player to remove
      */
     public void removePlayerState(Player player) {
-        playerHashes.remove(new MemberSource(player, null));
-        Set<NearbyGroup> groups = playerToGroups.remove(new MemberSource(player, null));
+        removePlayer(player);
+    }
+
+    /**
+     * Forget the player and every group they formed
+     * @param player to remove
+     * @return groups that were removed
+     */
+    public Result removePlayer(Player player) {
+        MemberSource source = new MemberSource(player, null);
+        Map<UUID, NearbyGroup> remove = new HashMap<>();
+        String server = playerServers.remove(source);
+        ServerState state = server == null ? null : servers.get(server);
+        if (state != null) {
+            state.remove(source);
+        }
+        removeGroups(source, remove);
+        return new Result(new HashMap<>(), remove);
+    }
+
+    private void removeGroups(MemberSource source, Map<UUID, NearbyGroup> remove) {
+        Set<NearbyGroup> groups = playerToGroups.get(source);
         if (groups != null) {
-            groups.forEach(nearbyGroups::remove);
+            new ArrayList<>(groups).forEach(group -> removeGroup(group, remove));
+        }
+    }
+
+    private void removeGroup(NearbyGroup group, Map<UUID, NearbyGroup> remove) {
+        UUID groupId = nearbyGroups.remove(group);
+        if (groupId != null) {
+            remove.put(groupId, group);
+        }
+        group.players.forEach(member -> playerToGroups.computeIfPresent(member, (key, groups) -> {
+            groups.remove(group);
+            return groups.isEmpty() ? null : groups;
+        }));
+    }
+
+    /**
+     * Entity hashes reported by the players on a single minecraft server
+     */
+    private static final class ServerState {
+        private final Map<MemberSource, Set<String>> playerHashes = new HashMap<>();
+        private final Map<String, Set<MemberSource>> hashToPlayers = new HashMap<>();
+
+        void update(MemberSource source, Set<String> hashes) {
+            remove(source);
+            playerHashes.put(source, Set.copyOf(hashes));
+            hashes.forEach(hash -> hashToPlayers.computeIfAbsent(hash, key -> new HashSet<>()).add(source));
+        }
+
+        void remove(MemberSource source) {
+            Set<String> hashes = playerHashes.remove(source);
+            if (hashes == null) {
+                return;
+            }
+            hashes.forEach(hash -> hashToPlayers.computeIfPresent(hash, (key, players) -> {
+                players.remove(source);
+                return players.isEmpty() ? null : players;
+            }));
+        }
+
+        Set<String> hashes(MemberSource source) {
+            return playerHashes.get(source);
+        }
+
+        Set<MemberSource> playersSharing(Set<String> hashes) {
+            Set<MemberSource> players = new HashSet<>();
+            hashes.forEach(hash -> {
+                Set<MemberSource> reported = hashToPlayers.get(hash);
+                if (reported != null) {
+                    players.addAll(reported);
+                }
+            });
+            return players;
         }
     }
 
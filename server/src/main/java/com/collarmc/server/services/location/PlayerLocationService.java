@@ -23,14 +23,22 @@ public class PlayerLocationService {
 
     private static final Logger LOGGER = LogManager.getLogger(PlayerLocationService.class.getName());
 
-    private final NearbyGroups nearbyGroups = new NearbyGroups();
+    private final ShardedNearbyGroups nearbyGroups;
 
     // Group to players
     private final ConcurrentMap<UUID, Set<UUID>> playersSharing = new ConcurrentHashMap<>();
     private final Services services;
 
-    public PlayerLocationService(Services services) {
+    public PlayerLocationService(Services services, int nearbyShards) {
         this.services = services;
+        this.nearbyGroups = new ShardedNearbyGroups(nearbyShards);
+    }
+
+    /**
+     * @return queue depth and latency of each nearby group shard
+     */
+    public List<ShardedNearbyGroups.ShardMetrics> nearbyMetrics() {
+        return nearbyGroups.metrics();
     }
 
     public void startSharing(ClientIdentity identity, StartSharingLocationRequest req) {
@@ -110,7 +118,7 @@ public class PlayerLocationService {
         Set<Group> memberGroups = services.groups.findGroups(sharingWithGroups);
         // Keep track of players we have sent to, so we do not send them duplicate messages (e.g. if they share membership of 2 or more groups)
         HashSet<Player> uniquePlayers = new HashSet<>();
-        GroupMessageEnvelope messageEnvelope = resp.location == null ? null : new GroupMessageEnvelope(resp.location);
+        GroupMessageEnvelope.View messageEnvelope = resp.location() == null ? null : GroupMessageEnvelope.view(resp.location());
         for (Group group : memberGroups) {
             for (Member member : group.members) {
                 Player memberPlayer = member.player;
@@ -121,13 +129,16 @@ public class PlayerLocationService {
                 if (uniquePlayers.contains(memberPlayer) || member.membershipState != MembershipState.ACCEPTED) {
                     continue;
                 }
-                if (messageEnvelope != null && !messageEnvelope.messages.containsKey(memberPlayer.identity.id())) {
+                if (messageEnvelope != null && !messageEnvelope.contains(memberPlayer.identity.id())) {
                     continue;
                 }
                 services.sessions.getIdentity(memberPlayer).ifPresent(identity -> {
                     uniquePlayers.add(memberPlayer);
-                    byte[] location = messageEnvelope == null ? null : messageEnvelope.messages.get(memberPlayer.identity.id()).contents;
-                    responses.add(identity, new LocationUpdatedResponse(resp.group, sender, location));
+                    if (messageEnvelope == null) {
+                        responses.add(identity, new LocationUpdatedResponse(resp.group, sender, null));
+                    } else {
+                        messageEnvelope.contents(memberPlayer.identity.id()).ifPresent(location -> responses.add(identity, LocationUpdatedResponse.relay(resp.group, sender, location)));
+                    }
                 });
             }
         }
@@ -0,0 +1,129 @@
+package com.collarmc.server.services.location;
+
+import com.collarmc.api.groups.MemberSource;
+import com.collarmc.api.session.Player;
+import com.collarmc.server.common.LatencyHistogram;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+/**
+ * Splits {@link NearbyGroups} into shards by minecraft server, as only players on the same server can be nearby.
+ * Servers are placed on shards by a {@link ConsistentHashRing}. Each shard owns its own {@link NearbyGroups} behind its
+ * own lock, and work runs on the calling thread, so players on a busy server do not hold up players on every other server.
+ */
+public final class ShardedNearbyGroups {
+
+    private static final int POINTS_PER_SHARD = 64;
+
+    private final List<Shard> shards = new ArrayList<>();
+    private final ConsistentHashRing<Shard> ring;
+    /** Shard each profile's state is on, so it can be removed when the player changes server **/
+    private final ConcurrentMap<UUID, Shard> playerShards = new ConcurrentHashMap<>();
+
+    /**
+     * @param shards number of shards
+     */
+    public ShardedNearbyGroups(int shards) {
+        if (shards < 1) {
+            throw new IllegalArgumentException("shards must be positive");
+        }
+        for (int i = 0; i < shards; i++) {
+            this.shards.add(new Shard(i));
+        }
+        this.ring = new ConsistentHashRing<>(this.shards, POINTS_PER_SHARD);
+    }
+
+    /**
+     * @see NearbyGroups#updateNearbyGroups(MemberSource, Set)
+     */
+    public NearbyGroups.Result updateNearbyGroups(MemberSource source, Set<String> hashes) {
+        if (source.player.minecraftPlayer == null) {
+            return new NearbyGroups.Result(new HashMap<>(), new HashMap<>());
+        }
+        Shard shard = ring.get(source.player.minecraftPlayer.server);
+        Shard previous = playerShards.put(source.player.identity.id(), shard);
+        Map<UUID, NearbyGroup> removed = new HashMap<>();
+        if (previous != null && previous != shard) {
+            // Groups formed on the previous server no longer apply
+            removed.putAll(previous.run(() -> previous.groups.removePlayer(source.player)).remove);
+        }
+        NearbyGroups.Result result = shard.run(() -> shard.groups.updateNearbyGroups(source, hashes));
+        result.remove.putAll(removed);
+        return result;
+    }
+
+    /**
+     * @see NearbyGroups#removePlayerState(Player)
+     */
+    public void removePlayerState(Player player) {
+        Shard shard = playerShards.remove(player.identity.id());
+        if (shard != null) {
+            shard.run(() -> shard.groups.removePlayer(player));
+        }
+    }
+
+    /**
+     * @return point in time metrics of every shard
+     */
+    public List<ShardMetrics> metrics() {
+        List<ShardMetrics> metrics = new ArrayList<>(shards.size());
+        shards.forEach(shard -> metrics.add(new ShardMetrics(shard.index, shard.pending.get(), shard.latency)));
+        return metrics;
+    }
+
+    /**
+     * Queue depth and latency of a shard. A deep queue or slow shard points at a busy minecraft server.
+     */
+    public static final class ShardMetrics {
+        public final int shard;
+        /** Updates waiting for or holding the shard's lock **/
+        public final int pending;
+        /** Time from starting an update to it finishing, including time waiting for the lock **/
+        public final LatencyHistogram latency;
+
+        ShardMetrics(int shard, int pending, LatencyHistogram latency) {
+            this.shard = shard;
+            this.pending = pending;
+            this.latency = latency;
+        }
+    }
+
+    private static final class Shard {
+        final int index;
+        final NearbyGroups groups = new NearbyGroups();
+        final AtomicInteger pending = new AtomicInteger();
+        final LatencyHistogram latency = new LatencyHistogram();
+
+        Shard(int index) {
+            this.index = index;
+        }
+
+        /**
+         * Run work on the calling thread while holding the shard's lock
+         */
+        <T> T run(Supplier<T> work) {
+            long start = System.nanoTime();
+            pending.incrementAndGet();
+            try {
+                synchronized (this) {
+                    return work.get();
+                }
+            } finally {
+                pending.decrementAndGet();
+                latency.record(System.nanoTime() - start);
+            }
+        }
+
+        /**
+         * Names the shard's points on the ring
+         */
+        @Override
+        public String toString() {
+            return Integer.toString(index);
+        }
+    }
+}
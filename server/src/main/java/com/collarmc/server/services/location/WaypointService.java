@@ -2,12 +2,16 @@ package com.collarmc.server.services.location;
 
 import com.collarmc.api.identity.ClientIdentity;
 import com.collarmc.api.waypoints.EncryptedWaypoint;
+import com.collarmc.protocol.PacketIO;
 import com.collarmc.protocol.waypoints.CreateWaypointRequest;
 import com.collarmc.protocol.waypoints.GetWaypointsRequest;
+import com.collarmc.protocol.waypoints.GetWaypointsResponse;
 import com.collarmc.protocol.waypoints.RemoveWaypointRequest;
 import com.collarmc.server.services.profiles.storage.ProfileStorage;
 
 import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Consumer;
 import java.util.stream.Collectors;
 
 /**
@@ -15,6 +19,10 @@ import java.util.stream.Collectors;
  */
 public final class WaypointService {
     private static final String WAYPOINT_BLOB_TYPE = "W";
+    /** Waypoints sent in each {@link GetWaypointsResponse} **/
+    private static final int PAGE_SIZE = 100;
+    /** Leaves room in each packet for waypoint ids, serialization and encryption overhead **/
+    private static final int PAGE_BYTES = PacketIO.MAX_PACKET_SIZE / 2;
 
     private final ProfileStorage storage;
 
@@ -30,8 +38,21 @@ public final class WaypointService {
         storage.delete(identity.id(), req.waypointId);
     }
 
-    public List<EncryptedWaypoint> getWaypoints(ClientIdentity identity, GetWaypointsRequest req) {
-        List<ProfileStorage.Blob> blobs = storage.find(identity.id(), WAYPOINT_BLOB_TYPE);
-        return blobs.stream().map(blob -> new EncryptedWaypoint(blob.key, blob.data)).collect(Collectors.toList());
+    /**
+     * Sends the players waypoints in pages so that no response exceeds {@link PacketIO#MAX_PACKET_SIZE}
+     * @param identity of the player
+     * @param req request
+     * @param sender of each page
+     */
+    public void getWaypoints(ClientIdentity identity, GetWaypointsRequest req, Consumer<GetWaypointsResponse> sender) {
+        AtomicBoolean sent = new AtomicBoolean();
+        storage.find(identity.id(), WAYPOINT_BLOB_TYPE, PAGE_SIZE, PAGE_BYTES, blobs -> {
+            sender.accept(new GetWaypointsResponse(blobs.stream().map(blob -> new EncryptedWaypoint(blob.key, blob.data)).collect(Collectors.toList())));
+            sent.set(true);
+        });
+        // Players without waypoints still get a response
+        if (!sent.get()) {
+            sender.accept(new GetWaypointsResponse(List.of()));
+        }
     }
 }
@@ -5,33 +5,53 @@ import com.collarmc.api.http.RequestContext;
 import com.collarmc.api.profiles.Profile;
 import com.collarmc.api.profiles.ProfileService;
 import com.collarmc.api.profiles.ProfileService.GetProfileRequest;
-import com.google.common.cache.CacheBuilder;
-import com.google.common.cache.CacheLoader;
-import com.google.common.cache.LoadingCache;
+import com.collarmc.api.profiles.ProfileService.GetProfilesRequest;
+import com.collarmc.server.common.CacheStatistics;
+import com.collarmc.server.configuration.ProfileCacheConfiguration;
+import com.google.common.cache.*;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.google.common.util.concurrent.UncheckedExecutionException;
 
-import java.util.Optional;
-import java.util.UUID;
+import java.util.*;
 import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
 import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
 
+/**
+ * Caches profiles for the server.
+ * Profiles that are read regularly, such as those of online players, are reloaded in the background before they expire.
+ * Ids without a profile are remembered for a short time so that repeated lookups do not hit the database.
+ * Every invalidation bumps a version so that loads racing a write do not cache stale profiles.
+ */
 public final class ProfileCache {
     private final ProfileService profiles;
-    private final LoadingCache<UUID, Optional<Profile>> profileCache = CacheBuilder.newBuilder()
-            .expireAfterAccess(30, TimeUnit.SECONDS)
-            .build(new CacheLoader<>() {
-                @Override
-                public Optional<Profile> load(UUID key) {
-                    try {
-                        Profile profile = profiles.getProfile(RequestContext.SERVER, GetProfileRequest.byId(key)).profile;
-                        return Optional.of(profile);
-                    } catch (HttpException.NotFoundException ignored) {
-                        return Optional.empty();
-                    }
-                }
-            });
+    private final LoadingCache<UUID, Profile> profileCache;
+    private final Cache<UUID, Boolean> missingProfiles;
+    private long version;
 
-    public ProfileCache(ProfileService profiles) {
+    public ProfileCache(ProfileService profiles, ProfileCacheConfiguration configuration) {
         this.profiles = profiles;
+        CacheLoader<UUID, Profile> loader = new CacheLoader<>() {
+            @Override
+            public Profile load(UUID key) {
+                return profiles.getProfile(RequestContext.SERVER, GetProfileRequest.byId(key)).profile;
+            }
+        };
+        this.profileCache = CacheBuilder.newBuilder()
+                .maximumSize(configuration.maximumSize)
+                .expireAfterAccess(configuration.expireAfterAccess.toMillis(), TimeUnit.MILLISECONDS)
+                .refreshAfterWrite(configuration.refreshAfterWrite.toMillis(), TimeUnit.MILLISECONDS)
+                .recordStats()
+                .build(CacheLoader.asyncReloading(loader, Executors.newSingleThreadExecutor(new ThreadFactoryBuilder().setNameFormat("collar-profile-refresh-%d").setDaemon(true).build())));
+        this.missingProfiles = CacheBuilder.newBuilder()
+                .maximumSize(configuration.maximumSize)
+                .expireAfterWrite(configuration.negativeExpiry.toMillis(), TimeUnit.MILLISECONDS)
+                .build();
+    }
+
+    public ProfileCache(ProfileService profiles) {
+        this(profiles, ProfileCacheConfiguration.defaults());
     }
 
     /**
@@ -40,10 +60,84 @@ public final class ProfileCache {
      * @return optional profile
      */
     public Optional<Profile> getById(UUID profile) {
+        if (missingProfiles.getIfPresent(profile) != null) {
+            return Optional.empty();
+        }
+        long loadVersion = version();
         try {
-            return profileCache.get(profile);
+            return Optional.of(profileCache.get(profile));
+        } catch (UncheckedExecutionException e) {
+            if (e.getCause() instanceof HttpException.NotFoundException) {
+                install(loadVersion, List.of(), Set.of(profile));
+            }
+            return Optional.empty();
         } catch (ExecutionException e) {
             return Optional.empty();
         }
     }
+
+    /**
+     * Load many profiles from cache, fetching all the missing ones with a single query
+     * @param ids of profiles
+     * @return profiles found by id
+     */
+    public Map<UUID, Profile> getAll(Collection<UUID> ids) {
+        Map<UUID, Profile> found = new HashMap<>(profileCache.getAllPresent(ids));
+        Set<UUID> toLoad = new HashSet<>();
+        for (UUID id : ids) {
+            if (!found.containsKey(id) && missingProfiles.getIfPresent(id) == null) {
+                toLoad.add(id);
+            }
+        }
+        if (!toLoad.isEmpty()) {
+            long loadVersion = version();
+            List<Profile> loaded = profiles.getProfiles(RequestContext.SERVER, new GetProfilesRequest(toLoad)).profiles;
+            loaded.forEach(profile -> found.put(profile.id, profile));
+            Set<UUID> missing = toLoad.stream().filter(id -> !found.containsKey(id)).collect(Collectors.toSet());
+            install(loadVersion, loaded, missing);
+        }
+        return found;
+    }
+
+    /**
+     * Forget a profile so that it is loaded again on next access
+     * @param profile to forget
+     */
+    public synchronized void invalidate(UUID profile) {
+        version++;
+        profileCache.invalidate(profile);
+        missingProfiles.invalidate(profile);
+    }
+
+    private synchronized long version() {
+        return version;
+    }
+
+    /**
+     * Caches loaded profiles and ids without a profile if nothing was invalidated since the load started
+     * @param loadVersion returned by {@link #version()} before loading
+     * @param loaded profiles
+     * @param missing ids without a profile
+     */
+    private synchronized void install(long loadVersion, Collection<Profile> loaded, Set<UUID> missing) {
+        if (loadVersion != version) {
+            return;
+        }
+        loaded.forEach(profile -> profileCache.put(profile.id, profile));
+        missing.forEach(id -> missingProfiles.put(id, Boolean.TRUE));
+    }
+
+    /**
+     * @return statistics of the cache
+     */
+    public CacheStatistics statistics() {
+        CacheStats stats = profileCache.stats();
+        return new CacheStatistics(
+                profileCache.size(),
+                stats.hitCount(),
+                stats.missCount(),
+                stats.evictionCount(),
+                stats.loadCount(),
+                stats.averageLoadPenalty() / TimeUnit.MILLISECONDS.toNanos(1));
+    }
 }
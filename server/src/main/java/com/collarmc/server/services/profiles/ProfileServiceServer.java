@@ -26,6 +26,7 @@ import java.util.*;
 import java.util.stream.Collectors;
 
 import static com.mongodb.client.model.Filters.eq;
+import static com.mongodb.client.model.Filters.in;
 import static com.mongodb.client.model.Updates.push;
 
 public class ProfileServiceServer implements ProfileService {
@@ -116,6 +117,19 @@ public class ProfileServiceServer implements ProfileService {
         return new GetProfileResponse(map(doc));
     }
 
+    @Override
+    public GetProfilesResponse getProfiles(RequestContext context, GetProfilesRequest req) {
+        context.assertNotAnonymous();
+        if (req.byIds == null) {
+            throw new BadRequestException("empty request");
+        }
+        if (req.byIds.isEmpty()) {
+            return new GetProfilesResponse(List.of());
+        }
+        List<Document> documents = docs.find(in(FIELD_PROFILE_ID, req.byIds)).batchSize(100).into(new ArrayList<>());
+        return new GetProfilesResponse(documents.stream().map(ProfileServiceServer::map).collect(Collectors.toList()));
+    }
+
     @Override
     public UpdateProfileResponse updateProfile(RequestContext context, UpdateProfileRequest req) {
         context.assertNotAnonymous();
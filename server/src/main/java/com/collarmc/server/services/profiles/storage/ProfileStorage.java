@@ -1,34 +1,63 @@
 package com.collarmc.server.services.profiles.storage;
 
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import com.mongodb.client.MongoCollection;
 import com.mongodb.client.MongoCursor;
 import com.mongodb.client.MongoDatabase;
-import com.mongodb.client.model.UpdateOptions;
+import com.mongodb.client.model.*;
 import com.mongodb.client.result.DeleteResult;
-import com.mongodb.client.result.UpdateResult;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
 import org.bson.Document;
 import org.bson.types.Binary;
 
-import java.util.ArrayList;
-import java.util.List;
-import java.util.Map;
-import java.util.UUID;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Consumer;
 
 import static com.mongodb.client.model.Filters.and;
 import static com.mongodb.client.model.Filters.eq;
 
+/**
+ * Stores blobs belonging to profiles.
+ * Writes are queued and flushed to mongo in bulk, with repeated writes to the same blob coalesced into one.
+ * Reads always include the queued writes so callers never see the queue.
+ * The queue is bounded, so when mongo cannot keep up writers wait for room and eventually fail rather than exhausting memory.
+ */
 public class ProfileStorage {
+    private static final Logger LOGGER = LogManager.getLogger(ProfileStorage.class.getName());
+
     public static final String FIELD_KEY = "key";
     public static final String FIELD_OWNER = "owner";
     public static final String FIELD_TYPE = "type";
     public static final String FIELD_DATA = "data";
 
+    private static final long FLUSH_INTERVAL_MILLIS = 250;
+    /** Flush straight away once this many writes are waiting **/
+    private static final int FLUSH_THRESHOLD = 500;
+    /** Most writes that can be waiting, writers to other blobs wait for room once it is reached **/
+    private static final int MAX_PENDING = 20_000;
+    /** Longest a writer waits for room before the write fails **/
+    private static final long MAX_PENDING_WAIT_MILLIS = 5000;
+
     private final MongoCollection<Document> docs;
+    private final ConcurrentMap<BlobId, PendingWrite> pending = new ConcurrentHashMap<>();
+    /** Guards adding to pending and is notified when flushes make room **/
+    private final Object capacity = new Object();
+    /** Set while a flush triggered by the threshold is waiting to run, so only one is queued at a time **/
+    private final AtomicBoolean flushQueued = new AtomicBoolean();
+    private final ScheduledExecutorService flusher = Executors.newSingleThreadScheduledExecutor(new ThreadFactoryBuilder().setNameFormat("collar-storage-flush-%d").setDaemon(true).build());
 
     public ProfileStorage(MongoDatabase db) {
         this.docs = db.getCollection("profile_storage");
         Map<String, Object> index = Map.of(FIELD_OWNER, 1, FIELD_KEY, 1, FIELD_DATA, 1);
         this.docs.createIndex(new Document(index));
+        this.flusher.scheduleWithFixedDelay(this::flushQuietly, FLUSH_INTERVAL_MILLIS, FLUSH_INTERVAL_MILLIS, TimeUnit.MILLISECONDS);
     }
 
     /**
@@ -39,11 +68,7 @@ public class ProfileStorage {
      * @param type of the blob
      */
     public void store(UUID owner, UUID key, byte[] data, String type) {
-        Map<String, Object> state = Map.of(FIELD_OWNER, owner, FIELD_KEY, key, FIELD_DATA, new Binary(data), FIELD_TYPE, type);
-        UpdateResult result = docs.updateOne(and(eq(FIELD_OWNER, owner), eq(FIELD_KEY, key)), new Document("$set", new Document(state)), new UpdateOptions().upsert(true));
-        if (!result.wasAcknowledged()) {
-            throw new IllegalStateException("could not store data for owner " + owner + " key " + key);
-        }
+        enqueue(new BlobId(owner, key), new PendingWrite(new Blob(owner, key, type, data)));
     }
 
     /**
@@ -52,10 +77,7 @@ public class ProfileStorage {
      * @param key to delete
      */
     public void delete(UUID owner, UUID key) {
-        DeleteResult result = docs.deleteOne(and(eq(FIELD_OWNER, owner), eq(FIELD_KEY, key)));
-        if (!result.wasAcknowledged()) {
-            throw new IllegalStateException("could not delete data for owner " + owner + " key " + key);
-        }
+        enqueue(new BlobId(owner, key), new PendingWrite(null));
     }
 
     /**
@@ -63,26 +85,134 @@ public class ProfileStorage {
      * @param owner to remove all blobs
      */
     public void delete(UUID owner) {
-        DeleteResult result = docs.deleteMany(eq(FIELD_OWNER, owner));
-        if (!result.wasAcknowledged()) {
-            throw new IllegalStateException("could not delete data for owner " + owner);
+        // Hold the flush lock so that no queued write for this owner can land after the delete
+        synchronized (this) {
+            pending.keySet().removeIf(id -> id.owner.equals(owner));
+            freed();
+            DeleteResult result = docs.deleteMany(eq(FIELD_OWNER, owner));
+            if (!result.wasAcknowledged()) {
+                throw new IllegalStateException("could not delete data for owner " + owner);
+            }
         }
     }
 
     public List<Blob> find(UUID owner, String type) {
-        MongoCursor<Blob> iterator = docs.find(and(eq(FIELD_OWNER, owner), eq(FIELD_TYPE, type))).map(document -> new Blob(
-                document.get(FIELD_OWNER, UUID.class),
-                document.get(FIELD_KEY, UUID.class),
-                document.get(FIELD_TYPE, String.class),
-                document.get(FIELD_DATA, Binary.class).getData()
-        )).iterator();
         List<Blob> blobs = new ArrayList<>();
-        while (iterator.hasNext()) {
-            blobs.add(iterator.next());
-        }
+        find(owner, type, Integer.MAX_VALUE, Integer.MAX_VALUE, blobs::addAll);
         return blobs;
     }
 
+    /**
+     * Find blobs in pages, so that large numbers of blobs are never held in memory at once
+     * @param owner of the blobs
+     * @param type of the blobs
+     * @param maxPageBlobs maximum number of blobs in each page
+     * @param maxPageBytes maximum size of the blob data in each page, a page always has at least one blob
+     * @param consumer of each page
+     */
+    public void find(UUID owner, String type, int maxPageBlobs, int maxPageBytes, Consumer<List<Blob>> consumer) {
+        Map<UUID, PendingWrite> ownersWrites = new HashMap<>();
+        pending.forEach((id, write) -> {
+            if (id.owner.equals(owner)) {
+                ownersWrites.put(id.key, write);
+            }
+        });
+        Page page = new Page(maxPageBlobs, maxPageBytes, consumer);
+        try (MongoCursor<Document> cursor = docs.find(and(eq(FIELD_OWNER, owner), eq(FIELD_TYPE, type))).batchSize(100).iterator()) {
+            while (cursor.hasNext()) {
+                Document document = cursor.next();
+                UUID key = document.get(FIELD_KEY, UUID.class);
+                // Queued writes replace whatever is in mongo
+                if (!ownersWrites.containsKey(key)) {
+                    page.add(new Blob(
+                            document.get(FIELD_OWNER, UUID.class),
+                            key,
+                            document.get(FIELD_TYPE, String.class),
+                            document.get(FIELD_DATA, Binary.class).getData()
+                    ));
+                }
+            }
+        }
+        ownersWrites.values().stream()
+                .filter(write -> write.blob != null && write.blob.type.equals(type))
+                .forEach(write -> page.add(write.blob));
+        page.flush();
+    }
+
+    /**
+     * Write all queued writes to mongo
+     */
+    public synchronized void flush() {
+        if (pending.isEmpty()) {
+            return;
+        }
+        Map<BlobId, PendingWrite> writes = new HashMap<>(pending);
+        List<WriteModel<Document>> models = new ArrayList<>(writes.size());
+        writes.forEach((id, write) -> {
+            if (write.blob == null) {
+                models.add(new DeleteOneModel<>(and(eq(FIELD_OWNER, id.owner), eq(FIELD_KEY, id.key))));
+            } else {
+                Map<String, Object> state = Map.of(FIELD_OWNER, id.owner, FIELD_KEY, id.key, FIELD_DATA, new Binary(write.blob.data), FIELD_TYPE, write.blob.type);
+                models.add(new UpdateOneModel<>(and(eq(FIELD_OWNER, id.owner), eq(FIELD_KEY, id.key)), new Document("$set", new Document(state)), new UpdateOptions().upsert(true)));
+            }
+        });
+        if (!docs.bulkWrite(models, new BulkWriteOptions().ordered(false)).wasAcknowledged()) {
+            throw new IllegalStateException("could not write " + models.size() + " blobs");
+        }
+        // Only forget writes that were not replaced while flushing
+        writes.forEach(pending::remove);
+        freed();
+    }
+
+    private void enqueue(BlobId id, PendingWrite write) {
+        synchronized (capacity) {
+            long deadline = System.currentTimeMillis() + MAX_PENDING_WAIT_MILLIS;
+            // Replacing a queued write to the same blob does not take any more room
+            while (pending.size() >= MAX_PENDING && !pending.containsKey(id)) {
+                queueFlush();
+                long remaining = deadline - System.currentTimeMillis();
+                if (remaining <= 0) {
+                    throw new IllegalStateException("profile storage has " + pending.size() + " writes waiting to be flushed");
+                }
+                try {
+                    capacity.wait(remaining);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new IllegalStateException("interrupted waiting to queue write", e);
+                }
+            }
+            pending.put(id, write);
+        }
+        if (pending.size() >= FLUSH_THRESHOLD) {
+            queueFlush();
+        }
+    }
+
+    private void queueFlush() {
+        if (flushQueued.compareAndSet(false, true)) {
+            flusher.execute(() -> {
+                // Cleared first so that writes arriving during the flush can queue the next one
+                flushQueued.set(false);
+                flushQuietly();
+            });
+        }
+    }
+
+    private void freed() {
+        synchronized (capacity) {
+            capacity.notifyAll();
+        }
+    }
+
+    private void flushQuietly() {
+        try {
+            flush();
+        } catch (RuntimeException e) {
+            // Writes stay queued and are retried on the next flush
+            LOGGER.error("Could not flush profile storage", e);
+        }
+    }
+
     public static final class Blob {
         public final UUID owner;
         public final UUID key;
@@ -96,4 +226,68 @@ public class ProfileStorage {
             this.data = data;
         }
     }
+
+    private static final class BlobId {
+        final UUID owner;
+        final UUID key;
+
+        BlobId(UUID owner, UUID key) {
+            this.owner = owner;
+            this.key = key;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (o == null || getClass() != o.getClass()) return false;
+            BlobId blobId = (BlobId) o;
+            return owner.equals(blobId.owner) && key.equals(blobId.key);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(owner, key);
+        }
+    }
+
+    /**
+     * Queued store, or delete when there is no blob
+     */
+    private static final class PendingWrite {
+        final Blob blob;
+
+        PendingWrite(Blob blob) {
+            this.blob = blob;
+        }
+    }
+
+    private static final class Page {
+        private final int maxBlobs;
+        private final int maxBytes;
+        private final Consumer<List<Blob>> consumer;
+        private List<Blob> blobs = new ArrayList<>();
+        private long bytes;
+
+        Page(int maxBlobs, int maxBytes, Consumer<List<Blob>> consumer) {
+            this.maxBlobs = maxBlobs;
+            this.maxBytes = maxBytes;
+            this.consumer = consumer;
+        }
+
+        void add(Blob blob) {
+            if (!blobs.isEmpty() && (blobs.size() >= maxBlobs || bytes + blob.data.length > maxBytes)) {
+                flush();
+            }
+            blobs.add(blob);
+            bytes += blob.data.length;
+        }
+
+        void flush() {
+            if (!blobs.isEmpty()) {
+                consumer.accept(blobs);
+                blobs = new ArrayList<>();
+                bytes = 0;
+            }
+        }
+    }
 }
@@ -0,0 +1,76 @@
+package com.collarmc.server.session;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Counters for {@link ResponseFanOut}
+ */
+public final class FanOutMetrics {
+    private final LongAdder fanOuts = new LongAdder();
+    private final LongAdder recipients = new LongAdder();
+    private final LongAdder signatures = new LongAdder();
+    private final LongAdder seals = new LongAdder();
+    private final LongAdder signNanos = new LongAdder();
+    private final LongAdder sealNanos = new LongAdder();
+    private final LongAdder elapsedNanos = new LongAdder();
+
+    void record(int recipients, int signatures, int seals, long signNanos, long sealNanos, long elapsedNanos) {
+        this.fanOuts.increment();
+        this.recipients.add(recipients);
+        this.signatures.add(signatures);
+        this.seals.add(seals);
+        this.signNanos.add(signNanos);
+        this.sealNanos.add(sealNanos);
+        this.elapsedNanos.add(elapsedNanos);
+    }
+
+    /**
+     * @return number of batches sent
+     */
+    public long fanOuts() {
+        return fanOuts.sum();
+    }
+
+    /**
+     * @return number of sessions sent to across all batches
+     */
+    public long recipients() {
+        return recipients.sum();
+    }
+
+    /**
+     * @return number of distinct payloads signed
+     */
+    public long signatures() {
+        return signatures.sum();
+    }
+
+    /**
+     * @return number of packets sealed for a recipient
+     */
+    public long seals() {
+        return seals.sum();
+    }
+
+    /**
+     * @return total time spent signing, across all worker threads
+     */
+    public long signTime(TimeUnit unit) {
+        return unit.convert(signNanos.sum(), TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * @return total time spent sealing, across all worker threads
+     */
+    public long sealTime(TimeUnit unit) {
+        return unit.convert(sealNanos.sum(), TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * @return total wall clock time spent sending batches
+     */
+    public long elapsedTime(TimeUnit unit) {
+        return unit.convert(elapsedNanos.sum(), TimeUnit.NANOSECONDS);
+    }
+}
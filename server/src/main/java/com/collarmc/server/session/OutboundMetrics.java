@@ -0,0 +1,75 @@
+package com.collarmc.server.session;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Counters for {@link OutboundQueues}
+ */
+public final class OutboundMetrics {
+    private final LongAdder frames = new LongAdder();
+    private final LongAdder bytes = new LongAdder();
+    private final LongAdder writes = new LongAdder();
+    private final LongAdder dropped = new LongAdder();
+    private final LongAdder disconnected = new LongAdder();
+    private final LongAdder failed = new LongAdder();
+
+    void written(int frames, long bytes) {
+        this.frames.add(frames);
+        this.bytes.add(bytes);
+        this.writes.increment();
+    }
+
+    void droppedPacket() {
+        dropped.increment();
+    }
+
+    void disconnectedSession() {
+        disconnected.increment();
+    }
+
+    void failedWrite() {
+        failed.increment();
+    }
+
+    /**
+     * @return number of packets written
+     */
+    public long frames() {
+        return frames.sum();
+    }
+
+    /**
+     * @return number of bytes written
+     */
+    public long bytes() {
+        return bytes.sum();
+    }
+
+    /**
+     * @return number of coalesced writes, each carrying one or more packets
+     */
+    public long writes() {
+        return writes.sum();
+    }
+
+    /**
+     * @return number of packets refused because the session was too slow or already disconnected
+     */
+    public long dropped() {
+        return dropped.sum();
+    }
+
+    /**
+     * @return number of sessions disconnected for being too slow
+     */
+    public long disconnected() {
+        return disconnected.sum();
+    }
+
+    /**
+     * @return number of writes that failed
+     */
+    public long failed() {
+        return failed.sum();
+    }
+}
@@ -0,0 +1,251 @@
+package com.collarmc.server.session;
+
+import com.collarmc.server.configuration.OutboundQueueConfiguration;
+import com.collarmc.server.configuration.OutboundQueueConfiguration.Overflow;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.eclipse.jetty.websocket.api.BatchMode;
+import org.eclipse.jetty.websocket.api.RemoteEndpoint;
+import org.eclipse.jetty.websocket.api.Session;
+import org.eclipse.jetty.websocket.api.WriteCallback;
+
+import javax.annotation.Nullable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Bounded queue of packets waiting to be written to each session. Sending never blocks the caller.
+ * Each session has at most one write in flight; packets queued behind it are handed to Jetty together in batch mode,
+ * so they leave in as few network writes as possible while each stays its own WebSocket frame, as the protocol
+ * reads one packet per frame. A session that falls too far behind is disconnected or has packets dropped,
+ * so a client with a bad connection cannot pin server memory or threads.
+ */
+public final class OutboundQueues {
+
+    private static final Logger LOGGER = LogManager.getLogger(OutboundQueues.class.getName());
+
+    /** Marks a queue whose last packet's close was already run **/
+    private static final Runnable NOTHING = () -> {};
+
+    private final OutboundQueueConfiguration configuration;
+    private final ConcurrentMap<Session, Queue> queues = new ConcurrentHashMap<>();
+    public final OutboundMetrics metrics = new OutboundMetrics();
+
+    public OutboundQueues(OutboundQueueConfiguration configuration) {
+        this.configuration = configuration;
+    }
+
+    /**
+     * Queue a packet to be written to the session
+     * @param session to write to
+     * @param bytes of the packet
+     * @return false if the session is closed or too far behind to take the packet
+     */
+    public boolean send(Session session, byte[] bytes) {
+        return send(session, bytes, null);
+    }
+
+    /**
+     * Queue the last packet to be written to the session. Packets sent after it are dropped.
+     * @param session to write to
+     * @param bytes of the packet
+     * @param thenClose run once the packet and every packet ahead of it was written, or could not be
+     * @return false if the session is closed or too far behind to take the packet, in which case thenClose is not run
+     */
+    public boolean send(Session session, byte[] bytes, @Nullable Runnable thenClose) {
+        if (!session.isOpen()) {
+            return false;
+        }
+        Queue queue = queues.computeIfAbsent(session, Queue::new);
+        if (!queue.offer(bytes, thenClose)) {
+            return false;
+        }
+        queue.drain();
+        return true;
+    }
+
+    /**
+     * Discard the queue of a closed session
+     * @param session closed
+     */
+    public void remove(Session session) {
+        Queue queue = queues.remove(session);
+        if (queue != null) {
+            queue.close();
+        }
+    }
+
+    /**
+     * @return number of sessions with a queue
+     */
+    public int sessions() {
+        return queues.size();
+    }
+
+    /**
+     * @return packets queued or being written across all sessions
+     */
+    public long queuedFrames() {
+        return queues.values().stream().mapToLong(queue -> queue.queuedFrames.get()).sum();
+    }
+
+    /**
+     * @return bytes queued or being written across all sessions
+     */
+    public long queuedBytes() {
+        return queues.values().stream().mapToLong(queue -> queue.queuedBytes.get()).sum();
+    }
+
+    /**
+     * @return packets queued or being written to the session furthest behind
+     */
+    public int maxQueuedFrames() {
+        return queues.values().stream().mapToInt(queue -> queue.queuedFrames.get()).max().orElse(0);
+    }
+
+    private final class Queue {
+        private final Session session;
+        private final ConcurrentLinkedQueue<byte[]> frames = new ConcurrentLinkedQueue<>();
+        /** Packets and bytes queued or in the write in flight **/
+        private final AtomicInteger queuedFrames = new AtomicInteger();
+        private final AtomicLong queuedBytes = new AtomicLong();
+        private final AtomicBoolean writing = new AtomicBoolean();
+        private final AtomicBoolean closed = new AtomicBoolean();
+        /** Set by the last packet, run once the queue has drained **/
+        private final AtomicReference<Runnable> thenClose = new AtomicReference<>();
+
+        Queue(Session session) {
+            this.session = session;
+        }
+
+        boolean offer(byte[] bytes, @Nullable Runnable close) {
+            if (closed.get() || thenClose.get() != null) {
+                metrics.droppedPacket();
+                return false;
+            }
+            int frameCount = queuedFrames.incrementAndGet();
+            long byteCount = queuedBytes.addAndGet(bytes.length);
+            // A packet larger than the byte limit is still written when nothing is waiting ahead of it
+            if (frameCount > configuration.maxFrames || (frameCount > 1 && byteCount > configuration.maxBytes)) {
+                queuedFrames.decrementAndGet();
+                queuedBytes.addAndGet(-bytes.length);
+                overflow(frameCount, byteCount);
+                return false;
+            }
+            // Set while the packet is counted, so the queue cannot look drained before it is written
+            if (close != null && !thenClose.compareAndSet(null, close)) {
+                queuedFrames.decrementAndGet();
+                queuedBytes.addAndGet(-bytes.length);
+                metrics.droppedPacket();
+                return false;
+            }
+            frames.add(bytes);
+            return true;
+        }
+
+        void drain() {
+            while (writing.compareAndSet(false, true)) {
+                List<byte[]> batch = new ArrayList<>();
+                byte[] frame;
+                while (batch.size() < configuration.batchFrames && (frame = frames.poll()) != null) {
+                    batch.add(frame);
+                }
+                if (!batch.isEmpty()) {
+                    write(batch);
+                    return;
+                }
+                writing.set(false);
+                // A packet may have been queued after polling but before the flag was cleared
+                if (frames.isEmpty()) {
+                    if (queuedFrames.get() == 0) {
+                        runThenClose();
+                    }
+                    return;
+                }
+            }
+        }
+
+        /**
+         * Frames before the last are batched by Jetty, the last flushes them all in one write
+         */
+        private void write(List<byte[]> batch) {
+            long size = batch.stream().mapToLong(bytes -> bytes.length).sum();
+            WriteCallback callback = new WriteCallback() {
+                @Override
+                public void writeFailed(Throwable x) {
+                    LOGGER.debug("Write to session failed", x);
+                    metrics.failedWrite();
+                    completed(batch.size(), size);
+                    close();
+                    runThenClose();
+                }
+
+                @Override
+                public void writeSuccess() {
+                    metrics.written(batch.size(), size);
+                    completed(batch.size(), size);
+                    writing.set(false);
+                    drain();
+                }
+            };
+            try {
+                RemoteEndpoint remote = session.getRemote();
+                for (int i = 0; i < batch.size(); i++) {
+                    boolean last = i == batch.size() - 1;
+                    remote.setBatchMode(last ? BatchMode.OFF : BatchMode.ON);
+                    remote.sendBytes(ByteBuffer.wrap(batch.get(i)), last ? callback : null);
+                }
+            } catch (RuntimeException e) {
+                callback.writeFailed(e);
+            }
+        }
+
+        private void completed(int frameCount, long byteCount) {
+            queuedFrames.addAndGet(-frameCount);
+            queuedBytes.addAndGet(-byteCount);
+        }
+
+        private void overflow(int frameCount, long byteCount) {
+            metrics.droppedPacket();
+            if (configuration.overflow == Overflow.DISCONNECT && closed.compareAndSet(false, true)) {
+                LOGGER.warn("Disconnecting session that is " + frameCount + " packets and " + byteCount + " bytes behind");
+                metrics.disconnectedSession();
+                clear();
+                try {
+                    session.disconnect();
+                } catch (IOException e) {
+                    LOGGER.warn("Could not disconnect slow session", e);
+                }
+            }
+        }
+
+        void close() {
+            closed.set(true);
+            clear();
+        }
+
+        private void runThenClose() {
+            Runnable close = thenClose.get();
+            if (close != null && close != NOTHING && thenClose.compareAndSet(close, NOTHING)) {
+                closed.set(true);
+                close.run();
+            }
+        }
+
+        private void clear() {
+            byte[] frame;
+            while ((frame = frames.poll()) != null) {
+                completed(1, frame.length);
+            }
+        }
+    }
+}
@@ -0,0 +1,291 @@
+package com.collarmc.server.session;
+
+import com.collarmc.server.configuration.ProtocolExecutorConfiguration;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.eclipse.jetty.websocket.api.Session;
+
+import java.util.Queue;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+/**
+ * Runs protocol work off the WebSocket threads.
+ * Work for a session runs one task at a time, in the order it was submitted, so packets from a client
+ * are handled in the order they arrived. Different sessions run in parallel.
+ * Blocking work, such as calls to Mojang or the database, runs on its own pool so that it cannot use up
+ * the threads handling every other session. Work only reaches that pool when it is returned as a continuation,
+ * anything that blocks inside the task itself still holds a worker. Work that has to wait, such as for a rate limit, is held on a scheduler
+ * rather than sleeping on either pool.
+ * Each session's queue is bounded, and once a session is closed its queue takes no more work other than closing,
+ * so nothing for the session runs alongside or after the work that cleans it up.
+ */
+public final class ProtocolExecutor {
+
+    private static final Logger LOGGER = LogManager.getLogger(ProtocolExecutor.class.getName());
+
+    private final ExecutorService workers;
+    private final ExecutorService blocking;
+    private final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor(new ThreadFactoryBuilder().setNameFormat("collar-protocol-deferred-%d").setDaemon(true).build());
+    private final ConcurrentMap<Session, SerialQueue> queues = new ConcurrentHashMap<>();
+    private final int backpressureThreshold;
+    private final int maxQueued;
+
+    public ProtocolExecutor(ExecutorService workers, ExecutorService blocking) {
+        this(workers, blocking, Integer.MAX_VALUE, Integer.MAX_VALUE);
+    }
+
+    /**
+     * @param workers to handle packets on
+     * @param blocking to run blocking continuations on
+     * @param backpressureThreshold number of tasks waiting for a session at which {@link #execute(Session, Supplier)} reports it is falling behind
+     * @param maxQueued number of tasks that can wait for a session before more are refused
+     */
+    public ProtocolExecutor(ExecutorService workers, ExecutorService blocking, int backpressureThreshold, int maxQueued) {
+        this.workers = workers;
+        this.blocking = blocking;
+        this.backpressureThreshold = backpressureThreshold;
+        this.maxQueued = maxQueued;
+    }
+
+    public static ProtocolExecutor create(ProtocolExecutorConfiguration configuration) {
+        if (configuration.virtualThreads) {
+            ExecutorService virtual = virtualThreadExecutor();
+            if (virtual != null) {
+                LOGGER.info("Using virtual threads for protocol work");
+                return new ProtocolExecutor(virtual, virtual, configuration.backpressureThreshold, configuration.maxQueuedPackets);
+            }
+        }
+        return new ProtocolExecutor(
+                Executors.newFixedThreadPool(configuration.workerThreads, new ThreadFactoryBuilder().setNameFormat("collar-protocol-%d").setDaemon(true).build()),
+                Executors.newFixedThreadPool(configuration.blockingThreads, new ThreadFactoryBuilder().setNameFormat("collar-protocol-blocking-%d").setDaemon(true).build()),
+                configuration.backpressureThreshold,
+                configuration.maxQueuedPackets
+        );
+    }
+
+    /**
+     * Run work for the session after all work previously submitted for it.
+     * The work may return a blocking continuation, such as a call to Mojang or the database, which runs on the
+     * blocking pool before any later work for the session starts, or a continuation made by {@link #blocking(Supplier)}
+     * or {@link #defer(long, Supplier)}.
+     * @param session the work belongs to
+     * @param task to run, returning the blocking continuation or null when it is done
+     * @return whether the task was queued
+     */
+    public Submitted execute(Session session, Supplier<Runnable> task) {
+        return queue(session).submit(task);
+    }
+
+    /**
+     * Run work that closes a session after all work previously submitted for it.
+     * The session's queue refuses any other work from now on and is removed once it has run everything queued.
+     * Closing work is never refused, so a session can be closed more than once, such as by an error and then by the socket closing.
+     * It runs on the blocking pool, as stopping a session updates the database.
+     * @param session to close
+     * @param task to run
+     */
+    public void close(Session session, Runnable task) {
+        queue(session).close(() -> task);
+    }
+
+    /**
+     * Continuation that runs blocking work on the blocking pool and then carries on with the continuation it returns,
+     * so that work which blocks part way through, such as one request of a batch, can go on with the rest afterwards.
+     * @param task to run, returning its continuation or null when it is done
+     * @return continuation to return from work passed to {@link #execute(Session, Supplier)}
+     */
+    public static Runnable blocking(Supplier<Runnable> task) {
+        return new Blocking(task);
+    }
+
+    /**
+     * Continuation that holds back later work for the session until the task has run after a delay.
+     * No thread is used while waiting. The task runs on the worker pool and may defer again.
+     * @param delayNanos to wait for
+     * @param task to run, returning its continuation or null when it is done
+     * @return continuation to return from work passed to {@link #execute(Session, Supplier)}
+     */
+    public static Runnable defer(long delayNanos, Supplier<Runnable> task) {
+        return new Deferred(delayNanos, task);
+    }
+
+    /**
+     * @return number of sessions with a queue
+     */
+    public int sessions() {
+        return queues.size();
+    }
+
+    public void shutdown() {
+        scheduler.shutdown();
+        workers.shutdown();
+        blocking.shutdown();
+    }
+
+    private SerialQueue queue(Session session) {
+        return queues.computeIfAbsent(session, SerialQueue::new);
+    }
+
+    public enum Submitted {
+        /** Queued to run **/
+        QUEUED,
+        /** Queued to run, and the session's backlog just reached the backpressure threshold **/
+        FALLING_BEHIND,
+        /** Refused as the session's queue is full **/
+        FULL,
+        /** Refused as the session is closing **/
+        CLOSED
+    }
+
+    /**
+     * Newer JVMs can run every task on its own virtual thread. Looked up reflectively as the server targets an older release.
+     */
+    private static ExecutorService virtualThreadExecutor() {
+        try {
+            return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+        } catch (ReflectiveOperationException | RuntimeException e) {
+            LOGGER.info("Virtual threads are not available");
+            return null;
+        }
+    }
+
+    private final class SerialQueue {
+        private final Session session;
+        private final Queue<Supplier<Runnable>> tasks = new ConcurrentLinkedQueue<>();
+        private final AtomicBoolean running = new AtomicBoolean();
+        /** Kept alongside the queue as sizing a ConcurrentLinkedQueue walks every task **/
+        private final AtomicInteger waiting = new AtomicInteger();
+        private volatile boolean closed;
+
+        SerialQueue(Session session) {
+            this.session = session;
+        }
+
+        Submitted submit(Supplier<Runnable> task) {
+            if (closed) {
+                return Submitted.CLOSED;
+            }
+            int waiting = this.waiting.incrementAndGet();
+            if (waiting > maxQueued) {
+                this.waiting.decrementAndGet();
+                return Submitted.FULL;
+            }
+            tasks.add(task);
+            scheduleNext();
+            return waiting == backpressureThreshold ? Submitted.FALLING_BEHIND : Submitted.QUEUED;
+        }
+
+        void close(Supplier<Runnable> task) {
+            closed = true;
+            waiting.incrementAndGet();
+            tasks.add(task);
+            scheduleNext();
+        }
+
+        private void scheduleNext() {
+            // Loop covers a task added between finding the queue empty and releasing it
+            while (!tasks.isEmpty() && running.compareAndSet(false, true)) {
+                Supplier<Runnable> task = tasks.poll();
+                if (task == null) {
+                    running.set(false);
+                    continue;
+                }
+                waiting.decrementAndGet();
+                run(task);
+                return;
+            }
+        }
+
+        private void run(Supplier<Runnable> task) {
+            run(workers, task);
+        }
+
+        private void run(Executor executor, Supplier<Runnable> task) {
+            dispatch(executor, () -> next(task.get()));
+        }
+
+        private void next(Runnable continuation) {
+            if (continuation == null) {
+                release();
+            } else if (continuation instanceof Deferred) {
+                Deferred deferred = (Deferred) continuation;
+                try {
+                    scheduler.schedule(() -> run(deferred.task), deferred.delayNanos, TimeUnit.NANOSECONDS);
+                } catch (RejectedExecutionException e) {
+                    LOGGER.error("Protocol task rejected", e);
+                    running.set(false);
+                }
+            } else if (continuation instanceof Blocking) {
+                run(blocking, ((Blocking) continuation).task);
+            } else {
+                dispatch(blocking, () -> {
+                    continuation.run();
+                    release();
+                });
+            }
+        }
+
+        private void dispatch(Executor executor, Runnable runnable) {
+            try {
+                executor.execute(() -> {
+                    try {
+                        runnable.run();
+                    } catch (Throwable e) {
+                        LOGGER.error("Protocol task failed", e);
+                        release();
+                    }
+                });
+            } catch (RejectedExecutionException e) {
+                LOGGER.error("Protocol task rejected", e);
+                running.set(false);
+            }
+        }
+
+        private void release() {
+            running.set(false);
+            // Work that raced the close may still be queued, the queue is only forgotten once it has all run
+            if (closed && tasks.isEmpty()) {
+                queues.remove(session, this);
+            }
+            scheduleNext();
+        }
+    }
+
+    /**
+     * Marks a continuation to be held on the scheduler rather than run on the blocking pool
+     */
+    private static final class Deferred implements Runnable {
+        private final long delayNanos;
+        private final Supplier<Runnable> task;
+
+        Deferred(long delayNanos, Supplier<Runnable> task) {
+            this.delayNanos = delayNanos;
+            this.task = task;
+        }
+
+        @Override
+        public void run() {
+            throw new IllegalStateException("deferred work is only run by a ProtocolExecutor");
+        }
+    }
+
+    /**
+     * Marks a continuation that runs on the blocking pool and may continue with more work
+     */
+    private static final class Blocking implements Runnable {
+        private final Supplier<Runnable> task;
+
+        Blocking(Supplier<Runnable> task) {
+            this.task = task;
+        }
+
+        @Override
+        public void run() {
+            throw new IllegalStateException("blocking work is only run by a ProtocolExecutor");
+        }
+    }
+}
@@ -0,0 +1,189 @@
+package com.collarmc.server.session;
+
+import com.collarmc.api.identity.ClientIdentity;
+import com.collarmc.protocol.PacketIO;
+import com.collarmc.protocol.PacketIO.PreparedPacket;
+import com.collarmc.protocol.ProtocolResponse;
+import com.collarmc.security.messages.CipherException;
+import com.collarmc.server.cluster.ClusterNode;
+import com.collarmc.server.protocol.BatchProtocolResponse;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.eclipse.jetty.websocket.api.Session;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Collectors;
+
+/**
+ * Sends a {@link BatchProtocolResponse} to its recipients.
+ * Every response is serialized once and responses with identical bodies are only signed once, leaving
+ * just the per recipient seal. When a batch has enough recipients the signing and sealing is spread over
+ * a bounded worker pool. Packets for the same recipient are always sent in the order they were added.
+ * Responses for recipients connected to another node of the cluster are forwarded to that node.
+ * Sealed packets are queued on {@link OutboundQueues} so a slow recipient never holds up the batch.
+ */
+public final class ResponseFanOut {
+
+    private static final Logger LOGGER = LogManager.getLogger(ResponseFanOut.class.getName());
+
+    /** Below this many recipients the crypto stays on the calling thread **/
+    private static final int PARALLEL_THRESHOLD = 8;
+
+    private final SessionManager sessions;
+    private final ClusterNode cluster;
+    private final OutboundQueues outbound;
+    private final ExecutorService workers;
+    public final FanOutMetrics metrics = new FanOutMetrics();
+
+    public ResponseFanOut(SessionManager sessions, ClusterNode cluster, OutboundQueues outbound, int threads) {
+        this.sessions = sessions;
+        this.cluster = cluster;
+        this.outbound = outbound;
+        this.workers = new ThreadPoolExecutor(threads, threads,
+                0L, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(threads * 64),
+                new ThreadFactoryBuilder().setNameFormat("collar-fanout-%d").setDaemon(true).build(),
+                new ThreadPoolExecutor.CallerRunsPolicy());
+    }
+
+    public ResponseFanOut(SessionManager sessions, ClusterNode cluster, OutboundQueues outbound) {
+        this(sessions, cluster, outbound, Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+     * Encrypt and send all responses in the batch
+     * @param batch to send
+     */
+    public void send(BatchProtocolResponse batch) {
+        long started = System.nanoTime();
+        Map<ByteBuffer, Payload> payloads = new HashMap<>();
+        Map<Session, Recipient> recipients = new LinkedHashMap<>();
+        collect(batch, payloads, recipients);
+        if (recipients.isEmpty()) {
+            return;
+        }
+        boolean parallel = recipients.size() >= PARALLEL_THRESHOLD;
+        AtomicLong signNanos = new AtomicLong();
+        AtomicLong sealNanos = new AtomicLong();
+        run(payloads.values().stream().map(payload -> (Runnable) () -> {
+            long start = System.nanoTime();
+            payload.sign();
+            signNanos.addAndGet(System.nanoTime() - start);
+        }).collect(Collectors.toList()), parallel);
+        run(recipients.values().stream().map(recipient -> (Runnable) () -> {
+            long start = System.nanoTime();
+            List<byte[]> packets = recipient.seal();
+            sealNanos.addAndGet(System.nanoTime() - start);
+            packets.forEach(bytes -> outbound.send(recipient.session, bytes));
+        }).collect(Collectors.toList()), parallel);
+        int seals = recipients.values().stream().mapToInt(recipient -> recipient.payloads.size()).sum();
+        long elapsed = System.nanoTime() - started;
+        metrics.record(recipients.size(), payloads.size(), seals, signNanos.get(), sealNanos.get(), elapsed);
+        if (LOGGER.isDebugEnabled()) {
+            LOGGER.debug("Sent " + seals + " packets to " + recipients.size() + " recipients from " + payloads.size() + " payloads in " + TimeUnit.NANOSECONDS.toMicros(elapsed) + "us (sign " + TimeUnit.NANOSECONDS.toMicros(signNanos.get()) + "us, seal " + TimeUnit.NANOSECONDS.toMicros(sealNanos.get()) + "us)");
+        }
+    }
+
+    private void collect(BatchProtocolResponse batch, Map<ByteBuffer, Payload> payloads, Map<Session, Recipient> recipients) {
+        batch.responses.forEach((response, identity) -> {
+            if (response instanceof BatchProtocolResponse) {
+                collect((BatchProtocolResponse) response, payloads, recipients);
+                return;
+            }
+            Optional<Session> local = sessions.getSession(identity);
+            if (local.isEmpty()) {
+                cluster.forward(identity, response);
+                return;
+            }
+            local.filter(Session::isOpen).ifPresent(session -> {
+                PacketIO packetIO = sessions.packetIO(session);
+                byte[] body = writeBody(packetIO, response);
+                // Bodies with packet ids start with the id, so they never equal a body with a class name
+                Payload payload = payloads.computeIfAbsent(ByteBuffer.wrap(body), key -> new Payload(packetIO, body));
+                recipients.computeIfAbsent(session, key -> new Recipient(session, identity)).payloads.add(payload);
+            });
+        });
+    }
+
+    private void run(List<Runnable> tasks, boolean parallel) {
+        if (!parallel || tasks.size() == 1) {
+            tasks.forEach(Runnable::run);
+            return;
+        }
+        List<Future<?>> futures = tasks.stream().map(workers::submit).collect(Collectors.toList());
+        for (Future<?> future : futures) {
+            try {
+                future.get();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IllegalStateException("interrupted while sending batch", e);
+            } catch (ExecutionException e) {
+                if (e.getCause() instanceof RuntimeException) {
+                    throw (RuntimeException) e.getCause();
+                }
+                throw new IllegalStateException(e.getCause());
+            }
+        }
+    }
+
+    private static byte[] writeBody(PacketIO packetIO, ProtocolResponse response) {
+        try {
+            return packetIO.writeBody(response);
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * Body shared by one or more recipients
+     */
+    private static final class Payload {
+        private final PacketIO packetIO;
+        private final byte[] body;
+        private volatile PreparedPacket packet;
+
+        Payload(PacketIO packetIO, byte[] body) {
+            this.packetIO = packetIO;
+            this.body = body;
+        }
+
+        void sign() {
+            try {
+                packet = packetIO.signBody(body);
+            } catch (CipherException e) {
+                throw new IllegalStateException(e);
+            }
+        }
+    }
+
+    /**
+     * Session and the payloads to send to it in order
+     */
+    private static final class Recipient {
+        private final Session session;
+        private final ClientIdentity identity;
+        private final List<Payload> payloads = new ArrayList<>();
+
+        Recipient(Session session, ClientIdentity identity) {
+            this.session = session;
+            this.identity = identity;
+        }
+
+        List<byte[]> seal() {
+            List<byte[]> packets = new ArrayList<>(payloads.size());
+            for (Payload payload : payloads) {
+                try {
+                    packets.add(payload.packetIO.encodeEncrypted(identity, payload.packet));
+                } catch (CipherException e) {
+                    throw new IllegalStateException(e);
+                }
+            }
+            return packets;
+        }
+    }
+}
@@ -4,11 +4,15 @@ package com.collarmc.server.session;
 import com.collarmc.api.identity.ClientIdentity;
 import com.collarmc.api.session.Player;
 import com.collarmc.protocol.PacketIO;
+import com.collarmc.protocol.PacketTypes;
 import com.collarmc.protocol.ProtocolResponse;
 import com.collarmc.protocol.SessionStopReason;
 import com.collarmc.protocol.session.SessionFailedResponse.SessionErrorResponse;
+import com.collarmc.security.messages.Cipher;
 import com.collarmc.security.messages.CipherException;
 import com.collarmc.security.mojang.MinecraftPlayer;
+import com.collarmc.server.cluster.ClusterNode;
+import com.collarmc.server.configuration.OutboundQueueConfiguration;
 import com.collarmc.server.security.ServerIdentityStore;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import org.apache.logging.log4j.LogManager;
@@ -18,13 +22,12 @@ import org.eclipse.jetty.websocket.api.Session;
 import javax.annotation.Nonnull;
 import javax.annotation.Nullable;
 import java.io.IOException;
-import java.nio.ByteBuffer;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Optional;
+import java.util.Set;
 import java.util.UUID;
 import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.ConcurrentMap;
 import java.util.function.BiConsumer;
 import java.util.stream.Collectors;
 
@@ -32,25 +35,55 @@ public final class SessionManager {
 
     private static final Logger LOGGER = LogManager.getLogger(SessionManager.class.getName());
 
-    private final ConcurrentMap<Session, SessionState> sessions = new ConcurrentHashMap<>();
+    private final SessionRegistry sessions = new SessionRegistry();
 
-    private final ObjectMapper messagePack;
-    private final ServerIdentityStore store;
+    private final PacketIO legacyPacketIO;
+    private final PacketIO packetIO;
+    private final Set<Session> packetIdSessions = ConcurrentHashMap.newKeySet();
+    private final OutboundQueues outbound;
+    /** Finds recipients connected to other nodes, or null when this server is not part of a cluster **/
+    @Nullable
+    private final ClusterNode cluster;
+
+    public SessionManager(ObjectMapper messagePack, ServerIdentityStore store, OutboundQueues outbound, @Nullable ClusterNode cluster) {
+        Cipher cipher = store == null ? null : store.cipher();
+        this.legacyPacketIO = new PacketIO(messagePack, cipher);
+        this.packetIO = new PacketIO(messagePack, cipher, PacketTypes.defaults());
+        this.outbound = outbound;
+        this.cluster = cluster;
+    }
+
+    public SessionManager(ObjectMapper messagePack, ServerIdentityStore store, OutboundQueues outbound) {
+        this(messagePack, store, outbound, null);
+    }
 
     public SessionManager(ObjectMapper messagePack, ServerIdentityStore store) {
-        this.messagePack = messagePack;
-        this.store = store;
+        this(messagePack, store, new OutboundQueues(OutboundQueueConfiguration.defaults()));
+    }
+
+    /**
+     * Record the version of a packet received from the session, so that packets sent back use the same version
+     * @param session that sent the packet
+     * @param version of the packet
+     */
+    public void packetReceived(Session session, int version) {
+        if (version == PacketIO.VERSION_PACKET_IDS) {
+            packetIdSessions.add(session);
+        }
+    }
+
+    /**
+     * @param session to send to
+     * @return packet io writing packets in the version the session uses
+     */
+    public PacketIO packetIO(Session session) {
+        return packetIdSessions.contains(session) ? packetIO : legacyPacketIO;
     }
 
     public void identify(Session session, ClientIdentity identity, MinecraftPlayer player, BiConsumer<ClientIdentity, Player> callback) {
         SessionState state = new SessionState(session, identity, player);
-        SessionState computed = sessions.compute(session, (theSession, sessionState) -> {
-            if (sessionState != null && sessionState.minecraftPlayer != null) {
-                throw new IllegalStateException("session cannot be identified with a single player more than once");
-            }
-            return state;
-        });
-        if (computed.minecraftPlayer != null) {
+        sessions.identify(state);
+        if (state.minecraftPlayer != null) {
             callback.accept(state.identity, state.toPlayer());
         }
     }
@@ -77,28 +110,31 @@ public final class SessionManager {
             LOGGER.error(reason.message(message), e);
         }
         SessionState sessionState = sessions.remove(session);
-        if (sessionState != null) {
-            if (session.isOpen()) {
-                try {
-                    send(session, sessionState.identity, new SessionErrorResponse(reason, message));
-                } catch (IOException | CipherException ex) {
-                    throw new IllegalStateException("Couldn't send SessionErrorResponse", ex);
-                }
+        Runnable close = () -> session.close(reason.code, "Session stopped");
+        ClientIdentity recipient = sessionState == null ? null : sessionState.identity;
+        try {
+            // Closed once the error and every packet queued ahead of it has been written, so the client learns why
+            if (!session.isOpen() || !outbound.send(session, encode(session, recipient, new SessionErrorResponse(reason, message)), close)) {
+                close.run();
             }
-        } else {
-            session.close(reason.code, "Session stopped");
+        } catch (IOException | CipherException ex) {
+            close.run();
+            throw new IllegalStateException("Couldn't send SessionErrorResponse", ex);
+        } finally {
+            packetIdSessions.remove(session);
         }
     }
 
     public void send(Session session, ClientIdentity recipient, ProtocolResponse resp) throws IOException, CipherException {
-        PacketIO packetIO = new PacketIO(messagePack, store.cipher());
-        ByteBuffer buffer;
+        outbound.send(session, encode(session, recipient, resp));
+    }
+
+    private byte[] encode(Session session, ClientIdentity recipient, ProtocolResponse resp) throws IOException, CipherException {
         if (isIdentified(session)) {
-            buffer = ByteBuffer.wrap(packetIO.encodeEncrypted(recipient, resp));
+            return packetIO(session).encodeEncrypted(recipient, resp);
         } else {
-            buffer = ByteBuffer.wrap(packetIO.encodePlain(resp));
+            return packetIO(session).encodePlain(resp);
         }
-        session.getRemote().sendBytes(buffer);
     }
 
     public Optional<ClientIdentity> getIdentity(Session session) {
@@ -113,8 +149,8 @@ public final class SessionManager {
         if (player == null) {
             return Optional.empty();
         }
-        return sessions.values().stream().filter(sessionState -> sessionState.minecraftPlayer != null && sessionState.minecraftPlayer.equals(player))
-                .findFirst()
+        return sessions.findByMinecraftPlayer(player.id)
+                .filter(sessionState -> player.equals(sessionState.minecraftPlayer))
                 .map(sessionState -> sessionState.identity);
     }
 
@@ -123,10 +159,12 @@ public final class SessionManager {
             return new ArrayList<>();
         }
         MinecraftPlayer player = findMinecraftPlayer(identity).orElseThrow(() -> new IllegalStateException("cannot find player for " + identity));
-        return sessions.values().stream()
-                .filter(sessionState -> sessionState.minecraftPlayer != null && sessionState.minecraftPlayer.inServerWith(player))
-                .filter(sessionState -> players.contains(sessionState.minecraftPlayer.id))
-                .map(SessionState::toPlayer)
+        return players.stream()
+                .distinct()
+                .map(id -> sessions.findByMinecraftPlayer(id).map(SessionState::toPlayer)
+                        .or(() -> cluster == null ? Optional.empty() : cluster.findRemotePlayerByMinecraftPlayer(id)))
+                .flatMap(Optional::stream)
+                .filter(found -> found.minecraftPlayer != null && found.minecraftPlayer.inServerWith(player))
                 .collect(Collectors.toList());
     }
 
@@ -134,9 +172,7 @@ public final class SessionManager {
         if (identity == null) {
             return Optional.empty();
         }
-        return sessions.values().stream()
-                .filter(sessionState -> sessionState.identity.equals(identity) && sessionState.minecraftPlayer != null)
-                .findFirst()
+        return findPlayerSession(identity)
                 .map(sessionState -> sessionState.minecraftPlayer);
     }
 
@@ -144,9 +180,8 @@ public final class SessionManager {
         if (identity == null) {
             return Optional.empty();
         }
-        return sessions.values().stream()
-                .filter(sessionState -> sessionState.minecraftPlayer != null && sessionState.identity.equals(identity))
-                .findFirst()
+        return findPlayerSession(identity)
+                .filter(sessionState -> sessionState.minecraftPlayer != null)
                 .map(SessionState::toPlayer);
     }
 
@@ -154,46 +189,72 @@ public final class SessionManager {
         if (identity == null) {
             return Optional.empty();
         }
-        return sessions.values().stream()
-                .filter(sessionState -> sessionState.identity.equals(identity))
-                .findFirst()
+        return findByIdentity(identity)
                 .map(sessionState -> sessionState.session);
     }
 
     public Optional<SessionState> getSessionStateByOwner(UUID owner) {
-        return sessions.values().stream()
-                .filter(sessionState -> sessionState.identity.id().equals(owner))
-                .findFirst();
+        return sessions.findByProfile(owner);
     }
 
     public Optional<SessionState> getSessionStateByPlayer(UUID player) {
-        return sessions.values().stream()
-                .filter(sessionState -> sessionState.minecraftPlayer != null && sessionState.minecraftPlayer.id.equals(player))
-                .findFirst();
+        return sessions.findByMinecraftPlayer(player);
     }
 
+    /**
+     * Find the identity to send the player responses as, falling back to players connected to other nodes of the cluster
+     * @param player to find
+     * @return identity of the player's session
+     */
     public Optional<ClientIdentity> getIdentity(Player player) {
-        return sessions.values().stream().filter(sessionState -> sessionState.identity.id().equals(player.identity.id()))
-                .findAny()
-                .map(sessionState -> sessionState.identity);
+        return sessions.findByProfile(player.identity.id())
+                .map(sessionState -> sessionState.identity)
+                .or(() -> cluster == null ? Optional.empty() : cluster.findRemotePlayer(player.identity.id()).map(remote -> remote.identity));
     }
 
     public Optional<ClientIdentity> getIdentityByMinecraftPlayerId(UUID playerId) {
-        return sessions.values().stream().filter(sessionState -> sessionState.minecraftPlayer != null && sessionState.minecraftPlayer.id.equals(playerId))
-                .findAny()
+        return sessions.findByMinecraftPlayer(playerId)
                 .map(sessionState -> sessionState.identity);
     }
 
     public Optional<Player> findPlayerByProfile(UUID profile) {
-        return sessions.values().stream().filter(sessionState -> sessionState.identity.id().equals(profile))
-                .findFirst()
+        return sessions.findByProfile(profile)
                 .map(SessionState::toPlayer);
     }
 
+    /**
+     * @param server address of the minecraft server
+     * @return players currently on the minecraft server
+     */
+    public List<Player> findPlayersOnServer(String server) {
+        return sessions.findByMinecraftServer(server).stream()
+                .map(SessionState::toPlayer)
+                .collect(Collectors.toList());
+    }
+
     public long count() {
         return sessions.size();
     }
 
+    private Optional<SessionState> findByIdentity(ClientIdentity identity) {
+        return sessions.findByProfile(identity.id())
+                .filter(sessionState -> sessionState.identity.equals(identity));
+    }
+
+    /**
+     * The profile's indexed session may not have started a minecraft session yet, so prefer any of its sessions that has
+     */
+    private Optional<SessionState> findPlayerSession(ClientIdentity identity) {
+        Optional<SessionState> indexed = findByIdentity(identity);
+        if (indexed.isPresent() && indexed.get().minecraftPlayer != null) {
+            return indexed;
+        }
+        return sessions.findAllByProfile(identity.id()).stream()
+                .filter(sessionState -> sessionState.minecraftPlayer != null && sessionState.identity.equals(identity))
+                .findFirst()
+                .or(() -> indexed);
+    }
+
     public static final class SessionState {
         @Nonnull
         public final Session session;
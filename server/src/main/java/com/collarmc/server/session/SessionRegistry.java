@@ -0,0 +1,134 @@
+package com.collarmc.server.session;
+
+import com.collarmc.server.session.SessionManager.SessionState;
+import org.eclipse.jetty.websocket.api.Session;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import java.util.Collection;
+import java.util.Optional;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Holds every {@link SessionState} along with secondary indexes by profile, minecraft player and minecraft server.
+ * Reads are lock free. Writes are serialized so that the indexes never disagree with the primary session map.
+ */
+final class SessionRegistry {
+
+    private final ConcurrentMap<Session, SessionState> sessions = new ConcurrentHashMap<>();
+    // Identity and profile share the same id
+    private final ConcurrentMap<UUID, SessionState> byProfile = new ConcurrentHashMap<>();
+    private final ConcurrentMap<UUID, SessionState> byMinecraftPlayer = new ConcurrentHashMap<>();
+    private final ConcurrentMap<String, Set<SessionState>> byMinecraftServer = new ConcurrentHashMap<>();
+    // Every open session of a profile or minecraft player, so that removing the indexed one can fall back to another
+    private final ConcurrentMap<UUID, Set<SessionState>> allByProfile = new ConcurrentHashMap<>();
+    private final ConcurrentMap<UUID, Set<SessionState>> allByMinecraftPlayer = new ConcurrentHashMap<>();
+
+    /**
+     * Add or replace the state of a session
+     * @param state to add
+     * @throws IllegalStateException if the session was already identified with a minecraft player
+     */
+    public synchronized void identify(@Nonnull SessionState state) {
+        SessionState previous = sessions.get(state.session);
+        if (previous != null && previous.minecraftPlayer != null) {
+            throw new IllegalStateException("session cannot be identified with a single player more than once");
+        }
+        sessions.put(state.session, state);
+        if (previous != null) {
+            unindex(previous);
+        }
+        index(state);
+    }
+
+    /**
+     * Remove the state of the session
+     * @param session to remove
+     * @return removed state
+     */
+    public synchronized SessionState remove(@Nonnull Session session) {
+        SessionState removed = sessions.remove(session);
+        if (removed != null) {
+            unindex(removed);
+        }
+        return removed;
+    }
+
+    @Nullable
+    public SessionState get(@Nullable Session session) {
+        return session == null ? null : sessions.get(session);
+    }
+
+    public Optional<SessionState> findByProfile(@Nullable UUID profile) {
+        return profile == null ? Optional.empty() : Optional.ofNullable(byProfile.get(profile));
+    }
+
+    /**
+     * @param profile of the sessions
+     * @return every open session of the profile
+     */
+    public Set<SessionState> findAllByProfile(@Nullable UUID profile) {
+        Set<SessionState> states = profile == null ? null : allByProfile.get(profile);
+        return states == null ? Set.of() : states;
+    }
+
+    public Optional<SessionState> findByMinecraftPlayer(@Nullable UUID player) {
+        return player == null ? Optional.empty() : Optional.ofNullable(byMinecraftPlayer.get(player));
+    }
+
+    public Set<SessionState> findByMinecraftServer(@Nullable String server) {
+        Set<SessionState> states = server == null ? null : byMinecraftServer.get(server);
+        return states == null ? Set.of() : states;
+    }
+
+    public Collection<SessionState> all() {
+        return sessions.values();
+    }
+
+    public int size() {
+        return sessions.size();
+    }
+
+    private void index(SessionState state) {
+        byProfile.put(state.identity.id(), state);
+        add(allByProfile, state.identity.id(), state);
+        if (state.minecraftPlayer != null) {
+            byMinecraftPlayer.put(state.minecraftPlayer.id, state);
+            add(allByMinecraftPlayer, state.minecraftPlayer.id, state);
+            add(byMinecraftServer, state.minecraftPlayer.server, state);
+        }
+    }
+
+    private void unindex(SessionState state) {
+        unindex(byProfile, allByProfile, state.identity.id(), state);
+        if (state.minecraftPlayer != null) {
+            unindex(byMinecraftPlayer, allByMinecraftPlayer, state.minecraftPlayer.id, state);
+            remove(byMinecraftServer, state.minecraftPlayer.server, state);
+        }
+    }
+
+    /**
+     * Remove the state from an index, falling back to another open session with the same key
+     */
+    private static void unindex(ConcurrentMap<UUID, SessionState> index, ConcurrentMap<UUID, Set<SessionState>> all, UUID key, SessionState state) {
+        Set<SessionState> remaining = remove(all, key, state);
+        if (index.remove(key, state) && remaining != null) {
+            remaining.stream().findFirst().ifPresent(other -> index.put(key, other));
+        }
+    }
+
+    private static <K> void add(ConcurrentMap<K, Set<SessionState>> index, K key, SessionState state) {
+        index.computeIfAbsent(key, theKey -> ConcurrentHashMap.newKeySet()).add(state);
+    }
+
+    @Nullable
+    private static <K> Set<SessionState> remove(ConcurrentMap<K, Set<SessionState>> index, K key, SessionState state) {
+        return index.computeIfPresent(key, (theKey, states) -> {
+            states.remove(state);
+            return states.isEmpty() ? null : states;
+        });
+    }
+}
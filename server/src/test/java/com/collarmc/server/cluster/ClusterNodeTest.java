@@ -0,0 +1,219 @@
+package com.collarmc.server.cluster;
+
+import com.collarmc.api.identity.ClientIdentity;
+import com.collarmc.api.identity.ServerIdentity;
+import com.collarmc.api.session.Player;
+import com.collarmc.protocol.PacketIO;
+import com.collarmc.protocol.ProtocolResponse;
+import com.collarmc.protocol.messaging.SendMessageResponse;
+import com.collarmc.protocol.session.BackpressureResponse;
+import com.collarmc.security.CollarIdentity;
+import com.collarmc.security.messages.*;
+import com.collarmc.security.mojang.MinecraftPlayer;
+import com.collarmc.server.configuration.ClusterConfiguration;
+import com.collarmc.server.configuration.OutboundQueueConfiguration;
+import com.collarmc.server.protocol.BatchProtocolResponse;
+import com.collarmc.server.security.ServerIdentityStore;
+import com.collarmc.server.session.OutboundQueues;
+import com.collarmc.server.session.ResponseFanOut;
+import com.collarmc.server.session.SessionManager;
+import com.collarmc.utils.Utils;
+import org.eclipse.jetty.websocket.api.RemoteEndpoint;
+import org.eclipse.jetty.websocket.api.Session;
+import org.eclipse.jetty.websocket.api.WriteCallback;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.lang.reflect.Proxy;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+
+public class ClusterNodeTest {
+
+    @Test
+    public void forwardsToNodeHoldingTheSession() {
+        ClusterConfiguration cluster = ClusterConfiguration.standalone();
+        List<ProtocolResponse> deliveredToA = new ArrayList<>();
+        List<UUID> deliveredToB = new ArrayList<>();
+        List<ProtocolResponse> responsesToB = new ArrayList<>();
+        ClusterNode a = new ClusterNode(cluster.withNode("a"), Utils.messagePackMapper());
+        ClusterNode b = new ClusterNode(cluster.withNode("b"), Utils.messagePackMapper());
+        a.start((profile, response) -> deliveredToA.add(response));
+        b.start((profile, response) -> {
+            deliveredToB.add(profile);
+            responsesToB.add(response);
+        });
+
+        ClientIdentity alice = new ClientIdentity(UUID.randomUUID(), null);
+        ClientIdentity bob = new ClientIdentity(UUID.randomUUID(), null);
+        a.sessionStarted(player(alice));
+        b.sessionStarted(player(bob));
+
+        Assert.assertFalse("alice is local to a", a.forward(alice, new BackpressureResponse(1)));
+        Assert.assertTrue(a.forward(bob, new BackpressureResponse(1000)));
+        Assert.assertEquals(List.of(bob.id()), deliveredToB);
+        Assert.assertEquals(1000, ((BackpressureResponse) responsesToB.get(0)).duration);
+        Assert.assertTrue(deliveredToA.isEmpty());
+        Assert.assertEquals(1, a.forwarded());
+        Assert.assertEquals(1, b.received());
+
+        b.sessionStopped(bob);
+        Assert.assertFalse("bob is no longer connected", a.forward(bob, new BackpressureResponse(1)));
+    }
+
+    @Test
+    public void reconnectingToAnotherNodeIsNotWithdrawnByTheOldOne() {
+        ClusterConfiguration cluster = ClusterConfiguration.standalone();
+        List<UUID> deliveredToB = new ArrayList<>();
+        ClusterNode a = new ClusterNode(cluster.withNode("a"), Utils.messagePackMapper());
+        ClusterNode b = new ClusterNode(cluster.withNode("b"), Utils.messagePackMapper());
+        ClusterNode c = new ClusterNode(cluster.withNode("c"), Utils.messagePackMapper());
+        a.start((profile, response) -> {});
+        b.start((profile, response) -> deliveredToB.add(profile));
+        c.start((profile, response) -> {});
+
+        ClientIdentity alice = new ClientIdentity(UUID.randomUUID(), null);
+        a.sessionStarted(player(alice));
+        b.sessionStarted(player(alice));
+        a.sessionStopped(alice);
+
+        Assert.assertTrue(c.forward(alice, new BackpressureResponse(1)));
+        Assert.assertEquals(List.of(alice.id()), deliveredToB);
+    }
+
+    @Test
+    public void republishingForgetsThePreviousMinecraftPlayer() {
+        ClusterDirectory directory = ClusterConfiguration.standalone().directory;
+        ClientIdentity alice = new ClientIdentity(UUID.randomUUID(), null);
+        Player first = player(alice);
+        Player second = player(alice);
+        directory.publish(first, "a");
+        directory.publish(second, "b");
+        Assert.assertTrue(directory.findByMinecraftPlayer(first.minecraftPlayer.id).isEmpty());
+        Assert.assertEquals(second, directory.findByMinecraftPlayer(second.minecraftPlayer.id).orElseThrow());
+
+        directory.publish(new Player(alice, null), "b");
+        Assert.assertTrue(directory.findByMinecraftPlayer(second.minecraftPlayer.id).isEmpty());
+        Assert.assertEquals("b", directory.find(alice.id()).orElseThrow());
+    }
+
+    @Test
+    public void unreachableNodeIsCounted() {
+        ClusterConfiguration cluster = ClusterConfiguration.standalone();
+        ClusterNode a = new ClusterNode(cluster.withNode("a"), Utils.messagePackMapper());
+        a.start((profile, response) -> {});
+        ClientIdentity alice = new ClientIdentity(UUID.randomUUID(), null);
+        cluster.directory.publish(player(alice), "gone");
+        Assert.assertFalse(a.forward(alice, new BackpressureResponse(1)));
+        Assert.assertEquals(1, a.unreachable());
+    }
+
+    @Test
+    public void groupMessageReachesAMemberOnAnotherNode() throws Exception {
+        SodiumCipher.loadLibrary(false);
+        CollarIdentity server = CollarIdentity.createServerIdentity();
+        ServerIdentity serverIdentity = new ServerIdentity(server.id, server.publicKey());
+        ServerIdentityStore store = new ServerIdentityStore() {
+            @Override
+            public ServerIdentity identity() {
+                return serverIdentity;
+            }
+
+            @Override
+            public Cipher cipher() {
+                return new SodiumCipher(server.keyPair, true);
+            }
+        };
+        ClusterConfiguration cluster = ClusterConfiguration.standalone();
+        ClusterNode a = new ClusterNode(cluster.withNode("a"), Utils.messagePackMapper());
+        ClusterNode b = new ClusterNode(cluster.withNode("b"), Utils.messagePackMapper());
+        OutboundQueues outboundA = new OutboundQueues(OutboundQueueConfiguration.defaults());
+        SessionManager sessionsA = new SessionManager(Utils.messagePackMapper(), store, outboundA, a);
+        SessionManager sessionsB = new SessionManager(Utils.messagePackMapper(), store, new OutboundQueues(OutboundQueueConfiguration.defaults()), b);
+        ResponseFanOut fanOutA = new ResponseFanOut(sessionsA, a, outboundA, 1);
+        a.start((profile, response) -> Assert.fail("nothing is forwarded to a"));
+        // Delivered the way CollarServer delivers forwarded responses
+        b.start((profile, response) -> sessionsB.getSessionStateByOwner(profile).ifPresent(state -> {
+            try {
+                sessionsB.send(state.session, state.identity, response);
+            } catch (IOException | CipherException e) {
+                throw new IllegalStateException(e);
+            }
+        }));
+
+        CollarIdentity aliceKeys = CollarIdentity.createClientIdentity(UUID.randomUUID(), serverIdentity);
+        CollarIdentity bobKeys = CollarIdentity.createClientIdentity(UUID.randomUUID(), serverIdentity);
+        ClientIdentity alice = new ClientIdentity(aliceKeys.id, aliceKeys.publicKey());
+        ClientIdentity bob = new ClientIdentity(bobKeys.id, bobKeys.publicKey());
+        MinecraftPlayer bobMinecraftPlayer = new MinecraftPlayer(UUID.randomUUID(), "cute.server", 2);
+        sessionsA.identify(session(new ArrayList<>()), alice, new MinecraftPlayer(UUID.randomUUID(), "cute.server", 1), (identity, player) -> a.sessionStarted(player));
+        List<byte[]> bobFrames = new ArrayList<>();
+        sessionsB.identify(session(bobFrames), bob, bobMinecraftPlayer, (identity, player) -> b.sessionStarted(player));
+
+        // Node a resolves bob, who is connected to node b, as a recipient
+        Player alicePlayer = sessionsA.findPlayer(alice).orElseThrow();
+        Assert.assertEquals(List.of(new Player(bob, bobMinecraftPlayer)), sessionsA.findPlayers(alice, List.of(bobMinecraftPlayer.id)));
+        ClientIdentity recipient = sessionsA.getIdentity(new Player(bob, bobMinecraftPlayer)).orElseThrow();
+        Assert.assertEquals(bob, recipient);
+
+        UUID group = UUID.randomUUID();
+        byte[] envelope = new GroupMessageEnvelope(List.of(new GroupMessage(bob.id(), "hello".getBytes(StandardCharsets.UTF_8)))).serialize();
+        ByteBuffer contents = GroupMessageEnvelope.view(envelope).contents(bob.id()).orElseThrow();
+        fanOutA.send(new BatchProtocolResponse().add(recipient, SendMessageResponse.relay(alice, group, alicePlayer, contents)));
+
+        Assert.assertEquals(1, a.forwarded());
+        Assert.assertEquals(1, b.received());
+        Assert.assertEquals(1, bobFrames.size());
+        byte[] frame = bobFrames.get(0);
+        PacketIO bobPackets = new PacketIO(Utils.messagePackMapper(), new SodiumCipher(bobKeys.keyPair, false));
+        SendMessageResponse received = (SendMessageResponse) bobPackets.decode(serverIdentity, frame, 0, frame.length, ProtocolResponse.class).orElseThrow();
+        Assert.assertEquals(group, received.group);
+        Assert.assertEquals("hello", new String(received.message(), StandardCharsets.UTF_8));
+
+        b.sessionStopped(bob);
+        Assert.assertTrue("bob is no longer connected", sessionsA.getIdentity(new Player(bob, bobMinecraftPlayer)).isEmpty());
+        a.stop();
+        b.stop();
+    }
+
+    private static Player player(ClientIdentity identity) {
+        return new Player(identity, new MinecraftPlayer(UUID.randomUUID(), "cute.server", 1));
+    }
+
+    /**
+     * Open session whose writes complete straight away
+     * @param frames written to the session
+     */
+    private static Session session(List<byte[]> frames) {
+        RemoteEndpoint remote = (RemoteEndpoint) Proxy.newProxyInstance(RemoteEndpoint.class.getClassLoader(), new Class[] { RemoteEndpoint.class }, (proxy, method, args) -> {
+            if (method.getName().equals("sendBytes")) {
+                ByteBuffer buffer = (ByteBuffer) args[0];
+                byte[] frame = new byte[buffer.remaining()];
+                buffer.get(frame);
+                frames.add(frame);
+                if (args.length > 1 && args[1] != null) {
+                    ((WriteCallback) args[1]).writeSuccess();
+                }
+            }
+            return null;
+        });
+        return (Session) Proxy.newProxyInstance(Session.class.getClassLoader(), new Class[] { Session.class }, (proxy, method, args) -> {
+            switch (method.getName()) {
+                case "hashCode":
+                    return System.identityHashCode(proxy);
+                case "equals":
+                    return proxy == args[0];
+                case "isOpen":
+                    return true;
+                case "getRemote":
+                    return remote;
+                default:
+                    return null;
+            }
+        });
+    }
+}
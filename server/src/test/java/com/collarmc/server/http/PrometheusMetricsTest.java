@@ -0,0 +1,41 @@
+package com.collarmc.server.http;
+
+import com.collarmc.server.common.LatencyHistogram;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+public class PrometheusMetricsTest {
+
+    @Test
+    public void writesSamplesWithEscapedLabels() {
+        String text = new PrometheusMetrics.Writer()
+                .family("collar_cache_hits_total", "counter", "Lookups answered from memory")
+                .sample("collar_cache_hits_total", Map.of("cache", "pro\"files", "area", "a\\b"), 42)
+                .sample("collar_cache_hit_ratio", Map.of(), 0.5)
+                .toString();
+        Assert.assertEquals("# HELP collar_cache_hits_total Lookups answered from memory\n" +
+                "# TYPE collar_cache_hits_total counter\n" +
+                "collar_cache_hits_total{area=\"a\\\\b\",cache=\"pro\\\"files\"} 42\n" +
+                "collar_cache_hit_ratio 0.5\n", text);
+    }
+
+    @Test
+    public void writesCumulativeHistogramInSeconds() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        histogram.record(TimeUnit.MICROSECONDS.toNanos(50));
+        histogram.record(TimeUnit.MICROSECONDS.toNanos(200));
+        histogram.record(TimeUnit.SECONDS.toNanos(2));
+        String text = new PrometheusMetrics.Writer()
+                .histogram("collar_protocol_request_seconds", Map.of("type", "KeepAliveRequest"), histogram)
+                .toString();
+        Assert.assertTrue(text, text.contains("collar_protocol_request_seconds_bucket{le=\"1.0E-4\",type=\"KeepAliveRequest\"} 1\n"));
+        Assert.assertTrue(text, text.contains("collar_protocol_request_seconds_bucket{le=\"2.5E-4\",type=\"KeepAliveRequest\"} 2\n"));
+        Assert.assertTrue(text, text.contains("collar_protocol_request_seconds_bucket{le=\"1\",type=\"KeepAliveRequest\"} 2\n"));
+        Assert.assertTrue(text, text.contains("collar_protocol_request_seconds_bucket{le=\"+Inf\",type=\"KeepAliveRequest\"} 3\n"));
+        Assert.assertTrue(text, text.contains("collar_protocol_request_seconds_sum{type=\"KeepAliveRequest\"} 2.00025\n"));
+        Assert.assertTrue(text, text.contains("collar_protocol_request_seconds_count{type=\"KeepAliveRequest\"} 3\n"));
+    }
+}
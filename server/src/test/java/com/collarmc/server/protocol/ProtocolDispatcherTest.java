@@ -0,0 +1,50 @@
+package com.collarmc.server.protocol;
+
+import com.collarmc.api.identity.ClientIdentity;
+import com.collarmc.protocol.keepalive.KeepAliveRequest;
+import com.collarmc.protocol.waypoints.GetWaypointsRequest;
+import com.collarmc.protocol.waypoints.GetWaypointsResponse;
+import com.collarmc.security.PublicKey;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.UUID;
+
+public class ProtocolDispatcherTest {
+
+    @Test
+    public void routesByRequestType() {
+        ProtocolMetrics metrics = new ProtocolMetrics();
+        ProtocolDispatcher dispatcher = new ProtocolDispatcher(List.of(new WaypointsHandler()), metrics);
+        ClientIdentity identity = new ClientIdentity(UUID.randomUUID(), new PublicKey(new byte[] { 1 }));
+        List<Object> sent = new ArrayList<>();
+
+        Assert.assertTrue(dispatcher.dispatch(identity, new GetWaypointsRequest(), (recipient, response) -> sent.add(response)));
+        Assert.assertTrue(dispatcher.dispatch(identity, new GetWaypointsRequest(), (recipient, response) -> sent.add(response)));
+        Assert.assertFalse(dispatcher.dispatch(identity, new KeepAliveRequest(), (recipient, response) -> sent.add(response)));
+
+        Assert.assertEquals(2, sent.size());
+        ProtocolMetrics.RequestMetrics requestMetrics = metrics.requests().get("GetWaypointsRequest");
+        Assert.assertEquals(2, requestMetrics.count());
+        Assert.assertEquals(0, requestMetrics.errors());
+        Assert.assertEquals(2, Arrays.stream(requestMetrics.latencyBuckets()).sum());
+        Assert.assertNull(metrics.requests().get("KeepAliveRequest"));
+        Assert.assertTrue(dispatcher.blocks(GetWaypointsRequest.class));
+        Assert.assertFalse(dispatcher.blocks(KeepAliveRequest.class));
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void requestTypeCanOnlyHaveOneHandler() {
+        new ProtocolDispatcher(List.of(new WaypointsHandler(), new WaypointsHandler()), new ProtocolMetrics());
+    }
+
+    private static final class WaypointsHandler extends ProtocolHandler {
+        WaypointsHandler() {
+            super(null);
+            onBlocking(GetWaypointsRequest.class, (identity, request, sender) -> sender.accept(identity, new GetWaypointsResponse(List.of())));
+        }
+    }
+}
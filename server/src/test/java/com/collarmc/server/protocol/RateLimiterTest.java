@@ -0,0 +1,95 @@
+package com.collarmc.server.protocol;
+
+import com.collarmc.protocol.groups.CreateGroupRequest;
+import com.collarmc.protocol.keepalive.KeepAliveRequest;
+import com.collarmc.protocol.location.UpdateLocationRequest;
+import com.collarmc.server.configuration.RateLimitConfiguration;
+import org.eclipse.jetty.websocket.api.Session;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.lang.reflect.Proxy;
+import java.time.Duration;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+public class RateLimiterTest {
+
+    @Test
+    public void requestsAreChargedByTypeToTheIdentity() {
+        RateLimiter limiter = new RateLimiter(configuration(10, 1000));
+        Assert.assertEquals(0, limiter.cost(KeepAliveRequest.class));
+        Assert.assertEquals(1, limiter.cost(UpdateLocationRequest.class));
+        Assert.assertEquals(10, limiter.cost(CreateGroupRequest.class));
+
+        UUID alice = UUID.randomUUID();
+        UUID bob = UUID.randomUUID();
+        Assert.assertEquals(0, limiter.tryAcquire(alice, limiter.cost(CreateGroupRequest.class)));
+        Assert.assertEquals(0, limiter.tryAcquire(alice, limiter.cost(KeepAliveRequest.class)));
+        Assert.assertTrue(limiter.tryAcquire(alice, limiter.cost(UpdateLocationRequest.class)) > 0);
+        Assert.assertEquals(0, limiter.tryAcquire(bob, limiter.cost(UpdateLocationRequest.class)));
+        Assert.assertEquals(1, limiter.metrics.identityExhaustions());
+        Assert.assertEquals(2, limiter.identities());
+    }
+
+    @Test
+    public void identityBudgetOutlivesTheSocket() {
+        RateLimiter limiter = new RateLimiter(configuration(10, 1000));
+        UUID alice = UUID.randomUUID();
+        Session first = session();
+        limiter.connected(first);
+        Assert.assertTrue(limiter.tryAcceptPackets(first, 2));
+        Assert.assertFalse("socket is flooding", limiter.tryAcceptPackets(first, 1));
+        Assert.assertEquals(0, limiter.tryAcquire(alice, 10));
+        limiter.closed(first);
+
+        // Reconnecting gets a new packet limit but keeps the identity's budget
+        Session second = session();
+        limiter.connected(second);
+        Assert.assertTrue(limiter.tryAcceptPackets(second, 1));
+        Assert.assertTrue(limiter.tryAcquire(alice, 1) > 0);
+    }
+
+    @Test
+    public void serverBudgetIsSharedByEveryIdentity() {
+        RateLimiter limiter = new RateLimiter(configuration(10, 5));
+        Assert.assertEquals(0, limiter.tryAcquire(UUID.randomUUID(), 5));
+        Assert.assertTrue(limiter.tryAcquire(UUID.randomUUID(), 1) > 0);
+        Assert.assertEquals(1, limiter.metrics.serverExhaustions());
+        Assert.assertEquals(0, limiter.metrics.identityExhaustions());
+    }
+
+    @Test
+    public void requestsOverBudgetWaitForItToRefill() throws Exception {
+        RateLimiter limiter = new RateLimiter(configuration(10, 1000));
+        UUID alice = UUID.randomUUID();
+        long deadline = limiter.deferralDeadline();
+        Assert.assertEquals(0, limiter.tryAcquire(alice, 10));
+        long wait = limiter.tryAcquire(alice, 1);
+        Assert.assertTrue(limiter.canDefer(wait, deadline));
+        TimeUnit.NANOSECONDS.sleep(wait);
+        Assert.assertEquals(0, limiter.tryAcquire(alice, 1));
+        Assert.assertFalse(limiter.canDefer(Duration.ofSeconds(2).toNanos(), deadline));
+
+        Assert.assertTrue(limiter.signal(alice, Duration.ofSeconds(10)));
+        Assert.assertFalse("signalled once per interval", limiter.signal(alice, Duration.ofSeconds(10)));
+    }
+
+    private static RateLimitConfiguration configuration(long identityPerSecond, long serverPerSecond) {
+        RateLimitConfiguration defaults = RateLimitConfiguration.defaults();
+        return new RateLimitConfiguration(2, 100, identityPerSecond, 1000, serverPerSecond, Duration.ofSeconds(1), defaults.costs);
+    }
+
+    private static Session session() {
+        return (Session) Proxy.newProxyInstance(Session.class.getClassLoader(), new Class[] { Session.class }, (proxy, method, args) -> {
+            switch (method.getName()) {
+                case "hashCode":
+                    return System.identityHashCode(proxy);
+                case "equals":
+                    return proxy == args[0];
+                default:
+                    return null;
+            }
+        });
+    }
+}
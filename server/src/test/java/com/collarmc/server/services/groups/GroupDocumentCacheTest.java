@@ -0,0 +1,110 @@
+package com.collarmc.server.services.groups;
+
+import org.bson.Document;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.*;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+
+public class GroupDocumentCacheTest {
+
+    @Test
+    public void loadRacingAWriteIsNotCached() {
+        GroupDocumentCache cache = cache(100);
+        UUID alice = UUID.randomUUID();
+        UUID group = UUID.randomUUID();
+        long loadVersion = cache.version();
+        // A write lands while the load is still reading the older document
+        cache.invalidate(group, Set.of(alice));
+        Assert.assertFalse(cache.install(loadVersion, List.of(document(group, 1, alice)), alice));
+        Assert.assertNull(cache.get(group));
+        Assert.assertNull(cache.getMemberGroups(alice));
+    }
+
+    @Test
+    public void concurrentWritesNeverLeaveAnOlderDocumentCached() throws Exception {
+        GroupDocumentCache cache = cache(100);
+        UUID group = UUID.randomUUID();
+        AtomicInteger database = new AtomicInteger();
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        CountDownLatch start = new CountDownLatch(1);
+        try {
+            for (int i = 0; i < 8; i++) {
+                executor.execute(() -> {
+                    try {
+                        start.await();
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        return;
+                    }
+                    for (int j = 0; j < 1000; j++) {
+                        if (j % 2 == 0) {
+                            database.incrementAndGet();
+                            cache.invalidate(group, Set.of());
+                        } else {
+                            long loadVersion = cache.version();
+                            Document loaded = document(group, database.get());
+                            cache.install(loadVersion, List.of(loaded), null);
+                        }
+                    }
+                });
+            }
+            start.countDown();
+        } finally {
+            executor.shutdown();
+            Assert.assertTrue(executor.awaitTermination(30, TimeUnit.SECONDS));
+        }
+        Document cached = cache.get(group);
+        if (cached != null) {
+            Assert.assertEquals(database.get(), (int) cached.getInteger("revision"));
+        }
+    }
+
+    @Test
+    public void writesInvalidateTheGroupsOfAddedAndRemovedMembers() {
+        GroupDocumentCache cache = cache(100);
+        UUID alice = UUID.randomUUID();
+        UUID bob = UUID.randomUUID();
+        UUID group = UUID.randomUUID();
+        Assert.assertTrue(cache.install(cache.version(), List.of(document(group, 1, alice)), alice));
+        Assert.assertTrue(cache.install(cache.version(), List.of(), bob));
+        Assert.assertEquals(1, cache.getMemberGroups(alice).size());
+        Assert.assertEquals(0, cache.getMemberGroups(bob).size());
+
+        // Bob is added, his cached list of no groups is now wrong
+        cache.invalidate(group, Set.of(bob));
+        Assert.assertNull(cache.get(group));
+        Assert.assertNull(cache.getMemberGroups(alice));
+        Assert.assertNull(cache.getMemberGroups(bob));
+    }
+
+    @Test
+    public void cacheIsBounded() {
+        GroupDocumentCache cache = cache(10);
+        UUID alice = UUID.randomUUID();
+        List<Document> documents = new ArrayList<>();
+        for (int i = 0; i < 100; i++) {
+            documents.add(document(UUID.randomUUID(), 1, alice));
+        }
+        cache.install(cache.version(), documents, alice);
+        Assert.assertTrue(cache.size() <= 10);
+        Assert.assertTrue(cache.evictions() >= 90);
+        // Some of alice's groups were evicted, so her groups have to be loaded again
+        Assert.assertNull(cache.getMemberGroups(alice));
+    }
+
+    private static GroupDocumentCache cache(long maximumSize) {
+        return new GroupDocumentCache(maximumSize, document -> document.get("id", UUID.class), document ->
+                document.getList("members", UUID.class).stream().collect(Collectors.toSet()));
+    }
+
+    private static Document document(UUID group, int revision, UUID... members) {
+        return new Document(Map.of("id", group, "revision", revision, "members", List.of(members)));
+    }
+}
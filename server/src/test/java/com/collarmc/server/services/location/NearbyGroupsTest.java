@@ -52,4 +52,40 @@ public class NearbyGroupsTest {
         Assert.assertTrue(group.players.contains(new MemberSource(alice, null)));
         Assert.assertTrue(group.players.contains(new MemberSource(bob, null)));
     }
+
+    @Test
+    public void playersOnDifferentServersAreNeverGrouped() {
+        Player alice = new Player(new ClientIdentity(UUID.randomUUID(), null), new MinecraftPlayer(UUID.randomUUID(), "cute", 1));
+        Player bob = new Player(new ClientIdentity(UUID.randomUUID(), null), new MinecraftPlayer(UUID.randomUUID(), "other", 1));
+
+        NearbyGroups groups = new NearbyGroups();
+        groups.updateNearbyGroups(new MemberSource(alice, null), Set.of("alice", "bob"));
+        NearbyGroups.Result result = groups.updateNearbyGroups(new MemberSource(bob, null), Set.of("alice", "bob"));
+        Assert.assertTrue(result.add.isEmpty());
+        Assert.assertTrue(result.remove.isEmpty());
+    }
+
+    @Test
+    public void groupIsFormedAgainAfterRemoval() {
+        Player alice = new Player(new ClientIdentity(UUID.randomUUID(), null), new MinecraftPlayer(UUID.randomUUID(), "cute", 1));
+        Player bob = new Player(new ClientIdentity(UUID.randomUUID(), null), new MinecraftPlayer(UUID.randomUUID(), "cute", 1));
+
+        NearbyGroups groups = new NearbyGroups();
+        groups.updateNearbyGroups(new MemberSource(alice, null), Set.of("alice", "bob"));
+        NearbyGroups.Result result = groups.updateNearbyGroups(new MemberSource(bob, null), Set.of("alice", "bob"));
+        Assert.assertEquals(1, result.add.size());
+
+        result = groups.updateNearbyGroups(new MemberSource(bob, null), Set.of());
+        Assert.assertTrue(result.add.isEmpty());
+        Assert.assertEquals(1, result.remove.size());
+
+        result = groups.updateNearbyGroups(new MemberSource(bob, null), Set.of("alice", "bob"));
+        Assert.assertEquals(1, result.add.size());
+        Assert.assertTrue(result.remove.isEmpty());
+
+        groups.removePlayerState(alice);
+        result = groups.updateNearbyGroups(new MemberSource(bob, null), Set.of("alice", "bob"));
+        Assert.assertTrue(result.add.isEmpty());
+        Assert.assertTrue(result.remove.isEmpty());
+    }
 }
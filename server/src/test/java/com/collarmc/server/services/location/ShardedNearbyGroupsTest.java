@@ -0,0 +1,71 @@
+package com.collarmc.server.services.location;
+
+import com.collarmc.api.groups.MemberSource;
+import com.collarmc.api.identity.ClientIdentity;
+import com.collarmc.api.session.Player;
+import com.collarmc.security.mojang.MinecraftPlayer;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.List;
+import java.util.Set;
+import java.util.UUID;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+public class ShardedNearbyGroupsTest {
+
+    @Test
+    public void groupsPlayersOnTheSameServer() {
+        ShardedNearbyGroups groups = new ShardedNearbyGroups(4);
+        UUID aliceId = UUID.randomUUID();
+        UUID bobId = UUID.randomUUID();
+        Player alice = player(aliceId, "cute");
+        Player bob = player(bobId, "cute");
+        groups.updateNearbyGroups(new MemberSource(alice, null), Set.of("alice", "bob"));
+        NearbyGroups.Result result = groups.updateNearbyGroups(new MemberSource(bob, null), Set.of("alice", "bob"));
+        Assert.assertEquals(1, result.add.size());
+        Assert.assertEquals(2, groups.metrics().stream().mapToLong(shard -> shard.latency.count()).sum());
+        Assert.assertEquals(0, groups.metrics().stream().mapToInt(shard -> shard.pending).sum());
+    }
+
+    @Test
+    public void changingServerRemovesGroupsFromThePreviousShard() {
+        ShardedNearbyGroups groups = new ShardedNearbyGroups(8);
+        UUID aliceId = UUID.randomUUID();
+        Player alice = player(aliceId, "cute");
+        Player bob = player(UUID.randomUUID(), "cute");
+        groups.updateNearbyGroups(new MemberSource(alice, null), Set.of("alice", "bob"));
+        Assert.assertEquals(1, groups.updateNearbyGroups(new MemberSource(bob, null), Set.of("alice", "bob")).add.size());
+
+        // Find a server on another shard, so the move crosses shards. Shards are named on the ring by their index.
+        ConsistentHashRing<Integer> ring = new ConsistentHashRing<>(IntStream.range(0, 8).boxed().collect(Collectors.toList()), 64);
+        String other = IntStream.range(0, 100).mapToObj(i -> "server" + i)
+                .filter(server -> !ring.get(server).equals(ring.get("cute")))
+                .findFirst()
+                .orElseThrow();
+        NearbyGroups.Result result = groups.updateNearbyGroups(new MemberSource(player(aliceId, other), null), Set.of("alice", "bob"));
+        Assert.assertTrue(result.add.isEmpty());
+        Assert.assertEquals(1, result.remove.size());
+    }
+
+    @Test
+    public void addingAShardOnlyMovesSomeServers() {
+        List<Integer> four = List.of(0, 1, 2, 3);
+        List<Integer> five = List.of(0, 1, 2, 3, 4);
+        ConsistentHashRing<Integer> before = new ConsistentHashRing<>(four, 64);
+        ConsistentHashRing<Integer> after = new ConsistentHashRing<>(five, 64);
+        long moved = IntStream.range(0, 1000).mapToObj(i -> "server" + i)
+                .filter(server -> !before.get(server).equals(after.get(server)))
+                .count();
+        Assert.assertTrue("moved " + moved, moved > 0 && moved < 400);
+        // Servers that moved only moved to the new shard
+        IntStream.range(0, 1000).mapToObj(i -> "server" + i)
+                .filter(server -> !before.get(server).equals(after.get(server)))
+                .forEach(server -> Assert.assertEquals(4, (int) after.get(server)));
+    }
+
+    private static Player player(UUID profile, String server) {
+        return new Player(new ClientIdentity(profile, null), new MinecraftPlayer(profile, server, 1));
+    }
+}
@@ -0,0 +1,104 @@
+package com.collarmc.server.services.profile;
+
+import com.collarmc.api.http.HttpException.NotFoundException;
+import com.collarmc.api.http.RequestContext;
+import com.collarmc.api.profiles.Profile;
+import com.collarmc.api.profiles.ProfileService;
+import com.collarmc.server.services.profiles.ProfileCache;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.*;
+import java.util.stream.Collectors;
+
+public class ProfileCacheTest {
+
+    @Test
+    public void bulkLoadsAndRemembersMissingProfiles() {
+        Profile bob = profile();
+        Profile alice = profile();
+        UUID missing = UUID.randomUUID();
+        CountingProfileService service = new CountingProfileService(List.of(bob, alice));
+        ProfileCache cache = new ProfileCache(service);
+
+        Map<UUID, Profile> found = cache.getAll(List.of(bob.id, alice.id, missing));
+        Assert.assertEquals(Set.of(bob.id, alice.id), found.keySet());
+        Assert.assertEquals(1, service.bulkLoads);
+
+        Assert.assertEquals(bob, cache.getById(bob.id).orElseThrow());
+        Assert.assertTrue(cache.getById(missing).isEmpty());
+        cache.getAll(List.of(bob.id, alice.id, missing));
+        Assert.assertEquals(0, service.singleLoads);
+        Assert.assertEquals(1, service.bulkLoads);
+
+        UUID unknown = UUID.randomUUID();
+        Assert.assertTrue(cache.getById(unknown).isEmpty());
+        Assert.assertTrue(cache.getById(unknown).isEmpty());
+        Assert.assertEquals(1, service.singleLoads);
+        Assert.assertTrue(cache.statistics().hits > 0);
+    }
+
+    @Test
+    public void bulkLoadRacingAnInvalidationIsNotCached() {
+        Profile bob = profile();
+        UUID missing = UUID.randomUUID();
+        CountingProfileService service = new CountingProfileService(List.of(bob));
+        ProfileCache cache = new ProfileCache(service);
+        // Bob's profile is written while the load is still reading the older one
+        service.duringBulkLoad = () -> cache.invalidate(bob.id);
+
+        Assert.assertEquals(Set.of(bob.id), cache.getAll(List.of(bob.id, missing)).keySet());
+        service.duringBulkLoad = () -> {};
+        cache.getAll(List.of(bob.id, missing));
+        Assert.assertEquals("nothing from the racing load was cached", 2, service.bulkLoads);
+        cache.getAll(List.of(bob.id, missing));
+        Assert.assertEquals(2, service.bulkLoads);
+    }
+
+    private static Profile profile() {
+        return new Profile(UUID.randomUUID(), Set.of(), null, "player", null, null, null, Set.of(), null);
+    }
+
+    private static final class CountingProfileService implements ProfileService {
+        private final Map<UUID, Profile> profiles;
+        int singleLoads;
+        int bulkLoads;
+        Runnable duringBulkLoad = () -> {};
+
+        CountingProfileService(List<Profile> profiles) {
+            this.profiles = profiles.stream().collect(Collectors.toMap(profile -> profile.id, profile -> profile));
+        }
+
+        @Override
+        public GetProfileResponse getProfile(RequestContext context, GetProfileRequest req) {
+            singleLoads++;
+            Profile profile = profiles.get(req.byId);
+            if (profile == null) {
+                throw new NotFoundException("profile not found");
+            }
+            return new GetProfileResponse(profile);
+        }
+
+        @Override
+        public GetProfilesResponse getProfiles(RequestContext context, GetProfilesRequest req) {
+            bulkLoads++;
+            duringBulkLoad.run();
+            return new GetProfilesResponse(req.byIds.stream().map(profiles::get).filter(Objects::nonNull).collect(Collectors.toList()));
+        }
+
+        @Override
+        public CreateProfileResponse createProfile(RequestContext context, CreateProfileRequest req) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public UpdateProfileResponse updateProfile(RequestContext context, UpdateProfileRequest req) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public PlayerCountResponse playerCount(RequestContext context, PlayerCountRequest req) {
+            throw new UnsupportedOperationException();
+        }
+    }
+}
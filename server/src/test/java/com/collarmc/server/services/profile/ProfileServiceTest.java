@@ -7,6 +7,7 @@ import com.collarmc.api.http.RequestContext;
 import com.collarmc.api.profiles.Profile;
 import com.collarmc.api.profiles.ProfileService;
 import com.collarmc.api.profiles.ProfileService.GetProfileRequest;
+import com.collarmc.api.profiles.ProfileService.GetProfilesRequest;
 import com.collarmc.server.junit.MongoDatabaseTestRule;
 import com.collarmc.server.security.hashing.PasswordHashing;
 import com.collarmc.server.services.profiles.ProfileServiceServer;
@@ -15,6 +16,11 @@ import org.junit.Before;
 import org.junit.Rule;
 import org.junit.Test;
 
+import java.util.List;
+import java.util.Set;
+import java.util.UUID;
+import java.util.stream.Collectors;
+
 import static org.junit.Assert.fail;
 
 public class ProfileServiceTest {
@@ -80,4 +86,13 @@ public class ProfileServiceTest {
         Assert.assertEquals(savedProfile.id, profile.id);
         Assert.assertEquals(savedProfile.hashedPassword, savedProfile.hashedPassword);
     }
+
+    @Test
+    public void getProfiles() {
+        Profile bob = profiles.createProfile(RequestContext.ANON, new ProfileServiceServer.CreateProfileRequest("bob@example.com", "password", "Bob UwU")).profile;
+        Profile alice = profiles.createProfile(RequestContext.ANON, new ProfileServiceServer.CreateProfileRequest("alice@example.com", "password", "Alice UwU")).profile;
+
+        List<Profile> found = profiles.getProfiles(RequestContext.SERVER, new GetProfilesRequest(Set.of(bob.id, alice.id, UUID.randomUUID()))).profiles;
+        Assert.assertEquals(Set.of(bob.id, alice.id), found.stream().map(profile -> profile.id).collect(Collectors.toSet()));
+    }
 }
@@ -7,6 +7,7 @@ import org.junit.Assert;
 import org.junit.Rule;
 import org.junit.Test;
 
+import java.util.ArrayList;
 import java.util.List;
 import java.util.UUID;
 
@@ -37,4 +38,43 @@ public class ProfileStorageTest {
         blobs = storage.find(owner, "A");
         Assert.assertTrue(blobs.isEmpty());
     }
+
+    @Test
+    public void queuedWritesAreReadAndCoalesced() {
+        ProfileStorage storage = new ProfileStorage(dbRule.db);
+        UUID owner = UUID.randomUUID();
+        UUID id1 = UUID.randomUUID();
+        byte[] first = TokenGenerator.byteToken(64);
+        byte[] second = TokenGenerator.byteToken(64);
+
+        storage.store(owner, id1, first, "A");
+        storage.store(owner, id1, second, "A");
+        Assert.assertEquals(1, storage.find(owner, "A").size());
+        Assert.assertArrayEquals(second, storage.find(owner, "A").get(0).data);
+
+        storage.flush();
+        List<ProfileStorage.Blob> blobs = storage.find(owner, "A");
+        Assert.assertEquals(1, blobs.size());
+        Assert.assertArrayEquals(second, blobs.get(0).data);
+
+        storage.delete(owner, id1);
+        Assert.assertTrue(storage.find(owner, "A").isEmpty());
+        storage.flush();
+        Assert.assertTrue(storage.find(owner, "A").isEmpty());
+    }
+
+    @Test
+    public void findInPages() {
+        ProfileStorage storage = new ProfileStorage(dbRule.db);
+        UUID owner = UUID.randomUUID();
+        for (int i = 0; i < 10; i++) {
+            storage.store(owner, UUID.randomUUID(), TokenGenerator.byteToken(64), "A");
+        }
+        storage.flush();
+        storage.store(owner, UUID.randomUUID(), TokenGenerator.byteToken(64), "A");
+
+        List<Integer> pages = new ArrayList<>();
+        storage.find(owner, "A", 4, Integer.MAX_VALUE, page -> pages.add(page.size()));
+        Assert.assertEquals(List.of(4, 4, 3), pages);
+    }
 }
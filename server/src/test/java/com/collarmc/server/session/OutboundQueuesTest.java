@@ -0,0 +1,178 @@
+package com.collarmc.server.session;
+
+import com.collarmc.protocol.PacketIO;
+import com.collarmc.protocol.ProtocolResponse;
+import com.collarmc.protocol.SessionStopReason;
+import com.collarmc.protocol.session.SessionFailedResponse.SessionErrorResponse;
+import com.collarmc.server.configuration.OutboundQueueConfiguration;
+import com.collarmc.server.configuration.OutboundQueueConfiguration.Overflow;
+import com.collarmc.utils.Utils;
+import org.eclipse.jetty.websocket.api.BatchMode;
+import org.eclipse.jetty.websocket.api.RemoteEndpoint;
+import org.eclipse.jetty.websocket.api.Session;
+import org.eclipse.jetty.websocket.api.WriteCallback;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.lang.reflect.Proxy;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+public class OutboundQueuesTest {
+
+    @Test
+    public void packetsQueuedDuringAWriteAreCoalesced() {
+        OutboundQueues queues = new OutboundQueues(new OutboundQueueConfiguration(16, 1024, 8, Overflow.DISCONNECT));
+        FakeSession session = new FakeSession();
+        Assert.assertTrue(queues.send(session.session, new byte[] { 1 }));
+        Assert.assertEquals(List.of(BatchMode.OFF), session.modes);
+        for (byte i = 2; i <= 4; i++) {
+            Assert.assertTrue(queues.send(session.session, new byte[] { i }));
+        }
+        // Nothing more is written until the write in flight completes
+        Assert.assertEquals(1, session.written.size());
+        Assert.assertEquals(4, queues.queuedFrames());
+
+        session.complete();
+        Assert.assertEquals(List.of((byte) 1, (byte) 2, (byte) 3, (byte) 4), session.written);
+        Assert.assertEquals(List.of(BatchMode.OFF, BatchMode.ON, BatchMode.ON, BatchMode.OFF), session.modes);
+        session.complete();
+        Assert.assertEquals(0, queues.queuedFrames());
+        Assert.assertEquals(4, queues.metrics.frames());
+        Assert.assertEquals(2, queues.metrics.writes());
+    }
+
+    @Test
+    public void slowSessionIsDisconnected() {
+        OutboundQueues queues = new OutboundQueues(new OutboundQueueConfiguration(3, 1024, 8, Overflow.DISCONNECT));
+        FakeSession session = new FakeSession();
+        for (int i = 0; i < 3; i++) {
+            Assert.assertTrue(queues.send(session.session, new byte[] { 1 }));
+        }
+        Assert.assertFalse(queues.send(session.session, new byte[] { 1 }));
+        Assert.assertTrue(session.disconnected);
+        Assert.assertEquals(1, queues.metrics.disconnected());
+        // Only the write already in flight is still counted
+        Assert.assertEquals(1, queues.queuedFrames());
+        Assert.assertFalse(queues.send(session.session, new byte[] { 1 }));
+        Assert.assertEquals(1, queues.metrics.dropped());
+    }
+
+    @Test
+    public void slowSessionHasPacketsDropped() {
+        OutboundQueues queues = new OutboundQueues(new OutboundQueueConfiguration(16, 4, 8, Overflow.DROP));
+        FakeSession session = new FakeSession();
+        Assert.assertTrue(queues.send(session.session, new byte[] { 1, 1 }));
+        Assert.assertTrue(queues.send(session.session, new byte[] { 2, 2 }));
+        Assert.assertFalse(queues.send(session.session, new byte[] { 3, 3 }));
+        Assert.assertFalse(session.disconnected);
+        Assert.assertEquals(1, queues.metrics.dropped());
+
+        session.complete();
+        session.complete();
+        Assert.assertTrue(queues.send(session.session, new byte[] { 4, 4 }));
+        Assert.assertEquals(List.of((byte) 1, (byte) 2, (byte) 4), session.written);
+    }
+
+    @Test
+    public void sessionIsClosedOnceTheLastPacketIsWritten() {
+        OutboundQueues queues = new OutboundQueues(new OutboundQueueConfiguration(16, 1024, 8, Overflow.DISCONNECT));
+        FakeSession session = new FakeSession();
+        Assert.assertTrue(queues.send(session.session, new byte[] { 1 }));
+        Assert.assertTrue(queues.send(session.session, new byte[] { 2 }, session::close));
+        Assert.assertFalse("nothing is sent after the last packet", queues.send(session.session, new byte[] { 3 }));
+        Assert.assertFalse(session.closed);
+
+        session.complete();
+        Assert.assertFalse("last packet is still being written", session.closed);
+        session.complete();
+        Assert.assertTrue(session.closed);
+        Assert.assertEquals(List.of((byte) 1, (byte) 2), session.written);
+    }
+
+    @Test
+    public void stoppedSessionIsSentTheErrorBeforeItIsClosed() throws Exception {
+        OutboundQueues queues = new OutboundQueues(new OutboundQueueConfiguration(16, 1024, 8, Overflow.DISCONNECT));
+        SessionManager sessions = new SessionManager(Utils.messagePackMapper(), null, queues);
+        FakeSession session = new FakeSession();
+        Assert.assertTrue(queues.send(session.session, new byte[] { 1 }));
+
+        sessions.stopSession(session.session, SessionStopReason.TOO_MANY_REQUESTS, "slow down", null, null);
+        Assert.assertFalse(session.closed);
+        session.complete();
+        session.complete();
+        Assert.assertTrue(session.closed);
+        Assert.assertEquals(SessionStopReason.TOO_MANY_REQUESTS.code, session.closeCode);
+        byte[] error = session.frames.get(session.frames.size() - 1);
+        ProtocolResponse response = new PacketIO(Utils.messagePackMapper(), null).decode(null, error, 0, error.length, ProtocolResponse.class).orElseThrow();
+        Assert.assertEquals(SessionStopReason.TOO_MANY_REQUESTS, ((SessionErrorResponse) response).reason);
+    }
+
+    /**
+     * Session whose writes only complete when told to
+     */
+    private static final class FakeSession {
+        final List<Byte> written = new ArrayList<>();
+        final List<byte[]> frames = new ArrayList<>();
+        final List<BatchMode> modes = new ArrayList<>();
+        final List<WriteCallback> callbacks = new ArrayList<>();
+        BatchMode mode = BatchMode.AUTO;
+        boolean disconnected;
+        boolean closed;
+        int closeCode;
+        final Session session;
+
+        FakeSession() {
+            RemoteEndpoint remote = (RemoteEndpoint) Proxy.newProxyInstance(RemoteEndpoint.class.getClassLoader(), new Class[] { RemoteEndpoint.class }, (proxy, method, args) -> {
+                switch (method.getName()) {
+                    case "setBatchMode":
+                        mode = (BatchMode) args[0];
+                        return null;
+                    case "sendBytes":
+                        ByteBuffer buffer = (ByteBuffer) args[0];
+                        written.add(buffer.get(0));
+                        byte[] frame = new byte[buffer.remaining()];
+                        buffer.duplicate().get(frame);
+                        frames.add(frame);
+                        modes.add(mode);
+                        if (args[1] != null) {
+                            callbacks.add((WriteCallback) args[1]);
+                        }
+                        return null;
+                    default:
+                        throw new UnsupportedOperationException(method.getName());
+                }
+            });
+            this.session = (Session) Proxy.newProxyInstance(Session.class.getClassLoader(), new Class[] { Session.class }, (proxy, method, args) -> {
+                switch (method.getName()) {
+                    case "hashCode":
+                        return System.identityHashCode(proxy);
+                    case "equals":
+                        return proxy == args[0];
+                    case "isOpen":
+                        return !disconnected && !closed;
+                    case "getRemote":
+                        return remote;
+                    case "disconnect":
+                        disconnected = true;
+                        return null;
+                    case "close":
+                        closed = true;
+                        closeCode = args != null && args.length > 0 && args[0] instanceof Integer ? (Integer) args[0] : 0;
+                        return null;
+                    default:
+                        return null;
+                }
+            });
+        }
+
+        void complete() {
+            callbacks.remove(0).writeSuccess();
+        }
+
+        void close() {
+            session.close();
+        }
+    }
+}
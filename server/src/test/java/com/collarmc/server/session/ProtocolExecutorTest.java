@@ -0,0 +1,239 @@
+package com.collarmc.server.session;
+
+import com.collarmc.server.session.ProtocolExecutor.Submitted;
+import org.eclipse.jetty.websocket.api.Session;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+import static com.collarmc.server.session.ProtocolExecutor.Submitted.*;
+
+public class ProtocolExecutorTest {
+
+    @Test
+    public void workForSessionRunsInOrder() throws Exception {
+        ProtocolExecutor executor = new ProtocolExecutor(Executors.newFixedThreadPool(4), Executors.newFixedThreadPool(4));
+        Session session = session();
+        List<Integer> order = Collections.synchronizedList(new ArrayList<>());
+        CountDownLatch done = new CountDownLatch(1);
+        for (int i = 0; i < 100; i++) {
+            int value = i;
+            executor.execute(session, () -> {
+                // Every third task continues with blocking work, which must finish before the next task
+                if (value % 3 == 0) {
+                    return () -> order.add(value);
+                }
+                order.add(value);
+                return null;
+            });
+        }
+        executor.close(session, done::countDown);
+        Assert.assertTrue(done.await(10, TimeUnit.SECONDS));
+        Assert.assertEquals(IntStream.range(0, 100).boxed().collect(Collectors.toList()), order);
+        // The queue is forgotten once the close task has returned
+        awaitNoSessions(executor);
+        executor.shutdown();
+    }
+
+    @Test
+    public void deferredWorkHoldsBackTheSessionWithoutABlockingThread() throws Exception {
+        ExecutorService blocking = Executors.newFixedThreadPool(1);
+        CountDownLatch release = new CountDownLatch(1);
+        // Deferred work must not need the blocking pool, whose only thread is taken
+        blocking.execute(() -> {
+            try {
+                release.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        });
+        ProtocolExecutor executor = new ProtocolExecutor(Executors.newFixedThreadPool(1), blocking);
+        Session session = session();
+        List<Integer> order = Collections.synchronizedList(new ArrayList<>());
+        CountDownLatch ran = new CountDownLatch(1);
+        CountDownLatch done = new CountDownLatch(1);
+        long start = System.nanoTime();
+        executor.execute(session, () -> ProtocolExecutor.defer(TimeUnit.MILLISECONDS.toNanos(50), () -> ProtocolExecutor.defer(TimeUnit.MILLISECONDS.toNanos(50), () -> {
+            order.add(1);
+            return null;
+        })));
+        executor.execute(session, () -> {
+            order.add(2);
+            ran.countDown();
+            return null;
+        });
+        Assert.assertTrue(ran.await(10, TimeUnit.SECONDS));
+        Assert.assertEquals(List.of(1, 2), order);
+        Assert.assertTrue(System.nanoTime() - start >= TimeUnit.MILLISECONDS.toNanos(100));
+        release.countDown();
+        executor.close(session, done::countDown);
+        Assert.assertTrue(done.await(10, TimeUnit.SECONDS));
+        executor.shutdown();
+    }
+
+    @Test
+    public void blockingWorkRunsOnTheBlockingPoolAndCarriesOn() throws Exception {
+        ProtocolExecutor executor = new ProtocolExecutor(Executors.newFixedThreadPool(1, task -> new Thread(task, "worker")), Executors.newFixedThreadPool(1, task -> new Thread(task, "blocking")));
+        Session session = session();
+        List<String> threads = Collections.synchronizedList(new ArrayList<>());
+        CountDownLatch done = new CountDownLatch(1);
+        executor.execute(session, () -> {
+            threads.add(Thread.currentThread().getName());
+            // Like a batch whose first request blocks and the rest waits for budget
+            return ProtocolExecutor.blocking(() -> {
+                threads.add(Thread.currentThread().getName());
+                return ProtocolExecutor.defer(TimeUnit.MILLISECONDS.toNanos(10), () -> {
+                    threads.add(Thread.currentThread().getName());
+                    return null;
+                });
+            });
+        });
+        executor.execute(session, () -> {
+            threads.add("next");
+            return null;
+        });
+        executor.close(session, () -> {
+            threads.add(Thread.currentThread().getName());
+            done.countDown();
+        });
+        Assert.assertTrue(done.await(10, TimeUnit.SECONDS));
+        Assert.assertEquals(List.of("worker", "blocking", "worker", "next", "blocking"), threads);
+        executor.shutdown();
+    }
+
+    @Test
+    public void blockedSessionDoesNotStallOthers() throws Exception {
+        ProtocolExecutor executor = new ProtocolExecutor(Executors.newFixedThreadPool(1), Executors.newFixedThreadPool(1));
+        Session slow = session();
+        Session fast = session();
+        CountDownLatch release = new CountDownLatch(1);
+        CountDownLatch fastDone = new CountDownLatch(1);
+        executor.execute(slow, () -> () -> {
+            try {
+                release.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        });
+        executor.execute(fast, () -> {
+            fastDone.countDown();
+            return null;
+        });
+        Assert.assertTrue(fastDone.await(10, TimeUnit.SECONDS));
+        release.countDown();
+        executor.shutdown();
+    }
+
+    @Test
+    public void reportsBackpressureOnceWhenBacklogReachesThreshold() throws Exception {
+        ProtocolExecutor executor = new ProtocolExecutor(Executors.newFixedThreadPool(1), Executors.newFixedThreadPool(1), 3, Integer.MAX_VALUE);
+        Session session = session();
+        CountDownLatch release = new CountDownLatch(1);
+        CountDownLatch done = new CountDownLatch(1);
+        // The first task runs and blocks, leaving the rest waiting behind it
+        Assert.assertEquals(QUEUED, executor.execute(session, () -> () -> {
+            try {
+                release.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }));
+        List<Submitted> reported = new ArrayList<>();
+        for (int i = 0; i < 5; i++) {
+            reported.add(executor.execute(session, () -> null));
+        }
+        Assert.assertEquals(List.of(QUEUED, QUEUED, FALLING_BEHIND, QUEUED, QUEUED), reported);
+        release.countDown();
+        executor.close(session, done::countDown);
+        Assert.assertTrue(done.await(10, TimeUnit.SECONDS));
+        executor.shutdown();
+    }
+
+    @Test
+    public void fullQueueRefusesWorkButNotClosing() throws Exception {
+        ProtocolExecutor executor = new ProtocolExecutor(Executors.newFixedThreadPool(1), Executors.newFixedThreadPool(1), Integer.MAX_VALUE, 2);
+        Session session = session();
+        CountDownLatch release = new CountDownLatch(1);
+        CountDownLatch closed = new CountDownLatch(1);
+        executor.execute(session, () -> () -> {
+            try {
+                release.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        });
+        Assert.assertEquals(QUEUED, executor.execute(session, () -> null));
+        Assert.assertEquals(QUEUED, executor.execute(session, () -> null));
+        Assert.assertEquals(FULL, executor.execute(session, () -> null));
+        executor.close(session, closed::countDown);
+        release.countDown();
+        Assert.assertTrue(closed.await(10, TimeUnit.SECONDS));
+        executor.shutdown();
+    }
+
+    @Test
+    public void closingSessionRefusesWorkUntilClosed() throws Exception {
+        ProtocolExecutor executor = new ProtocolExecutor(Executors.newFixedThreadPool(4), Executors.newFixedThreadPool(4));
+        Session session = session();
+        CountDownLatch release = new CountDownLatch(1);
+        CountDownLatch closing = new CountDownLatch(1);
+        AtomicBoolean ranAfterClose = new AtomicBoolean();
+        executor.close(session, () -> {
+            closing.countDown();
+            try {
+                release.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        });
+        Assert.assertTrue(closing.await(10, TimeUnit.SECONDS));
+        // The queue is kept while the close runs, so new work cannot start a queue that runs alongside it
+        Assert.assertEquals(CLOSED, executor.execute(session, () -> {
+            ranAfterClose.set(true);
+            return null;
+        }));
+        Assert.assertEquals(1, executor.sessions());
+        // Closing again, such as when the socket closes after an error, runs after the first close
+        CountDownLatch closedAgain = new CountDownLatch(1);
+        executor.close(session, closedAgain::countDown);
+        release.countDown();
+        Assert.assertTrue(closedAgain.await(10, TimeUnit.SECONDS));
+        awaitNoSessions(executor);
+        Assert.assertFalse(ranAfterClose.get());
+        executor.shutdown();
+    }
+
+    private static void awaitNoSessions(ProtocolExecutor executor) throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+        while (executor.sessions() != 0 && System.nanoTime() < deadline) {
+            Thread.sleep(10);
+        }
+        Assert.assertEquals(0, executor.sessions());
+    }
+
+    private static Session session() {
+        return (Session) Proxy.newProxyInstance(Session.class.getClassLoader(), new Class[] { Session.class }, (proxy, method, args) -> {
+            switch (method.getName()) {
+                case "hashCode":
+                    return System.identityHashCode(proxy);
+                case "equals":
+                    return proxy == args[0];
+                case "toString":
+                    return "Session@" + System.identityHashCode(proxy);
+                default:
+                    return null;
+            }
+        });
+    }
+}
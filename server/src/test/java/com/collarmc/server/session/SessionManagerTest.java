@@ -0,0 +1,108 @@
+package com.collarmc.server.session;
+
+import com.collarmc.api.identity.ClientIdentity;
+import com.collarmc.api.session.Player;
+import com.collarmc.protocol.SessionStopReason;
+import com.collarmc.security.PublicKey;
+import com.collarmc.security.mojang.MinecraftPlayer;
+import com.collarmc.utils.Utils;
+import org.eclipse.jetty.websocket.api.Session;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.lang.reflect.Proxy;
+import java.util.List;
+import java.util.UUID;
+
+public class SessionManagerTest {
+
+    @Test
+    public void indexesFollowIdentifyAndStop() {
+        SessionManager sessions = new SessionManager(Utils.messagePackMapper(), null);
+        Session aliceSession = session();
+        Session bobSession = session();
+        ClientIdentity alice = new ClientIdentity(UUID.randomUUID(), new PublicKey(new byte[] { 1 }));
+        ClientIdentity bob = new ClientIdentity(UUID.randomUUID(), new PublicKey(new byte[] { 2 }));
+        MinecraftPlayer aliceMinecraftPlayer = new MinecraftPlayer(UUID.randomUUID(), "cute.server", 1);
+        MinecraftPlayer bobMinecraftPlayer = new MinecraftPlayer(UUID.randomUUID(), "cute.server", 2);
+
+        sessions.identify(aliceSession, alice, null, (identity, player) -> Assert.fail("no player yet"));
+        Assert.assertEquals(aliceSession, sessions.getSession(alice).orElseThrow());
+        Assert.assertTrue(sessions.findPlayer(alice).isEmpty());
+
+        sessions.identify(aliceSession, alice, aliceMinecraftPlayer, (identity, player) -> {});
+        sessions.identify(bobSession, bob, bobMinecraftPlayer, (identity, player) -> {});
+        Assert.assertEquals(2, sessions.count());
+        Assert.assertEquals(aliceMinecraftPlayer, sessions.findMinecraftPlayer(alice).orElseThrow());
+        Assert.assertEquals(alice, sessions.getIdentityByMinecraftPlayerId(aliceMinecraftPlayer.id).orElseThrow());
+        Assert.assertEquals(bob, sessions.getIdentity(bobMinecraftPlayer).orElseThrow());
+        Assert.assertEquals(new Player(bob, bobMinecraftPlayer), sessions.findPlayerByProfile(bob.id()).orElseThrow());
+        Assert.assertEquals(2, sessions.findPlayersOnServer("cute.server").size());
+        List<Player> players = sessions.findPlayers(alice, List.of(bobMinecraftPlayer.id, UUID.randomUUID()));
+        Assert.assertEquals(List.of(new Player(bob, bobMinecraftPlayer)), players);
+        Assert.assertTrue(sessions.getSession(new ClientIdentity(alice.id(), new PublicKey(new byte[] { 3 }))).isEmpty());
+
+        try {
+            sessions.identify(aliceSession, alice, aliceMinecraftPlayer, (identity, player) -> {});
+            Assert.fail("identified twice");
+        } catch (IllegalStateException ignored) {}
+
+        sessions.stopSession(bobSession, SessionStopReason.NORMAL_CLOSE, null, null, null);
+        Assert.assertTrue(sessions.getSession(bob).isEmpty());
+        Assert.assertTrue(sessions.getIdentityByMinecraftPlayerId(bobMinecraftPlayer.id).isEmpty());
+        Assert.assertEquals(1, sessions.findPlayersOnServer("cute.server").size());
+        Assert.assertEquals(1, sessions.count());
+    }
+
+    @Test
+    public void removingASessionFallsBackToAnotherForTheSameProfile() {
+        SessionManager sessions = new SessionManager(Utils.messagePackMapper(), null);
+        ClientIdentity alice = new ClientIdentity(UUID.randomUUID(), new PublicKey(new byte[] { 1 }));
+        Session first = session();
+        Session second = session();
+        sessions.identify(first, alice, null, (identity, player) -> {});
+        sessions.identify(second, alice, null, (identity, player) -> {});
+        Assert.assertEquals(second, sessions.getSession(alice).orElseThrow());
+
+        sessions.stopSession(second, SessionStopReason.NORMAL_CLOSE, null, null, null);
+        Assert.assertEquals(first, sessions.getSession(alice).orElseThrow());
+        sessions.stopSession(first, SessionStopReason.NORMAL_CLOSE, null, null, null);
+        Assert.assertTrue(sessions.getSession(alice).isEmpty());
+    }
+
+    @Test
+    public void findsThePlayerOfAnySessionOfTheIdentity() {
+        SessionManager sessions = new SessionManager(Utils.messagePackMapper(), null);
+        ClientIdentity alice = new ClientIdentity(UUID.randomUUID(), new PublicKey(new byte[] { 1 }));
+        ClientIdentity bob = new ClientIdentity(UUID.randomUUID(), new PublicKey(new byte[] { 2 }));
+        MinecraftPlayer aliceMinecraftPlayer = new MinecraftPlayer(UUID.randomUUID(), "cute.server", 1);
+        MinecraftPlayer bobMinecraftPlayer = new MinecraftPlayer(UUID.randomUUID(), "cute.server", 2);
+        sessions.identify(session(), alice, aliceMinecraftPlayer, (identity, player) -> {});
+        sessions.identify(session(), bob, bobMinecraftPlayer, (identity, player) -> {});
+        // A second session that has not started a minecraft session becomes the indexed one
+        Session second = session();
+        sessions.identify(second, alice, null, (identity, player) -> {});
+        Assert.assertEquals(second, sessions.getSession(alice).orElseThrow());
+
+        Assert.assertEquals(aliceMinecraftPlayer, sessions.findMinecraftPlayer(alice).orElseThrow());
+        Assert.assertEquals(new Player(alice, aliceMinecraftPlayer), sessions.findPlayer(alice).orElseThrow());
+        Assert.assertEquals(List.of(new Player(bob, bobMinecraftPlayer)), sessions.findPlayers(alice, List.of(bobMinecraftPlayer.id)));
+    }
+
+    private static Session session() {
+        return (Session) Proxy.newProxyInstance(Session.class.getClassLoader(), new Class[] { Session.class }, (proxy, method, args) -> {
+            switch (method.getName()) {
+                case "hashCode":
+                    return System.identityHashCode(proxy);
+                case "equals":
+                    return proxy == args[0];
+                case "toString":
+                    return "Session@" + System.identityHashCode(proxy);
+                case "isOpen":
+                    return false;
+                default:
+                    return null;
+            }
+        });
+    }
+}
@@ -0,0 +1,205 @@
+package com.collarmc.api.location;
+
+import com.collarmc.io.IO;
+
+import java.nio.Buffer;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Optional;
+
+/**
+ * Compact encoding of a player's location for sharing with groups.
+ * Coordinates are quantized to 1/{@link #SCALE} of a block and sent either as a keyframe, or as a delta against the
+ * last keyframe. Nothing is sent while the player is stationary until the next keyframe is due, so players that join
+ * a group part way through receive a location within one keyframe interval.
+ * Older clients only read {@link Location#serialize()}, so locations are only encoded on servers that advertise
+ * {@link #FEATURE}.
+ */
+public final class LocationCodec {
+
+    /** Discover feature advertised by servers whose clients all decode locations written by an {@link Encoder} **/
+    public static final String FEATURE = "groups:location_codec";
+
+    /** Fixed point scale of coordinates **/
+    public static final int SCALE = 32;
+    /** Publishes between keyframes **/
+    public static final int DEFAULT_KEYFRAME_INTERVAL = 20;
+
+    /** Distinguishes encoded locations from {@link Location#serialize()}, which starts with a zero byte **/
+    private static final byte MARKER = 0x4c;
+    private static final int KEYFRAME = 1;
+    private static final int DELTA = 2;
+    private static final int MAX_SIZE = 3 + 3 * 5;
+
+    private LocationCodec() {}
+
+    /**
+     * @param bytes of a shared location
+     * @return if the bytes were written by an {@link Encoder} rather than {@link Location#serialize()}
+     */
+    public static boolean isEncoded(byte[] bytes) {
+        return bytes.length > 0 && bytes[0] == MARKER;
+    }
+
+    private static int quantize(double coordinate) {
+        return (int) Math.round(coordinate * SCALE);
+    }
+
+    private static double dequantize(int coordinate) {
+        return (double) coordinate / SCALE;
+    }
+
+    private static void writeSigned(ByteBuffer buffer, int value) {
+        int zigzag = (value << 1) ^ (value >> 31);
+        while ((zigzag & ~0x7F) != 0) {
+            buffer.put((byte) ((zigzag & 0x7F) | 0x80));
+            zigzag >>>= 7;
+        }
+        buffer.put((byte) zigzag);
+    }
+
+    private static int readSigned(ByteBuffer buffer) {
+        int value = readUnsigned(buffer);
+        return (value >>> 1) ^ -(value & 1);
+    }
+
+    /**
+     * Zigzag values use all 32 bits, so they are not written and read with {@link IO#readVarInt(ByteBuffer)}, which
+     * only allows positive ints
+     */
+    private static int readUnsigned(ByteBuffer buffer) {
+        int value = 0;
+        for (int shift = 0; shift < 35; shift += 7) {
+            byte b = buffer.get();
+            value |= (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                return value;
+            }
+        }
+        throw new IllegalStateException("varint is too long");
+    }
+
+    /**
+     * Encodes the locations of the player. Not thread safe.
+     */
+    public static final class Encoder {
+        private final int keyframeInterval;
+        private int[] keyframe;
+        private Dimension keyframeDimension;
+        private int[] lastSent;
+        private int sequence;
+        private int sinceKeyframe;
+
+        public Encoder() {
+            this(DEFAULT_KEYFRAME_INTERVAL);
+        }
+
+        /**
+         * @param keyframeInterval number of calls to {@link #encode(Location)} between keyframes
+         */
+        public Encoder(int keyframeInterval) {
+            if (keyframeInterval < 1) {
+                throw new IllegalArgumentException("keyframeInterval must be at least 1");
+            }
+            this.keyframeInterval = keyframeInterval;
+        }
+
+        /**
+         * Encode the player's current location. Called at a regular interval.
+         * @param location of the player
+         * @return bytes to send or empty if the player has not moved since the last send and no keyframe is due
+         */
+        public Optional<byte[]> encode(Location location) {
+            int[] position = location.dimension == Dimension.UNKNOWN
+                    ? new int[3]
+                    : new int[] {quantize(location.x), quantize(location.y), quantize(location.z)};
+            sinceKeyframe++;
+            ByteBuffer buffer = ByteBuffer.allocate(MAX_SIZE);
+            buffer.put(MARKER);
+            if (keyframe == null || sinceKeyframe >= keyframeInterval || location.dimension != keyframeDimension) {
+                keyframe = position;
+                keyframeDimension = location.dimension;
+                sequence = (sequence + 1) & 0xFF;
+                sinceKeyframe = 0;
+                buffer.put((byte) (KEYFRAME << 4 | location.dimension.ordinal()));
+                buffer.put((byte) sequence);
+                for (int coordinate : position) {
+                    writeSigned(buffer, coordinate);
+                }
+            } else if (Arrays.equals(position, lastSent)) {
+                return Optional.empty();
+            } else {
+                buffer.put((byte) (DELTA << 4 | location.dimension.ordinal()));
+                buffer.put((byte) sequence);
+                for (int i = 0; i < position.length; i++) {
+                    writeSigned(buffer, position[i] - keyframe[i]);
+                }
+            }
+            lastSent = position;
+            byte[] bytes = new byte[buffer.position()];
+            ((Buffer) buffer).flip();
+            buffer.get(bytes);
+            return Optional.of(bytes);
+        }
+
+        /**
+         * Send a keyframe next, e.g. when starting to share with a new group
+         */
+        public void reset() {
+            keyframe = null;
+            lastSent = null;
+        }
+    }
+
+    /**
+     * Decodes the locations sent by one player's {@link Encoder}. Not thread safe.
+     */
+    public static final class Decoder {
+        private int[] keyframe;
+        private int sequence = -1;
+
+        /**
+         * @param bytes written by an {@link Encoder}
+         * @return location or empty if the bytes are a delta against a keyframe that was not received
+         * @throws IllegalStateException if the bytes are malformed
+         */
+        public Optional<Location> decode(byte[] bytes) {
+            ByteBuffer buffer = ByteBuffer.wrap(bytes);
+            try {
+                if (buffer.get() != MARKER) {
+                    throw new IllegalStateException("not an encoded location");
+                }
+                int header = buffer.get() & 0xFF;
+                int kind = header >>> 4;
+                int ordinal = header & 0x0F;
+                Dimension[] dimensions = Dimension.values();
+                Dimension dimension = ordinal < dimensions.length ? dimensions[ordinal] : Dimension.UNKNOWN;
+                int frameSequence = buffer.get() & 0xFF;
+                int[] position = new int[3];
+                for (int i = 0; i < position.length; i++) {
+                    position[i] = readSigned(buffer);
+                }
+                if (kind == KEYFRAME) {
+                    keyframe = position;
+                    sequence = frameSequence;
+                } else if (kind == DELTA) {
+                    if (keyframe == null || frameSequence != sequence) {
+                        return Optional.empty();
+                    }
+                    for (int i = 0; i < position.length; i++) {
+                        position[i] += keyframe[i];
+                    }
+                } else {
+                    throw new IllegalStateException("unknown location kind " + kind);
+                }
+                if (dimension == Dimension.UNKNOWN) {
+                    return Optional.of(Location.UNKNOWN);
+                }
+                return Optional.of(new Location(dequantize(position[0]), dequantize(position[1]), dequantize(position[2]), dimension));
+            } catch (BufferUnderflowException e) {
+                throw new IllegalStateException("location is truncated", e);
+            }
+        }
+    }
+}
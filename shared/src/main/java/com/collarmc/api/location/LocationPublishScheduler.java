@@ -0,0 +1,95 @@
+package com.collarmc.api.location;
+
+import java.time.Duration;
+import java.util.function.LongSupplier;
+
+/**
+ * Decides on which game ticks the player's location is published.
+ * A player that moves {@link LocationPublishSettings#minDistance} from the last published location is published
+ * again, no sooner than {@link LocationPublishSettings#minInterval}, so the faster the player moves the more often
+ * they are published. A player that moves slowly or not at all is published every
+ * {@link LocationPublishSettings#maxInterval}. Both intervals are stretched while the server has asked the client to
+ * back off or while messages are waiting to be written to the socket.
+ */
+public final class LocationPublishScheduler {
+
+    /** Game ticks per second when the game runs at full speed **/
+    public static final int TICKS_PER_SECOND = 20;
+    /** Weight of the latest interval in the average interval **/
+    private static final double AVERAGE_WEIGHT = 0.2;
+
+    private final LocationPublishSettings settings;
+    private final LongSupplier clock;
+    private Location lastPublished;
+    private int sinceLastPublish;
+    private long backoffUntil;
+    private long published;
+    private double averageInterval;
+    private boolean backingOff;
+
+    public LocationPublishScheduler(LocationPublishSettings settings) {
+        this(settings, System::currentTimeMillis);
+    }
+
+    LocationPublishScheduler(LocationPublishSettings settings, LongSupplier clock) {
+        this.settings = settings;
+        this.clock = clock;
+    }
+
+    /**
+     * Called every game tick
+     * @param location of the player
+     * @param pendingSends messages waiting to be written to the socket
+     * @return if the location should be published on this tick
+     */
+    public synchronized boolean tick(Location location, int pendingSends) {
+        sinceLastPublish++;
+        backingOff = pendingSends >= settings.maxPendingSends || clock.getAsLong() < backoffUntil;
+        int multiplier = backingOff ? settings.backoffMultiplier : 1;
+        if (sinceLastPublish < settings.minInterval * multiplier) {
+            return false;
+        }
+        if (lastPublished != null && sinceLastPublish < settings.maxInterval * multiplier && !moved(location)) {
+            return false;
+        }
+        if (lastPublished != null) {
+            averageInterval = published == 1 ? sinceLastPublish : averageInterval + AVERAGE_WEIGHT * (sinceLastPublish - averageInterval);
+        }
+        lastPublished = location;
+        sinceLastPublish = 0;
+        published++;
+        return true;
+    }
+
+    /**
+     * Stretch the publish intervals, e.g. when the server is falling behind
+     * @param duration to back off for
+     */
+    public synchronized void backoff(Duration duration) {
+        backoffUntil = Math.max(backoffUntil, clock.getAsLong() + duration.toMillis());
+    }
+
+    /**
+     * Publish as soon as the minimum interval allows, e.g. when starting to share with a new group
+     */
+    public synchronized void reset() {
+        lastPublished = null;
+    }
+
+    /**
+     * @return rate at which the location is being published
+     */
+    public synchronized LocationPublishStats stats() {
+        return new LocationPublishStats(published, averageInterval, backingOff);
+    }
+
+    private boolean moved(Location location) {
+        if (location.dimension != lastPublished.dimension) {
+            return true;
+        }
+        double x = location.x - lastPublished.x;
+        double y = location.y - lastPublished.y;
+        double z = location.z - lastPublished.z;
+        return x * x + y * y + z * z >= settings.minDistance * settings.minDistance;
+    }
+}
@@ -0,0 +1,35 @@
+package com.collarmc.api.location;
+
+/**
+ * Tuning for {@link LocationPublishScheduler}
+ */
+public final class LocationPublishSettings {
+    /** Fewest ticks between publishes, however fast the player moves **/
+    public final int minInterval;
+    /** Most ticks between publishes, however still the player is **/
+    public final int maxInterval;
+    /** Blocks the player has to move from the last published location before it is published again early **/
+    public final double minDistance;
+    /** How many times longer both intervals are while the server or the connection is falling behind **/
+    public final int backoffMultiplier;
+    /** Number of messages waiting to be written to the socket at which the connection is treated as falling behind **/
+    public final int maxPendingSends;
+
+    public LocationPublishSettings(int minInterval, int maxInterval, double minDistance, int backoffMultiplier, int maxPendingSends) {
+        if (minInterval < 1 || maxInterval < minInterval) {
+            throw new IllegalArgumentException("minInterval must be positive and no more than maxInterval");
+        }
+        if (minDistance < 0 || backoffMultiplier < 1 || maxPendingSends < 1) {
+            throw new IllegalArgumentException("minDistance, backoffMultiplier and maxPendingSends must be positive");
+        }
+        this.minInterval = minInterval;
+        this.maxInterval = maxInterval;
+        this.minDistance = minDistance;
+        this.backoffMultiplier = backoffMultiplier;
+        this.maxPendingSends = maxPendingSends;
+    }
+
+    public static LocationPublishSettings defaults() {
+        return new LocationPublishSettings(2, 10, 1, 4, 16);
+    }
+}
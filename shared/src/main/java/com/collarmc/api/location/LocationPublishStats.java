@@ -0,0 +1,31 @@
+package com.collarmc.api.location;
+
+/**
+ * Point in time rate at which the player's location is being published
+ */
+public final class LocationPublishStats {
+    /** Locations published **/
+    public final long published;
+    /** Average ticks between recent publishes, or zero before the second publish **/
+    public final double averageInterval;
+    /** If publishing has slowed down because the server or the connection is falling behind **/
+    public final boolean backingOff;
+
+    public LocationPublishStats(long published, double averageInterval, boolean backingOff) {
+        this.published = published;
+        this.averageInterval = averageInterval;
+        this.backingOff = backingOff;
+    }
+
+    /**
+     * @return effective publishes per second, assuming the game runs at full speed
+     */
+    public double publishesPerSecond() {
+        return averageInterval == 0 ? 0 : LocationPublishScheduler.TICKS_PER_SECOND / averageInterval;
+    }
+
+    @Override
+    public String toString() {
+        return "LocationPublishStats{published=" + published + ", averageInterval=" + averageInterval + ", backingOff=" + backingOff + '}';
+    }
+}
@@ -4,6 +4,8 @@ import com.collarmc.api.http.RequestContext;
 import com.collarmc.security.PublicKey;
 import com.fasterxml.jackson.annotation.JsonProperty;
 
+import java.util.List;
+import java.util.Set;
 import java.util.UUID;
 
 public interface ProfileService {
@@ -11,6 +13,8 @@ public interface ProfileService {
 
     GetProfileResponse getProfile(RequestContext context, GetProfileRequest req);
 
+    GetProfilesResponse getProfiles(RequestContext context, GetProfilesRequest req);
+
     UpdateProfileResponse updateProfile(RequestContext context, UpdateProfileRequest req);
 
     PlayerCountResponse playerCount(RequestContext context, PlayerCountRequest req);
@@ -71,6 +75,23 @@ public interface ProfileService {
         }
     }
 
+    class GetProfilesRequest {
+        public final Set<UUID> byIds;
+
+        public GetProfilesRequest(Set<UUID> byIds) {
+            this.byIds = byIds;
+        }
+    }
+
+    class GetProfilesResponse {
+        /** Profiles found, ids that do not exist are left out **/
+        public final List<Profile> profiles;
+
+        public GetProfilesResponse(List<Profile> profiles) {
+            this.profiles = profiles;
+        }
+    }
+
     final class UpdateProfileRequest {
         @JsonProperty("profile")
         public final UUID profile;
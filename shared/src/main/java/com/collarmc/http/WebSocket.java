@@ -39,6 +39,13 @@ public final class WebSocket {
         );
     }
 
+    /**
+     * @return number of messages sent that have not yet been written to the socket
+     */
+    public int pending() {
+        return sendingCount.get();
+    }
+
     private void assertWritable() {
         if (closing) {
             throw new IllegalStateException("socket is closing");
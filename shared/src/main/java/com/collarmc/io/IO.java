@@ -3,8 +3,13 @@ package com.collarmc.io;
 import com.collarmc.protocol.PacketIO;
 
 import java.io.*;
+import java.nio.Buffer;
+import java.nio.BufferUnderflowException;
 import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
 import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
 import java.util.UUID;
 
 /**
@@ -19,9 +24,7 @@ public final class IO {
      */
     public static void writeBytes(DataOutputStream os, byte[] bytes) throws IOException {
         os.writeInt(bytes.length);
-        for (byte b : bytes) {
-            os.writeByte(b);
-        }
+        os.write(bytes);
     }
 
     /**
@@ -32,10 +35,11 @@ public final class IO {
      */
     public static byte[] readBytes(DataInputStream is) throws IOException {
         int length = is.readInt();
-        byte[] bytes = new byte[length];
-        for (int i = 0; i < length; i++) {
-            bytes[i] = is.readByte();
+        if (length < 0) {
+            throw new IOException("negative length " + length);
         }
+        byte[] bytes = new byte[length];
+        is.readFully(bytes);
         return bytes;
     }
 
@@ -72,6 +76,145 @@ public final class IO {
         return new UUID(is.readLong(), is.readLong());
     }
 
+    /**
+     * Read UUID from buffer
+     * @param buffer to read
+     * @return uuid
+     */
+    public static UUID readUUID(ByteBuffer buffer) {
+        return new UUID(buffer.getLong(), buffer.getLong());
+    }
+
+    /**
+     * Write UUID to buffer
+     * @param buffer to write to
+     * @param uuid to write
+     */
+    public static void writeUUID(ByteBuffer buffer, UUID uuid) {
+        buffer.putLong(uuid.getMostSignificantBits());
+        buffer.putLong(uuid.getLeastSignificantBits());
+    }
+
+    /**
+     * Read a byte structure written by {@link #writeBytes(DataOutputStream, byte[])} without copying it
+     * @param buffer to read from, positioned after the structure on return
+     * @return slice of the buffer sharing its contents
+     * @throws BufferUnderflowException if the buffer ends before the structure does
+     */
+    public static ByteBuffer readSlice(ByteBuffer buffer) {
+        int length = buffer.getInt();
+        if (length < 0 || length > buffer.remaining()) {
+            throw new BufferUnderflowException();
+        }
+        ByteBuffer slice = buffer.slice();
+        // Called through Buffer so that newer JDKs do not link the ByteBuffer overrides missing from Java 8
+        ((Buffer) slice).limit(length);
+        ((Buffer) buffer).position(buffer.position() + length);
+        return slice;
+    }
+
+    /**
+     * Write a byte structure that can be read by {@link #readSlice(ByteBuffer)} or {@link #readBytes(DataInputStream)}
+     * @param buffer to write to
+     * @param bytes to write
+     */
+    public static void writeBytes(ByteBuffer buffer, byte[] bytes) {
+        buffer.putInt(bytes.length);
+        buffer.put(bytes);
+    }
+
+    /**
+     * Write an unsigned variable length int, 7 bits per byte
+     * @param buffer to write to
+     * @param value to write, must not be negative
+     */
+    public static void writeVarInt(ByteBuffer buffer, int value) {
+        if (value < 0) {
+            throw new IllegalArgumentException("negative value " + value);
+        }
+        while ((value & ~0x7F) != 0) {
+            buffer.put((byte) ((value & 0x7F) | 0x80));
+            value >>>= 7;
+        }
+        buffer.put((byte) value);
+    }
+
+    /**
+     * Read an int written by {@link #writeVarInt(ByteBuffer, int)}
+     * @param buffer to read from
+     * @return value
+     * @throws BufferUnderflowException if the buffer ends before the int does
+     * @throws IllegalStateException if the int is malformed
+     */
+    public static int readVarInt(ByteBuffer buffer) {
+        int value = 0;
+        for (int shift = 0; shift < 32; shift += 7) {
+            byte b = buffer.get();
+            value |= (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                if (value < 0) {
+                    throw new IllegalStateException("varint is out of range");
+                }
+                return value;
+            }
+        }
+        throw new IllegalStateException("varint is too long");
+    }
+
+    /**
+     * @param value to write
+     * @return number of bytes {@link #writeVarInt(ByteBuffer, int)} writes for the value
+     */
+    public static int varIntSize(int value) {
+        int size = 1;
+        while ((value & ~0x7F) != 0) {
+            size++;
+            value >>>= 7;
+        }
+        return size;
+    }
+
+    /**
+     * Copy the remaining bytes of a buffer without moving its position
+     * @param buffer to copy
+     * @return copy of the remaining bytes
+     */
+    public static byte[] toByteArray(ByteBuffer buffer) {
+        byte[] bytes = new byte[buffer.remaining()];
+        buffer.duplicate().get(bytes);
+        return bytes;
+    }
+
+    /**
+     * View the remaining bytes of a buffer as a stream without copying them
+     * @param buffer to read
+     * @return stream that advances the buffer as it is read
+     */
+    public static InputStream inputStream(ByteBuffer buffer) {
+        return new ByteBufferInputStream(buffer);
+    }
+
+    /**
+     * Read the whole file in one read
+     * @param file to read
+     * @return buffer holding the contents of the file
+     * @throws IOException on error
+     */
+    public static ByteBuffer readFile(File file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            long size = channel.size();
+            if (size > Integer.MAX_VALUE) {
+                throw new IOException(file + " is too large to read");
+            }
+            ByteBuffer buffer = ByteBuffer.allocate((int) size);
+            while (buffer.hasRemaining() && channel.read(buffer) != -1) {
+                // keep reading until the buffer is full
+            }
+            ((Buffer) buffer).flip();
+            return buffer;
+        }
+    }
+
     public static byte[] writeUUIDToBytes(UUID uuid) {
         ByteBuffer buffer = ByteBuffer.allocate(16);
         buffer.putLong(uuid.getMostSignificantBits());
@@ -131,17 +274,24 @@ public final class IO {
      * Copy stream to byte array
      * @param input to copy
      * @return contents
-     * @throws IOException if stream failed to be read
+     * @throws IOException if stream failed to be read or is larger than {@link PacketIO#MAX_PACKET_SIZE}
      */
     public static ByteBuffer toByteBuffer(InputStream input) throws IOException {
-        // TODO buffer size
-        ByteBuffer buffer = ByteBuffer.allocate(PacketIO.MAX_PACKET_SIZE);
-        byte[] buf = new byte[1024];
-        for (int n = input.read(buf); n != -1; n = input.read(buf)) {
-            buffer.put(buf, 0, n);
+        byte[] buf = new byte[Math.min(Math.max(input.available(), 1024), PacketIO.MAX_PACKET_SIZE)];
+        int length = 0;
+        for (int n = input.read(buf, length, buf.length - length); n != -1; n = input.read(buf, length, buf.length - length)) {
+            length += n;
+            if (length == buf.length) {
+                if (length == PacketIO.MAX_PACKET_SIZE) {
+                    if (input.read() != -1) {
+                        throw new IOException("stream is larger than " + PacketIO.MAX_PACKET_SIZE + " bytes");
+                    }
+                    break;
+                }
+                buf = Arrays.copyOf(buf, Math.min(buf.length * 2, PacketIO.MAX_PACKET_SIZE));
+            }
         }
-        buffer.flip();
-        return buffer;
+        return ByteBuffer.wrap(buf, 0, length);
     }
 
     public IO() {}
@@ -1,10 +1,10 @@
 package com.collarmc.protocol;
 
 import com.collarmc.api.identity.Identity;
-import com.collarmc.io.ByteBufferInputStream;
 import com.collarmc.io.IO;
 import com.collarmc.security.messages.Cipher;
 import com.collarmc.security.messages.CipherException;
+import com.fasterxml.jackson.annotation.JsonTypeInfo;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
@@ -13,11 +13,15 @@ import javax.annotation.Nonnull;
 import javax.annotation.Nullable;
 import java.io.*;
 import java.nio.ByteBuffer;
+import java.util.Arrays;
 import java.util.Optional;
 
 /**
  * Encodes and decodes packets for/from the wire, handling encryption and different types of signal messages
  * Packet format is int(0x22)+int(version)+int(ENCRYPTEDMODE)+CiphertextMessage()
+ * In {@link #VERSION_CLASS_NAMES} packets the body names its class. In {@link #VERSION_PACKET_IDS} packets the body
+ * starts with a short(packetId) from {@link PacketTypes}, followed by the object without any type tag.
+ * Instances hold no per-packet state and are safe to share between threads.
  */
 public final class PacketIO {
 
@@ -25,19 +29,74 @@ public final class PacketIO {
 
     /** UwU **/
     private static final int PACKET_MARKER = 0x22;
-    private static final int VERSION = 2;
+    /** Packet bodies carry the class name of the packet **/
+    public static final int VERSION_CLASS_NAMES = 2;
+    /** Packet bodies start with the id of the packet type **/
+    public static final int VERSION_PACKET_IDS = 3;
     private static final int MODE_PLAIN = 0xc001;
     private static final int MODE_ENCRYPTED = 0xba5ed;
+    private static final int HEADER_SIZE = 12;
     public static final short MAX_PACKET_SIZE = Short.MAX_VALUE;
 
+    /** Per thread encode buffer, reused for every packet written by that thread **/
+    private static final ThreadLocal<PacketBuffer> BUFFERS = ThreadLocal.withInitial(PacketBuffer::new);
+
     @Nonnull
     private final ObjectMapper mapper;
     @Nullable
     private final Cipher cipher;
+    @Nullable
+    private final PacketTypes types;
+    @Nullable
+    private final ObjectMapper untypedMapper;
 
+    /**
+     * Reads and writes {@link #VERSION_CLASS_NAMES} packets
+     * @param mapper for packet bodies
+     * @param cipher for encrypted packets
+     */
     public PacketIO(@Nonnull ObjectMapper mapper, @Nullable Cipher cipher) {
         this.mapper = mapper;
         this.cipher = cipher;
+        this.types = null;
+        this.untypedMapper = null;
+    }
+
+    /**
+     * Writes {@link #VERSION_PACKET_IDS} packets and reads packets of either version
+     * @param mapper for packet bodies
+     * @param cipher for encrypted packets
+     * @param types registry of packet ids
+     */
+    public PacketIO(@Nonnull ObjectMapper mapper, @Nullable Cipher cipher, @Nonnull PacketTypes types) {
+        this.mapper = mapper;
+        this.cipher = cipher;
+        this.types = types;
+        this.untypedMapper = mapper.copy()
+                .addMixIn(ProtocolRequest.class, UntypedPacket.class)
+                .addMixIn(ProtocolResponse.class, UntypedPacket.class);
+    }
+
+    /**
+     * @return version of the packets written
+     */
+    public int version() {
+        return types == null ? VERSION_CLASS_NAMES : VERSION_PACKET_IDS;
+    }
+
+    /**
+     * Read the version of a packet without decoding it
+     * @param bytes of packet
+     * @param offset of packet
+     * @param length of packet
+     * @return version or -1 if this is not a collar packet
+     */
+    public static int version(byte[] bytes, int offset, int length) {
+        if (length < HEADER_SIZE) {
+            return -1;
+        }
+        ByteBuffer header = ByteBuffer.wrap(bytes, offset, HEADER_SIZE);
+        return header.getInt() == PACKET_MARKER ? header.getInt() : -1;
     }
 
     public <T> Optional<T> decode(Identity sender, InputStream is, Class<T> type) throws IOException, CipherException {
@@ -45,81 +104,234 @@ public final class PacketIO {
     }
 
     public <T> Optional<T> decode(Identity sender, ByteBuffer buffer, Class<T> type) throws IOException, CipherException {
+        if (buffer.hasArray()) {
+            return decode(sender, buffer.array(), buffer.arrayOffset() + buffer.position(), buffer.remaining(), type);
+        }
+        byte[] bytes = new byte[buffer.remaining()];
+        buffer.duplicate().get(bytes);
+        return decode(sender, bytes, 0, bytes.length, type);
+    }
+
+    public <T> Optional<T> decode(Identity sender, byte[] bytes, int offset, int length, Class<T> type) throws IOException, CipherException {
+        if (length < HEADER_SIZE) {
+            throw new IllegalStateException("not a collar packet, length " + length);
+        }
+        ByteBuffer header = ByteBuffer.wrap(bytes, offset, HEADER_SIZE);
+        int packetMarker = header.getInt();
+        if (packetMarker != PACKET_MARKER) {
+            throw new IllegalStateException("not a collar packet " + Integer.toHexString(packetMarker));
+        }
+        int version = header.getInt();
+        if (version != VERSION_CLASS_NAMES && !(version == VERSION_PACKET_IDS && types != null)) {
+            throw new IllegalStateException("unknown packet version " + version);
+        }
+        int packetType = header.getInt();
+        int bodyOffset = offset + HEADER_SIZE;
+        int bodyLength = length - HEADER_SIZE;
         T decoded;
-        int packetType;
-        try (DataInputStream objectStream = new DataInputStream(new ByteBufferInputStream(buffer))) {
-            int packetMarker = objectStream.readInt();
-            if (packetMarker != PACKET_MARKER) {
-                throw new IllegalStateException("not a collar packet " + Integer.toHexString(packetMarker));
+        if (packetType == MODE_PLAIN) {
+            checkPacketSize(bodyLength);
+            decoded = readBody(version, bytes, bodyOffset, bodyLength, type);
+        } else if (packetType == MODE_ENCRYPTED) {
+            if (cipher == null) {
+                throw new IllegalStateException("cipher was not set when mode is expecting encrypted");
             }
-            int version = objectStream.readInt();
-            if (version != VERSION) {
-                throw new IllegalStateException("unknown packet version " + version);
-            }
-            packetType = objectStream.readInt();
-            byte[] remainingBytes = IO.toByteArray(objectStream);
-            if (packetType == MODE_PLAIN) {
-                checkPacketSize(remainingBytes);
-                decoded = mapper.readValue(remainingBytes, type);
-            } else if (packetType == MODE_ENCRYPTED) {
-                if (cipher == null) {
-                    throw new IllegalStateException("cipher was not set when mode is expecting encrypted");
-                }
-                if (sender == null) {
-                    LOGGER.error("Cannot read encrypted packets with no sender");
-                    decoded = null;
-                } else {
-                    remainingBytes = cipher.decrypt(remainingBytes, sender);
-                    checkPacketSize(remainingBytes);
-                    decoded = mapper.readValue(remainingBytes, type);
-                }
-            } else {
-                LOGGER.error("unknown packet type " + packetType);
+            if (sender == null) {
+                LOGGER.error("Cannot read encrypted packets with no sender");
                 decoded = null;
+            } else {
+                byte[] plainBytes = cipher.decrypt(Arrays.copyOfRange(bytes, bodyOffset, bodyOffset + bodyLength), sender);
+                checkPacketSize(plainBytes.length);
+                decoded = readBody(version, plainBytes, 0, plainBytes.length, type);
             }
+        } else {
+            LOGGER.error("unknown packet type " + packetType);
+            decoded = null;
         }
         return Optional.ofNullable(decoded);
     }
 
-    public byte[] encodePlain(Object object) throws IOException {
-        byte[] rawBytes = mapper.writeValueAsBytes(object);
-        try (ByteArrayOutputStream outputStream = new ByteArrayOutputStream()) {
-            try (DataOutputStream objectStream = new DataOutputStream(outputStream)) {
-                objectStream.writeInt(PACKET_MARKER);
-                objectStream.writeInt(VERSION);
-                objectStream.writeInt(MODE_PLAIN);
-                objectStream.write(rawBytes);
-            }
-            byte[] bytes = outputStream.toByteArray();
-            checkPacketSize(bytes);
-            return bytes;
+    private <T> T readBody(int version, byte[] bytes, int offset, int length, Class<T> type) throws IOException {
+        if (version == VERSION_CLASS_NAMES) {
+            return mapper.readValue(bytes, offset, length, type);
+        }
+        if (length < 2) {
+            throw new IllegalStateException("packet body is missing its packet id");
+        }
+        int id = ((bytes[offset] & 0xFF) << 8) | (bytes[offset + 1] & 0xFF);
+        if (id == PacketTypes.UNREGISTERED) {
+            return mapper.readValue(bytes, offset + 2, length - 2, type);
+        }
+        Class<?> packetType = types.type(id);
+        if (packetType == null || !type.isAssignableFrom(packetType)) {
+            throw new IllegalStateException("unknown packet id " + id);
+        }
+        return type.cast(untypedMapper.readValue(bytes, offset + 2, length - 2, packetType));
+    }
+
+    private void writeBody(OutputStream out, Object object) throws IOException {
+        if (types == null) {
+            mapper.writeValue(out, object);
+            return;
+        }
+        int id = types.id(object.getClass());
+        out.write(id >>> 8);
+        out.write(id);
+        if (id == PacketTypes.UNREGISTERED) {
+            mapper.writeValue(out, object);
+        } else {
+            untypedMapper.writeValue(out, object);
         }
     }
 
+    public byte[] encodePlain(Object object) throws IOException {
+        PacketBuffer buffer = BUFFERS.get();
+        buffer.reset();
+        buffer.writeHeader(version(), MODE_PLAIN);
+        writeBody(buffer, object);
+        return buffer.toPacket();
+    }
+
     public byte[] encodeEncrypted(Identity recipient, Object object) throws IOException, CipherException {
+        if (recipient == null) {
+            throw new IllegalArgumentException("recipient cannot be null when sending MODE_ENCRYPTED packets");
+        }
+        return encodeEncrypted(recipient, prepareEncrypted(object));
+    }
+
+    /**
+     * Serializes and signs a packet once so it can be sealed for many recipients
+     * @param object to send
+     * @return prepared packet
+     * @throws IOException if serialization fails
+     * @throws CipherException if signing fails
+     */
+    public PreparedPacket prepareEncrypted(Object object) throws IOException, CipherException {
+        return signBody(writeBody(object));
+    }
+
+    /**
+     * Serializes the body of a packet without any framing
+     * @param object to serialize
+     * @return body bytes
+     * @throws IOException if serialization fails
+     */
+    public byte[] writeBody(Object object) throws IOException {
+        if (types == null) {
+            return mapper.writeValueAsBytes(object);
+        }
+        ByteArrayOutputStream out = new ByteArrayOutputStream(256);
+        writeBody(out, object);
+        return out.toByteArray();
+    }
+
+    /**
+     * Deserializes a body produced by {@link #writeBody(Object)} of a packet in this instance's version
+     * @param body bytes
+     * @param type of the body
+     * @return body object
+     * @throws IOException if deserialization fails
+     */
+    public <T> T readBody(byte[] body, Class<T> type) throws IOException {
+        checkPacketSize(body.length);
+        return readBody(version(), body, 0, body.length, type);
+    }
+
+    /**
+     * Signs a body produced by {@link #writeBody(Object)} so it can be sealed for many recipients
+     * @param body to sign
+     * @return prepared packet
+     * @throws CipherException if signing fails
+     */
+    public PreparedPacket signBody(byte[] body) throws CipherException {
+        if (cipher == null) {
+            throw new IllegalStateException("cipher was not set when mode is expecting encrypted");
+        }
+        return new PreparedPacket(version(), cipher.sign(body));
+    }
+
+    /**
+     * Seals a prepared packet for a single recipient
+     * @param recipient of the packet
+     * @param packet prepared by {@link #prepareEncrypted(Object)}
+     * @return packet bytes
+     * @throws CipherException if encryption fails
+     */
+    public byte[] encodeEncrypted(Identity recipient, PreparedPacket packet) throws CipherException {
         if (cipher == null) {
             throw new IllegalStateException("cipher was not set when mode is expecting encrypted");
         }
-        byte[] rawBytes = mapper.writeValueAsBytes(object);
-        try (ByteArrayOutputStream outputStream = new ByteArrayOutputStream()) {
-            try (DataOutputStream objectStream = new DataOutputStream(outputStream)) {
-                objectStream.writeInt(PACKET_MARKER);
-                objectStream.writeInt(VERSION);
-                objectStream.writeInt(MODE_ENCRYPTED);
-                if (recipient == null) {
-                    throw new IllegalArgumentException("recipient cannot be null when sending MODE_ENCRYPTED packets");
+        if (recipient == null) {
+            throw new IllegalArgumentException("recipient cannot be null when sending MODE_ENCRYPTED packets");
+        }
+        byte[] cipherText = cipher.seal(packet.signedMessage, recipient);
+        checkPacketSize(HEADER_SIZE + cipherText.length);
+        ByteBuffer buffer = ByteBuffer.allocate(HEADER_SIZE + cipherText.length);
+        buffer.putInt(PACKET_MARKER);
+        buffer.putInt(packet.version);
+        buffer.putInt(MODE_ENCRYPTED);
+        buffer.put(cipherText);
+        return buffer.array();
+    }
+
+    private static void checkPacketSize(int length) {
+        if (length > PacketIO.MAX_PACKET_SIZE) {
+            throw new IllegalStateException("Packet is too large. Size is " + length + " bytes when maximum is " + MAX_PACKET_SIZE);
+        }
+    }
+
+    /**
+     * Growable buffer that the header and body are written straight into, so that the only copy made
+     * is the final packet handed to the socket.
+     */
+    private static final class PacketBuffer extends ByteArrayOutputStream {
+        PacketBuffer() {
+            super(1024);
+        }
+
+        void writeHeader(int version, int mode) {
+            writeInt(PACKET_MARKER);
+            writeInt(version);
+            writeInt(mode);
+        }
+
+        private void writeInt(int value) {
+            write(value >>> 24);
+            write(value >>> 16);
+            write(value >>> 8);
+            write(value);
+        }
+
+        byte[] toPacket() {
+            try {
+                checkPacketSize(count);
+                return Arrays.copyOf(buf, count);
+            } finally {
+                // Don't let one oversized packet pin a large buffer to the thread
+                if (buf.length > MAX_PACKET_SIZE) {
+                    buf = new byte[1024];
                 }
-                objectStream.write(cipher.encrypt(rawBytes, recipient));
+                reset();
             }
-            byte[] bytes = outputStream.toByteArray();
-            checkPacketSize(bytes);
-            return bytes;
         }
     }
 
-    private void checkPacketSize(byte[] bytes) {
-        if (bytes.length > PacketIO.MAX_PACKET_SIZE) {
-            throw new IllegalStateException("Packet is too large. Size is " + bytes.length + " bytes when maximum is " + MAX_PACKET_SIZE);
+    /**
+     * Serialized and signed packet body that has not yet been sealed for a recipient
+     */
+    public static final class PreparedPacket {
+        private final int version;
+        private final byte[] signedMessage;
+
+        private PreparedPacket(int version, byte[] signedMessage) {
+            this.version = version;
+            this.signedMessage = signedMessage;
         }
     }
+
+    /**
+     * Removes the class name type tag from packets, as their type is given by the packet id
+     */
+    @JsonTypeInfo(use = JsonTypeInfo.Id.NONE)
+    private abstract static class UntypedPacket {}
 }
@@ -0,0 +1,181 @@
+package com.collarmc.protocol;
+
+import com.collarmc.protocol.devices.ClientRegisteredResponse;
+import com.collarmc.protocol.devices.RegisterClientResponse;
+import com.collarmc.protocol.friends.*;
+import com.collarmc.protocol.groups.*;
+import com.collarmc.protocol.identity.*;
+import com.collarmc.protocol.keepalive.KeepAliveRequest;
+import com.collarmc.protocol.keepalive.KeepAliveResponse;
+import com.collarmc.protocol.location.*;
+import com.collarmc.protocol.messaging.SendMessageRequest;
+import com.collarmc.protocol.messaging.SendMessageResponse;
+import com.collarmc.protocol.sdht.SDHTEventRequest;
+import com.collarmc.protocol.sdht.SDHTEventResponse;
+import com.collarmc.protocol.session.BackpressureResponse;
+import com.collarmc.protocol.session.BatchRequest;
+import com.collarmc.protocol.session.SessionFailedResponse.MojangVerificationFailedResponse;
+import com.collarmc.protocol.session.SessionFailedResponse.PrivateIdentityMismatchResponse;
+import com.collarmc.protocol.session.SessionFailedResponse.SessionErrorResponse;
+import com.collarmc.protocol.session.StartSessionRequest;
+import com.collarmc.protocol.session.StartSessionResponse;
+import com.collarmc.protocol.textures.GetTextureRequest;
+import com.collarmc.protocol.textures.GetTextureResponse;
+import com.collarmc.protocol.waypoints.CreateWaypointRequest;
+import com.collarmc.protocol.waypoints.GetWaypointsRequest;
+import com.collarmc.protocol.waypoints.GetWaypointsResponse;
+import com.collarmc.protocol.waypoints.RemoveWaypointRequest;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.util.*;
+
+/**
+ * Registry of short packet ids, used in place of class names by {@link PacketIO#VERSION_PACKET_IDS} packets.
+ * The server advertises its registry through the discover api so that both sides agree on the ids.
+ * New packet types must only ever be appended so that existing ids never change.
+ */
+public final class PacketTypes {
+
+    private static final Logger LOGGER = LogManager.getLogger(PacketTypes.class);
+
+    /** Feature advertised by the server, with the registry as its value **/
+    public static final String FEATURE = "protocol:packet_ids";
+
+    /** Id written when the packet type has no id, the body then carries its class name as before **/
+    public static final int UNREGISTERED = 0;
+
+    private static final List<Class<?>> DEFAULT_TYPES = Arrays.asList(
+            KeepAliveRequest.class,
+            KeepAliveResponse.class,
+            IdentifyRequest.class,
+            IdentifyResponse.class,
+            RegisterClientResponse.class,
+            ClientRegisteredResponse.class,
+            StartSessionRequest.class,
+            StartSessionResponse.class,
+            MojangVerificationFailedResponse.class,
+            PrivateIdentityMismatchResponse.class,
+            SessionErrorResponse.class,
+            UpdateLocationRequest.class,
+            LocationUpdatedResponse.class,
+            StartSharingLocationRequest.class,
+            StopSharingLocationRequest.class,
+            UpdateNearbyRequest.class,
+            SendMessageRequest.class,
+            SendMessageResponse.class,
+            SDHTEventRequest.class,
+            SDHTEventResponse.class,
+            GetIdentityRequest.class,
+            GetIdentityResponse.class,
+            GetProfileRequest.class,
+            GetProfileResponse.class,
+            CreateGroupRequest.class,
+            CreateGroupResponse.class,
+            JoinGroupRequest.class,
+            JoinGroupResponse.class,
+            LeaveGroupRequest.class,
+            LeaveGroupResponse.class,
+            GroupInviteRequest.class,
+            GroupInviteResponse.class,
+            EjectGroupMemberRequest.class,
+            AcknowledgedGroupJoinedRequest.class,
+            AcknowledgedGroupJoinedResponse.class,
+            DeleteGroupRequest.class,
+            TransferGroupOwnershipRequest.class,
+            RejoinGroupResponse.class,
+            UpdateGroupMemberResponse.class,
+            AddFriendRequest.class,
+            AddFriendResponse.class,
+            RemoveFriendRequest.class,
+            RemoveFriendResponse.class,
+            GetFriendListRequest.class,
+            GetFriendListResponse.class,
+            FriendChangedResponse.class,
+            GetTextureRequest.class,
+            GetTextureResponse.class,
+            CreateWaypointRequest.class,
+            RemoveWaypointRequest.class,
+            GetWaypointsRequest.class,
+            GetWaypointsResponse.class,
+            BackpressureResponse.class,
+            BatchRequest.class
+    );
+
+    private static final PacketTypes DEFAULTS;
+
+    static {
+        Map<Class<?>, Integer> ids = new LinkedHashMap<>();
+        for (int i = 0; i < DEFAULT_TYPES.size(); i++) {
+            ids.put(DEFAULT_TYPES.get(i), i + 1);
+        }
+        DEFAULTS = new PacketTypes(ids);
+    }
+
+    private final Map<Class<?>, Integer> ids;
+    private final Map<Integer, Class<?>> types;
+
+    private PacketTypes(Map<Class<?>, Integer> ids) {
+        this.ids = Collections.unmodifiableMap(ids);
+        Map<Integer, Class<?>> types = new HashMap<>();
+        ids.forEach((type, id) -> {
+            if (id <= UNREGISTERED || id > 0xFFFF) {
+                throw new IllegalArgumentException("packet id " + id + " for " + type.getName() + " is out of range");
+            }
+            if (types.put(id, type) != null) {
+                throw new IllegalArgumentException("packet id " + id + " is used more than once");
+            }
+        });
+        this.types = types;
+    }
+
+    /**
+     * @return registry of the packet types known to this build
+     */
+    public static PacketTypes defaults() {
+        return DEFAULTS;
+    }
+
+    /**
+     * Build the registry advertised by a server. Types unknown to this build are ignored and fall back to class names.
+     * @param advertised class names and their ids
+     * @return registry
+     */
+    public static PacketTypes fromMap(Map<String, ? extends Number> advertised) {
+        Map<Class<?>, Integer> ids = new LinkedHashMap<>();
+        advertised.forEach((name, id) -> {
+            try {
+                ids.put(Class.forName(name), id.intValue());
+            } catch (ClassNotFoundException e) {
+                LOGGER.debug("Packet type " + name + " is not known to this client");
+            }
+        });
+        return new PacketTypes(ids);
+    }
+
+    /**
+     * @return class names and their ids, for advertising
+     */
+    public Map<String, Integer> toMap() {
+        Map<String, Integer> advertised = new LinkedHashMap<>();
+        ids.forEach((type, id) -> advertised.put(type.getName(), id));
+        return advertised;
+    }
+
+    /**
+     * @param type of packet
+     * @return id of the packet type or {@link #UNREGISTERED}
+     */
+    public int id(Class<?> type) {
+        Integer id = ids.get(type);
+        return id == null ? UNREGISTERED : id;
+    }
+
+    /**
+     * @param id of packet type
+     * @return type or null if the id is not registered
+     */
+    public Class<?> type(int id) {
+        return types.get(id);
+    }
+}
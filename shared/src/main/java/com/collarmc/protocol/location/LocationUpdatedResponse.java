@@ -2,10 +2,12 @@ package com.collarmc.protocol.location;
 
 import com.collarmc.api.session.Player;
 import com.collarmc.protocol.ProtocolResponse;
+import com.collarmc.security.messages.EnvelopeContents;
 import com.fasterxml.jackson.annotation.JsonProperty;
 
 import javax.annotation.Nonnull;
 import javax.annotation.Nullable;
+import java.nio.ByteBuffer;
 import java.util.UUID;
 
 /**
@@ -25,13 +27,34 @@ public final class LocationUpdatedResponse extends ProtocolResponse {
     /** Location of player **/
     @JsonProperty("location")
     @Nullable
-    public final byte[] location;
+    private final EnvelopeContents location;
 
     public LocationUpdatedResponse(@Nonnull @JsonProperty("groupId") UUID group,
                                    @Nonnull @JsonProperty("player") Player sender,
                                    @Nullable @JsonProperty("location") byte[] location) {
+        this(group, sender, EnvelopeContents.of(location));
+    }
+
+    private LocationUpdatedResponse(UUID group, Player sender, EnvelopeContents location) {
         this.group = group;
         this.sender = sender;
         this.location = location;
     }
+
+    /**
+     * Relay a location out of an envelope
+     * @see EnvelopeContents#relay(ByteBuffer)
+     */
+    public static LocationUpdatedResponse relay(@Nonnull UUID group, @Nonnull Player sender, @Nonnull ByteBuffer location) {
+        return new LocationUpdatedResponse(group, sender, EnvelopeContents.relay(location));
+    }
+
+    /**
+     * @return location of player, or null when the player stopped sharing
+     * @throws IllegalStateException if the location was relayed
+     */
+    @Nullable
+    public byte[] location() {
+        return location == null ? null : location.bytes();
+    }
 }
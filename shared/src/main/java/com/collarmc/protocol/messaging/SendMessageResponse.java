@@ -3,9 +3,11 @@ package com.collarmc.protocol.messaging;
 import com.collarmc.api.identity.Identity;
 import com.collarmc.api.session.Player;
 import com.collarmc.protocol.ProtocolResponse;
+import com.collarmc.security.messages.EnvelopeContents;
 import com.fasterxml.jackson.annotation.JsonCreator;
 import com.fasterxml.jackson.annotation.JsonProperty;
 
+import java.nio.ByteBuffer;
 import java.util.UUID;
 
 public final class SendMessageResponse extends ProtocolResponse {
@@ -16,16 +18,36 @@ public final class SendMessageResponse extends ProtocolResponse {
     @JsonProperty("player")
     public final Player player;
     @JsonProperty("message")
-    public final byte[] message;
+    private final EnvelopeContents message;
 
     @JsonCreator
     public SendMessageResponse(@JsonProperty("sender") Identity sender,
                                @JsonProperty("group") UUID group,
                                @JsonProperty("player") Player player,
                                @JsonProperty("message") byte[] message) {
+        this(sender, group, player, EnvelopeContents.of(message));
+    }
+
+    private SendMessageResponse(Identity sender, UUID group, Player player, EnvelopeContents message) {
         this.sender = sender;
         this.group = group;
         this.player = player;
         this.message = message;
     }
+
+    /**
+     * Relay a message out of an envelope
+     * @see EnvelopeContents#relay(ByteBuffer)
+     */
+    public static SendMessageResponse relay(Identity sender, UUID group, Player player, ByteBuffer message) {
+        return new SendMessageResponse(sender, group, player, EnvelopeContents.relay(message));
+    }
+
+    /**
+     * @return message
+     * @throws IllegalStateException if the message was relayed
+     */
+    public byte[] message() {
+        return message == null ? null : message.bytes();
+    }
 }
@@ -0,0 +1,20 @@
+package com.collarmc.protocol.session;
+
+import com.collarmc.protocol.ProtocolResponse;
+import com.fasterxml.jackson.annotation.JsonCreator;
+import com.fasterxml.jackson.annotation.JsonProperty;
+
+/**
+ * Fired when the server is falling behind on the packets sent by the client.
+ * The client should send periodic updates, such as its location, less often for the duration.
+ */
+public final class BackpressureResponse extends ProtocolResponse {
+    /** Milliseconds to send less often for **/
+    @JsonProperty("duration")
+    public final long duration;
+
+    @JsonCreator
+    public BackpressureResponse(@JsonProperty("duration") long duration) {
+        this.duration = duration;
+    }
+}
@@ -0,0 +1,68 @@
+package com.collarmc.protocol.session;
+
+import com.collarmc.protocol.PacketIO;
+import com.collarmc.protocol.ProtocolRequest;
+import com.fasterxml.jackson.annotation.JsonCreator;
+import com.fasterxml.jackson.annotation.JsonProperty;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Several requests sent in one packet, so that small frequent requests share a single frame, signature and seal.
+ * Each request is carried as a body written by {@link PacketIO#writeBody(Object)} and is handled in order.
+ */
+public final class BatchRequest extends ProtocolRequest {
+    /** Most requests a batch may carry **/
+    public static final int MAX_REQUESTS = 64;
+
+    /** Bodies of the requests in the order they were sent **/
+    @JsonProperty("requests")
+    public final List<byte[]> requests;
+
+    @JsonCreator
+    public BatchRequest(@JsonProperty("requests") List<byte[]> requests) {
+        this.requests = requests;
+    }
+
+    /**
+     * @param packetIO to write request bodies with
+     * @param requests to send together
+     * @return batch
+     * @throws IOException if a request could not be serialized
+     */
+    public static BatchRequest pack(PacketIO packetIO, List<? extends ProtocolRequest> requests) throws IOException {
+        if (requests.size() > MAX_REQUESTS) {
+            throw new IllegalArgumentException("batch of " + requests.size() + " requests is larger than " + MAX_REQUESTS);
+        }
+        List<byte[]> bodies = new ArrayList<>(requests.size());
+        for (ProtocolRequest request : requests) {
+            if (request instanceof BatchRequest) {
+                throw new IllegalArgumentException("batches cannot be nested");
+            }
+            bodies.add(packetIO.writeBody(request));
+        }
+        return new BatchRequest(bodies);
+    }
+
+    /**
+     * @param packetIO reading packets of the same version the batch was sent in
+     * @return requests in the order they were sent
+     * @throws IOException if a request could not be deserialized
+     */
+    public List<ProtocolRequest> unpack(PacketIO packetIO) throws IOException {
+        if (requests == null || requests.isEmpty() || requests.size() > MAX_REQUESTS) {
+            throw new IllegalStateException("batch must carry between 1 and " + MAX_REQUESTS + " requests");
+        }
+        List<ProtocolRequest> unpacked = new ArrayList<>(requests.size());
+        for (byte[] body : requests) {
+            ProtocolRequest request = packetIO.readBody(body, ProtocolRequest.class);
+            if (request instanceof BatchRequest) {
+                throw new IllegalStateException("batches cannot be nested");
+            }
+            unpacked.add(request);
+        }
+        return unpacked;
+    }
+}
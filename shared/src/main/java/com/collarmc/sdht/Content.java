@@ -5,6 +5,7 @@ import com.fasterxml.jackson.annotation.JsonProperty;
 import com.google.common.hash.Hashing;
 
 import java.io.*;
+import java.nio.ByteBuffer;
 import java.util.Arrays;
 import java.util.Objects;
 import java.util.concurrent.TimeUnit;
@@ -48,16 +49,22 @@ public final class Content {
     }
 
     public Content(byte[] bytes) {
-        try (ByteArrayInputStream inputStream = new ByteArrayInputStream(bytes)) {
-            try (DataInputStream dataStream = new DataInputStream(inputStream)) {
-                dataStream.readInt();
-                String clazz = dataStream.readUTF();
-                type = this.getClass().getClassLoader().loadClass(clazz);
-                this.checksum = IO.readBytes(dataStream);
-                this.bytes = IO.readBytes(dataStream);
-                this.version = dataStream.readLong();
-                this.state = State.from(dataStream.readInt());
-            }
+        this(ByteBuffer.wrap(bytes));
+    }
+
+    /**
+     * Read content serialized by {@link #serialize()}
+     * @param buffer holding the serialized content, which is read without copying it first
+     */
+    public Content(ByteBuffer buffer) {
+        try (DataInputStream dataStream = new DataInputStream(IO.inputStream(buffer))) {
+            dataStream.readInt();
+            String clazz = dataStream.readUTF();
+            type = this.getClass().getClassLoader().loadClass(clazz);
+            this.checksum = IO.readBytes(dataStream);
+            this.bytes = IO.readBytes(dataStream);
+            this.version = dataStream.readLong();
+            this.state = State.from(dataStream.readInt());
         } catch (IOException | ClassNotFoundException e) {
             throw new IllegalStateException("could not read content", e);
         }
@@ -110,7 +117,7 @@ public final class Content {
     }
 
     public byte[] serialize() {
-        try (ByteArrayOutputStream outputStream = new ByteArrayOutputStream()) {
+        try (ByteArrayOutputStream outputStream = new ByteArrayOutputStream(64 + this.type.getName().length() + checksum.length + bytes.length)) {
             try (DataOutputStream dataStream = new DataOutputStream(outputStream)) {
                 dataStream.writeInt(VERSION);
                 dataStream.writeUTF(this.type.getName());
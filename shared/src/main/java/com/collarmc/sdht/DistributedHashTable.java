@@ -4,11 +4,8 @@ import com.collarmc.api.identity.ClientIdentity;
 import com.collarmc.sdht.cipher.ContentCipher;
 import com.collarmc.sdht.events.*;
 import com.collarmc.security.messages.CipherException;
-import com.collarmc.utils.Utils;
 
 import java.util.*;
-import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.ConcurrentLinkedDeque;
 import java.util.function.Supplier;
 
 public abstract class DistributedHashTable {
@@ -17,21 +14,23 @@ public abstract class DistributedHashTable {
     protected final Supplier<ClientIdentity> owner;
     protected final ContentCipher cipher;
     protected final DistributedHashTableListener listener;
-    protected final ConcurrentHashMap<Record, List<ClientIdentity>> recordSources = new ConcurrentHashMap<>();
-    protected final Queue<Record> pendingRecords = new ConcurrentLinkedDeque<>();
+    protected final RecordFetcher fetcher;
 
-    public DistributedHashTable(Publisher publisher, Supplier<ClientIdentity> owner, ContentCipher cipher, DistributedHashTableListener listener) {
+    public DistributedHashTable(Publisher publisher, Supplier<ClientIdentity> owner, ContentCipher cipher, DistributedHashTableListener listener, FetchSettings fetchSettings) {
         this.publisher = publisher;
         this.owner = owner;
         this.cipher = cipher;
         this.listener = listener;
+        this.fetcher = new RecordFetcher(fetchSettings);
     }
 
     /**
      * Sync's the hashtable with all members with the namespace
+     * Members compare the root of our {@link RecordTree} with their own and only exchange the records that differ
      */
     public void sync(UUID namespace) {
-        publisher.publish(new SyncRecordsEvent(owner.get(), namespace));
+        RecordTree tree = RecordTree.from(records(namespace));
+        publisher.publish(new SyncTreeEvent(owner.get(), null, namespace, Collections.singletonList(tree.root())));
     }
 
     /**
@@ -45,6 +44,11 @@ public abstract class DistributedHashTable {
      */
     public abstract void removeAll();
 
+    /**
+     * Write any changes still waiting to be persisted and release what persists them until the next change
+     */
+    public abstract void close();
+
     /**
      * Return all of the records in the DHT
      * @return records
@@ -87,13 +91,19 @@ public abstract class DistributedHashTable {
     public void process(AbstractSDHTEvent e) {
         if (e instanceof CreateEntryEvent) {
             CreateEntryEvent event = (CreateEntryEvent) e;
+            if (event.content() == null) {
+                // Node we asked did not have the content
+                fetcher.unavailable(event.record, event.sender);
+                return;
+            }
             Content content;
             try {
-                content = cipher.decrypt(event.sender, event.record.key.namespace, event.content);
+                content = cipher.decrypt(event.sender, event.record.key.namespace, event.content());
             } catch (CipherException ex) {
                 throw new IllegalStateException(ex);
             }
             add(event.record, content);
+            fetcher.received(event.record);
         } else if (e instanceof DeleteRecordEvent) {
             DeleteRecordEvent event = (DeleteRecordEvent) e;
             remove(event.delete);
@@ -103,48 +113,58 @@ public abstract class DistributedHashTable {
             if (!records.isEmpty()) {
                 publisher.publish(new PublishRecordsEvent(owner.get(), records, event.sender));
             }
+        } else if (e instanceof SyncTreeEvent) {
+            SyncTreeEvent event = (SyncTreeEvent) e;
+            RecordTree.Difference difference = RecordTree.from(records(event.namespace)).diff(event.nodes);
+            if (!difference.records.isEmpty()) {
+                publisher.publish(new PublishRecordsEvent(owner.get(), difference.records, event.sender));
+            }
+            if (!difference.nodes.isEmpty()) {
+                publisher.publish(new SyncTreeEvent(owner.get(), event.sender, event.namespace, difference.nodes));
+            }
         } else if (e instanceof PublishRecordsEvent) {
             PublishRecordsEvent event = (PublishRecordsEvent) e;
+            Map<UUID, Set<Record>> known = new HashMap<>();
             event.records.forEach(record -> {
-                recordSources.compute(record, (theRecord, clientIdentities) -> {
-                    clientIdentities = clientIdentities == null ? new ArrayList<>() : clientIdentities;
-                    clientIdentities.add(event.sender);
-                    return clientIdentities;
-                });
-                pendingRecords.offer(record);
+                // Both sides of a differing leaf are sent, so skip the records we already have
+                if (known.computeIfAbsent(record.key.namespace, this::records).contains(record)) {
+                    return;
+                }
+                fetcher.offer(record, event.sender, event.contentBatches);
             });
         } else if (e instanceof SyncContentEvent) {
             SyncContentEvent event = (SyncContentEvent) e;
-            Optional<Content> content = get(event.record.key);
-            if (content.isPresent()) {
-                byte[] bytes;
-                try {
-                    bytes = cipher.crypt(owner.get(), event.record.key.namespace, content.get());
-                } catch (CipherException ex) {
-                    throw new IllegalStateException(ex);
+            for (Record record : event.allRecords()) {
+                Optional<Content> content = get(record.key);
+                if (content.isPresent()) {
+                    byte[] bytes;
+                    try {
+                        bytes = cipher.crypt(owner.get(), record.key.namespace, content.get());
+                    } catch (CipherException ex) {
+                        throw new IllegalStateException(ex);
+                    }
+                    publisher.publish(new CreateEntryEvent(owner.get(), event.sender, record, bytes));
+                } else {
+                    publisher.publish(new CreateEntryEvent(owner.get(), event.sender, record, null));
                 }
-                publisher.publish(new CreateEntryEvent(owner.get(), event.sender, event.record, bytes));
-            } else {
-                publisher.publish(new CreateEntryEvent(owner.get(), event.sender, event.record, null));
             }
         }
     }
 
     /**
-     * Processes a single Record that is pending to be downloaded
+     * Asks other nodes for the content of pending records, retrying with other nodes when they do not answer
      */
     public void processPendingRecords() {
-        Record record = pendingRecords.poll();
-        if (record == null) {
-            return;
-        }
-        List<ClientIdentity> identities = recordSources.remove(record);
-        if (identities == null) {
-            return;
+        for (RecordFetcher.Request request : fetcher.poll()) {
+            publisher.publish(new SyncContentEvent(owner.get(), request.source, request.records));
         }
-        // Pick a random identity that has the record and ask it for the contents
-        ClientIdentity identity = identities.get(Utils.secureRandom().nextInt(identities.size()));
-        publisher.publish(new SyncContentEvent(owner.get(), identity, record));
+    }
+
+    /**
+     * @return progress of downloading records from other nodes
+     */
+    public FetchProgress fetchProgress() {
+        return fetcher.progress();
     }
 
     /**
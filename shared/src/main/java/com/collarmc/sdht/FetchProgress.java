@@ -0,0 +1,41 @@
+package com.collarmc.sdht;
+
+/**
+ * Point in time progress of downloading records from other nodes
+ */
+public final class FetchProgress {
+    /** Records waiting to be asked for **/
+    public final int pending;
+    /** Records asked for and not yet received **/
+    public final int inFlight;
+    /** Records received **/
+    public final long completed;
+    /** Records no node could provide **/
+    public final long failed;
+
+    public FetchProgress(int pending, int inFlight, long completed, long failed) {
+        this.pending = pending;
+        this.inFlight = inFlight;
+        this.completed = completed;
+        this.failed = failed;
+    }
+
+    /**
+     * @return records still to be downloaded
+     */
+    public int remaining() {
+        return pending + inFlight;
+    }
+
+    /**
+     * @return if there is nothing left to download
+     */
+    public boolean isSynced() {
+        return remaining() == 0;
+    }
+
+    @Override
+    public String toString() {
+        return "FetchProgress{pending=" + pending + ", inFlight=" + inFlight + ", completed=" + completed + ", failed=" + failed + '}';
+    }
+}
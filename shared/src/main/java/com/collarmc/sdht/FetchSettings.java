@@ -0,0 +1,31 @@
+package com.collarmc.sdht;
+
+import java.time.Duration;
+
+/**
+ * Tuning for {@link RecordFetcher}
+ */
+public final class FetchSettings {
+    /** Maximum number of records being downloaded at once **/
+    public final int maxInFlight;
+    /** Maximum number of records asked for in one request **/
+    public final int batchSize;
+    /** How long to wait for a node to send content before asking another **/
+    public final Duration timeout;
+    /** Number of times a record is asked for before giving up, at least once per node that has it **/
+    public final int maxAttempts;
+
+    public FetchSettings(int maxInFlight, int batchSize, Duration timeout, int maxAttempts) {
+        if (maxInFlight < 1 || batchSize < 1 || maxAttempts < 1) {
+            throw new IllegalArgumentException("maxInFlight, batchSize and maxAttempts must be positive");
+        }
+        this.maxInFlight = maxInFlight;
+        this.batchSize = batchSize;
+        this.timeout = timeout;
+        this.maxAttempts = maxAttempts;
+    }
+
+    public static FetchSettings defaults() {
+        return new FetchSettings(64, 16, Duration.ofSeconds(5), 3);
+    }
+}
@@ -0,0 +1,187 @@
+package com.collarmc.sdht;
+
+import com.collarmc.api.identity.ClientIdentity;
+import com.collarmc.utils.Utils;
+
+import java.util.*;
+import java.util.function.LongSupplier;
+
+/**
+ * Schedules downloading the content of records published by other nodes.
+ * Up to {@link FetchSettings#maxInFlight} records are asked for at once, batched by the node asked when it
+ * answers batches, older nodes are asked for one record at a time.
+ * When a node does not answer in time, or does not have the content, another node that published the record is asked.
+ */
+public final class RecordFetcher {
+
+    private final FetchSettings settings;
+    private final LongSupplier clock;
+    private final Map<Record, Fetch> fetches = new HashMap<>();
+    private final Deque<Record> queued = new ArrayDeque<>();
+    private final Set<Record> inFlight = new LinkedHashSet<>();
+    /** Nodes that answer {@link com.collarmc.sdht.events.SyncContentEvent}s for more than one record **/
+    private final Set<ClientIdentity> batchingSources = new HashSet<>();
+    private long completed;
+    private long failed;
+
+    public RecordFetcher(FetchSettings settings) {
+        this(settings, System::currentTimeMillis);
+    }
+
+    RecordFetcher(FetchSettings settings, LongSupplier clock) {
+        this.settings = settings;
+        this.clock = clock;
+    }
+
+    /**
+     * Queue a record to be downloaded
+     * @param record to download
+     * @param source node that has the record
+     * @param batches if the node answers requests for more than one record
+     */
+    public synchronized void offer(Record record, ClientIdentity source, boolean batches) {
+        if (batches) {
+            batchingSources.add(source);
+        } else {
+            batchingSources.remove(source);
+        }
+        Fetch fetch = fetches.get(record);
+        if (fetch == null) {
+            fetch = new Fetch();
+            fetches.put(record, fetch);
+            queued.add(record);
+        }
+        if (!fetch.sources.contains(source)) {
+            fetch.sources.add(source);
+        }
+    }
+
+    /**
+     * Content of the record was received
+     * @param record received
+     */
+    public synchronized void received(Record record) {
+        Fetch fetch = fetches.remove(record);
+        if (fetch == null) {
+            return;
+        }
+        if (!inFlight.remove(record)) {
+            queued.remove(record);
+        }
+        completed++;
+    }
+
+    /**
+     * The node asked for the record did not have its content
+     * @param record asked for
+     * @param source node that was asked
+     */
+    public synchronized void unavailable(Record record, ClientIdentity source) {
+        Fetch fetch = fetches.get(record);
+        if (fetch != null && source.equals(fetch.source) && inFlight.remove(record)) {
+            retry(record, fetch);
+        }
+    }
+
+    /**
+     * Retry records that timed out and fill the in flight window
+     * @return requests to send
+     */
+    public synchronized List<Request> poll() {
+        long now = clock.getAsLong();
+        long timeout = settings.timeout.toMillis();
+        Iterator<Record> iterator = inFlight.iterator();
+        List<Record> expired = new ArrayList<>();
+        while (iterator.hasNext()) {
+            Record record = iterator.next();
+            if (now - fetches.get(record).requestedAt >= timeout) {
+                iterator.remove();
+                expired.add(record);
+            }
+        }
+        // Retried records go to the front of the queue in the order they were first asked for
+        for (int i = expired.size() - 1; i >= 0; i--) {
+            retry(expired.get(i), fetches.get(expired.get(i)));
+        }
+        Map<ClientIdentity, Request> batches = new LinkedHashMap<>();
+        List<Request> requests = new ArrayList<>();
+        while (inFlight.size() < settings.maxInFlight && !queued.isEmpty()) {
+            Record record = queued.poll();
+            Fetch fetch = fetches.get(record);
+            fetch.source = fetch.nextSource();
+            fetch.requestedAt = now;
+            fetch.attempts++;
+            inFlight.add(record);
+            Request request = batches.get(fetch.source);
+            int batchSize = batchingSources.contains(fetch.source) ? settings.batchSize : 1;
+            if (request == null || request.records.size() >= batchSize) {
+                request = new Request(fetch.source);
+                batches.put(fetch.source, request);
+                requests.add(request);
+            }
+            request.records.add(record);
+        }
+        return requests;
+    }
+
+    /**
+     * @return progress of downloads
+     */
+    public synchronized FetchProgress progress() {
+        return new FetchProgress(queued.size(), inFlight.size(), completed, failed);
+    }
+
+    /**
+     * Forget all records waiting to be downloaded
+     */
+    public synchronized void clear() {
+        fetches.clear();
+        queued.clear();
+        inFlight.clear();
+        batchingSources.clear();
+    }
+
+    private void retry(Record record, Fetch fetch) {
+        fetch.tried.add(fetch.source);
+        if (fetch.attempts >= Math.max(settings.maxAttempts, fetch.sources.size())) {
+            fetches.remove(record);
+            failed++;
+        } else {
+            queued.addFirst(record);
+        }
+    }
+
+    /**
+     * Records to ask a node for
+     */
+    public static final class Request {
+        public final ClientIdentity source;
+        public final List<Record> records = new ArrayList<>();
+
+        Request(ClientIdentity source) {
+            this.source = source;
+        }
+    }
+
+    private static final class Fetch {
+        final List<ClientIdentity> sources = new ArrayList<>();
+        final Set<ClientIdentity> tried = new HashSet<>();
+        ClientIdentity source;
+        long requestedAt;
+        int attempts;
+
+        /**
+         * @return a random node that has not been asked yet, or any node once they all have
+         */
+        ClientIdentity nextSource() {
+            List<ClientIdentity> untried = new ArrayList<>();
+            for (ClientIdentity candidate : sources) {
+                if (!tried.contains(candidate)) {
+                    untried.add(candidate);
+                }
+            }
+            List<ClientIdentity> candidates = untried.isEmpty() ? sources : untried;
+            return candidates.get(Utils.secureRandom().nextInt(candidates.size()));
+        }
+    }
+}
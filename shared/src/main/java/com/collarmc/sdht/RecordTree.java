@@ -0,0 +1,207 @@
+package com.collarmc.sdht;
+
+import com.fasterxml.jackson.annotation.JsonProperty;
+import com.google.common.hash.Hasher;
+import com.google.common.hash.Hashing;
+
+import java.util.*;
+
+/**
+ * Hash tree summarising the records of a namespace, used by nodes to find which records they disagree on
+ * without exchanging every record.
+ * Records are placed in leaves by the leading bits of their id. Each leaf is hashed from the checksum and version of
+ * its records, and each node above from the hashes of its children. Empty nodes have an empty hash.
+ */
+public final class RecordTree {
+
+    /** Children of each node **/
+    public static final int FANOUT = 16;
+    /** Level of the leaves, the root is level 0 **/
+    public static final int DEPTH = 3;
+
+    private static final int BITS_PER_LEVEL = 4;
+    private static final byte[] EMPTY = new byte[0];
+
+    private final byte[][][] hashes = new byte[DEPTH + 1][][];
+    private final Map<Integer, List<Record>> leaves = new HashMap<>();
+
+    private RecordTree(Collection<Record> records) {
+        for (Record record : records) {
+            leaves.computeIfAbsent(leafIndex(record.key), index -> new ArrayList<>()).add(record);
+        }
+        hashes[DEPTH] = new byte[width(DEPTH)][];
+        Arrays.fill(hashes[DEPTH], EMPTY);
+        leaves.forEach((index, leafRecords) -> hashes[DEPTH][index] = hashLeaf(leafRecords));
+        for (int level = DEPTH - 1; level >= 0; level--) {
+            hashes[level] = new byte[width(level)][];
+            for (int index = 0; index < hashes[level].length; index++) {
+                hashes[level][index] = hashNode(hashes[level + 1], index * FANOUT);
+            }
+        }
+    }
+
+    /**
+     * Build a tree from the records of a namespace
+     * @param records of the namespace
+     * @return tree
+     */
+    public static RecordTree from(Collection<Record> records) {
+        return new RecordTree(records);
+    }
+
+    /**
+     * @return summary of the root node
+     */
+    public Node root() {
+        return node(0, 0);
+    }
+
+    /**
+     * Compare the nodes sent by another node with this tree
+     * @param theirs nodes of the other tree
+     * @return the records the other node should be sent and the nodes to send it to continue comparing
+     */
+    public Difference diff(Collection<Node> theirs) {
+        Difference difference = new Difference();
+        for (Node node : theirs) {
+            if (node.level < 0 || node.level > DEPTH || node.index < 0 || node.index >= width(node.level) || node.hash == null) {
+                continue;
+            }
+            if (Arrays.equals(hashes[node.level][node.index], node.hash)) {
+                continue;
+            }
+            if (node.level == DEPTH) {
+                difference.records.addAll(records(node.level, node.index));
+                continue;
+            }
+            if (node.children == null || node.children.size() != FANOUT) {
+                continue;
+            }
+            int childLevel = node.level + 1;
+            for (int c = 0; c < FANOUT; c++) {
+                int childIndex = node.index * FANOUT + c;
+                byte[] mine = hashes[childLevel][childIndex];
+                byte[] their = node.children.get(c);
+                if (Arrays.equals(mine, their)) {
+                    continue;
+                }
+                if (their == null || their.length == 0) {
+                    // They have nothing here, so everything we have is missing
+                    difference.records.addAll(records(childLevel, childIndex));
+                } else if (mine.length == 0) {
+                    // We have nothing here, tell them so that they send everything they have
+                    difference.nodes.add(node(childLevel, childIndex));
+                } else if (childLevel == DEPTH) {
+                    difference.records.addAll(records(childLevel, childIndex));
+                    difference.nodes.add(node(childLevel, childIndex));
+                } else {
+                    difference.nodes.add(node(childLevel, childIndex));
+                }
+            }
+        }
+        return difference;
+    }
+
+    private Node node(int level, int index) {
+        List<byte[]> children;
+        if (level == DEPTH) {
+            children = Collections.emptyList();
+        } else {
+            children = new ArrayList<>(FANOUT);
+            for (int c = 0; c < FANOUT; c++) {
+                children.add(hashes[level + 1][index * FANOUT + c]);
+            }
+        }
+        return new Node(level, index, hashes[level][index], children);
+    }
+
+    /**
+     * @return records below the node
+     */
+    private Set<Record> records(int level, int index) {
+        if (hashes[level][index].length == 0) {
+            return Collections.emptySet();
+        }
+        int shift = BITS_PER_LEVEL * (DEPTH - level);
+        int first = index << shift;
+        int last = first + (1 << shift);
+        Set<Record> records = new HashSet<>();
+        leaves.forEach((leaf, leafRecords) -> {
+            if (leaf >= first && leaf < last) {
+                records.addAll(leafRecords);
+            }
+        });
+        return records;
+    }
+
+    private static int width(int level) {
+        return 1 << (BITS_PER_LEVEL * level);
+    }
+
+    private static int leafIndex(Key key) {
+        return (int) (key.id.getMostSignificantBits() >>> (Long.SIZE - BITS_PER_LEVEL * DEPTH));
+    }
+
+    private static byte[] hashLeaf(List<Record> records) {
+        records.sort(Comparator.comparing((Record record) -> record.key.id));
+        Hasher hasher = Hashing.sha256().newHasher();
+        for (Record record : records) {
+            hasher.putLong(record.key.id.getMostSignificantBits());
+            hasher.putLong(record.key.id.getLeastSignificantBits());
+            hasher.putLong(record.version);
+            if (record.checksum != null) {
+                hasher.putBytes(record.checksum);
+            }
+        }
+        return hasher.hash().asBytes();
+    }
+
+    private static byte[] hashNode(byte[][] children, int first) {
+        boolean empty = true;
+        Hasher hasher = Hashing.sha256().newHasher();
+        for (int c = first; c < first + FANOUT; c++) {
+            hasher.putInt(children[c].length);
+            hasher.putBytes(children[c]);
+            empty &= children[c].length == 0;
+        }
+        return empty ? EMPTY : hasher.hash().asBytes();
+    }
+
+    /**
+     * Summary of a node in the tree, sent between nodes
+     */
+    public static final class Node {
+        @JsonProperty("level")
+        public final int level;
+        @JsonProperty("index")
+        public final int index;
+        @JsonProperty("hash")
+        public final byte[] hash;
+        @JsonProperty("children")
+        public final List<byte[]> children;
+
+        public Node(@JsonProperty("level") int level,
+                    @JsonProperty("index") int index,
+                    @JsonProperty("hash") byte[] hash,
+                    @JsonProperty("children") List<byte[]> children) {
+            this.level = level;
+            this.index = index;
+            this.hash = hash;
+            this.children = children;
+        }
+    }
+
+    /**
+     * Result of comparing trees
+     */
+    public static final class Difference {
+        /** Records the other node may be missing **/
+        public final Set<Record> records = new HashSet<>();
+        /** Nodes to send back to the other node so it can keep comparing **/
+        public final List<Node> nodes = new ArrayList<>();
+
+        public boolean isEmpty() {
+            return records.isEmpty() && nodes.isEmpty();
+        }
+    }
+}
@@ -2,23 +2,46 @@ package com.collarmc.sdht.events;
 
 import com.collarmc.api.identity.ClientIdentity;
 import com.collarmc.sdht.Record;
+import com.collarmc.security.messages.EnvelopeContents;
 import com.fasterxml.jackson.annotation.JsonProperty;
 
+import java.nio.ByteBuffer;
+
 public final class CreateEntryEvent extends AbstractSDHTEvent {
     @JsonProperty("recipient")
-    private final ClientIdentity recipient;
+    public final ClientIdentity recipient;
     @JsonProperty("record")
     public final Record record;
     @JsonProperty("content")
-    public final byte[] content;
+    private final EnvelopeContents content;
 
     public CreateEntryEvent(@JsonProperty("sender") ClientIdentity sender,
                             @JsonProperty("recipient") ClientIdentity recipient,
                             @JsonProperty("record") Record record,
                             @JsonProperty("content") byte[] content) {
+        this(sender, recipient, record, EnvelopeContents.of(content));
+    }
+
+    private CreateEntryEvent(ClientIdentity sender, ClientIdentity recipient, Record record, EnvelopeContents content) {
         super(sender);
         this.recipient = recipient;
         this.record = record;
         this.content = content;
     }
+
+    /**
+     * Relay content out of an envelope
+     * @see EnvelopeContents#relay(ByteBuffer)
+     */
+    public static CreateEntryEvent relay(ClientIdentity sender, ClientIdentity recipient, Record record, ByteBuffer content) {
+        return new CreateEntryEvent(sender, recipient, record, EnvelopeContents.relay(content));
+    }
+
+    /**
+     * @return content, or null when the node asked did not have it
+     * @throws IllegalStateException if the content was relayed
+     */
+    public byte[] content() {
+        return content == null ? null : content.bytes();
+    }
 }
@@ -11,12 +11,21 @@ public final class PublishRecordsEvent extends AbstractSDHTEvent {
     public final Set<Record> records;
     @JsonProperty("recipient")
     public final ClientIdentity recipient;
+    /** Sender answers {@link SyncContentEvent}s asking for more than one record, absent from older nodes **/
+    @JsonProperty("contentBatches")
+    public final boolean contentBatches;
 
     public PublishRecordsEvent(@JsonProperty("sender") ClientIdentity sender,
                                @JsonProperty("records") Set<Record> records,
-                               @JsonProperty("recipient") ClientIdentity recipient) {
+                               @JsonProperty("recipient") ClientIdentity recipient,
+                               @JsonProperty("contentBatches") boolean contentBatches) {
         super(sender);
         this.records = records;
         this.recipient = recipient;
+        this.contentBatches = contentBatches;
+    }
+
+    public PublishRecordsEvent(ClientIdentity sender, Set<Record> records, ClientIdentity recipient) {
+        this(sender, records, recipient, true);
     }
 }
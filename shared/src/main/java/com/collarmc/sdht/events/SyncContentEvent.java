@@ -2,19 +2,56 @@ package com.collarmc.sdht.events;
 
 import com.collarmc.api.identity.ClientIdentity;
 import com.collarmc.sdht.Record;
+import com.fasterxml.jackson.annotation.JsonIgnore;
 import com.fasterxml.jackson.annotation.JsonProperty;
 
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Asks the recipient for the content of records
+ */
 public final class SyncContentEvent extends AbstractSDHTEvent {
     @JsonProperty("recipient")
     public final ClientIdentity recipient;
+    /** Single record, sent by nodes that ask for one record at a time **/
     @JsonProperty("record")
     public final Record record;
+    @JsonProperty("records")
+    public final List<Record> records;
 
     public SyncContentEvent(@JsonProperty("sender") ClientIdentity sender,
                             @JsonProperty("recipient") ClientIdentity recipient,
-                            @JsonProperty("record") Record record) {
+                            @JsonProperty("record") Record record,
+                            @JsonProperty("records") List<Record> records) {
         super(sender);
         this.recipient = recipient;
         this.record = record;
+        this.records = records;
+    }
+
+    /**
+     * A single record is sent in the record field, which is all older nodes read.
+     * More than one record should only be asked of nodes that publish with {@link PublishRecordsEvent#contentBatches}.
+     */
+    public SyncContentEvent(ClientIdentity sender, ClientIdentity recipient, List<Record> records) {
+        this(sender, recipient, records.size() == 1 ? records.get(0) : null, records.size() == 1 ? null : records);
+    }
+
+    /**
+     * @return every record asked for
+     */
+    @JsonIgnore
+    public List<Record> allRecords() {
+        if (records == null) {
+            return record == null ? Collections.emptyList() : Collections.singletonList(record);
+        }
+        if (record == null) {
+            return records;
+        }
+        List<Record> all = new ArrayList<>(records);
+        all.add(record);
+        return all;
     }
 }
@@ -0,0 +1,32 @@
+package com.collarmc.sdht.events;
+
+import com.collarmc.api.identity.ClientIdentity;
+import com.collarmc.sdht.RecordTree;
+import com.fasterxml.jackson.annotation.JsonProperty;
+
+import java.util.List;
+import java.util.UUID;
+
+/**
+ * Carries part of the sender's {@link RecordTree} for a namespace.
+ * Sent to all nodes by a joining node with the root of its tree, then back and forth between two nodes
+ * with the subtrees that differ until they have found the records they disagree on.
+ */
+public final class SyncTreeEvent extends AbstractSDHTEvent {
+    @JsonProperty("recipient")
+    public final ClientIdentity recipient;
+    @JsonProperty("namespace")
+    public final UUID namespace;
+    @JsonProperty("nodes")
+    public final List<RecordTree.Node> nodes;
+
+    public SyncTreeEvent(@JsonProperty("sender") ClientIdentity sender,
+                         @JsonProperty("recipient") ClientIdentity recipient,
+                         @JsonProperty("namespace") UUID namespace,
+                         @JsonProperty("nodes") List<RecordTree.Node> nodes) {
+        super(sender);
+        this.recipient = recipient;
+        this.namespace = namespace;
+        this.nodes = nodes;
+    }
+}
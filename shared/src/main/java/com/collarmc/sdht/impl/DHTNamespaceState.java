@@ -1,27 +1,69 @@
 package com.collarmc.sdht.impl;
 
+import com.collarmc.io.AtomicFile;
 import com.collarmc.io.IO;
 import com.collarmc.sdht.Content;
+import com.collarmc.sdht.State;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
 
 import java.io.*;
-import java.util.Map;
-import java.util.UUID;
-import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.ConcurrentMap;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.locks.ReentrantLock;
 
 /**
  * Used for persisting {@link DefaultDistributedHashTable} state to disk
+ * Each namespace has a snapshot file and an append-only log of the changes made since the snapshot.
+ * Changes are queued and appended in the background, so that bursts of changes are written together and only
+ * the namespaces that changed are touched. Once a log grows large enough it is compacted into a new snapshot.
+ * Changes that could not be appended stay queued and are retried. {@link #close()} writes whatever is still queued
+ * and stops the background thread until the next change.
  */
 public final class DHTNamespaceState {
 
+    private static final Logger LOGGER = LogManager.getLogger(DHTNamespaceState.class.getName());
+
     private static final int VERSION = 1;
     private static final String DHT_EXT = ".dht";
+    private static final String LOG_EXT = ".log";
+    private static final String TMP_EXT = ".tmp";
+
+    private static final byte OP_PUT = 1;
+    private static final byte OP_REMOVE = 2;
+
+    /** How long to wait for more changes before appending them to the logs **/
+    private static final long FLUSH_DELAY_MILLIS = 100;
+    /** How long to wait before retrying changes that could not be appended **/
+    private static final long RETRY_DELAY_MILLIS = 5000;
+    /** Number of log entries a namespace may have before it is compacted into a snapshot **/
+    private static final int DEFAULT_COMPACT_AFTER = 1024;
 
     private final ReentrantLock lock = new ReentrantLock();
     private final File home;
+    private final int compactAfter;
+    private final ConcurrentMap<UUID, Deque<Change>> changes = new ConcurrentHashMap<>();
+    private final Map<UUID, Integer> logEntries = new HashMap<>();
+    private final AtomicBoolean flushScheduled = new AtomicBoolean();
+    /** Started on the first change after creation or {@link #close()} **/
+    private ScheduledThreadPoolExecutor flusher;
 
     public DHTNamespaceState(File home) {
+        this(home, DEFAULT_COMPACT_AFTER);
+    }
+
+    /**
+     * @param home directory to store namespaces in
+     * @param compactAfter number of log entries a namespace may have before it is compacted
+     */
+    public DHTNamespaceState(File home, int compactAfter) {
         if (home.exists() && !home.isDirectory()) {
             throw new IllegalStateException("home is not a directory");
         }
@@ -29,6 +71,7 @@ public final class DHTNamespaceState {
             throw new IllegalStateException("could not create " + home);
         }
         this.home = home;
+        this.compactAfter = compactAfter;
     }
 
     /**
@@ -43,12 +86,20 @@ public final class DHTNamespaceState {
             if (list == null) {
                 return new ConcurrentHashMap<>();
             }
+            Set<UUID> namespaces = new HashSet<>();
             for (String fileName : list) {
-                if (!fileName.endsWith(DHT_EXT)) {
-                    continue;
+                if (fileName.endsWith(DHT_EXT) || fileName.endsWith(LOG_EXT)) {
+                    namespaces.add(UUID.fromString(fileName.substring(0, fileName.lastIndexOf('.'))));
+                } else if (fileName.endsWith(TMP_EXT)) {
+                    // Left behind by a compaction that did not finish, the snapshot and log it came from are still intact
+                    deleteFile(new File(home, fileName));
+                }
+            }
+            for (UUID ns : namespaces) {
+                ConcurrentMap<UUID, Content> namespace = read(ns);
+                if (!namespace.isEmpty()) {
+                    result.put(ns, namespace);
                 }
-                UUID ns = UUID.fromString(fileName.substring(0, fileName.indexOf(DHT_EXT)));
-                result.put(ns, read(ns));
             }
             return result;
         } catch (InterruptedException e) {
@@ -59,63 +110,326 @@ public final class DHTNamespaceState {
     }
 
     /**
-     * Write DHT to the file system
+     * Write DHT to the file system, replacing the snapshot and log of every namespace
      * @param dht contents
      */
     public void write(ConcurrentMap<UUID, ConcurrentMap<UUID, Content>> dht) {
         try {
             lock.lockInterruptibly();
-            dht.forEach(this::write);
+            dht.forEach((namespace, contents) -> {
+                Deque<Change> queue = changes.get(namespace);
+                if (queue != null) {
+                    queue.clear();
+                }
+                writeSnapshot(namespace, contents);
+            });
+        } catch (InterruptedException e) {
+            throw new RuntimeException(e);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Queue content to be written to the namespace
+     * @param namespace of content
+     * @param id of content
+     * @param content to write
+     */
+    public void put(UUID namespace, UUID id, Content content) {
+        // Deleted content has no type or checksum to serialize, so it is not kept on disk
+        enqueue(namespace, isPersistable(content) ? new Change(OP_PUT, id, content.serialize()) : new Change(OP_REMOVE, id, null));
+    }
+
+    /**
+     * Queue content to be removed from the namespace
+     * @param namespace of content
+     * @param id of content
+     */
+    public void remove(UUID namespace, UUID id) {
+        enqueue(namespace, new Change(OP_REMOVE, id, null));
+    }
+
+    /**
+     * Append all queued changes to the namespace logs, compacting any log that has grown too large.
+     * Changes that could not be appended are put back at the head of their queue.
+     */
+    public void flush() {
+        try {
+            lock.lockInterruptibly();
         } catch (InterruptedException e) {
             throw new RuntimeException(e);
+        }
+        try {
+            RuntimeException failure = null;
+            for (Map.Entry<UUID, Deque<Change>> entry : changes.entrySet()) {
+                try {
+                    flush(entry.getKey(), entry.getValue());
+                } catch (RuntimeException e) {
+                    if (failure == null) {
+                        failure = e;
+                    } else {
+                        failure.addSuppressed(e);
+                    }
+                }
+            }
+            if (failure != null) {
+                throw failure;
+            }
         } finally {
             lock.unlock();
         }
     }
 
+    /**
+     * Write every queued change and stop the background thread.
+     * Changes made afterwards start it again, so this can be called whenever the table goes idle, such as on disconnect.
+     */
+    public void close() {
+        ScheduledThreadPoolExecutor stopping;
+        synchronized (this) {
+            stopping = flusher;
+            flusher = null;
+        }
+        if (stopping != null) {
+            // Delayed flushes are cancelled, one already running is waited for
+            stopping.shutdown();
+            try {
+                if (!stopping.awaitTermination(RETRY_DELAY_MILLIS, TimeUnit.MILLISECONDS)) {
+                    LOGGER.warn("DHT flush did not finish in time");
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        flushScheduled.set(false);
+        flush();
+    }
+
+    private void flush(UUID namespace, Deque<Change> queue) {
+        if (queue.isEmpty()) {
+            return;
+        }
+        List<Change> drained = new ArrayList<>();
+        for (Change change = queue.poll(); change != null; change = queue.poll()) {
+            drained.add(change);
+        }
+        try {
+            appendLog(namespace, drained);
+        } catch (RuntimeException e) {
+            // Ahead of anything queued since, so the changes are still appended in the order they were made
+            for (int i = drained.size() - 1; i >= 0; i--) {
+                queue.addFirst(drained.get(i));
+            }
+            throw e;
+        }
+        if (logEntries.getOrDefault(namespace, 0) >= compactAfter) {
+            compact(namespace);
+        }
+    }
+
+    private void enqueue(UUID namespace, Change change) {
+        changes.computeIfAbsent(namespace, uuid -> new ConcurrentLinkedDeque<>()).add(change);
+        if (flushScheduled.compareAndSet(false, true)) {
+            schedule(FLUSH_DELAY_MILLIS, true);
+        }
+    }
+
+    /**
+     * @param start the background thread if it is not running, otherwise the flush is only scheduled while it is running
+     */
+    private synchronized void schedule(long delayMillis, boolean start) {
+        if (flusher == null) {
+            if (!start) {
+                flushScheduled.set(false);
+                return;
+            }
+            flusher = new ScheduledThreadPoolExecutor(1, new ThreadFactoryBuilder().setNameFormat("collar-dht-flush-%d").setDaemon(true).build());
+            flusher.setExecuteExistingDelayedTasksAfterShutdownPolicy(false);
+        }
+        flusher.schedule(this::flushQuietly, delayMillis, TimeUnit.MILLISECONDS);
+    }
+
+    private void flushQuietly() {
+        flushScheduled.set(false);
+        try {
+            flush();
+        } catch (RuntimeException e) {
+            LOGGER.error("Could not write DHT changes, retrying", e);
+            // Not retried in the background once closing, the close writes them instead
+            if (flushScheduled.compareAndSet(false, true)) {
+                schedule(RETRY_DELAY_MILLIS, false);
+            }
+        }
+    }
+
     private ConcurrentMap<UUID, Content> read(UUID namespaceId) {
+        ConcurrentMap<UUID, Content> namespace = readSnapshot(namespaceId);
+        File logFile = getLogFile(namespaceId);
+        if (!logFile.exists()) {
+            logEntries.remove(namespaceId);
+            return namespace;
+        }
+        try {
+            ByteBuffer log = IO.readFile(logFile);
+            int entries = 0;
+            int valid = 0;
+            try {
+                while (log.hasRemaining()) {
+                    byte op = log.get();
+                    UUID contentId = IO.readUUID(log);
+                    if (op == OP_PUT) {
+                        namespace.put(contentId, new Content(IO.readSlice(log)));
+                    } else if (op == OP_REMOVE) {
+                        namespace.remove(contentId);
+                    } else {
+                        throw new IOException("unknown log operation " + op);
+                    }
+                    entries++;
+                    valid = log.position();
+                }
+            } catch (IOException | BufferUnderflowException e) {
+                // The last entry was only partly written, drop it so that new entries are appended after the last good one
+                LOGGER.warn("Truncating log of namespace " + namespaceId + " to " + valid + " bytes", e);
+                try (FileChannel channel = FileChannel.open(logFile.toPath(), StandardOpenOption.WRITE)) {
+                    channel.truncate(valid);
+                }
+            }
+            logEntries.put(namespaceId, entries);
+            return namespace;
+        } catch (IOException e) {
+            throw new IllegalStateException("could not read log of namespace " + namespaceId, e);
+        }
+    }
+
+    private ConcurrentMap<UUID, Content> readSnapshot(UUID namespaceId) {
         File namespaceFile = getNamespaceFile(namespaceId);
         if (!namespaceFile.exists()) {
             return new ConcurrentHashMap<>();
         }
-        try (DataInputStream dataStream = new DataInputStream(new FileInputStream(namespaceFile))) {
-            int version = dataStream.readInt();
+        try {
+            ByteBuffer buffer = IO.readFile(namespaceFile);
+            int version = buffer.getInt();
             if (version != VERSION) {
                 throw new IllegalStateException("DHT version " + version + " is too new");
             }
             ConcurrentMap<UUID, Content> namespace = new ConcurrentHashMap<>();
-            int mapSize = dataStream.readInt();
+            int mapSize = buffer.getInt();
             for (int m = 0; m < mapSize; m++) {
-                UUID contentId = IO.readUUID(dataStream);
-                namespace.put(contentId, new Content(IO.readBytes(dataStream)));
+                UUID contentId = IO.readUUID(buffer);
+                namespace.put(contentId, new Content(IO.readSlice(buffer)));
             }
             return namespace;
-        } catch (IOException e) {
+        } catch (IOException | BufferUnderflowException e) {
             throw new IllegalStateException("could not read namespace " + namespaceId + " from file", e);
         }
     }
 
     /**
-     * Write namespace to file
+     * Append changes to the namespace log
+     * @param namespace of the changes
+     * @param drained changes in the order they were made
+     */
+    private void appendLog(UUID namespace, List<Change> drained) {
+        File logFile = getLogFile(namespace);
+        long length = logFile.length();
+        try (FileOutputStream fileStream = new FileOutputStream(logFile, true)) {
+            DataOutputStream dataStream = new DataOutputStream(new BufferedOutputStream(fileStream));
+            for (Change change : drained) {
+                dataStream.writeByte(change.op);
+                IO.writeUUID(dataStream, change.id);
+                if (change.op == OP_PUT) {
+                    IO.writeBytes(dataStream, change.content);
+                }
+            }
+            dataStream.flush();
+            fileStream.getFD().sync();
+        } catch (IOException e) {
+            // Drop anything partly written, so that the changes can be appended again after the last good entry
+            try (FileChannel channel = FileChannel.open(logFile.toPath(), StandardOpenOption.WRITE)) {
+                channel.truncate(length);
+            } catch (IOException | RuntimeException truncateFailure) {
+                e.addSuppressed(truncateFailure);
+            }
+            throw new IllegalStateException("could not append to log of namespace " + namespace, e);
+        }
+        logEntries.merge(namespace, drained.size(), Integer::sum);
+    }
+
+    /**
+     * Replace the snapshot of the namespace with its snapshot and log combined, then remove the log
+     * @param namespace to compact
+     */
+    private void compact(UUID namespace) {
+        ConcurrentMap<UUID, Content> contents = read(namespace);
+        writeSnapshot(namespace, contents);
+    }
+
+    /**
+     * Atomically replace the snapshot of the namespace, then remove the log it replaces
      * @param namespace to write to file
      * @param contentsMap of the namespace
      */
-    private void write(UUID namespace, ConcurrentMap<UUID, Content> contentsMap) {
-        try (DataOutputStream dataStream = new DataOutputStream(new FileOutputStream(getNamespaceFile(namespace)))) {
-            dataStream.writeInt(VERSION);
-            dataStream.writeInt(contentsMap.size());
-            for (Map.Entry<UUID, Content> entry : contentsMap.entrySet()) {
-                UUID uuid = entry.getKey();
-                Content content = entry.getValue();
-                IO.writeUUID(dataStream, uuid);
-                IO.writeBytes(dataStream, content.serialize());
+    private void writeSnapshot(UUID namespace, Map<UUID, Content> contentsMap) {
+        List<Map.Entry<UUID, Content>> entries = new ArrayList<>();
+        for (Map.Entry<UUID, Content> entry : contentsMap.entrySet()) {
+            if (isPersistable(entry.getValue())) {
+                entries.add(entry);
             }
+        }
+        try {
+            AtomicFile.write(getNamespaceFile(namespace), file -> {
+                try (FileOutputStream fileStream = new FileOutputStream(file)) {
+                    DataOutputStream dataStream = new DataOutputStream(new BufferedOutputStream(fileStream));
+                    dataStream.writeInt(VERSION);
+                    dataStream.writeInt(entries.size());
+                    for (Map.Entry<UUID, Content> entry : entries) {
+                        IO.writeUUID(dataStream, entry.getKey());
+                        IO.writeBytes(dataStream, entry.getValue().serialize());
+                    }
+                    dataStream.flush();
+                    fileStream.getFD().sync();
+                }
+            });
         } catch (IOException e) {
             throw new IllegalStateException("could not write namespace " + namespace + " to file", e);
         }
+        deleteFile(getLogFile(namespace));
+        logEntries.remove(namespace);
+    }
+
+    private static boolean isPersistable(Content content) {
+        return content.state != State.DELETED && content.type != null;
+    }
+
+    private static void deleteFile(File file) {
+        try {
+            Files.deleteIfExists(file.toPath());
+        } catch (IOException e) {
+            throw new IllegalStateException("could not delete " + file, e);
+        }
     }
 
     private File getNamespaceFile(UUID namespace) {
         return new File(home, namespace.toString() + DHT_EXT);
     }
+
+    private File getLogFile(UUID namespace) {
+        return new File(home, namespace.toString() + LOG_EXT);
+    }
+
+    /**
+     * Queued change to a namespace, content is only present for puts
+     */
+    private static final class Change {
+        final byte op;
+        final UUID id;
+        final byte[] content;
+
+        Change(byte op, UUID id, byte[] content) {
+            this.op = op;
+            this.id = id;
+            this.content = content;
+        }
+    }
 }
@@ -16,7 +16,6 @@ import java.util.*;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentMap;
 import java.util.concurrent.CopyOnWriteArraySet;
-import java.util.concurrent.ForkJoinPool;
 import java.util.concurrent.atomic.AtomicReference;
 import java.util.function.Supplier;
 
@@ -30,13 +29,18 @@ public final class DefaultDistributedHashTable extends DistributedHashTable {
     private final ConcurrentMap<UUID, ConcurrentMap<UUID, Content>> dhtContent;
     private final DHTNamespaceState state;
 
-    public DefaultDistributedHashTable(Publisher publisher, Supplier<ClientIdentity> owner, ContentCipher cipher, DHTNamespaceState state, DistributedHashTableListener listener) {
-        super(publisher, owner, cipher, listener);
+    public DefaultDistributedHashTable(Publisher publisher, Supplier<ClientIdentity> owner, ContentCipher cipher, DHTNamespaceState state, DistributedHashTableListener listener, FetchSettings fetchSettings) {
+        super(publisher, owner, cipher, listener, fetchSettings);
         this.state = state;
         this.dhtContent = state.read();
         pruneAllNamespaces();
     }
 
+    public DefaultDistributedHashTable(Publisher publisher, Supplier<ClientIdentity> owner, ContentCipher cipher, DHTNamespaceState state, DistributedHashTableListener listener) {
+        this(publisher, owner, cipher, state, listener, FetchSettings.defaults());
+    }
+
+    // Removing whole namespaces only forgets them in memory, what is on disk is kept for the next session
     @Override
     public void remove(UUID namespace) {
         dhtContent.remove(namespace);
@@ -45,6 +49,12 @@ public final class DefaultDistributedHashTable extends DistributedHashTable {
     @Override
     public void removeAll() {
         dhtContent.clear();
+        fetcher.clear();
+    }
+
+    @Override
+    public void close() {
+        state.close();
     }
 
     @Override
@@ -103,6 +113,7 @@ public final class DefaultDistributedHashTable extends DistributedHashTable {
             }
             contentMap.computeIfAbsent(record.key.id, uuid -> {
                 computedContent.set(content);
+                state.put(namespace, uuid, content);
                 return content;
             });
             return contentMap;
@@ -114,7 +125,6 @@ public final class DefaultDistributedHashTable extends DistributedHashTable {
             } catch (CipherException e) {
                 throw new IllegalStateException(e);
             }
-            sync();
             return Optional.of(computedContent.get());
         }
         return Optional.empty();
@@ -129,9 +139,9 @@ public final class DefaultDistributedHashTable extends DistributedHashTable {
         dhtContent.compute(record.key.namespace, (namespace, contentMap) -> {
             contentMap = contentMap == null ? new ConcurrentHashMap<>() : contentMap;
             contentMap.put(record.key.id, content);
+            state.put(namespace, record.key.id, content);
             return contentMap;
         });
-        sync();
         listener.onAdd(record.key, content);
     }
 
@@ -148,6 +158,7 @@ public final class DefaultDistributedHashTable extends DistributedHashTable {
                 Content deleted = deletedRecord();
                 Record record = deleted.toRecord(key);
                 contentMap.put(key.id, deleted);
+                state.put(namespaceId, key.id, deleted);
                 removedContent.set(deleted);
                 if (removed != null) {
                     publisher.publish(new DeleteRecordEvent(owner.get(), record));
@@ -171,6 +182,9 @@ public final class DefaultDistributedHashTable extends DistributedHashTable {
                 return null;
             }
             Content removed = contentMap.remove(delete.key.id);
+            if (removed != null) {
+                state.remove(namespace, delete.key.id);
+            }
             removedContent.set(removed);
             if (contentMap.isEmpty()) {
                 return null;
@@ -178,15 +192,10 @@ public final class DefaultDistributedHashTable extends DistributedHashTable {
             return contentMap;
         });
         if (removedContent.get() != null) {
-            sync();
             listener.onRemove(delete.key, removedContent.get());
         }
     }
 
-    private void sync() {
-        ForkJoinPool.commonPool().submit(() -> state.write(dhtContent));
-    }
-
     private void pruneAllNamespaces() {
         dhtContent.values().forEach(map -> map.keySet().forEach(namespaceId -> pruneNamespace(map)));
     }
@@ -3,6 +3,8 @@ package com.collarmc.security.messages;
 import com.collarmc.api.identity.Identity;
 import com.collarmc.security.PublicKey;
 
+import java.util.List;
+
 public interface Cipher {
     /**
      * Decrypt message from sender
@@ -53,6 +55,16 @@ public interface Cipher {
      */
     byte[] encrypt(byte[] plain, PublicKey recipient) throws CipherException;
 
+    /**
+     * Encrypts data for many recipients. The data is signed at most once, however many recipients it is sealed for.
+     *
+     * @param plain      to encrypt
+     * @param recipients receiving the message
+     * @return cipher text for each recipient, in the same order as the recipients
+     * @throws CipherException if encryption fails
+     */
+    List<byte[]> encrypt(byte[] plain, List<? extends Identity> recipients) throws CipherException;
+
     /**
      * Encrypt for self storage
      *
@@ -61,4 +73,24 @@ public interface Cipher {
      * @throws CipherException if encryption fails
      */
     byte[] encrypt(byte[] plain) throws CipherException;
+
+    /**
+     * Signs data so that it can be sealed for one or more recipients
+     * {@code seal(sign(plain), recipient)} produces the same format as {@link #encrypt(byte[], Identity)}
+     *
+     * @param plain to sign
+     * @return signed message
+     * @throws CipherException if signing fails
+     */
+    byte[] sign(byte[] plain) throws CipherException;
+
+    /**
+     * Seals a message produced by {@link #sign(byte[])} for an intended recipient
+     *
+     * @param signedMessage to seal
+     * @param recipient     receiving the message
+     * @return cipher text
+     * @throws CipherException if encryption fails
+     */
+    byte[] seal(byte[] signedMessage, Identity recipient) throws CipherException;
 }
@@ -0,0 +1,21 @@
+package com.collarmc.security.messages;
+
+/**
+ * How a {@link SodiumCipher} encrypts messages for other identities.
+ * Either mode can decrypt messages sent in the other.
+ */
+public enum CipherMode {
+    /**
+     * Every message is signed and sealed with a fresh key exchange.
+     * Peers that send shared key messages are answered with shared key messages while their key is cached.
+     */
+    SEALED,
+    /**
+     * Messages are encrypted and authenticated with a crypto_box key precomputed once per peer and cached.
+     * Peers must understand shared key messages, so only use it once a session has negotiated it.
+     */
+    SHARED_KEY;
+
+    /** Feature advertised by servers that understand shared key messages **/
+    public static final String FEATURE = "security:shared_keys";
+}
@@ -0,0 +1,67 @@
+package com.collarmc.security.messages;
+
+import com.collarmc.io.IO;
+import com.fasterxml.jackson.annotation.JsonCreator;
+import com.fasterxml.jackson.annotation.JsonValue;
+import edu.umd.cs.findbugs.annotations.SuppressFBWarnings;
+
+import javax.annotation.Nullable;
+import java.nio.ByteBuffer;
+
+/**
+ * Contents a packet carries for its recipient, either held as bytes or relayed out of a {@link GroupMessageEnvelope}
+ * without decoding the envelope. Relayed contents are only copied out of the envelope's bytes when the packet is
+ * written, so they cannot be read back where they were relayed.
+ */
+public final class EnvelopeContents {
+    private final byte[] bytes;
+    private final ByteBuffer relayed;
+
+    private EnvelopeContents(byte[] bytes, ByteBuffer relayed) {
+        this.bytes = bytes;
+        this.relayed = relayed;
+    }
+
+    /**
+     * @param bytes of the contents
+     * @return contents, or null when there are no bytes
+     */
+    @JsonCreator(mode = JsonCreator.Mode.DELEGATING)
+    @Nullable
+    public static EnvelopeContents of(@Nullable byte[] bytes) {
+        return bytes == null ? null : new EnvelopeContents(bytes, null);
+    }
+
+    /**
+     * @param contents slice of an envelope's bytes, which is not consumed
+     * @return contents relayed out of the envelope
+     */
+    public static EnvelopeContents relay(ByteBuffer contents) {
+        return new EnvelopeContents(null, contents);
+    }
+
+    /**
+     * @return if the contents are relayed out of an envelope
+     */
+    public boolean isRelayed() {
+        return relayed != null;
+    }
+
+    /**
+     * @return bytes of the contents
+     * @throws IllegalStateException if the contents are relayed, as they are only copied out when written
+     */
+    @SuppressFBWarnings("EI_EXPOSE_REP")
+    public byte[] bytes() {
+        if (relayed != null) {
+            throw new IllegalStateException("relayed contents are only read by the recipient");
+        }
+        return bytes;
+    }
+
+    // msgpack writes binary from the start of the backing array, so a slice cannot be handed to it as is
+    @JsonValue
+    private byte[] serialize() {
+        return relayed == null ? bytes : IO.toByteArray(relayed);
+    }
+}
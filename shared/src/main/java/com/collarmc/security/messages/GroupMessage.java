@@ -15,20 +15,39 @@ public final class GroupMessage {
     }
 
     public GroupMessage(byte[] bytes) {
-        ByteBuffer buffer = ByteBuffer.wrap(bytes);
-        byte[] recipientIdBytes = new byte[16];
-        buffer.get(recipientIdBytes);
-        this.recipient = IO.readUUIDFromBytes(recipientIdBytes);
+        this(ByteBuffer.wrap(bytes));
+    }
+
+    /**
+     * Read a message serialized by {@link #serialize()}
+     * @param buffer to read from, positioned after the message on return
+     */
+    public GroupMessage(ByteBuffer buffer) {
+        this.recipient = IO.readUUID(buffer);
         this.contents = new byte[buffer.getInt()];
         buffer.get(contents);
     }
 
     public byte[] serialize() {
         // TODO: what is the max size of a group message?
-        ByteBuffer buffer = ByteBuffer.allocate(16 + contents.length + 4);
-        buffer.put(IO.writeUUIDToBytes(recipient));
-        buffer.putInt(contents.length);
-        buffer.put(contents);
+        ByteBuffer buffer = ByteBuffer.allocate(size());
+        write(buffer);
         return buffer.array();
     }
+
+    /**
+     * @return size of the serialized message
+     */
+    int size() {
+        return 16 + 4 + contents.length;
+    }
+
+    /**
+     * Serialize the message into a buffer
+     * @param buffer to write to
+     */
+    void write(ByteBuffer buffer) {
+        IO.writeUUID(buffer, recipient);
+        IO.writeBytes(buffer, contents);
+    }
 }
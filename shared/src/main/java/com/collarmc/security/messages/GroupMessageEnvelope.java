@@ -2,15 +2,19 @@ package com.collarmc.security.messages;
 
 import com.collarmc.io.IO;
 
-import java.io.*;
-import java.util.ArrayList;
-import java.util.List;
-import java.util.Map;
-import java.util.UUID;
+import java.nio.Buffer;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.util.*;
 import java.util.stream.Collectors;
 
 public class GroupMessageEnvelope {
+    /** Discover feature advertised by servers that read {@link #VERSION_COMPACT} envelopes **/
+    public static final String FEATURE = "security:compact_envelopes";
+    /** Each message is length prefixed, with an int for the message count and each length **/
     private static final int VERSION = 1;
+    /** Messages are not length prefixed, and the message count and content lengths are varints **/
+    private static final int VERSION_COMPACT = 2;
 
     public final Map<UUID, GroupMessage> messages;
 
@@ -20,37 +24,150 @@ public class GroupMessageEnvelope {
 
     public GroupMessageEnvelope(byte[] bytes) {
         List<GroupMessage> messages = new ArrayList<>();
-        ByteArrayInputStream bis = new ByteArrayInputStream(bytes);
-        try (DataInputStream dis = new DataInputStream(bis)) {
-            int version = dis.readInt();
-            if (version != VERSION) {
-                throw new IllegalStateException("unknown version " + VERSION);
-            }
-            int messageCount = dis.readInt();
-            for (int i = 0; i < messageCount; i++) {
-                messages.add(new GroupMessage(IO.readBytes(dis)));
-            }
-        } catch (IOException e) {
-            throw new IllegalStateException(e);
-        }
+        read(bytes, (recipient, contents) -> messages.add(new GroupMessage(recipient, IO.toByteArray(contents))));
         this.messages = map(messages);
     }
 
+    /**
+     * @return envelope in the format every server and client reads
+     */
     public byte[] serialize() {
-        ByteArrayOutputStream bos = new ByteArrayOutputStream();
-        try (DataOutputStream dos = new DataOutputStream(bos)) {
-            dos.writeInt(VERSION);
-            dos.writeInt(messages.size());
+        return serialize(false);
+    }
+
+    /**
+     * @param compact to write the smaller format, only when the server advertises {@link #FEATURE}
+     * @return serialized envelope
+     */
+    public byte[] serialize(boolean compact) {
+        if (!compact) {
+            int size = 8;
+            for (GroupMessage groupMessage : messages.values()) {
+                size += 4 + 16 + 4 + groupMessage.contents.length;
+            }
+            ByteBuffer buffer = ByteBuffer.allocate(size);
+            buffer.putInt(VERSION);
+            buffer.putInt(messages.size());
             for (GroupMessage groupMessage : messages.values()) {
-                IO.writeBytes(dos, groupMessage.serialize());
+                buffer.putInt(16 + 4 + groupMessage.contents.length);
+                IO.writeUUID(buffer, groupMessage.recipient);
+                buffer.putInt(groupMessage.contents.length);
+                buffer.put(groupMessage.contents);
             }
-        } catch (IOException e) {
-            throw new IllegalStateException(e);
+            return buffer.array();
         }
-        return bos.toByteArray();
+        int size = 4 + IO.varIntSize(messages.size());
+        for (GroupMessage groupMessage : messages.values()) {
+            size += 16 + IO.varIntSize(groupMessage.contents.length) + groupMessage.contents.length;
+        }
+        ByteBuffer buffer = ByteBuffer.allocate(size);
+        buffer.putInt(VERSION_COMPACT);
+        IO.writeVarInt(buffer, messages.size());
+        for (GroupMessage groupMessage : messages.values()) {
+            IO.writeUUID(buffer, groupMessage.recipient);
+            IO.writeVarInt(buffer, groupMessage.contents.length);
+            buffer.put(groupMessage.contents);
+        }
+        return buffer.array();
+    }
+
+    /**
+     * Index the messages of a serialized envelope without copying them
+     * @param bytes of a serialized envelope
+     * @return view over the bytes
+     */
+    public static View view(byte[] bytes) {
+        return new View(bytes);
     }
 
     private static Map<UUID, GroupMessage> map(List<GroupMessage> messages) {
         return messages.stream().collect(Collectors.toMap(groupMessage -> groupMessage.recipient, groupMessage -> groupMessage));
     }
+
+    /**
+     * Read every message of a serialized envelope of either version
+     * @param bytes of the envelope
+     * @param consumer of each recipient and a slice of their contents
+     */
+    private static void read(byte[] bytes, MessageConsumer consumer) {
+        ByteBuffer buffer = ByteBuffer.wrap(bytes);
+        try {
+            int version = buffer.getInt();
+            if (version == VERSION) {
+                int messageCount = buffer.getInt();
+                for (int i = 0; i < messageCount; i++) {
+                    ByteBuffer message = IO.readSlice(buffer);
+                    UUID recipient = IO.readUUID(message);
+                    consumer.accept(recipient, IO.readSlice(message));
+                }
+            } else if (version == VERSION_COMPACT) {
+                int messageCount = IO.readVarInt(buffer);
+                for (int i = 0; i < messageCount; i++) {
+                    UUID recipient = IO.readUUID(buffer);
+                    int length = IO.readVarInt(buffer);
+                    if (length > buffer.remaining()) {
+                        throw new BufferUnderflowException();
+                    }
+                    ByteBuffer contents = buffer.slice();
+                    ((Buffer) contents).limit(length);
+                    ((Buffer) buffer).position(buffer.position() + length);
+                    consumer.accept(recipient, contents);
+                }
+            } else {
+                throw new IllegalStateException("unknown version " + version);
+            }
+        } catch (BufferUnderflowException e) {
+            throw new IllegalStateException("envelope is truncated", e);
+        }
+    }
+
+    private interface MessageConsumer {
+        void accept(UUID recipient, ByteBuffer contents);
+    }
+
+    /**
+     * Read only view of a serialized envelope.
+     * Only the position of each recipient's contents is kept, so relaying an envelope to many recipients
+     * does not copy every ciphertext out of it.
+     */
+    public static final class View {
+        private final byte[] bytes;
+        private final Map<UUID, Integer> offsets = new HashMap<>();
+        private final Map<UUID, Integer> lengths = new HashMap<>();
+
+        private View(byte[] bytes) {
+            this.bytes = bytes;
+            read(bytes, (recipient, contents) -> {
+                offsets.put(recipient, contents.arrayOffset() + contents.position());
+                lengths.put(recipient, contents.remaining());
+            });
+        }
+
+        /**
+         * @param recipient of a message
+         * @return if the envelope has a message for the recipient
+         */
+        public boolean contains(UUID recipient) {
+            return offsets.containsKey(recipient);
+        }
+
+        /**
+         * @return recipients with a message in the envelope
+         */
+        public Set<UUID> recipients() {
+            return Collections.unmodifiableSet(offsets.keySet());
+        }
+
+        /**
+         * @param recipient of the message
+         * @return contents of the recipient's message, sharing the envelope's bytes
+         */
+        public Optional<ByteBuffer> contents(UUID recipient) {
+            Integer offset = offsets.get(recipient);
+            if (offset == null) {
+                return Optional.empty();
+            }
+            return Optional.of(ByteBuffer.wrap(bytes, offset, lengths.get(recipient)).slice());
+        }
+    }
 }
@@ -12,26 +12,45 @@ public final class GroupSession {
     private final Cipher cipher;
     private final IdentityStore<ClientIdentity> store;
     private final Set<ClientIdentity> recipients;
+    private final boolean compactEnvelopes;
 
-    public GroupSession(UUID group, IdentityStore<ClientIdentity> store, CollarIdentity collarIdentity, Set<ClientIdentity> recipients) {
+    /**
+     * @param compactEnvelopes to write envelopes in the compact format, only when the server advertises {@link GroupMessageEnvelope#FEATURE}
+     */
+    public GroupSession(UUID group, IdentityStore<ClientIdentity> store, CollarIdentity collarIdentity, Set<ClientIdentity> recipients, boolean compactEnvelopes) {
         this.group = group;
         this.collarIdentity = collarIdentity;
         this.cipher = store.cipher();
         this.store = store;
         this.recipients = recipients;
+        this.compactEnvelopes = compactEnvelopes;
+    }
+
+    public GroupSession(UUID group, IdentityStore<ClientIdentity> store, CollarIdentity collarIdentity, Set<ClientIdentity> recipients) {
+        this(group, store, collarIdentity, recipients, false);
     }
 
+    /**
+     * Encrypt a message for every other member of the group, signing it once
+     * @param plainText to encrypt
+     * @return serialized {@link GroupMessageEnvelope}
+     * @throws CipherException if error occurs
+     */
     public byte[] encrypt(byte[] plainText) throws CipherException {
-        List<GroupMessage> messages = new ArrayList<>();
-        for (Identity recipient : recipients) {
+        UUID self = store.identity().id();
+        List<ClientIdentity> others = new ArrayList<>(recipients.size());
+        for (ClientIdentity recipient : recipients) {
             // Don't send a message to myself
-            if (recipient.id().equals(store.identity().id())) {
-                continue;
+            if (!recipient.id().equals(self)) {
+                others.add(recipient);
             }
-            byte[] cipherText = cipher.encrypt(plainText, recipient);
-            messages.add(new GroupMessage(recipient.id(), cipherText));
         }
-        return new GroupMessageEnvelope(messages).serialize();
+        List<byte[]> cipherTexts = cipher.encrypt(plainText, others);
+        List<GroupMessage> messages = new ArrayList<>(others.size());
+        for (int i = 0; i < others.size(); i++) {
+            messages.add(new GroupMessage(others.get(i).id(), cipherTexts.get(i)));
+        }
+        return new GroupMessageEnvelope(messages).serialize(compactEnvelopes);
     }
 
     /**
@@ -47,12 +66,12 @@ public final class GroupSession {
     public GroupSession add(ClientIdentity identity) {
         Set<ClientIdentity> identities = new HashSet<>(recipients);
         identities.add(identity);
-        return new GroupSession(group, store, collarIdentity, identities);
+        return new GroupSession(group, store, collarIdentity, identities, compactEnvelopes);
     }
 
     public GroupSession remove(ClientIdentity identity) {
         Set<ClientIdentity> identities = new HashSet<>(recipients);
         identities.remove(identity);
-        return new GroupSession(group, store, collarIdentity, identities);
+        return new GroupSession(group, store, collarIdentity, identities, compactEnvelopes);
     }
 }
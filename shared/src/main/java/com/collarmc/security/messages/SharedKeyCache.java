@@ -0,0 +1,51 @@
+package com.collarmc.security.messages;
+
+import com.collarmc.security.PublicKey;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+
+/**
+ * Bounded cache of crypto_box keys precomputed with peers, so that {@link CipherMode#SHARED_KEY} messages skip the
+ * key exchange. A cache belongs to the key pair of one identity and must be replaced if that identity changes.
+ * Peers evicted from the cache are sent sealed messages until they use a shared key again.
+ */
+public final class SharedKeyCache {
+
+    public static final int DEFAULT_SIZE = 1024;
+
+    private final Cache<PublicKey, byte[]> keys;
+
+    public SharedKeyCache() {
+        this(DEFAULT_SIZE);
+    }
+
+    public SharedKeyCache(int maximumSize) {
+        this.keys = CacheBuilder.newBuilder().maximumSize(maximumSize).build();
+    }
+
+    /**
+     * @param peer public key of the peer
+     * @return shared key or null if none is cached
+     */
+    byte[] get(PublicKey peer) {
+        return keys.getIfPresent(peer);
+    }
+
+    void put(PublicKey peer, byte[] key) {
+        keys.put(peer, key);
+    }
+
+    /**
+     * @return number of peers with a cached key
+     */
+    public long size() {
+        return keys.size();
+    }
+
+    /**
+     * Forget every cached key
+     */
+    public void clear() {
+        keys.invalidateAll();
+    }
+}
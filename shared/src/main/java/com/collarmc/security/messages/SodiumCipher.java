@@ -19,7 +19,12 @@ import java.io.File;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
 import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.stream.IntStream;
 
 public final class SodiumCipher implements Cipher {
 
@@ -29,10 +34,36 @@ public final class SodiumCipher implements Cipher {
 
     private static CollarLazySodiumJava SODIUM;
 
+    /** Prefixes {@link CipherMode#SHARED_KEY} messages, followed by the nonce and the box **/
+    private static final int SHARED_KEY_MARKER = 0x434c4b32;
+    /**
+     * Both peers box with the same shared key, so the nonce carries which of them sent the message. It is set in the
+     * first nonce byte of messages sent by the peer whose public key sorts first. Without it a message could be sent
+     * back to its own sender and pass as one from the peer.
+     */
+    private static final int DIRECTION_BIT = 0x80;
+    private static final int SHARED_KEY_HEADER_SIZE = 4 + Box.NONCEBYTES;
+    /** Messages sealed for at least this many recipients are encrypted across the common fork join pool **/
+    private static final int PARALLEL_THRESHOLD = 32;
+
     private final KeyPair keyPair;
+    private final CipherMode mode;
+    private final SharedKeyCache sharedKeys;
 
     public SodiumCipher(KeyPair keyPair, boolean server) {
+        this(keyPair, server, CipherMode.SEALED, new SharedKeyCache());
+    }
+
+    /**
+     * @param keyPair of the identity
+     * @param server if the cipher is used by the server
+     * @param mode to encrypt messages for other identities with
+     * @param sharedKeys keys shared with peers, kept by the identity store so they outlive the cipher
+     */
+    public SodiumCipher(KeyPair keyPair, boolean server, CipherMode mode, SharedKeyCache sharedKeys) {
         this.keyPair = keyPair;
+        this.mode = mode;
+        this.sharedKeys = sharedKeys;
         loadLibrary(server);
     }
 
@@ -61,18 +92,73 @@ public final class SodiumCipher implements Cipher {
         return encrypt(plain, recipient.key);
     }
 
+    @Override
+    public List<byte[]> encrypt(byte[] plain, List<? extends Identity> recipients) throws CipherException {
+        byte[][] keys = new byte[recipients.size()][];
+        boolean sealing = false;
+        for (int i = 0; i < keys.length; i++) {
+            keys[i] = sharedKeyFor(recipients.get(i).publicKey().key);
+            sealing |= keys[i] == null;
+        }
+        // Only recipients without a shared key need the signature
+        byte[] signedMessage = sealing ? sign(plain) : null;
+        byte[][] cipherTexts = new byte[keys.length][];
+        // Shared key boxes are too cheap to be worth splitting
+        if (!sealing || keys.length < PARALLEL_THRESHOLD || ForkJoinPool.getCommonPoolParallelism() < 2) {
+            for (int i = 0; i < keys.length; i++) {
+                cipherTexts[i] = keys[i] == null ? sealBox(signedMessage, recipients.get(i).publicKey().key) : box(plain, keys[i], recipients.get(i).publicKey().key);
+            }
+        } else {
+            try {
+                IntStream.range(0, keys.length).parallel().forEach(i -> {
+                    try {
+                        cipherTexts[i] = keys[i] == null ? sealBox(signedMessage, recipients.get(i).publicKey().key) : box(plain, keys[i], recipients.get(i).publicKey().key);
+                    } catch (CipherException e) {
+                        throw new EncryptFailedException(e);
+                    }
+                });
+            } catch (EncryptFailedException e) {
+                throw e.getCause();
+            }
+        }
+        return Arrays.asList(cipherTexts);
+    }
+
     @Override
     public byte[] encrypt(byte[] plain) throws CipherException {
-        return encrypt(plain, keyPair.getPublicKey().getAsBytes());
+        // Self storage is always sealed so that it can be read whichever mode the cipher is in
+        return sealBox(sign(plain), keyPair.getPublicKey().getAsBytes());
     }
 
-    private byte[] encrypt(byte[] plain, byte[] recipient) throws CipherException {
+    @Override
+    public byte[] sign(byte[] plain) throws CipherException {
         byte[] sig = new byte[Sign.BYTES + plain.length];
         if (!SODIUM.cryptoSign(sig, plain, plain.length, keyPair.getSecretKey().getAsBytes())) {
             throw new CipherException("Could not sign message.");
         }
-        SignedMessage signedMessage = new SignedMessage(sig, plain);
-        byte[] signedMessageBytes = signedMessage.serialize();
+        return new SignedMessage(sig, plain).serialize();
+    }
+
+    @Override
+    public byte[] seal(byte[] signedMessage, Identity recipient) throws CipherException {
+        return seal(signedMessage, recipient.publicKey().key);
+    }
+
+    private byte[] encrypt(byte[] plain, byte[] recipient) throws CipherException {
+        byte[] sharedKey = sharedKeyFor(recipient);
+        return sharedKey == null ? sealBox(sign(plain), recipient) : box(plain, sharedKey, recipient);
+    }
+
+    private byte[] seal(byte[] signedMessageBytes, byte[] recipient) throws CipherException {
+        byte[] sharedKey = sharedKeyFor(recipient);
+        if (sharedKey != null) {
+            // The box authenticates the sender, so the signature is not sent
+            return box(new SignedMessage(signedMessageBytes).contents, sharedKey, recipient);
+        }
+        return sealBox(signedMessageBytes, recipient);
+    }
+
+    private static byte[] sealBox(byte[] signedMessageBytes, byte[] recipient) throws CipherException {
         byte[] cipherTextBytes = new byte[Box.SEALBYTES + signedMessageBytes.length];
         if (!SODIUM.cryptoBoxSeal(cipherTextBytes, signedMessageBytes, signedMessageBytes.length, recipient)) {
             throw new CipherException("Could not encrypt message.");
@@ -81,6 +167,16 @@ public final class SodiumCipher implements Cipher {
     }
 
     private byte[] decrypt(byte[] message, byte[] sender) throws CipherException {
+        if (isSharedKeyMessage(message)) {
+            byte[] plain = unbox(message, sender);
+            // A sealed message can start with the marker by chance, so fall back to opening it as one
+            if (plain != null) {
+                return plain;
+            }
+        }
+        if (message.length < Box.SEALBYTES) {
+            throw new CipherException("Could not decrypt signed message.");
+        }
         byte[] messageBytes = new byte[message.length - Box.SEALBYTES];
         if (!SODIUM.cryptoBoxSealOpen(messageBytes, message, message.length, keyPair.getPublicKey().getAsBytes(), keyPair.getSecretKey().getAsBytes())) {
             throw new CipherException("Could not decrypt signed message.");
@@ -92,6 +188,103 @@ public final class SodiumCipher implements Cipher {
         return signedMessage.contents;
     }
 
+    /**
+     * @param peer public key
+     * @return key shared with the peer, or null if messages to the peer should be sealed
+     */
+    private byte[] sharedKeyFor(byte[] peer) throws CipherException {
+        PublicKey peerKey = new PublicKey(peer);
+        byte[] sharedKey = sharedKeys.get(peerKey);
+        if (sharedKey == null && mode == CipherMode.SHARED_KEY) {
+            sharedKey = computeSharedKey(peer);
+            sharedKeys.put(peerKey, sharedKey);
+        }
+        return sharedKey;
+    }
+
+    private byte[] computeSharedKey(byte[] peer) throws CipherException {
+        byte[] sharedKey = new byte[Box.BEFORENMBYTES];
+        if (!SODIUM.cryptoBoxBeforeNm(sharedKey, peer, keyPair.getSecretKey().getAsBytes())) {
+            throw new CipherException("Could not compute shared key.");
+        }
+        return sharedKey;
+    }
+
+    private byte[] box(byte[] plain, byte[] sharedKey, byte[] recipient) throws CipherException {
+        byte[] nonce = SODIUM.randomBytesBuf(Box.NONCEBYTES);
+        if (sortsFirst(keyPair.getPublicKey().getAsBytes(), recipient)) {
+            nonce[0] |= DIRECTION_BIT;
+        } else {
+            nonce[0] &= ~DIRECTION_BIT;
+        }
+        byte[] cipherText = new byte[Box.MACBYTES + plain.length];
+        if (!SODIUM.cryptoBoxEasyAfterNm(cipherText, plain, plain.length, nonce, sharedKey)) {
+            throw new CipherException("Could not encrypt message.");
+        }
+        ByteBuffer buffer = ByteBuffer.allocate(SHARED_KEY_HEADER_SIZE + cipherText.length);
+        buffer.putInt(SHARED_KEY_MARKER);
+        buffer.put(nonce);
+        buffer.put(cipherText);
+        return buffer.array();
+    }
+
+    /**
+     * Open a shared key message and remember that the sender uses shared keys
+     * @return plain text or null if the message could not be opened
+     * @throws CipherException if the message was not sent by the sender, such as one of our own sent back to us
+     */
+    private byte[] unbox(byte[] message, byte[] sender) throws CipherException {
+        PublicKey senderKey = new PublicKey(sender);
+        byte[] sharedKey = sharedKeys.get(senderKey);
+        boolean cached = sharedKey != null;
+        if (!cached) {
+            sharedKey = computeSharedKey(sender);
+        }
+        byte[] nonce = Arrays.copyOfRange(message, 4, SHARED_KEY_HEADER_SIZE);
+        int cipherTextLength = message.length - SHARED_KEY_HEADER_SIZE;
+        byte[] cipherText = Arrays.copyOfRange(message, SHARED_KEY_HEADER_SIZE, message.length);
+        byte[] plain = new byte[cipherTextLength - Box.MACBYTES];
+        if (!SODIUM.cryptoBoxOpenEasyAfterNm(plain, cipherText, cipherTextLength, nonce, sharedKey)) {
+            return null;
+        }
+        // The nonce is authenticated by the box, so the direction cannot have been changed on the way
+        if (((nonce[0] & DIRECTION_BIT) != 0) != sortsFirst(sender, keyPair.getPublicKey().getAsBytes())) {
+            throw new CipherException("Could not verify sender of message.");
+        }
+        if (!cached) {
+            sharedKeys.put(senderKey, sharedKey);
+        }
+        return plain;
+    }
+
+    /**
+     * @return if the key sorts before the other, comparing unsigned bytes
+     */
+    private static boolean sortsFirst(byte[] key, byte[] other) {
+        for (int i = 0; i < Math.min(key.length, other.length); i++) {
+            int compared = Integer.compare(key[i] & 0xff, other[i] & 0xff);
+            if (compared != 0) {
+                return compared < 0;
+            }
+        }
+        return key.length < other.length;
+    }
+
+    private static boolean isSharedKeyMessage(byte[] message) {
+        return message.length >= SHARED_KEY_HEADER_SIZE + Box.MACBYTES && ByteBuffer.wrap(message).getInt() == SHARED_KEY_MARKER;
+    }
+
+    private static final class EncryptFailedException extends RuntimeException {
+        EncryptFailedException(CipherException cause) {
+            super(cause);
+        }
+
+        @Override
+        public synchronized CipherException getCause() {
+            return (CipherException) super.getCause();
+        }
+    }
+
     public static KeyPair generateKeyPair() throws CipherException {
         try {
             return SODIUM.cryptoBoxKeypair();
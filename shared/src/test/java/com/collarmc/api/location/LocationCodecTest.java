@@ -0,0 +1,75 @@
+package com.collarmc.api.location;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.Optional;
+
+public class LocationCodecTest {
+
+    private static final double ACCURACY = 0.5 / LocationCodec.SCALE;
+
+    @Test
+    public void deltasAgainstKeyframe() {
+        LocationCodec.Encoder encoder = new LocationCodec.Encoder(100);
+        LocationCodec.Decoder decoder = new LocationCodec.Decoder();
+        Location start = new Location(-1234.56, 64.0, 29999984.2, Dimension.OVERWORLD);
+        byte[] keyframe = encoder.encode(start).orElseThrow(IllegalStateException::new);
+        assertClose(start, decoder.decode(keyframe).orElseThrow(IllegalStateException::new));
+        for (int i = 1; i < 50; i++) {
+            Location moved = new Location(start.x + i * 0.43, start.y - i * 0.1, start.z - i * 1.7, Dimension.OVERWORLD);
+            byte[] delta = encoder.encode(moved).orElseThrow(IllegalStateException::new);
+            Assert.assertTrue("delta is " + delta.length + " bytes", delta.length < keyframe.length);
+            assertClose(moved, decoder.decode(delta).orElseThrow(IllegalStateException::new));
+        }
+        Assert.assertTrue(keyframe.length < start.serialize().length / 2);
+    }
+
+    @Test
+    public void stationaryPlayersOnlySendKeyframes() {
+        LocationCodec.Encoder encoder = new LocationCodec.Encoder(5);
+        Location location = new Location(10.0, 70.0, -10.0, Dimension.NETHER);
+        int sent = 0;
+        for (int i = 0; i < 20; i++) {
+            // Movement below the codec's accuracy is not sent
+            Location jitter = new Location(location.x + (i % 2) * 0.001, location.y, location.z, location.dimension);
+            if (encoder.encode(jitter).isPresent()) {
+                sent++;
+            }
+        }
+        Assert.assertEquals(4, sent);
+    }
+
+    @Test
+    public void deltasWithoutTheirKeyframeAreSkipped() {
+        LocationCodec.Encoder encoder = new LocationCodec.Encoder(2);
+        encoder.encode(new Location(0.0, 0.0, 0.0, Dimension.END));
+        byte[] delta = encoder.encode(new Location(1.0, 0.0, 0.0, Dimension.END)).orElseThrow(IllegalStateException::new);
+        LocationCodec.Decoder decoder = new LocationCodec.Decoder();
+        Assert.assertFalse(decoder.decode(delta).isPresent());
+
+        byte[] keyframe = encoder.encode(new Location(2.0, 0.0, 0.0, Dimension.END)).orElseThrow(IllegalStateException::new);
+        Assert.assertFalse(decoder.decode(delta).isPresent());
+        Optional<Location> decoded = decoder.decode(keyframe);
+        Assert.assertEquals(new Location(2.0, 0.0, 0.0, Dimension.END), decoded.orElse(null));
+
+        // Changing dimension is a keyframe
+        byte[] changed = encoder.encode(new Location(2.0, 0.0, 0.0, Dimension.OVERWORLD)).orElseThrow(IllegalStateException::new);
+        Assert.assertEquals(new Location(2.0, 0.0, 0.0, Dimension.OVERWORLD), new LocationCodec.Decoder().decode(changed).orElse(null));
+    }
+
+    @Test
+    public void unknownLocation() {
+        byte[] bytes = new LocationCodec.Encoder().encode(Location.UNKNOWN).orElseThrow(IllegalStateException::new);
+        Assert.assertTrue(LocationCodec.isEncoded(bytes));
+        Assert.assertFalse(LocationCodec.isEncoded(Location.UNKNOWN.serialize()));
+        Assert.assertSame(Location.UNKNOWN, new LocationCodec.Decoder().decode(bytes).orElse(null));
+    }
+
+    private static void assertClose(Location expected, Location actual) {
+        Assert.assertEquals(expected.dimension, actual.dimension);
+        Assert.assertEquals(expected.x, actual.x, ACCURACY);
+        Assert.assertEquals(expected.y, actual.y, ACCURACY);
+        Assert.assertEquals(expected.z, actual.z, ACCURACY);
+    }
+}
@@ -0,0 +1,73 @@
+package com.collarmc.api.location;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.time.Duration;
+import java.util.concurrent.atomic.AtomicLong;
+
+public class LocationPublishSchedulerTest {
+
+    private final AtomicLong now = new AtomicLong();
+
+    @Test
+    public void stationaryPlayerIsPublishedAtMaxInterval() {
+        LocationPublishScheduler scheduler = new LocationPublishScheduler(new LocationPublishSettings(2, 10, 1, 4, 16), now::get);
+        Location location = new Location(0d, 64d, 0d, Dimension.OVERWORLD);
+        Assert.assertEquals(3, publishes(scheduler, location, 0, 0, 30));
+        Assert.assertEquals(10, scheduler.stats().averageInterval, 0.001);
+        Assert.assertEquals(2, scheduler.stats().publishesPerSecond(), 0.001);
+    }
+
+    @Test
+    public void fasterPlayerIsPublishedMoreOften() {
+        LocationPublishScheduler walking = new LocationPublishScheduler(new LocationPublishSettings(2, 10, 1, 4, 16), now::get);
+        LocationPublishScheduler sprinting = new LocationPublishScheduler(new LocationPublishSettings(2, 10, 1, 4, 16), now::get);
+        Location location = new Location(0d, 64d, 0d, Dimension.OVERWORLD);
+        int walked = publishes(walking, location, 0.25, 0, 40);
+        int sprinted = publishes(sprinting, location, 0.5, 0, 40);
+        Assert.assertEquals(10, walked);
+        Assert.assertEquals(20, sprinted);
+        Assert.assertEquals(2, sprinting.stats().averageInterval, 0.001);
+    }
+
+    @Test
+    public void backsOffWhenAskedOrSocketIsBehind() {
+        LocationPublishScheduler scheduler = new LocationPublishScheduler(new LocationPublishSettings(2, 10, 1, 4, 16), now::get);
+        Location location = new Location(0d, 64d, 0d, Dimension.OVERWORLD);
+        Assert.assertEquals(20, publishes(scheduler, location, 1, 0, 40));
+
+        scheduler.backoff(Duration.ofSeconds(5));
+        Assert.assertEquals(5, publishes(scheduler, location, 1, 0, 40));
+        Assert.assertTrue(scheduler.stats().backingOff);
+
+        now.addAndGet(5000);
+        Assert.assertEquals(5, publishes(scheduler, location, 1, 16, 40));
+        Assert.assertEquals(20, publishes(scheduler, location, 1, 0, 40));
+        Assert.assertFalse(scheduler.stats().backingOff);
+    }
+
+    @Test
+    public void resetPublishesAfterMinInterval() {
+        LocationPublishScheduler scheduler = new LocationPublishScheduler(new LocationPublishSettings(2, 10, 1, 4, 16), now::get);
+        Location location = new Location(0d, 64d, 0d, Dimension.OVERWORLD);
+        Assert.assertEquals(1, publishes(scheduler, location, 0, 0, 5));
+        scheduler.reset();
+        Assert.assertTrue(scheduler.tick(location, 0));
+    }
+
+    /**
+     * Moves the player along x every tick
+     * @return number of ticks the location was published on
+     */
+    private static int publishes(LocationPublishScheduler scheduler, Location start, double blocksPerTick, int pendingSends, int ticks) {
+        int published = 0;
+        for (int i = 1; i <= ticks; i++) {
+            Location location = new Location(start.x + blocksPerTick * i, start.y, start.z, start.dimension);
+            if (scheduler.tick(location, pendingSends)) {
+                published++;
+            }
+        }
+        return published;
+    }
+}
@@ -0,0 +1,71 @@
+package com.collarmc.io;
+
+import com.collarmc.protocol.PacketIO;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.*;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.UUID;
+
+public class IOTest {
+    @Test
+    public void slicesShareTheBuffer() throws IOException {
+        UUID id = UUID.randomUUID();
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (DataOutputStream dataStream = new DataOutputStream(bytes)) {
+            IO.writeUUID(dataStream, id);
+            IO.writeBytes(dataStream, "hello".getBytes(StandardCharsets.UTF_8));
+            IO.writeBytes(dataStream, "world".getBytes(StandardCharsets.UTF_8));
+        }
+        ByteBuffer buffer = ByteBuffer.wrap(bytes.toByteArray());
+        Assert.assertEquals(id, IO.readUUID(buffer));
+        ByteBuffer hello = IO.readSlice(buffer);
+        Assert.assertEquals(5, hello.remaining());
+        Assert.assertSame(buffer.array(), hello.array());
+        try (DataInputStream dataStream = new DataInputStream(IO.inputStream(buffer))) {
+            Assert.assertEquals("world", new String(IO.readBytes(dataStream), StandardCharsets.UTF_8));
+        }
+        Assert.assertFalse(buffer.hasRemaining());
+    }
+
+    @Test
+    public void varInts() {
+        int[] values = {0, 1, 127, 128, 16383, 16384, Short.MAX_VALUE, Integer.MAX_VALUE};
+        ByteBuffer buffer = ByteBuffer.allocate(64);
+        int size = 0;
+        for (int value : values) {
+            IO.writeVarInt(buffer, value);
+            size += IO.varIntSize(value);
+        }
+        Assert.assertEquals(size, buffer.position());
+        buffer.flip();
+        for (int value : values) {
+            Assert.assertEquals(value, IO.readVarInt(buffer));
+        }
+        Assert.assertFalse(buffer.hasRemaining());
+    }
+
+    @Test(expected = BufferUnderflowException.class)
+    public void truncatedSlice() {
+        ByteBuffer buffer = ByteBuffer.allocate(8);
+        buffer.putInt(10).flip();
+        IO.readSlice(buffer);
+    }
+
+    @Test
+    public void toByteBufferGrowsToFit() throws IOException {
+        byte[] bytes = new byte[PacketIO.MAX_PACKET_SIZE];
+        bytes[bytes.length - 1] = 1;
+        ByteBuffer buffer = IO.toByteBuffer(new BufferedInputStream(new ByteArrayInputStream(bytes), 100));
+        Assert.assertEquals(bytes.length, buffer.remaining());
+        Assert.assertEquals(1, buffer.get(bytes.length - 1));
+    }
+
+    @Test(expected = IOException.class)
+    public void toByteBufferRejectsOversizedStreams() throws IOException {
+        IO.toByteBuffer(new ByteArrayInputStream(new byte[PacketIO.MAX_PACKET_SIZE + 1]));
+    }
+}
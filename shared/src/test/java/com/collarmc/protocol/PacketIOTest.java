@@ -0,0 +1,164 @@
+package com.collarmc.protocol;
+
+import com.collarmc.api.identity.ClientIdentity;
+import com.collarmc.api.identity.ServerIdentity;
+import com.collarmc.protocol.identity.GetProfileRequest;
+import com.collarmc.protocol.keepalive.KeepAliveRequest;
+import com.collarmc.protocol.location.UpdateLocationRequest;
+import com.collarmc.protocol.session.BatchRequest;
+import com.collarmc.security.CollarIdentity;
+import com.collarmc.security.messages.SodiumCipher;
+import com.collarmc.utils.Utils;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+
+public class PacketIOTest {
+
+    @Test
+    public void plainPacketKeepsWireFormat() throws Exception {
+        PacketIO packetIO = new PacketIO(Utils.messagePackMapper(), null);
+        KeepAliveRequest request = new KeepAliveRequest();
+        byte[] bytes = packetIO.encodePlain(request);
+
+        ByteArrayOutputStream expected = new ByteArrayOutputStream();
+        try (DataOutputStream dataStream = new DataOutputStream(expected)) {
+            dataStream.writeInt(0x22);
+            dataStream.writeInt(2);
+            dataStream.writeInt(0xc001);
+            dataStream.write(Utils.messagePackMapper().writeValueAsBytes(request));
+        }
+        Assert.assertArrayEquals(expected.toByteArray(), bytes);
+
+        Assert.assertTrue(packetIO.decode(null, bytes, 0, bytes.length, ProtocolRequest.class).orElseThrow(IllegalStateException::new) instanceof KeepAliveRequest);
+        Assert.assertTrue(packetIO.decode(null, new ByteArrayInputStream(bytes), ProtocolRequest.class).orElseThrow(IllegalStateException::new) instanceof KeepAliveRequest);
+
+        byte[] padded = new byte[bytes.length + 8];
+        System.arraycopy(bytes, 0, padded, 4, bytes.length);
+        ByteBuffer slice = ByteBuffer.wrap(padded, 4, bytes.length).slice();
+        Assert.assertTrue(packetIO.decode(null, slice, ProtocolRequest.class).orElseThrow(IllegalStateException::new) instanceof KeepAliveRequest);
+        Assert.assertEquals(0, slice.position());
+
+        ByteBuffer direct = ByteBuffer.allocateDirect(bytes.length);
+        direct.put(bytes).flip();
+        Assert.assertTrue(packetIO.decode(null, direct, ProtocolRequest.class).orElseThrow(IllegalStateException::new) instanceof KeepAliveRequest);
+    }
+
+    @Test
+    public void encryptedPacketRoundTrip() throws Exception {
+        CollarIdentity server = CollarIdentity.createServerIdentity();
+        CollarIdentity bob = CollarIdentity.createClientIdentity(UUID.randomUUID(), server.serverIdentity);
+        ClientIdentity bobIdentity = new ClientIdentity(bob.id, bob.publicKey());
+        PacketIO bobPackets = new PacketIO(Utils.messagePackMapper(), new SodiumCipher(bob.keyPair, false));
+        PacketIO serverPackets = new PacketIO(Utils.messagePackMapper(), new SodiumCipher(server.keyPair, true));
+
+        byte[] bytes = bobPackets.encodeEncrypted(new ServerIdentity(server.id, server.publicKey()), new KeepAliveRequest());
+        Assert.assertArrayEquals(new byte[] {0, 0, 0, 0x22, 0, 0, 0, 2, 0, 0x0b, (byte) 0xa5, (byte) 0xed}, Arrays.copyOf(bytes, 12));
+        Assert.assertTrue(serverPackets.decode(bobIdentity, bytes, 0, bytes.length, ProtocolRequest.class).orElseThrow(IllegalStateException::new) instanceof KeepAliveRequest);
+    }
+
+    @Test
+    public void preparedPacketSealedForEachRecipient() throws Exception {
+        CollarIdentity server = CollarIdentity.createServerIdentity();
+        CollarIdentity bob = CollarIdentity.createClientIdentity(UUID.randomUUID(), server.serverIdentity);
+        CollarIdentity alice = CollarIdentity.createClientIdentity(UUID.randomUUID(), server.serverIdentity);
+        ServerIdentity serverIdentity = new ServerIdentity(server.id, server.publicKey());
+        PacketIO serverPackets = new PacketIO(Utils.messagePackMapper(), new SodiumCipher(server.keyPair, true));
+
+        PacketIO.PreparedPacket packet = serverPackets.prepareEncrypted(new KeepAliveRequest());
+        for (CollarIdentity recipient : new CollarIdentity[] {bob, alice}) {
+            byte[] bytes = serverPackets.encodeEncrypted(new ClientIdentity(recipient.id, recipient.publicKey()), packet);
+            PacketIO recipientPackets = new PacketIO(Utils.messagePackMapper(), new SodiumCipher(recipient.keyPair, false));
+            Assert.assertTrue(recipientPackets.decode(serverIdentity, bytes, 0, bytes.length, ProtocolRequest.class).orElseThrow(IllegalStateException::new) instanceof KeepAliveRequest);
+        }
+    }
+
+    @Test
+    public void packetIdsReplaceClassNames() throws Exception {
+        PacketIO legacyPackets = new PacketIO(Utils.messagePackMapper(), null);
+        PacketIO compactPackets = new PacketIO(Utils.messagePackMapper(), null, PacketTypes.defaults());
+        UUID group = UUID.randomUUID();
+        UpdateLocationRequest request = new UpdateLocationRequest(group, new byte[] {1, 2, 3});
+
+        byte[] legacy = legacyPackets.encodePlain(request);
+        byte[] compact = compactPackets.encodePlain(request);
+        Assert.assertEquals(PacketIO.VERSION_CLASS_NAMES, PacketIO.version(legacy, 0, legacy.length));
+        Assert.assertEquals(PacketIO.VERSION_PACKET_IDS, PacketIO.version(compact, 0, compact.length));
+        Assert.assertTrue(compact.length < legacy.length);
+
+        // Packets of both versions are read
+        for (byte[] bytes : new byte[][] {legacy, compact}) {
+            UpdateLocationRequest decoded = (UpdateLocationRequest) compactPackets.decode(null, bytes, 0, bytes.length, ProtocolRequest.class).orElseThrow(IllegalStateException::new);
+            Assert.assertEquals(group, decoded.group);
+            Assert.assertArrayEquals(new byte[] {1, 2, 3}, decoded.location);
+        }
+        try {
+            legacyPackets.decode(null, compact, 0, compact.length, ProtocolRequest.class);
+            Assert.fail("legacy packet io read a packet id");
+        } catch (IllegalStateException ignored) {}
+    }
+
+    @Test
+    public void advertisedPacketIds() throws Exception {
+        Map<String, Integer> advertised = PacketTypes.defaults().toMap();
+        advertised.put("com.collarmc.protocol.DoesNotExist", 60000);
+        PacketTypes types = PacketTypes.fromMap(advertised);
+        Assert.assertEquals(PacketTypes.defaults().id(KeepAliveRequest.class), types.id(KeepAliveRequest.class));
+        Assert.assertNull(types.type(60000));
+
+        // Types without an id fall back to class names
+        PacketTypes withoutKeepAlive = PacketTypes.fromMap(Collections.singletonMap(UpdateLocationRequest.class.getName(), 1));
+        PacketIO packets = new PacketIO(Utils.messagePackMapper(), null, withoutKeepAlive);
+        byte[] bytes = packets.encodePlain(new KeepAliveRequest());
+        Assert.assertTrue(packets.decode(null, bytes, 0, bytes.length, ProtocolRequest.class).orElseThrow(IllegalStateException::new) instanceof KeepAliveRequest);
+    }
+
+    @Test
+    public void encryptedPacketIdsRoundTrip() throws Exception {
+        CollarIdentity server = CollarIdentity.createServerIdentity();
+        CollarIdentity bob = CollarIdentity.createClientIdentity(UUID.randomUUID(), server.serverIdentity);
+        ClientIdentity bobIdentity = new ClientIdentity(bob.id, bob.publicKey());
+        PacketIO bobPackets = new PacketIO(Utils.messagePackMapper(), new SodiumCipher(bob.keyPair, false), PacketTypes.defaults());
+        PacketIO serverPackets = new PacketIO(Utils.messagePackMapper(), new SodiumCipher(server.keyPair, true), PacketTypes.defaults());
+
+        UUID profile = UUID.randomUUID();
+        byte[] bytes = bobPackets.encodeEncrypted(new ServerIdentity(server.id, server.publicKey()), new GetProfileRequest(profile));
+        Assert.assertEquals(PacketIO.VERSION_PACKET_IDS, PacketIO.version(bytes, 0, bytes.length));
+        GetProfileRequest decoded = (GetProfileRequest) serverPackets.decode(bobIdentity, bytes, 0, bytes.length, ProtocolRequest.class).orElseThrow(IllegalStateException::new);
+        Assert.assertEquals(profile, decoded.profile);
+    }
+
+    @Test
+    public void batchCarriesRequestsInOrder() throws Exception {
+        UUID group = UUID.randomUUID();
+        for (PacketIO packets : new PacketIO[] {new PacketIO(Utils.messagePackMapper(), null), new PacketIO(Utils.messagePackMapper(), null, PacketTypes.defaults())}) {
+            BatchRequest batch = BatchRequest.pack(packets, Arrays.asList(new KeepAliveRequest(), new UpdateLocationRequest(group, new byte[] {1, 2, 3})));
+            byte[] bytes = packets.encodePlain(batch);
+            BatchRequest decoded = (BatchRequest) packets.decode(null, bytes, 0, bytes.length, ProtocolRequest.class).orElseThrow(IllegalStateException::new);
+            List<ProtocolRequest> requests = decoded.unpack(packets);
+            Assert.assertEquals(2, requests.size());
+            Assert.assertTrue(requests.get(0) instanceof KeepAliveRequest);
+            Assert.assertEquals(group, ((UpdateLocationRequest) requests.get(1)).group);
+            Assert.assertArrayEquals(new byte[] {1, 2, 3}, ((UpdateLocationRequest) requests.get(1)).location);
+        }
+        PacketIO packets = new PacketIO(Utils.messagePackMapper(), null, PacketTypes.defaults());
+        BatchRequest nested = new BatchRequest(Collections.singletonList(packets.writeBody(new BatchRequest(Collections.<byte[]>emptyList()))));
+        try {
+            nested.unpack(packets);
+            Assert.fail("nested batch was unpacked");
+        } catch (IllegalStateException ignored) {}
+    }
+
+    static {
+        SodiumCipher.loadLibrary(false);
+    }
+}
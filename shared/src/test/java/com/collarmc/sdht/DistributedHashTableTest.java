@@ -4,6 +4,7 @@ import com.collarmc.api.identity.ClientIdentity;
 import com.collarmc.sdht.cipher.ContentCipher;
 import com.collarmc.sdht.events.AbstractSDHTEvent;
 import com.collarmc.sdht.events.Publisher;
+import com.collarmc.sdht.events.SyncContentEvent;
 import com.collarmc.sdht.impl.DHTNamespaceState;
 import com.collarmc.sdht.impl.DefaultDistributedHashTable;
 import com.collarmc.security.TokenGenerator;
@@ -15,10 +16,10 @@ import org.junit.Assert;
 import org.junit.Before;
 import org.junit.Test;
 
+import java.io.File;
 import java.nio.charset.StandardCharsets;
-import java.util.Date;
-import java.util.Optional;
-import java.util.UUID;
+import java.util.*;
+import java.util.stream.Collectors;
 
 public class DistributedHashTableTest {
     private DistributedHashTable table;
@@ -73,6 +74,147 @@ public class DistributedHashTableTest {
         Assert.assertEquals("content was removed", removedContent.state, State.DELETED);
     }
 
+    @Test
+    public void changesSurviveReopening() {
+        File home = Files.createTempDir();
+        DHTNamespaceState state = new DHTNamespaceState(home, 4);
+        DistributedHashTable table = new DefaultDistributedHashTable(new PublisherImpl(), () -> new ClientIdentity(UUID.randomUUID(), null), cipher, state, new DistributedHashTableListenerImpl());
+        UUID namespace = UUID.randomUUID();
+        Key deletedKey = new Key(namespace, UUID.randomUUID());
+        table.put(deletedKey, Content.from(TokenGenerator.byteToken(16), String.class));
+        Set<Key> keys = new HashSet<>();
+        for (int i = 0; i < 6; i++) {
+            Key key = new Key(namespace, UUID.randomUUID());
+            table.put(key, Content.from(TokenGenerator.byteToken(16), String.class));
+            keys.add(key);
+        }
+        table.delete(deletedKey);
+        state.flush();
+
+        Assert.assertTrue("log was compacted into snapshot", new File(home, namespace + ".dht").exists());
+        Assert.assertFalse("compacted log was removed", new File(home, namespace + ".log").exists());
+
+        Key loggedKey = new Key(namespace, UUID.randomUUID());
+        table.put(loggedKey, Content.from(TokenGenerator.byteToken(16), String.class));
+        keys.add(loggedKey);
+        state.flush();
+        Assert.assertTrue("change was appended to log", new File(home, namespace + ".log").exists());
+
+        DistributedHashTable reopened = new DefaultDistributedHashTable(new PublisherImpl(), () -> new ClientIdentity(UUID.randomUUID(), null), cipher, new DHTNamespaceState(home), new DistributedHashTableListenerImpl());
+        Assert.assertEquals(keys, reopened.records(namespace).stream().map(record -> record.key).collect(Collectors.toSet()));
+        for (Key key : keys) {
+            Assert.assertEquals(table.get(key), reopened.get(key));
+        }
+        Assert.assertFalse("deleted content was not kept", reopened.get(deletedKey).isPresent());
+    }
+
+    @Test
+    public void changesThatCouldNotBeWrittenAreKept() {
+        File home = Files.createTempDir();
+        DHTNamespaceState state = new DHTNamespaceState(home);
+        DistributedHashTable table = new DefaultDistributedHashTable(new PublisherImpl(), () -> new ClientIdentity(UUID.randomUUID(), null), cipher, state, new DistributedHashTableListenerImpl());
+        UUID namespace = UUID.randomUUID();
+        // A directory in place of the log makes appending to it fail
+        File log = new File(home, namespace + ".log");
+        Assert.assertTrue(log.mkdir());
+        Key first = new Key(namespace, UUID.randomUUID());
+        table.put(first, Content.from(TokenGenerator.byteToken(16), String.class));
+        try {
+            state.flush();
+            Assert.fail("log could be appended to");
+        } catch (IllegalStateException ignored) {}
+
+        Assert.assertTrue(log.delete());
+        Key second = new Key(namespace, UUID.randomUUID());
+        table.put(second, Content.from(TokenGenerator.byteToken(16), String.class));
+        table.close();
+
+        DistributedHashTable reopened = new DefaultDistributedHashTable(new PublisherImpl(), () -> new ClientIdentity(UUID.randomUUID(), null), cipher, new DHTNamespaceState(home), new DistributedHashTableListenerImpl());
+        Assert.assertEquals(ImmutableSet.of(first, second), reopened.records(namespace).stream().map(record -> record.key).collect(Collectors.toSet()));
+    }
+
+    @Test
+    public void treeSyncExchangesOnlyDifferingRecords() {
+        QueuePublisher publisherA = new QueuePublisher();
+        QueuePublisher publisherB = new QueuePublisher();
+        ClientIdentity identityA = new ClientIdentity(UUID.randomUUID(), null);
+        ClientIdentity identityB = new ClientIdentity(UUID.randomUUID(), null);
+        DistributedHashTable tableA = new DefaultDistributedHashTable(publisherA, () -> identityA, cipher, new DHTNamespaceState(Files.createTempDir()), new DistributedHashTableListenerImpl());
+        DistributedHashTable tableB = new DefaultDistributedHashTable(publisherB, () -> identityB, cipher, new DHTNamespaceState(Files.createTempDir()), new DistributedHashTableListenerImpl());
+        UUID namespace = UUID.randomUUID();
+        Set<Record> onlyA = new HashSet<>();
+        for (int i = 0; i < 500; i++) {
+            Key key = new Key(namespace, UUID.randomUUID());
+            Content content = Content.from(TokenGenerator.byteToken(16), String.class);
+            tableA.put(key, content);
+            if (i % 100 == 0) {
+                onlyA.add(content.toRecord(key));
+            } else {
+                tableB.put(key, content);
+            }
+        }
+        Key keyB = new Key(namespace, UUID.randomUUID());
+        Content contentB = Content.from(TokenGenerator.byteToken(16), String.class);
+        tableB.put(keyB, contentB);
+        publisherA.events.clear();
+        publisherB.events.clear();
+
+        tableB.sync(namespace);
+        int rounds = 0;
+        while (!publisherA.events.isEmpty() || !publisherB.events.isEmpty()) {
+            Assert.assertTrue("sync finishes", rounds++ < 20);
+            deliver(publisherB, tableA);
+            deliver(publisherA, tableB);
+        }
+
+        Assert.assertEquals(onlyA, requested(tableB));
+        Assert.assertEquals(Collections.singleton(contentB.toRecord(keyB)), requested(tableA));
+    }
+
+    @Test
+    public void treeSyncOfEqualTablesStopsAtRoot() {
+        QueuePublisher publisherA = new QueuePublisher();
+        QueuePublisher publisherB = new QueuePublisher();
+        DistributedHashTable tableA = new DefaultDistributedHashTable(publisherA, () -> new ClientIdentity(UUID.randomUUID(), null), cipher, new DHTNamespaceState(Files.createTempDir()), new DistributedHashTableListenerImpl());
+        DistributedHashTable tableB = new DefaultDistributedHashTable(publisherB, () -> new ClientIdentity(UUID.randomUUID(), null), cipher, new DHTNamespaceState(Files.createTempDir()), new DistributedHashTableListenerImpl());
+        UUID namespace = UUID.randomUUID();
+        for (int i = 0; i < 100; i++) {
+            Key key = new Key(namespace, UUID.randomUUID());
+            Content content = Content.from(TokenGenerator.byteToken(16), String.class);
+            tableA.put(key, content);
+            tableB.put(key, content);
+        }
+        publisherA.events.clear();
+        publisherB.events.clear();
+
+        tableB.sync(namespace);
+        deliver(publisherB, tableA);
+        Assert.assertTrue("nothing is sent back", publisherA.events.isEmpty());
+    }
+
+    private static Set<Record> requested(DistributedHashTable table) {
+        return table.fetcher.poll().stream().flatMap(request -> request.records.stream()).collect(Collectors.toSet());
+    }
+
+    private static void deliver(QueuePublisher from, DistributedHashTable to) {
+        List<AbstractSDHTEvent> events = new ArrayList<>(from.events);
+        from.events.clear();
+        events.forEach(to::process);
+    }
+
+    @Test
+    public void singleRecordRequestsAreReadableByOlderNodes() {
+        ClientIdentity identity = new ClientIdentity(UUID.randomUUID(), null);
+        Record record = new Record(new Key(UUID.randomUUID(), UUID.randomUUID()), new byte[32], 1);
+        SyncContentEvent single = new SyncContentEvent(identity, identity, Collections.singletonList(record));
+        Assert.assertEquals("older nodes only read the record field", record, single.record);
+        Assert.assertNull(single.records);
+        Assert.assertEquals(Collections.singletonList(record), single.allRecords());
+
+        List<Record> records = Arrays.asList(record, new Record(new Key(UUID.randomUUID(), UUID.randomUUID()), new byte[32], 1));
+        Assert.assertEquals(records, new SyncContentEvent(identity, identity, records).allRecords());
+    }
+
     @Test
     public void contentRoundTrip() {
         String value = "hello world";
@@ -97,6 +239,16 @@ public class DistributedHashTableTest {
         }
     }
 
+    public static final class QueuePublisher implements Publisher {
+
+        final List<AbstractSDHTEvent> events = new ArrayList<>();
+
+        @Override
+        public void publish(AbstractSDHTEvent event) {
+            events.add(event);
+        }
+    }
+
     public static final class DistributedHashTableListenerImpl implements DistributedHashTableListener {
         @Override
         public void onAdd(Key key, Content content) {
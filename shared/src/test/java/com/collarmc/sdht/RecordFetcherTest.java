@@ -0,0 +1,77 @@
+package com.collarmc.sdht;
+
+import com.collarmc.api.identity.ClientIdentity;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.atomic.AtomicLong;
+
+public class RecordFetcherTest {
+
+    private final AtomicLong now = new AtomicLong();
+
+    @Test
+    public void windowIsFilledInBatches() {
+        RecordFetcher fetcher = new RecordFetcher(new FetchSettings(10, 4, Duration.ofSeconds(5), 3), now::get);
+        ClientIdentity source = identity();
+        for (int i = 0; i < 25; i++) {
+            fetcher.offer(record(), source, true);
+        }
+        List<RecordFetcher.Request> requests = fetcher.poll();
+        Assert.assertEquals(3, requests.size());
+        Assert.assertEquals(4, requests.get(0).records.size());
+        Assert.assertEquals(2, requests.get(2).records.size());
+        Assert.assertEquals(15, fetcher.progress().pending);
+        Assert.assertEquals(10, fetcher.progress().inFlight);
+        Assert.assertTrue("window is full", fetcher.poll().isEmpty());
+
+        requests.get(0).records.forEach(fetcher::received);
+        Assert.assertEquals(4, fetcher.poll().stream().mapToInt(request -> request.records.size()).sum());
+        Assert.assertEquals(4, fetcher.progress().completed);
+        Assert.assertEquals(21, fetcher.progress().remaining());
+    }
+
+    @Test
+    public void timedOutRecordsAreAskedOfAnotherSource() {
+        RecordFetcher fetcher = new RecordFetcher(new FetchSettings(10, 4, Duration.ofSeconds(5), 2), now::get);
+        ClientIdentity first = identity();
+        ClientIdentity second = identity();
+        Record record = record();
+        fetcher.offer(record, first, true);
+        fetcher.offer(record, second, true);
+
+        ClientIdentity asked = fetcher.poll().get(0).source;
+        now.addAndGet(Duration.ofSeconds(5).toMillis());
+        List<RecordFetcher.Request> retried = fetcher.poll();
+        Assert.assertEquals(1, retried.size());
+        Assert.assertNotEquals(asked, retried.get(0).source);
+
+        fetcher.unavailable(record, retried.get(0).source);
+        Assert.assertTrue("gave up after every source and attempt", fetcher.poll().isEmpty());
+        Assert.assertEquals(1, fetcher.progress().failed);
+        Assert.assertTrue(fetcher.progress().isSynced());
+    }
+
+    @Test
+    public void olderSourcesAreAskedForOneRecordAtATime() {
+        RecordFetcher fetcher = new RecordFetcher(new FetchSettings(10, 4, Duration.ofSeconds(5), 3), now::get);
+        ClientIdentity source = identity();
+        for (int i = 0; i < 3; i++) {
+            fetcher.offer(record(), source, false);
+        }
+        List<RecordFetcher.Request> requests = fetcher.poll();
+        Assert.assertEquals(3, requests.size());
+        requests.forEach(request -> Assert.assertEquals(1, request.records.size()));
+    }
+
+    private static ClientIdentity identity() {
+        return new ClientIdentity(UUID.randomUUID(), null);
+    }
+
+    private static Record record() {
+        return new Record(new Key(UUID.randomUUID(), UUID.randomUUID()), new byte[32], 1);
+    }
+}
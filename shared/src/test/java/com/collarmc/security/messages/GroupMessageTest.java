@@ -1,10 +1,17 @@
 package com.collarmc.security.messages;
 
+import com.collarmc.api.identity.ClientIdentity;
+import com.collarmc.protocol.location.LocationUpdatedResponse;
+import com.collarmc.protocol.messaging.SendMessageResponse;
+import com.collarmc.security.CollarIdentity;
+import com.collarmc.utils.Utils;
+import com.fasterxml.jackson.databind.ObjectMapper;
 import org.junit.Assert;
 import org.junit.Test;
 
+import java.nio.ByteBuffer;
 import java.nio.charset.StandardCharsets;
-import java.util.UUID;
+import java.util.*;
 
 public class GroupMessageTest {
     @Test
@@ -16,4 +23,102 @@ public class GroupMessageTest {
         Assert.assertEquals(recipient, deserialized.recipient);
         Assert.assertEquals("contents", new String(deserialized.contents, StandardCharsets.UTF_8));
     }
+
+    @Test
+    public void envelope() {
+        UUID first = UUID.randomUUID();
+        UUID second = UUID.randomUUID();
+        GroupMessageEnvelope envelope = new GroupMessageEnvelope(Arrays.asList(
+                new GroupMessage(first, "first".getBytes(StandardCharsets.UTF_8)),
+                new GroupMessage(second, "second".getBytes(StandardCharsets.UTF_8))
+        ));
+        byte[] bytes = envelope.serialize();
+        Assert.assertEquals("older servers only read the first version", 1, ByteBuffer.wrap(bytes).getInt());
+        for (byte[] serialized : Arrays.asList(bytes, envelope.serialize(true))) {
+            GroupMessageEnvelope deserialized = new GroupMessageEnvelope(serialized);
+            Assert.assertEquals(2, deserialized.messages.size());
+            Assert.assertEquals("first", new String(deserialized.messages.get(first).contents, StandardCharsets.UTF_8));
+            Assert.assertEquals("second", new String(deserialized.messages.get(second).contents, StandardCharsets.UTF_8));
+            GroupMessageEnvelope.View view = GroupMessageEnvelope.view(serialized);
+            Assert.assertEquals(new HashSet<>(Arrays.asList(first, second)), view.recipients());
+        }
+        Assert.assertTrue("compact envelopes are smaller", envelope.serialize(true).length < bytes.length);
+    }
+
+    @Test
+    public void readsVersionOneEnvelopes() {
+        UUID recipient = UUID.randomUUID();
+        GroupMessage message = new GroupMessage(recipient, "contents".getBytes(StandardCharsets.UTF_8));
+        byte[] serialized = message.serialize();
+        ByteBuffer buffer = ByteBuffer.allocate(4 + 4 + 4 + serialized.length);
+        buffer.putInt(1).putInt(1).putInt(serialized.length).put(serialized);
+        GroupMessageEnvelope envelope = new GroupMessageEnvelope(buffer.array());
+        Assert.assertEquals("contents", new String(envelope.messages.get(recipient).contents, StandardCharsets.UTF_8));
+        Assert.assertTrue(GroupMessageEnvelope.view(buffer.array()).contains(recipient));
+    }
+
+    @Test
+    public void groupSessionEncryptsForEveryOtherMember() throws Exception {
+        SodiumCipher.loadLibrary(false);
+        CollarIdentity server = CollarIdentity.createServerIdentity();
+        CollarIdentity self = CollarIdentity.createClientIdentity(UUID.randomUUID(), server.serverIdentity);
+        ClientIdentity selfIdentity = new ClientIdentity(self.id, self.publicKey());
+        Map<ClientIdentity, Cipher> members = new HashMap<>();
+        // Large enough to be sealed in parallel
+        for (int i = 0; i < 40; i++) {
+            CollarIdentity member = CollarIdentity.createClientIdentity(UUID.randomUUID(), server.serverIdentity);
+            members.put(new ClientIdentity(member.id, member.publicKey()), new SodiumCipher(member.keyPair, false));
+        }
+        Set<ClientIdentity> recipients = new HashSet<>(members.keySet());
+        recipients.add(selfIdentity);
+        IdentityStore<ClientIdentity> store = new IdentityStore<ClientIdentity>() {
+            @Override
+            public ClientIdentity identity() {
+                return selfIdentity;
+            }
+
+            @Override
+            public Cipher cipher() {
+                return new SodiumCipher(self.keyPair, false);
+            }
+        };
+        GroupSession session = new GroupSession(UUID.randomUUID(), store, self, recipients);
+        GroupMessageEnvelope envelope = new GroupMessageEnvelope(session.encrypt("hello".getBytes(StandardCharsets.UTF_8)));
+        Assert.assertEquals(members.size(), envelope.messages.size());
+        Assert.assertFalse(envelope.messages.containsKey(self.id));
+        for (Map.Entry<ClientIdentity, Cipher> member : members.entrySet()) {
+            byte[] contents = envelope.messages.get(member.getKey().id()).contents;
+            Assert.assertEquals("hello", new String(member.getValue().decrypt(contents, selfIdentity), StandardCharsets.UTF_8));
+        }
+    }
+
+    @Test
+    public void relayFromView() throws Exception {
+        UUID first = UUID.randomUUID();
+        UUID second = UUID.randomUUID();
+        byte[] bytes = new GroupMessageEnvelope(Arrays.asList(
+                new GroupMessage(first, "first".getBytes(StandardCharsets.UTF_8)),
+                new GroupMessage(second, "second".getBytes(StandardCharsets.UTF_8))
+        )).serialize();
+        GroupMessageEnvelope.View view = GroupMessageEnvelope.view(bytes);
+        Assert.assertEquals(new HashSet<>(Arrays.asList(first, second)), view.recipients());
+        Assert.assertFalse(view.contents(UUID.randomUUID()).isPresent());
+        ByteBuffer contents = view.contents(second).orElseThrow(IllegalStateException::new);
+        Assert.assertSame("shares the envelope bytes", bytes, contents.array());
+
+        ObjectMapper mapper = Utils.messagePackMapper();
+        SendMessageResponse relayed = SendMessageResponse.relay(null, UUID.randomUUID(), null, contents);
+        SendMessageResponse received = mapper.readValue(mapper.writeValueAsBytes(relayed), SendMessageResponse.class);
+        Assert.assertEquals("second", new String(received.message(), StandardCharsets.UTF_8));
+        Assert.assertEquals("relaying does not consume the slice", 6, contents.remaining());
+        try {
+            relayed.message();
+            Assert.fail("relayed message was read");
+        } catch (IllegalStateException ignored) {}
+
+        LocationUpdatedResponse stopped = mapper.readValue(mapper.writeValueAsBytes(new LocationUpdatedResponse(UUID.randomUUID(), null, null)), LocationUpdatedResponse.class);
+        Assert.assertNull(stopped.location());
+        LocationUpdatedResponse location = mapper.readValue(mapper.writeValueAsBytes(LocationUpdatedResponse.relay(UUID.randomUUID(), null, contents)), LocationUpdatedResponse.class);
+        Assert.assertEquals("second", new String(location.location(), StandardCharsets.UTF_8));
+    }
 }
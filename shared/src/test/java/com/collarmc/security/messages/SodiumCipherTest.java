@@ -1,7 +1,9 @@
 package com.collarmc.security.messages;
 
+import com.collarmc.api.identity.ClientIdentity;
 import com.collarmc.security.CollarIdentity;
 import com.collarmc.security.TokenGenerator;
+import com.goterl.lazysodium.interfaces.Box;
 import org.junit.Assert;
 import org.junit.Before;
 import org.junit.Test;
@@ -105,6 +107,76 @@ public class SodiumCipherTest {
         }
     }
 
+    @Test
+    public void sharedKeyMessagesAreAnsweredWithSharedKeys() throws Exception {
+        int sharedKeyOverhead = 4 + Box.NONCEBYTES + Box.MACBYTES;
+        Cipher aliceSharedKeys = new SodiumCipher(alice.keyPair, false, CipherMode.SHARED_KEY, new SharedKeyCache());
+        byte[] message = TokenGenerator.byteToken(256);
+
+        // Bob seals messages until alice uses a shared key with him
+        Assert.assertNotEquals(message.length + sharedKeyOverhead, bobCipher.encrypt(message, alice.publicKey()).length);
+
+        byte[] cipherText = aliceSharedKeys.encrypt(message, bob.publicKey());
+        Assert.assertEquals(message.length + sharedKeyOverhead, cipherText.length);
+        Assert.assertArrayEquals(message, bobCipher.decrypt(cipherText, alice.publicKey()));
+        try {
+            eveCipher.decrypt(cipherText, alice.publicKey());
+            fail("eve could read alices message to bob!");
+        } catch (CipherException ignored) {}
+        try {
+            // Only alice can have sent it
+            bobCipher.decrypt(cipherText, eve.publicKey());
+            fail("bob accepted alices message as eves!");
+        } catch (CipherException ignored) {}
+
+        byte[] reply = bobCipher.encrypt(message, alice.publicKey());
+        Assert.assertEquals(message.length + sharedKeyOverhead, reply.length);
+        Assert.assertArrayEquals(message, aliceSharedKeys.decrypt(reply, bob.publicKey()));
+        Assert.assertArrayEquals(message, aliceSharedKeys.decrypt(bobCipher.seal(bobCipher.sign(message), new ClientIdentity(alice.id, alice.publicKey())), bob.publicKey()));
+
+        // Self storage is always sealed
+        Assert.assertNotEquals(message.length + sharedKeyOverhead, aliceSharedKeys.encrypt(message).length);
+    }
+
+    @Test
+    public void reflectedSharedKeyMessagesAreRejected() throws Exception {
+        Cipher aliceSharedKeys = new SodiumCipher(alice.keyPair, false, CipherMode.SHARED_KEY, new SharedKeyCache());
+        Cipher bobSharedKeys = new SodiumCipher(bob.keyPair, false, CipherMode.SHARED_KEY, new SharedKeyCache());
+        byte[] message = TokenGenerator.byteToken(256);
+        byte[] toBob = aliceSharedKeys.encrypt(message, bob.publicKey());
+        Assert.assertArrayEquals(message, bobSharedKeys.decrypt(toBob, alice.publicKey()));
+        try {
+            // Alice and bob share the same key, so without the direction alice would accept her own message as bob's
+            aliceSharedKeys.decrypt(toBob, bob.publicKey());
+            fail("alice accepted her own message as bobs!");
+        } catch (CipherException ignored) {}
+        byte[] toAlice = bobSharedKeys.encrypt(message, alice.publicKey());
+        Assert.assertArrayEquals(message, aliceSharedKeys.decrypt(toAlice, bob.publicKey()));
+        try {
+            bobSharedKeys.decrypt(toAlice, alice.publicKey());
+            fail("bob accepted his own message as alices!");
+        } catch (CipherException ignored) {}
+    }
+
+    @Test
+    public void mutatedSharedKeyMessages() throws Exception {
+        Cipher aliceSharedKeys = new SodiumCipher(alice.keyPair, false, CipherMode.SHARED_KEY, new SharedKeyCache());
+        byte[] token = TokenGenerator.byteToken(1024);
+        byte[] bytes = aliceSharedKeys.encrypt(token, bob.publicKey());
+        for (int i = 0; i < bytes.length; i++) {
+            try {
+                bytes[i]++;
+                bobCipher.decrypt(bytes, alice.publicKey());
+                fail("CipherException was not thrown");
+            } catch (CipherException ex) {
+                continue;
+            } finally {
+                bytes[i]--;
+            }
+        }
+        Assert.assertArrayEquals(token, bobCipher.decrypt(bytes, alice.publicKey()));
+    }
+
     static {
         SodiumCipher.loadLibrary(false);
     }